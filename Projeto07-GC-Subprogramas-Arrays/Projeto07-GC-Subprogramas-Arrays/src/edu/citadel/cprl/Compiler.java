@@ -80,15 +80,29 @@ public class Compiler {
      * This method drives the compilation process.
      *
      * @param args must include the name of the CPRL source file, either the
-     * complete file name or the base file name with suffix ".cprl" omitted.
+     * complete file name or the base file name with suffix ".cprl" omitted,
+     * optionally preceded by -g and -nocheck.
      */
     public static void main( String args[] ) throws Exception {
         
-        if ( args.length == 0 || args.length > 1 ) {
+        if ( args.length == 0 ) {
             printUsageAndExit();
         }
 
-        String fileName = args[0];
+        AST.setBoundsChecks( true );
+        AST.setCompareBranches( true );
+
+        for ( int i = 0; i < args.length - 1; ++i ) {
+            if ( args[i].equals( "-g" ) ) {
+                AST.setDebugInfo( true );
+            } else if ( args[i].equals( "-nocheck" ) ) {
+                AST.setBoundsChecks( false );
+            } else {
+                printUsageAndExit();
+            }
+        }
+
+        String fileName = args[args.length - 1];
         File sourceFile = new File( fileName );
 
         if ( !sourceFile.isFile() ) {
@@ -148,7 +162,10 @@ public class Compiler {
     }
 
     private static void printUsageAndExit() {
-        System.out.println( "Usage: java edu.citadel.cprl.Compiler <source file>" );
+        System.out.println( "Usage: java edu.citadel.cprl.Compiler <options> <source file>" );
+        System.out.println( "where the options are omitted or are the following:" );
+        System.out.println( "-g         Records source lines and subprogram names in the object file" );
+        System.out.println( "-nocheck   Does not check array indexes at run time" );
         System.out.println();
         System.exit( 0 );
     }
@@ -1,6 +1,10 @@
 package edu.citadel.cprl;
 
+import edu.citadel.cprl.ast.Expression;
 import edu.citadel.cprl.ast.LoopStmt;
+import edu.citadel.cprl.ast.NamedDecl;
+import edu.citadel.cprl.ast.NamedValue;
+import java.util.List;
 import java.util.Stack;
 
 /**
@@ -42,5 +46,32 @@ public final class LoopContext {
             loopStack.pop();
         }
     }
+
+    /**
+     * Registra, em todos os laços que estão sendo analisados, uma variável
+     * que pode ser modificada (por uma atribuição ou uma instrução read).
+     */
+    public void addModifiedVar( NamedDecl decl ) {
+        for ( LoopStmt loopStmt : loopStack ) {
+            loopStmt.addModifiedVar( decl );
+        }
+    }
+
+    /**
+     * Registra, em todos os laços que estão sendo analisados, uma chamada de
+     * subprograma. As variáveis passadas como parâmetros reais podem ser
+     * modificadas pelo subprograma.
+     */
+    public void addCall( List<Expression> actualParams ) {
+        for ( LoopStmt loopStmt : loopStack ) {
+            loopStmt.setCallsSubprograms();
+        }
+
+        for ( Expression expr : actualParams ) {
+            if ( expr instanceof NamedValue ) {
+                addModifiedVar( ( (NamedValue) expr ).getDecl() );
+            }
+        }
+    }
     
 }
@@ -578,7 +578,15 @@ public class Parser {
         List<Statement> statements = new ArrayList<>();
         
         while ( scanner.getSymbol().isStmtStarter() ) {
-            statements.add( parseStatement() );
+            Position position = scanner.getToken().getPosition();
+            Statement stmt = parseStatement();
+            if ( stmt != null ) {
+                stmt.setPosition( position );
+            }
+            if ( stmt instanceof LoopStmt && !statements.isEmpty() ) {
+                ( (LoopStmt) stmt ).setPreviousStmt( statements.get( statements.size() - 1 ) );
+            }
+            statements.add( stmt );
         }
         
         return statements;
@@ -680,6 +688,7 @@ public class Parser {
             Expression expr = parseExpression();
             match( Symbol.semicolon );
             
+            loopContext.addModifiedVar( variable.getDecl() );
             return new AssignmentStmt( variable, expr, assignPosition );
             
         } catch ( ParserException e ) {
@@ -822,6 +831,7 @@ public class Parser {
             Variable variable = parseVariableExpr();
             match( Symbol.semicolon );
             
+            loopContext.addModifiedVar( variable.getDecl() );
             return new ReadStmt( variable );
             
         } catch ( ParserException e ) {
@@ -923,6 +933,7 @@ public class Parser {
             
             match( Symbol.semicolon );
             
+            loopContext.addCall( actualParams );
             return new ProcedureCallStmt( 
                     procId, actualParams, 
                     (ProcedureDecl) idTable.get( procId ) );
@@ -1295,6 +1306,7 @@ public class Parser {
                 actualParams.addAll( parseActualParameters() );
             }
             
+            loopContext.addCall( actualParams );
             return new FunctionCall( funcId, actualParams, (FunctionDecl) idTable.get( funcId ) );
             
         } catch ( ParserException e ) {
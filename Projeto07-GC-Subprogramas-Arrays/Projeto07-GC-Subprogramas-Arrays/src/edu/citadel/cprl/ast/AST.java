@@ -21,6 +21,16 @@ public abstract class AST {
 
     // número da label atual para controle de fluxo
     private static int currentLabelNum = -1;
+
+    // emite as diretivas LINE e NAME para o montador
+    private static boolean debugInfo = false;
+
+    // emite a instrução CHKIDX para os índices de arrays
+    private static boolean boundsChecks = false;
+
+    // emite as instruções de comparação e desvio (BEQW, BLT2B etc.) ao invés
+    // de CMP seguida de um desvio
+    private static boolean compareBranches = false;
     
     /**
      * Configura o PrintWriter que será usado para a geração de código.
@@ -29,6 +39,55 @@ public abstract class AST {
         AST.pwOut = out;
     }
 
+    /**
+     * Habilita ou desabilita a emissão das informações de depuração: a linha
+     * de cada instrução (diretiva LINE) e o nome de cada subprograma (diretiva
+     * NAME), que o montador registra no arquivo objeto.
+     */
+    public static void setDebugInfo( boolean debugInfo ) {
+        AST.debugInfo = debugInfo;
+    }
+
+    /**
+     * Retorna true se as informações de depuração devem ser emitidas.
+     */
+    protected static boolean isDebugInfo() {
+        return debugInfo;
+    }
+
+    /**
+     * Habilita ou desabilita a verificação dos índices de arrays em tempo de
+     * execução (instrução CHKIDX). As verificações que o compilador prova
+     * redundantes não são emitidas (veja IndexChecks).
+     */
+    public static void setBoundsChecks( boolean boundsChecks ) {
+        AST.boundsChecks = boundsChecks;
+    }
+
+    /**
+     * Retorna true se os índices de arrays devem ser verificados.
+     */
+    protected static boolean isBoundsChecks() {
+        return boundsChecks;
+    }
+
+    /**
+     * Habilita ou desabilita a emissão das instruções que comparam dois
+     * operandos e desviam (BEQW, BLT2B, BGEB etc.) nas expressões relacionais,
+     * que dispensam a instrução CMP e os bytes de preenchimento dos operandos
+     * dos tipos Char e Boolean.
+     */
+    public static void setCompareBranches( boolean compareBranches ) {
+        AST.compareBranches = compareBranches;
+    }
+
+    /**
+     * Retorna true se as instruções de comparação e desvio devem ser emitidas.
+     */
+    protected static boolean isCompareBranches() {
+        return compareBranches;
+    }
+
     /**
      * Cria/retorna uma nova ConstraintException com a posição específica e
      * uma mensagem.
@@ -111,6 +170,9 @@ public abstract class AST {
      * única linha.
      */
     protected void emitLabel( String label ) {
+        // o fluxo de controle pode se juntar em uma label
+        IndexChecks.forgetChecks();
+
         if ( pwOut != null ) {
             pwOut.println( label + ":" );
         } else {
@@ -92,6 +92,7 @@ public class ElsifPart extends AST {
 
         // emit code for statements
         for ( Statement stmt : thenStmts ) {
+            stmt.emitStart();
             stmt.emit();
         }
 
@@ -98,6 +98,9 @@ public class FunctionCall extends Expression {
         }
 
         emit( "CALL " + funcDecl.getSubprogramLabel() );
+
+        // the function may modify the variables of index expressions
+        IndexChecks.forgetChecks();
         
     }
     
@@ -133,7 +133,7 @@ public class FunctionDecl extends SubprogramDecl {
         // allocate space on the stack for the return value
         setRelativeAddresses();
 
-        emitLabel( getSubprogramLabel() );
+        emitSubprogramLabel();
         emit( "PROC " + getVarLength() );
         getStatementPart().emit();
                 
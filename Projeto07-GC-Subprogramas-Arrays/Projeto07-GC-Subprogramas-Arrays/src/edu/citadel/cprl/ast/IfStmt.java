@@ -123,6 +123,7 @@ public class IfStmt extends Statement {
 
         // emit code for then statements
         for ( Statement stmt : thenStmts ) {
+            stmt.emitStart();
             stmt.emit();
         }
 
@@ -142,6 +143,7 @@ public class IfStmt extends Statement {
 
         // emit code for else statements
         for ( Statement stmt : elseStmts ) {
+            stmt.emitStart();
             stmt.emit();
         }
 
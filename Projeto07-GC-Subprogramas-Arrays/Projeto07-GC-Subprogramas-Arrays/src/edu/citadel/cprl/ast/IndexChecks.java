@@ -0,0 +1,142 @@
+package edu.citadel.cprl.ast;
+
+import edu.citadel.cprl.Type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which array index expressions need a bounds check (CHKIDX) during
+ * code generation. A check is redundant for a constant index within the
+ * bounds of the array, for an index that was already checked against the
+ * same or a smaller number of elements earlier in the same statement, and
+ * for the counter of an enclosing counted loop whose limit does not exceed
+ * the number of elements (see LoopStmt).
+ *
+ * Checks are remembered only along straight-line code: they are forgotten at
+ * the start of each statement, at each label, and after each call, which may
+ * modify the variables of an index expression.
+ */
+final class IndexChecks {
+
+    // index expression key -> smallest number of elements checked against
+    private static final Map<Object, Integer> checked = new HashMap<>();
+
+    // counter of an enclosing counted loop -> exclusive upper bound
+    private static final Map<NamedDecl, Integer> loopLimits = new HashMap<>();
+
+    private IndexChecks() {
+    }
+
+    /**
+     * Returns true if the value of the index expression is known to be in the
+     * range 0 to numElements - 1.
+     */
+    static boolean isRedundant( Expression indexExpr, int numElements ) {
+
+        if ( indexExpr instanceof ConstValue ) {
+            int index = ( (ConstValue) indexExpr ).getLiteralIntValue();
+            return index >= 0 && index < numElements;
+        }
+
+        NamedDecl counter = getScalarDecl( indexExpr );
+        Integer limit = counter == null ? null : loopLimits.get( counter );
+        if ( limit != null && limit <= numElements ) {
+            return true;
+        }
+
+        Object key = getKey( indexExpr );
+        Integer checkedElements = key == null ? null : checked.get( key );
+        return checkedElements != null && checkedElements <= numElements;
+
+    }
+
+    /**
+     * Records that the index expression was checked against the specified
+     * number of elements.
+     */
+    static void recordCheck( Expression indexExpr, int numElements ) {
+        Object key = getKey( indexExpr );
+        if ( key != null ) {
+            checked.merge( key, numElements, Math::min );
+        }
+    }
+
+    /**
+     * Forgets the checks recorded so far.
+     */
+    static void forgetChecks() {
+        checked.clear();
+    }
+
+    /**
+     * Records the limit of a counted loop while its body is generated and
+     * returns the previous limit for the counter (or null).
+     */
+    static Integer enterLoop( NamedDecl counter, int limit ) {
+        return loopLimits.put( counter, limit );
+    }
+
+    /**
+     * Restores the limit returned by enterLoop() at the end of the loop body.
+     */
+    static void exitLoop( NamedDecl counter, Integer previousLimit ) {
+        if ( previousLimit == null ) {
+            loopLimits.remove( counter );
+        } else {
+            loopLimits.put( counter, previousLimit );
+        }
+    }
+
+    /**
+     * Returns the declaration of a named value of type Integer without index
+     * expressions, or null if the expression is something else.
+     */
+    static NamedDecl getScalarDecl( Expression expr ) {
+        if ( expr instanceof NamedValue && ( (NamedValue) expr ).getIndexExprs().isEmpty()
+                && expr.getType() == Type.Integer ) {
+            return ( (NamedValue) expr ).getDecl();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a key that is equal for equal index expressions without calls,
+     * whose values can't change within a statement until its final store or
+     * a call; returns null for any other expression.
+     */
+    private static Object getKey( Expression expr ) {
+
+        if ( expr instanceof ConstValue ) {
+            return ( (ConstValue) expr ).getLiteralIntValue();
+        } else if ( expr instanceof NamedValue ) {
+            NamedValue namedValue = (NamedValue) expr;
+            List<Object> key = new ArrayList<>();
+            key.add( namedValue.getDecl() );
+            for ( Expression indexExpr : namedValue.getIndexExprs() ) {
+                Object indexKey = getKey( indexExpr );
+                if ( indexKey == null ) {
+                    return null;
+                }
+                key.add( indexKey );
+            }
+            return key;
+        } else if ( expr instanceof AddingExpr || expr instanceof MultiplyingExpr ) {
+            BinaryExpr binaryExpr = (BinaryExpr) expr;
+            Object leftKey = getKey( binaryExpr.getLeftOperand() );
+            Object rightKey = getKey( binaryExpr.getRightOperand() );
+            if ( leftKey == null || rightKey == null ) {
+                return null;
+            }
+            return Arrays.asList( binaryExpr.getOperator().getSymbol(), leftKey, rightKey );
+        } else {
+            return null;
+        }
+
+    }
+
+}
@@ -3,8 +3,11 @@ package edu.citadel.cprl.ast;
 import edu.citadel.compiler.CodeGenException;
 import edu.citadel.compiler.ConstraintException;
 import edu.citadel.compiler.ErrorHandler;
+import edu.citadel.cprl.ScopeLevel;
+import edu.citadel.cprl.Symbol;
 import edu.citadel.cprl.Type;
 import java.util.ArrayList;
+import java.util.Collections;
 
 import java.util.List;
 
@@ -20,6 +23,12 @@ public class LoopStmt extends Statement {
     private String L1;    // label for start of loop
     private String L2;    // label for end of loop
 
+    // statement before the loop and variables that the body may modify,
+    // recorded by the parser for bounds check elimination
+    private Statement previousStmt;
+    private List<NamedDecl> modifiedVars;
+    private boolean callsSubprograms;
+
     /**
      * Default constructor. Construct a loop statement with a null "while"
      * expression and an empty list of statements for the loop body.
@@ -28,6 +37,7 @@ public class LoopStmt extends Statement {
         
         whileExpr = null;
         statements = new ArrayList<>();
+        modifiedVars = new ArrayList<>();
         
         L1 = getNewLabel();
         L2 = getNewLabel();
@@ -55,6 +65,29 @@ public class LoopStmt extends Statement {
         this.statements = statements;
     }
 
+    /**
+     * Set the statement that precedes this loop statement in its list of
+     * statements.
+     */
+    public void setPreviousStmt( Statement previousStmt ) {
+        this.previousStmt = previousStmt;
+    }
+
+    /**
+     * Records a variable that may be modified by the body of this loop, by an
+     * assignment, a read statement, or as an actual parameter.
+     */
+    public void addModifiedVar( NamedDecl decl ) {
+        modifiedVars.add( decl );
+    }
+
+    /**
+     * Records that the body of this loop calls a subprogram.
+     */
+    public void setCallsSubprograms() {
+        callsSubprograms = true;
+    }
+
     /**
      * Returns the label for the end of the loop statement.
      */
@@ -111,15 +144,138 @@ public class LoopStmt extends Statement {
             whileExpr.emitBranch( false, L2 );
         }
 
+        NamedDecl counter = isBoundsChecks() ? getCounter() : null;
+        Integer previousLimit = null;
+        if ( counter != null ) {
+            previousLimit = IndexChecks.enterLoop( counter, getLimit() );
+        }
+
         for ( Statement stmt : statements ) {
+            stmt.emitStart();
             stmt.emit();
         }
 
+        if ( counter != null ) {
+            IndexChecks.exitLoop( counter, previousLimit );
+        }
+
         emit( "BR " + L1 );
 
         // L2:
         emitLabel( L2 );
         
     }
+
+    /**
+     * Returns the counter of a counted loop of the form
+     * 
+     *     i := c0; while i &lt; limit loop ... i := i + c; end loop;
+     * 
+     * (or with "&lt;="), where i is a variable, c0, c and the limit are
+     * constants with c0 &gt;= 0 and c &gt;= 0, and the last statement of the
+     * body is the only one that may modify i. The value of i is then in the
+     * range 0 to limit - 1 everywhere in the body. Returns null if the loop
+     * does not have this form.
+     */
+    private NamedDecl getCounter() {
+
+        if ( !( whileExpr instanceof RelationalExpr ) || statements.isEmpty() ) {
+            return null;
+        }
+
+        RelationalExpr relExpr = (RelationalExpr) whileExpr;
+        Symbol operatorSym = relExpr.getOperator().getSymbol();
+        NamedDecl counter = IndexChecks.getScalarDecl( relExpr.getLeftOperand() );
+
+        if ( ( operatorSym != Symbol.lessThan && operatorSym != Symbol.lessOrEqual )
+                || !( counter instanceof SingleVarDecl )
+                || !( relExpr.getRightOperand() instanceof ConstValue ) || getLimit() < 0 ) {
+            return null;
+        }
+
+        // a local counter is modified only by the body, but a global counter
+        // can also be modified by a called subprogram or, in a subprogram,
+        // through a var parameter that was passed the counter
+        if ( Collections.frequency( modifiedVars, counter ) != 1
+                || ( counter.getScopeLevel() == ScopeLevel.PROGRAM
+                        && ( callsSubprograms || modifiesVarParams() ) ) ) {
+            return null;
+        }
+
+        Integer initialValue = getAssignedConst( previousStmt, counter, null );
+        Integer step = getAssignedConst( statements.get( statements.size() - 1 ), counter, Symbol.plus );
+
+        if ( initialValue == null || initialValue < 0 || step == null || step < 0
+                || (long) getLimit() - 1 + step > Integer.MAX_VALUE ) {
+            return null;
+        }
+
+        return counter;
+
+    }
+
+    /**
+     * Returns true if the body of this loop may modify a var parameter.
+     */
+    private boolean modifiesVarParams() {
+        for ( NamedDecl decl : modifiedVars ) {
+            if ( decl instanceof ParameterDecl && ( (ParameterDecl) decl ).isVarParam() ) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the exclusive upper bound of the counter of a counted loop, or
+     * -1 if it does not fit in an integer.
+     */
+    private int getLimit() {
+        RelationalExpr relExpr = (RelationalExpr) whileExpr;
+        int limit = ( (ConstValue) relExpr.getRightOperand() ).getLiteralIntValue();
+
+        if ( relExpr.getOperator().getSymbol() == Symbol.lessThan ) {
+            return limit;
+        } else {
+            return limit == Integer.MAX_VALUE ? -1 : limit + 1;
+        }
+    }
+
+    /**
+     * If the statement is "i := c" (for a null operator) or "i := i op c" for
+     * the variable i, returns the value of the constant c; otherwise returns
+     * null.
+     */
+    private static Integer getAssignedConst( Statement stmt, NamedDecl var, Symbol operatorSym ) {
+
+        if ( !( stmt instanceof AssignmentStmt ) ) {
+            return null;
+        }
+
+        AssignmentStmt assignStmt = (AssignmentStmt) stmt;
+        Variable variable = assignStmt.getVariable();
+        Expression expr = assignStmt.getExpr();
+
+        if ( variable.getDecl() != var || !variable.getIndexExprs().isEmpty() ) {
+            return null;
+        }
+
+        if ( operatorSym != null ) {
+            if ( !( expr instanceof AddingExpr )
+                    || ( (AddingExpr) expr ).getOperator().getSymbol() != operatorSym
+                    || IndexChecks.getScalarDecl( ( (AddingExpr) expr ).getLeftOperand() ) != var ) {
+                return null;
+            }
+            expr = ( (AddingExpr) expr ).getRightOperand();
+        }
+
+        if ( expr instanceof ConstValue && expr.getType() == Type.Integer ) {
+            return ( (ConstValue) expr ).getLiteralIntValue();
+        } else {
+            return null;
+        }
+
+    }
     
 }
@@ -107,6 +107,9 @@ public class ProcedureCallStmt extends Statement {
         }
         
         emit( "CALL " + procDecl.getSubprogramLabel() );
+
+        // the procedure may modify the variables of index expressions
+        IndexChecks.forgetChecks();
         
         // </editor-fold>
         
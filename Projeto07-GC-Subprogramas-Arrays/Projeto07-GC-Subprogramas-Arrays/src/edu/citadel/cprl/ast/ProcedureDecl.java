@@ -22,7 +22,7 @@ public class ProcedureDecl extends SubprogramDecl {
         
         setRelativeAddresses();
 
-        emitLabel( getSubprogramLabel() );
+        emitSubprogramLabel();
         emit( "PROC " + getVarLength() );
         getStatementPart().emit();
         emit( "RET " + getParamLength() );
@@ -109,6 +109,13 @@ public class RelationalExpr extends BinaryExpr {
         
         Token operator = getOperator();
 
+        if ( isCompareBranches() ) {
+            getLeftOperand().emit();
+            getRightOperand().emit();
+            emit( getCompareBranch( condition ) + " " + label );
+            return;
+        }
+
         emitOperands();
         emit( "CMP" );
 
@@ -132,6 +139,45 @@ public class RelationalExpr extends BinaryExpr {
         
     }
 
+    /**
+     * Returns the compare-and-branch opcode that branches when the value of
+     * this relational expression equals condition. The suffix of the opcode
+     * is the type of the operands (W, 2B, or B), which are not padded.
+     */
+    private String getCompareBranch( boolean condition ) throws CodeGenException {
+        
+        Token operator = getOperator();
+        Symbol operatorSym = operator.getSymbol();
+        String relation;
+
+        if ( operatorSym == Symbol.equals ) {
+            relation = condition ? "EQ" : "NE";
+        } else if ( operatorSym == Symbol.notEqual ) {
+            relation = condition ? "NE" : "EQ";
+        } else if ( operatorSym == Symbol.lessThan ) {
+            relation = condition ? "LT" : "GE";
+        } else if ( operatorSym == Symbol.lessOrEqual ) {
+            relation = condition ? "LE" : "GT";
+        } else if ( operatorSym == Symbol.greaterThan ) {
+            relation = condition ? "GT" : "LE";
+        } else if ( operatorSym == Symbol.greaterOrEqual ) {
+            relation = condition ? "GE" : "LT";
+        } else {
+            throw new CodeGenException( operator.getPosition(), "Invalid relational operator." );
+        }
+
+        int numBytes = getLeftOperand().getType().getSize();
+
+        if ( numBytes == 4 ) {
+            return "B" + relation + "W";
+        } else if ( numBytes == 2 ) {
+            return "B" + relation + "2B";
+        } else {
+            return "B" + relation + "B";
+        }
+        
+    }
+
     private void emitOperands() throws CodeGenException {
         
         Expression leftOperand = getLeftOperand();
@@ -1,7 +1,35 @@
 package edu.citadel.cprl.ast;
 
+import edu.citadel.compiler.Position;
+
 /**
  * Base class for all CPRL statements.
  */
 public abstract class Statement extends AST {
+
+    // position of the start of the statement (used for debugging information)
+    private Position position;
+
+    public Position getPosition() {
+        return position;
+    }
+
+    public void setPosition( Position position ) {
+        this.position = position;
+    }
+
+    /**
+     * Called before the code of the statement is emitted. Emits a LINE
+     * directive with the source line of the statement, if debugging
+     * information is enabled, and forgets the index checks of the previous
+     * statement.
+     */
+    protected void emitStart() {
+        IndexChecks.forgetChecks();
+
+        if ( isDebugInfo() && position != null ) {
+            emit( "LINE " + position.getLineNumber() );
+        }
+    }
+
 }
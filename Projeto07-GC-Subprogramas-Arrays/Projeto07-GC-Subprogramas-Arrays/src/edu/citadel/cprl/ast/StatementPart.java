@@ -35,6 +35,7 @@ public class StatementPart extends AST {
     public void emit() throws CodeGenException {
         
         for ( Statement stmt : statements ) {
+            stmt.emitStart();
             stmt.emit();
         }
         
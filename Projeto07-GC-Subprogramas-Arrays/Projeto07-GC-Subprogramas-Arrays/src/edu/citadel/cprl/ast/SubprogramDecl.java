@@ -81,6 +81,17 @@ public abstract class SubprogramDecl extends Declaration {
         return varLength;
     }
 
+    /**
+     * Emits the label of the subprogram, preceded by a NAME directive with
+     * its name if debugging information is enabled.
+     */
+    protected void emitSubprogramLabel() {
+        if ( isDebugInfo() ) {
+            emit( "NAME \"" + getIdToken().getText() + "\"" );
+        }
+        emitLabel( getSubprogramLabel() );
+    }
+
     /**
      * Returns the label associated with the first statement of the subprogram.
      */
@@ -133,6 +133,9 @@ public class Variable extends Expression {
         for (Expression expressao: indexExprs ) {
             expressao.emit();
             ArrayType arrayType = (ArrayType) declType;
+            if ( isBoundsChecks() ) {
+                emitIndexCheck( expressao, arrayType.getNumElements() );
+            }
             emit("LDCINT " + arrayType.getElementType().getSize());
             emit("MUL");
             emit("ADD");
@@ -142,5 +145,16 @@ public class Variable extends Expression {
         // </editor-fold>
         
     }
+
+    /**
+     * Emits a CHKIDX instruction for the index expression, whose value is on
+     * top of the stack, unless the check is known to be redundant.
+     */
+    private void emitIndexCheck( Expression indexExpr, int numElements ) {
+        if ( !IndexChecks.isRedundant( indexExpr, numElements ) ) {
+            emit( "CHKIDX " + numElements );
+            IndexChecks.recordCheck( indexExpr, numElements );
+        }
+    }
     
 }
@@ -2,10 +2,20 @@ package edu.citadel.cvm;
 
 import edu.citadel.compiler.util.ByteUtil;
 import edu.citadel.compiler.util.StringUtil;
+import edu.citadel.cvm.jit.CompiledCode;
+import edu.citadel.cvm.jit.TieredCompiler;
 
 import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * This class implements a virtual machine for the programming language CPRL. It
@@ -55,25 +65,112 @@ public class CVM {
      */
     private static final int K = 1024;
 
+    /**
+     * 1M = 2**20
+     */
+    private static final int M = K * K;
+
     /**
      * default memory size for the virtual machine
      */
-    private static final int DEFAULT_MEMORY_SIZE = 8 * K;
+    public static final int DEFAULT_MEMORY_SIZE = 8 * K;
+
+    /**
+     * internal opcode of the pre-decoded stream for a code address that is not
+     * the start of an instruction (e.g., a bad branch target)
+     */
+    private static final int INVALID_ADDRESS = 256;
+
+    /**
+     * big-endian int view of the memory array (unaligned access allowed)
+     */
+    private static final VarHandle INT_VIEW
+            = MethodHandles.byteArrayViewVarHandle( int[].class, ByteOrder.BIG_ENDIAN );
+
+    /**
+     * big-endian char view of the memory array (unaligned access allowed)
+     */
+    private static final VarHandle CHAR_VIEW
+            = MethodHandles.byteArrayViewVarHandle( char[].class, ByteOrder.BIG_ENDIAN );
+
+    /**
+     * The engines available for executing the program in memory.
+     */
+    public enum Engine {
+        /**
+         * decodes each instruction from memory every time it is executed
+         */
+        INTERPRETER,
+        /**
+         * decodes the program once at load time into an int stream with
+         * resolved operands and branch targets
+         */
+        PREDECODED,
+        /**
+         * translates the pre-decoded program into instructions on virtual
+         * registers, which hold the values of the stack within basic blocks
+         */
+        REGISTER,
+        /**
+         * runs the pre-decoded program and compiles hot subprograms and loops
+         * to JVM bytecode
+         */
+        TIERED
+    }
+
+    /**
+     * The result of running the program for a number of instructions.
+     */
+    public enum Status {
+        /**
+         * the program executed HALT
+         */
+        HALTED,
+
+        /**
+         * the instruction budget was used up; running again resumes the
+         * program
+         */
+        BUDGET_EXHAUSTED,
+
+        /**
+         * the next instruction reads input but none is available yet; running
+         * again resumes the program
+         */
+        WAITING_FOR_INPUT,
+
+        /**
+         * the program was stopped by a fault; see getFaultMessage()
+         */
+        FAULTED
+    }
+
+    /**
+     * Thrown by error() to stop the running program with a fault.
+     */
+    private static class FaultException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        FaultException( String message ) {
+            super( message, null, false, false );
+        }
+    }
 
     /**
-     * scanner for handling integer input
+     * buffer for integer and char input
      */
-    private Scanner scanner;
+    private final InputBuffer input;
 
     /**
-     * Reader for handling char input
+     * PrintStream for printing registers and memory
      */
-    private Reader reader;
+    private final PrintStream out;
 
     /**
-     * PrintStream for handling output
+     * buffer for the output of the program
      */
-    private PrintStream out;
+    private final OutputBuffer output;
 
     /**
      * computer memory (for the virtual CPRL machine)
@@ -100,16 +197,132 @@ public class CVM {
      */
     private int sb;
 
+    /**
+     * collects execution statistics when not null
+     */
+    private Profiler profiler;
+
+    /**
+     * records a trace of the instructions executed when not null
+     */
+    private Tracer tracer;
+
+    /**
+     * bound on the number of bytes pushed by a frame above its local
+     * variables, checked when frames are created
+     */
+    private int stackBound;
+
+    /**
+     * true if programs are verified when they are loaded
+     */
+    private boolean verify;
+
+    /**
+     * true if the program was loaded without verification, so that every
+     * instruction is checked as it is executed
+     */
+    private boolean checked;
+
     /**
      * true if the virtual computer is currently running
      */
     private boolean running;
 
+    /**
+     * status of the last call to run(), or null if the program has not run
+     */
+    private Status status;
+
+    /**
+     * message of the fault that stopped the program, or null
+     */
+    private String faultMessage;
+
+    /**
+     * number of instructions that can still be executed in the current call
+     * to run()
+     */
+    private long budget;
+
+    /**
+     * true if input instructions wait for input instead of returning
+     * WAITING_FOR_INPUT
+     */
+    private boolean blockingInput;
+
+    /**
+     * engine used to execute the program
+     */
+    private Engine engine;
+
+    /**
+     * pre-decoded instruction stream used by the PREDECODED engine. Each
+     * instruction occupies one slot for the opcode followed by one slot per
+     * decoded operand. The last slot always holds INVALID_ADDRESS.
+     */
+    private int[] code;
+
+    /**
+     * maps a code address to the index of its instruction in the pre-decoded
+     * stream; addresses that do not start an instruction map to the last slot
+     */
+    private int[] addrToIndex;
+
+    /**
+     * maps an index in the pre-decoded stream back to its code address
+     */
+    private int[] indexToAddr;
+
+    /**
+     * register-based form of the program used by the REGISTER engine, or
+     * null if it has not been needed yet
+     */
+    private RegisterCode registerCode;
+
+    /**
+     * register file of the REGISTER engine
+     */
+    private int[] registers;
+
+    /**
+     * the program in memory
+     */
+    private LoadedProgram program;
+
+    /**
+     * string literals of the program, encoded once for PUTSTR
+     */
+    private StringConstants strings;
+
+    /**
+     * compiler for hot regions when running with the TIERED engine; null
+     * otherwise
+     */
+    private TieredCompiler jit;
+
+    /**
+     * number of times a subprogram or loop is entered before it is compiled
+     * by the TIERED engine
+     */
+    private int jitThreshold;
+
+    /**
+     * sp, bp, and the instruction budget passed to compiled code
+     */
+    private final int[] jitRegisters = new int[3];
+
     /**
      * field width for printing memory addresses
      */
     private static final int FIELD_WIDTH = 4;
 
+    // snapshot header: "CVMS", version, sb, image length, pc, bp, status,
+    // input position and surrogate, output position and surrogate
+    private static final int SNAPSHOT_MAGIC = 0x43564D53;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_HEADER_LENGTH = 7 * 4 + 2 * ( 8 + 2 );
+
     /**
      * This method constructs a CPRL virtual machine, loads the byte code from
      * the specified file into memory, and runs the byte code.
@@ -118,40 +331,242 @@ public class CVM {
      * found.
      */
     public static void main( String[] args ) throws FileNotFoundException {
-        if ( args.length != 1 ) {
-            System.err.println( "Usage: java edu.citadel.cvm.CVM filename" );
-            System.exit( 0 );
+        if ( args.length == 0 ) {
+            printUsageAndExit();
+        }
+
+        Engine engine = Engine.INTERPRETER;
+        int jitThreshold = TieredCompiler.DEFAULT_THRESHOLD;
+        int memorySize = 0;
+        boolean verify = true;
+        boolean profile = false;
+        File traceFile = null;
+        int traceLast = 0;
+        int traceSample = 1;
+
+        for ( int i = 0; i < args.length - 1; ++i ) {
+            if ( args[i].equals( "-engine:interpreter" ) ) {
+                engine = Engine.INTERPRETER;
+            } else if ( args[i].equals( "-engine:predecoded" ) ) {
+                engine = Engine.PREDECODED;
+            } else if ( args[i].equals( "-engine:register" ) ) {
+                engine = Engine.REGISTER;
+            } else if ( args[i].equals( "-engine:tiered" ) ) {
+                engine = Engine.TIERED;
+            } else if ( args[i].equals( "-noverify" ) ) {
+                verify = false;
+            } else if ( args[i].equals( "-profile" ) ) {
+                profile = true;
+            } else if ( args[i].startsWith( "-trace:" ) ) {
+                traceFile = new File( args[i].substring( "-trace:".length() ) );
+            } else if ( args[i].startsWith( "-traceLast:" ) ) {
+                traceLast = parsePositive( args[i].substring( "-traceLast:".length() ) );
+            } else if ( args[i].startsWith( "-traceSample:" ) ) {
+                traceSample = parsePositive( args[i].substring( "-traceSample:".length() ) );
+            } else if ( args[i].startsWith( "-memory:" ) ) {
+                memorySize = parseMemorySize( args[i].substring( "-memory:".length() ) );
+            } else if ( args[i].startsWith( "-jitThreshold:" ) ) {
+                try {
+                    jitThreshold = Integer.parseInt( args[i].substring( "-jitThreshold:".length() ) );
+                } catch ( NumberFormatException e ) {
+                    printUsageAndExit();
+                }
+            } else {
+                printUsageAndExit();
+            }
         }
 
-        File sourceFile = new File( args[0] );
+        String fileName = args[args.length - 1];
+        File sourceFile = new File( fileName );
 
         if ( !sourceFile.isFile() ) {
-            System.err.println( "*** File " + args[0] + " not found ***" );
+            System.err.println( "*** File " + fileName + " not found ***" );
+            System.exit( FAILURE );
+        }
+
+        LoadedProgram program = null;
+
+        try {
+            program = LoadedProgram.load( sourceFile );
+        } catch ( IOException e ) {
+            System.err.println( "*** Error reading " + fileName + ": " + e.getMessage() + " ***" );
+            System.exit( FAILURE );
+        }
+
+        // size memory for the code plus the default stack, or the stack of the
+        // main program if that is larger; the frames of subprograms need room
+        // beyond the stack of the main program
+        if ( memorySize == 0 ) {
+            memorySize = program.getSize()
+                    + Math.max( DEFAULT_MEMORY_SIZE, program.getObjectFile().getRequiredStack() );
+        }
+
+        CVM vm = new CVM( memorySize );
+        vm.setEngine( engine );
+        vm.setJitThreshold( jitThreshold );
+        vm.setVerification( verify );
+
+        try {
+            vm.loadProgram( program );
+        } catch ( IllegalArgumentException e ) {
+            System.err.println( e.getMessage() );
+            System.exit( FAILURE );
+        }
+
+        if ( profile ) {
+            vm.setProfiler( new Profiler( program.getSize() ) );
+        }
+
+        if ( traceFile != null ) {
+            try {
+                vm.setTracer( traceLast > 0 ? Tracer.lastRecords( traceFile, traceLast, traceSample )
+                        : Tracer.toFile( traceFile, traceSample ) );
+            } catch ( IOException e ) {
+                System.err.println( "*** Error writing " + traceFile + ": " + e.getMessage() + " ***" );
+                System.exit( FAILURE );
+            }
+        }
+
+        vm.setBlockingInput( true );
+        Status status = vm.run( Long.MAX_VALUE );
+
+        if ( vm.getTracer() != null ) {
+            try {
+                vm.getTracer().close();
+            } catch ( IOException e ) {
+                System.err.println( "*** Error writing " + traceFile + ": " + e.getMessage() + " ***" );
+            }
+        }
+
+        if ( profile ) {
+            printProfile( vm.getProfiler(), program, sourceFile );
+        }
+
+        if ( status == Status.FAULTED ) {
+            System.err.println( vm.getFaultMessage() );
             System.exit( FAILURE );
         }
+    }
+
+    /**
+     * Parses a positive integer option value.
+     */
+    private static int parsePositive( String value ) {
+        try {
+            int n = Integer.parseInt( value );
+            if ( n > 0 ) {
+                return n;
+            }
+        } catch ( NumberFormatException e ) {
+            // fall through
+        }
+
+        printUsageAndExit();
+        return 0;
+    }
+
+    private static void printUsageAndExit() {
+        System.err.println( "Usage: java edu.citadel.cvm.CVM <options> filename" );
+        System.err.println( "where the options are omitted or are among the following:" );
+        System.err.println( "-engine:interpreter   Decodes instructions as they are executed (default)" );
+        System.err.println( "-engine:predecoded    Decodes the program once when it is loaded" );
+        System.err.println( "-engine:register      Runs the program translated to register instructions" );
+        System.err.println( "-engine:tiered        Also compiles hot subprograms and loops to JVM bytecode" );
+        System.err.println( "-jitThreshold:n       Compiles after n calls or loop iterations (tiered engine)" );
+        System.err.println( "-memory:n[K|M]        Sets the memory size in bytes (default code size + 8K)" );
+        System.err.println( "-noverify             Loads without verification and checks each instruction" );
+        System.err.println( "-profile              Prints execution counts to standard error (not compiled)" );
+        System.err.println( "-trace:file           Writes a binary trace to file (not compiled; see TraceDecoder)" );
+        System.err.println( "-traceLast:n          Writes only the last n trace records, when the program stops" );
+        System.err.println( "-traceSample:n        Traces only every nth instruction" );
+        System.err.println();
+        System.exit( 0 );
+    }
+
+    /**
+     * Prints the report of the profiler to standard error, naming addresses
+     * after the symbols of the object file and attributing counts to its
+     * source lines. Object files without symbols fall back to the symbol
+     * file written by older versions of the assembler.
+     */
+    private static void printProfile( Profiler profiler, LoadedProgram program, File objFile ) {
+        Map<Integer, String> symbols = Collections.emptyMap();
+        Map<Integer, Integer> lines = Collections.emptyMap();
 
-        FileInputStream codeFile = new FileInputStream( sourceFile );
+        try {
+            symbols = program.getObjectFile().getSymbols();
+            lines = program.getObjectFile().getLines();
+
+            if ( symbols.isEmpty() ) {
+                String fileName = objFile.getPath();
+                int suffixIndex = fileName.lastIndexOf( '.' );
+                symbols = Profiler.readSymbols( new File(
+                        ( suffixIndex > 0 ? fileName.substring( 0, suffixIndex ) : fileName ) + ".sym" ) );
+            }
+        } catch ( IOException e ) {
+            System.err.println( "*** " + e.getMessage() + " ***" );
+        }
 
-        CVM vm = new CVM( DEFAULT_MEMORY_SIZE );
-        vm.loadProgram( codeFile );
-        vm.run();
+        profiler.printReport( System.err, symbols, lines );
     }
 
     /**
-     * Construct a CPRL virtual machine with a given number of bytes of memory.
+     * Parses a memory size given in bytes, optionally followed by K or M.
+     */
+    private static int parseMemorySize( String size ) {
+        int multiplier = 1;
+
+        if ( size.endsWith( "K" ) || size.endsWith( "k" ) ) {
+            multiplier = K;
+        } else if ( size.endsWith( "M" ) || size.endsWith( "m" ) ) {
+            multiplier = M;
+        }
+
+        if ( multiplier != 1 ) {
+            size = size.substring( 0, size.length() - 1 );
+        }
+
+        try {
+            long numOfBytes = Long.parseLong( size ) * multiplier;
+            if ( numOfBytes > 0 && numOfBytes <= Integer.MAX_VALUE ) {
+                return (int) numOfBytes;
+            }
+        } catch ( NumberFormatException e ) {
+            // reported below
+        }
+
+        printUsageAndExit();
+        return DEFAULT_MEMORY_SIZE;
+    }
+
+    /**
+     * Construct a CPRL virtual machine with a given number of bytes of memory
+     * that reads standard input and writes standard output.
      *
      * @param numOfBytes the number of bytes in memory of the virtual machine
      */
     public CVM( int numOfBytes ) {
-        scanner = new Scanner( System.in );
-        reader = new InputStreamReader( System.in, StandardCharsets.UTF_8 );
-        out = new PrintStream( System.out, true, StandardCharsets.UTF_8 );
+        this( numOfBytes, System.in, System.out );
+    }
 
-        // create and zero out memory
+    /**
+     * Construct a CPRL virtual machine with a given number of bytes of memory
+     * and its own input and output streams, so that many virtual machines
+     * can run in the same JVM. The streams are not closed by the virtual
+     * machine.
+     *
+     * @param numOfBytes the number of bytes in memory of the virtual machine
+     * @param in the stream read by GETINT and GETCH
+     * @param out the stream written by the output instructions and by the
+     * debugging dumps
+     */
+    public CVM( int numOfBytes, InputStream in, OutputStream out ) {
+        this.input = new InputBuffer( in );
+        this.out = new PrintStream( out, true, StandardCharsets.UTF_8 );
+        this.output = new OutputBuffer( out );
+
+        // create memory (already zeroed by the JVM)
         memory = new byte[numOfBytes];
-        for ( int i = 0; i < memory.length; ++i ) {
-            memory[i] = 0;
-        }
 
         // initialize registers
         pc = 0;
@@ -160,29 +575,446 @@ public class CVM {
         sb = 0;
 
         running = false;
+        verify = true;
+        engine = Engine.INTERPRETER;
+        jitThreshold = TieredCompiler.DEFAULT_THRESHOLD;
+    }
+
+    /**
+     * Selects whether programs are verified when they are loaded (the
+     * default). A verified program runs without checks for each
+     * instruction; a program loaded without verification is checked as it
+     * runs, which is slower and does not use the TIERED compiler.
+     */
+    public void setVerification( boolean verify ) {
+        this.verify = verify;
+    }
+
+    /**
+     * Selects the engine used by run() to execute the program.
+     */
+    public void setEngine( Engine engine ) {
+        this.engine = engine;
     }
 
     /**
-     * Loads the program into memory.
+     * Returns the engine used by run() to execute the program.
+     */
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Sets the number of times a subprogram or loop is entered before the
+     * TIERED engine compiles it.
+     */
+    public void setJitThreshold( int jitThreshold ) {
+        this.jitThreshold = jitThreshold;
+    }
+
+    /**
+     * Sets the profiler that counts the instructions executed by run(), or
+     * null to run without profiling. With a profiler, the TIERED engine does
+     * not compile and the REGISTER engine runs the pre-decoded program, so
+     * that every instruction is counted.
+     */
+    public void setProfiler( Profiler profiler ) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Returns the profiler set with setProfiler(), or null.
+     */
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Sets the tracer that records the instructions executed by run(), or
+     * null to run without tracing. With a tracer, the TIERED engine does not
+     * compile and the REGISTER engine runs the pre-decoded program, so that
+     * every instruction is recorded. The tracer is not closed
+     * by the virtual machine.
+     */
+    public void setTracer( Tracer tracer ) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Returns the tracer set with setTracer(), or null.
+     */
+    public Tracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Loads the program into memory, and closes the stream.
      *
      * @param codeFile the FileInputStream containing the object code
+     * @throws IOException if the object code can't be read
+     * @throws IllegalArgumentException if the object code is invalid or the
+     * program does not fit in memory
+     * @throws VerificationException if the program fails verification
      */
-    public void loadProgram( FileInputStream codeFile ) {
-        int address = 0;
-        int inByte;
+    public void loadProgram( FileInputStream codeFile ) throws IOException {
+        try ( FileInputStream in = codeFile ) {
+            loadProgram( LoadedProgram.load( in.getChannel() ) );
+        }
+    }
 
-        try {
-            while ( ( inByte = codeFile.read() ) != -1 ) {
-                memory[address++] = (byte) inByte;
+    /**
+     * Loads the program into memory. The pre-decoded form of the program is
+     * computed only by the first virtual machine that loads it.
+     *
+     * @param program the object code, which can be loaded by many virtual
+     * machines
+     * @throws IllegalArgumentException if the program does not fit in memory
+     * @throws VerificationException if the program fails verification
+     */
+    public void loadProgram( LoadedProgram program ) {
+        if ( program.getSize() > memory.length ) {
+            throw new IllegalArgumentException( "*** Program too large for memory ***" );
+        }
+
+        if ( verify ) {
+            stackBound = program.verify();
+            checked = false;
+        } else {
+            // only the frames themselves are checked when they are created
+            stackBound = 0;
+            checked = true;
+        }
+
+        program.copyTo( memory );
+        pc = 0;
+        bp = program.getSize();
+        sb = program.getSize();
+        sp = bp - 1;
+
+        if ( !program.isDecoded() ) {
+            decodeProgram( program.getStringPool() );
+            program.setDecoded( code, addrToIndex, indexToAddr, strings );
+        }
+
+        code = program.getCode();
+        addrToIndex = program.getAddrToIndex();
+        indexToAddr = program.getIndexToAddr();
+        strings = program.getStrings();
+
+        this.program = program;
+        registerCode = null;
+
+        if ( engine == Engine.REGISTER ) {
+            prepareRegisters();
+        }
+
+        status = null;
+        faultMessage = null;
+        jit = null;
+    }
+
+    /**
+     * Writes a snapshot of the paused program to the file: the registers, the
+     * positions reached in the input and the output, and memory up to sp.
+     * Compiled code and profiles are not saved.
+     */
+    public void saveSnapshot( File file ) throws IOException {
+        try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING ) ) {
+            saveSnapshot( channel );
+        }
+    }
+
+    /**
+     * Writes a snapshot of the paused program at the current position of the
+     * channel. The channel is not closed.
+     *
+     * @throws IllegalStateException if no program is loaded or the program
+     * faulted
+     */
+    public void saveSnapshot( FileChannel channel ) throws IOException {
+        if ( code == null || status == Status.FAULTED ) {
+            throw new IllegalStateException( "*** No program to save ***" );
+        }
+
+        output.flush();
+
+        int imageLength = sp + 1;
+        ByteBuffer header = ByteBuffer.allocate( SNAPSHOT_HEADER_LENGTH );
+        header.putInt( SNAPSHOT_MAGIC );
+        header.putInt( SNAPSHOT_VERSION );
+        header.putInt( sb );
+        header.putInt( imageLength );
+        header.putInt( pc );
+        header.putInt( bp );
+        header.putInt( status == null ? -1 : status.ordinal() );
+        header.putLong( input.getPosition() );
+        header.putChar( input.getPendingSurrogate() );
+        header.putLong( output.getPosition() );
+        header.putChar( output.getPendingSurrogate() );
+        header.flip();
+
+        ByteBuffer[] buffers = { header, ByteBuffer.wrap( memory, 0, imageLength ) };
+        while ( buffers[1].hasRemaining() ) {
+            channel.write( buffers );
+        }
+    }
+
+    /**
+     * Restores a snapshot written by saveSnapshot(), replacing the program in
+     * memory. The input stream of this virtual machine must provide the same
+     * input from its start; the input read before the snapshot is skipped.
+     * The output continues on the output stream of this virtual machine.
+     */
+    public void restoreSnapshot( File file ) throws IOException {
+        try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+            restoreSnapshot( channel );
+        }
+    }
+
+    /**
+     * Restores a snapshot read from the current position of the channel. The
+     * channel is not closed.
+     */
+    public void restoreSnapshot( FileChannel channel ) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate( SNAPSHOT_HEADER_LENGTH );
+        readFully( channel, header );
+        header.flip();
+
+        if ( header.getInt() != SNAPSHOT_MAGIC || header.getInt() != SNAPSHOT_VERSION ) {
+            throw new IOException( "Invalid snapshot" );
+        }
+
+        int programSize = header.getInt();
+        int imageLength = header.getInt();
+        int savedPc = header.getInt();
+        int savedBp = header.getInt();
+        int savedStatus = header.getInt();
+        long inputPosition = header.getLong();
+        char inputSurrogate = header.getChar();
+        long outputPosition = header.getLong();
+        char outputSurrogate = header.getChar();
+
+        if ( programSize < 0 || imageLength < programSize || imageLength > memory.length
+                || savedStatus >= Status.values().length ) {
+            throw new IOException( "Snapshot does not fit in memory" );
+        }
+
+        readFully( channel, ByteBuffer.wrap( memory, 0, imageLength ) );
+        Arrays.fill( memory, imageLength, memory.length, (byte) 0 );
+
+        // decode the program part of the image, then restore the registers
+        loadProgram( LoadedProgram.of( ByteBuffer.wrap( memory, 0, programSize ) ) );
+        pc = savedPc;
+        bp = savedBp;
+        sp = imageLength - 1;
+        status = savedStatus < 0 ? null : Status.values()[savedStatus];
+
+        input.restore( inputPosition, inputSurrogate );
+        output.flush();
+        output.restore( outputPosition, outputSurrogate );
+    }
+
+    private static void readFully( FileChannel channel, ByteBuffer buffer ) throws IOException {
+        while ( buffer.hasRemaining() ) {
+            if ( channel.read( buffer ) < 0 ) {
+                throw new EOFException( "Unexpected end of snapshot" );
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes of input read by the program.
+     */
+    public long getInputPosition() {
+        return input.getPosition();
+    }
+
+    /**
+     * Returns the number of bytes of output written by the program.
+     */
+    public long getOutputPosition() {
+        return output.getPosition();
+    }
+
+    /**
+     * Decodes the program in memory (addresses 0 through sb - 1) into the
+     * instruction stream used by the PREDECODED engine. Operands are stored as
+     * ints, and branch and call displacements are resolved to absolute indexes
+     * in the stream, so that executing an instruction never reads code bytes.
+     * Decoding stops at the first invalid opcode, which then faults if it is
+     * ever executed. String literals take their encoding from the string pool
+     * of the object file.
+     */
+    private void decodeProgram( Map<Integer, byte[]> stringPool ) {
+        // an instruction never needs more slots than it has bytes
+        int[] stream = new int[sb + 1];
+        int[] addrs = new int[sb + 1];
+        int[] branchSlots = new int[sb + 1];
+        int numBranchSlots = 0;
+
+        addrToIndex = new int[sb + 1];
+        Arrays.fill( addrToIndex, -1 );
+        strings = new StringConstants();
+
+        int addr = 0;
+        int index = 0;
+
+        while ( addr < sb ) {
+            // short branches are decoded as their long forms
+            byte opCode = OpCodeInfo.toLongForm( memory[addr] );
+            int size = getInstructionSize( addr );
+
+            addrToIndex[addr] = index;
+            addrs[index] = addr;
+            stream[index] = opCode;
+
+            if ( size == 0 || addr + size > sb ) {
+                // executing this slot reports an invalid instruction
+                ++index;
+                break;
+            }
+
+            switch ( opCode ) {
+                // opcodes with one byte operand
+                case OpCode.SHL:
+                case OpCode.SHR:
+                case OpCode.SHLADD:
+                    // zero out left three bits of shiftAmount
+                    stream[index + 1] = memory[addr + 1] & 0x1F;
+                    index += 2;
+                    break;
+
+                case OpCode.LDCB:
+                    stream[index + 1] = memory[addr + 1];
+                    index += 2;
+                    break;
+
+                // opcodes with one int operand
+                case OpCode.ALLOC:
+                case OpCode.LOAD:
+                case OpCode.LDCINT:
+                case OpCode.LDLADDR:
+                case OpCode.LDGADDR:
+                case OpCode.LDLW:
+                case OpCode.LDGW:
+                case OpCode.STLW:
+                case OpCode.STGW:
+                case OpCode.ADDI:
+                case OpCode.PROC:
+                case OpCode.PROGRAM:
+                case OpCode.RET:
+                case OpCode.STORE:
+                case OpCode.COPY:
+                case OpCode.CHKIDX:
+                    stream[index + 1] = getInt( addr + 1 );
+                    index += 2;
+                    break;
+
+                // branches: the operand is resolved to a target address here
+                // and to a stream index once all instructions are decoded
+                case OpCode.BR:
+                case OpCode.BG:
+                case OpCode.BGE:
+                case OpCode.BL:
+                case OpCode.BLE:
+                case OpCode.BNZ:
+                case OpCode.BZ:
+                case OpCode.BEQW:
+                case OpCode.BNEW:
+                case OpCode.BLTW:
+                case OpCode.BLEW:
+                case OpCode.BGTW:
+                case OpCode.BGEW:
+                case OpCode.BEQ2B:
+                case OpCode.BNE2B:
+                case OpCode.BLT2B:
+                case OpCode.BLE2B:
+                case OpCode.BGT2B:
+                case OpCode.BGE2B:
+                case OpCode.BEQB:
+                case OpCode.BNEB:
+                case OpCode.BLTB:
+                case OpCode.BLEB:
+                case OpCode.BGTB:
+                case OpCode.BGEB:
+                    stream[index + 1] = addr + OpCodeInfo.getDisplacement( memory, addr );
+                    branchSlots[numBranchSlots++] = index + 1;
+                    index += 2;
+                    break;
+
+                // CALL also carries its return address
+                case OpCode.CALL:
+                    stream[index + 1] = addr + OpCodeInfo.getDisplacement( memory, addr );
+                    stream[index + 2] = addr + size;
+                    branchSlots[numBranchSlots++] = index + 1;
+                    index += 3;
+                    break;
+
+                case OpCode.LDCCH:
+                    stream[index + 1] = getChar( addr + 1 );
+                    index += 2;
+                    break;
+
+                // LDCSTR carries the string length and the address of its chars
+                case OpCode.LDCSTR:
+                    stream[index + 1] = getInt( addr + 1 );
+                    stream[index + 2] = addr + 1 + Constants.BYTES_PER_INTEGER;
+                    strings.add( memory, stream[index + 2], stream[index + 1], stringPool.get( stream[index + 2] ) );
+                    index += 3;
+                    break;
+
+                // opcodes with zero operands
+                default:
+                    index += 1;
+                    break;
+            }
+
+            addr = addr + size;
+        }
+
+        // the last slot catches branches to invalid addresses and execution
+        // that falls off the end of the code
+        int invalidIndex = index;
+        stream[index] = INVALID_ADDRESS;
+        addrs[index] = addr;
+        ++index;
+
+        for ( int i = 0; i < addrToIndex.length; ++i ) {
+            if ( addrToIndex[i] == -1 ) {
+                addrToIndex[i] = invalidIndex;
             }
+        }
+
+        for ( int i = 0; i < numBranchSlots; ++i ) {
+            int slot = branchSlots[i];
+            stream[slot] = getCodeIndex( stream[slot] );
+        }
+
+        code = Arrays.copyOf( stream, index );
+        indexToAddr = Arrays.copyOf( addrs, index );
+    }
+
+    /**
+     * Returns the size in bytes of the instruction at the specified address,
+     * or 0 if the byte at that address is not a valid opcode or the
+     * instruction does not end within the program.
+     */
+    private int getInstructionSize( int addr ) {
+        return OpCodeInfo.getLength( memory, addr, sb );
+    }
 
-            bp = address;
-            sb = address;
-            sp = bp - 1;
-            codeFile.close();
-        } catch ( IOException e ) {
-            error( e.toString() );
+    /**
+     * Returns the index in the pre-decoded stream of the instruction at the
+     * specified code address.
+     */
+    private int getCodeIndex( int addr ) {
+        if ( addr < 0 || addr >= addrToIndex.length ) {
+            // address sb never starts an instruction
+            return addrToIndex[addrToIndex.length - 1];
         }
+
+        return addrToIndex[addr];
     }
 
     /**
@@ -251,6 +1083,7 @@ public class CVM {
                 // opcodes with one byte operand
                 case OpCode.SHL:
                 case OpCode.SHR:
+                case OpCode.SHLADD:
                 case OpCode.LDCB:
                     out.print( memAddrStr + ":  " + OpCode.toString( opCode ) );
                     ++memAddr;
@@ -266,15 +1099,40 @@ public class CVM {
                 case OpCode.BLE:
                 case OpCode.BNZ:
                 case OpCode.BZ:
+                case OpCode.BEQW:
+                case OpCode.BNEW:
+                case OpCode.BLTW:
+                case OpCode.BLEW:
+                case OpCode.BGTW:
+                case OpCode.BGEW:
+                case OpCode.BEQ2B:
+                case OpCode.BNE2B:
+                case OpCode.BLT2B:
+                case OpCode.BLE2B:
+                case OpCode.BGT2B:
+                case OpCode.BGE2B:
+                case OpCode.BEQB:
+                case OpCode.BNEB:
+                case OpCode.BLTB:
+                case OpCode.BLEB:
+                case OpCode.BGTB:
+                case OpCode.BGEB:
                 case OpCode.CALL:
                 case OpCode.LOAD:
                 case OpCode.LDCINT:
                 case OpCode.LDLADDR:
                 case OpCode.LDGADDR:
+                case OpCode.LDLW:
+                case OpCode.LDGW:
+                case OpCode.STLW:
+                case OpCode.STGW:
+                case OpCode.ADDI:
                 case OpCode.PROC:
                 case OpCode.PROGRAM:
                 case OpCode.RET:
                 case OpCode.STORE:
+                case OpCode.COPY:
+                case OpCode.CHKIDX:
                     out.print( memAddrStr + ":  " + OpCode.toString( opCode ) );
                     ++memAddr;
                     byte0 = memory[memAddr++];
@@ -313,8 +1171,14 @@ public class CVM {
                     break;
 
                 default:
-                    out.println( "*** Unknown opCode ***" );
-                    System.exit( -1 );
+                    if ( OpCodeInfo.toLongForm( opCode ) != opCode ) {
+                        // short branches
+                        out.println( memAddrStr + ":  " + OpCode.toString( opCode ) + " "
+                                + OpCodeInfo.getDisplacement( memory, memAddr ) );
+                        memAddr += OpCodeInfo.getLength( memory, memAddr, sb );
+                    } else {
+                        error( "*** Unknown opCode ***" );
+                    }
             }
         }
 
@@ -344,194 +1208,1198 @@ public class CVM {
     private void pause() {
         out.println( "Press enter to continue..." );
         try {
-            System.in.read();
+            input.getChar();
         } catch ( IOException ex ) {
             // ignore
         }
     }
 
     /**
-     * Runs the program currently in memory.
+     * Runs the program currently in memory using the selected engine until it
+     * halts or faults, waiting for input when necessary. The message of a
+     * fault is returned by getFaultMessage().
+     *
+     * @return HALTED or FAULTED
+     */
+    public Status run() {
+        boolean wasBlocking = blockingInput;
+        blockingInput = true;
+
+        try {
+            return run( Long.MAX_VALUE );
+        } finally {
+            blockingInput = wasBlocking;
+        }
+    }
+
+    /**
+     * Selects whether input instructions wait for input (true) or stop the
+     * program with WAITING_FOR_INPUT (false, the default) when run( long )
+     * finds no input available. Waiting on a virtual thread parks only that
+     * thread.
+     */
+    public void setBlockingInput( boolean blockingInput ) {
+        this.blockingInput = blockingInput;
+    }
+
+    /**
+     * Runs the program currently in memory using the selected engine for at
+     * most maxInstructions instructions, and returns why it stopped. The
+     * program can be resumed by calling run() again unless it halted or
+     * faulted. Unless input is blocking, an input instruction with no input
+     * available stops the program with WAITING_FOR_INPUT. Compiled code
+     * (TIERED engine) checks the budget only on loop back-edges, so it can
+     * execute a few more instructions than maxInstructions.
+     */
+    public Status run( long maxInstructions ) {
+        if ( status == Status.HALTED || status == Status.FAULTED ) {
+            return status;
+        }
+
+        if ( engine != Engine.TIERED || profiler != null || tracer != null || checked ) {
+            jit = null;
+        } else if ( jit == null ) {
+            jit = new TieredCompiler( code, sb, stackBound, jitThreshold );
+        }
+
+        budget = maxInstructions;
+
+        try {
+            if ( engine == Engine.INTERPRETER ) {
+                status = interpret();
+            } else if ( engine == Engine.REGISTER && profiler == null && tracer == null && !checked ) {
+                prepareRegisters();
+                status = runRegisters();
+            } else {
+                status = runPredecoded();
+            }
+        } catch ( FaultException e ) {
+            status = Status.FAULTED;
+            faultMessage = e.getMessage();
+        } catch ( ArrayIndexOutOfBoundsException e ) {
+            // an address computed by the program is outside of memory
+            status = Status.FAULTED;
+            faultMessage = "*** FAULT: invalid memory address ***";
+        } finally {
+            output.flush();
+        }
+
+        return status;
+    }
+
+    /**
+     * Returns the status returned by the last call to run(), or null if the
+     * program has not run yet.
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the message of the fault that stopped the program, or null if
+     * there was none.
+     */
+    public String getFaultMessage() {
+        return faultMessage;
+    }
+
+    /**
+     * Returns true if the next input instruction can read without waiting.
+     */
+    private boolean isInputReady() {
+        return blockingInput || input.isReady();
+    }
+
+    /**
+     * Runs the program currently in memory, decoding each instruction from
+     * memory as it is executed.
      */
-    public void run() {
+    private Status interpret() {
         byte opCode;
 
         running = true;
-        pc = 0;
         while ( running ) {
+            if ( --budget < 0 ) {
+                return Status.BUDGET_EXHAUSTED;
+            }
+
+            if ( DEBUG ) {
+                output.flush();
+                printRegisters();
+                printMemory();
+                pause();
+            }
+
+            if ( checked ) {
+                checkInstruction( pc );
+            }
+
+            if ( tracer != null ) {
+                trace( pc, OpCodeInfo.toLongForm( memory[pc] ) );
+            }
+
+            if ( profiler != null ) {
+                profiler.count( pc, OpCodeInfo.toLongForm( memory[pc] ) );
+            }
+
+            opCode = fetchByte();
+
+            switch ( opCode ) {
+                case OpCode.ADD:
+                    add();
+                    break;
+                case OpCode.ADDI:
+                    addImmediate();
+                    break;
+                case OpCode.ALLOC:
+                    allocate();
+                    break;
+                case OpCode.BG:
+                case OpCode.BG8:
+                case OpCode.BG16:
+                    branchGreater();
+                    break;
+                case OpCode.BGE:
+                case OpCode.BGE8:
+                case OpCode.BGE16:
+                    branchGreaterOrEqual();
+                    break;
+                case OpCode.BL:
+                case OpCode.BL8:
+                case OpCode.BL16:
+                    branchLess();
+                    break;
+                case OpCode.BLE:
+                case OpCode.BLE8:
+                case OpCode.BLE16:
+                    branchLessOrEqual();
+                    break;
+                case OpCode.BNZ:
+                case OpCode.BNZ8:
+                case OpCode.BNZ16:
+                    branchNonZero();
+                    break;
+                case OpCode.BR:
+                case OpCode.BR8:
+                case OpCode.BR16:
+                    branch();
+                    break;
+                case OpCode.BZ:
+                case OpCode.BZ8:
+                case OpCode.BZ16:
+                    branchZero();
+                    break;
+                case OpCode.BEQW:
+                case OpCode.BEQW8:
+                case OpCode.BEQW16:
+                    branchIf( compareInts() == 0 );
+                    break;
+                case OpCode.BNEW:
+                case OpCode.BNEW8:
+                case OpCode.BNEW16:
+                    branchIf( compareInts() != 0 );
+                    break;
+                case OpCode.BLTW:
+                case OpCode.BLTW8:
+                case OpCode.BLTW16:
+                    branchIf( compareInts() < 0 );
+                    break;
+                case OpCode.BLEW:
+                case OpCode.BLEW8:
+                case OpCode.BLEW16:
+                    branchIf( compareInts() <= 0 );
+                    break;
+                case OpCode.BGTW:
+                case OpCode.BGTW8:
+                case OpCode.BGTW16:
+                    branchIf( compareInts() > 0 );
+                    break;
+                case OpCode.BGEW:
+                case OpCode.BGEW8:
+                case OpCode.BGEW16:
+                    branchIf( compareInts() >= 0 );
+                    break;
+                case OpCode.BEQ2B:
+                case OpCode.BEQ2B8:
+                case OpCode.BEQ2B16:
+                    branchIf( compareChars() == 0 );
+                    break;
+                case OpCode.BNE2B:
+                case OpCode.BNE2B8:
+                case OpCode.BNE2B16:
+                    branchIf( compareChars() != 0 );
+                    break;
+                case OpCode.BLT2B:
+                case OpCode.BLT2B8:
+                case OpCode.BLT2B16:
+                    branchIf( compareChars() < 0 );
+                    break;
+                case OpCode.BLE2B:
+                case OpCode.BLE2B8:
+                case OpCode.BLE2B16:
+                    branchIf( compareChars() <= 0 );
+                    break;
+                case OpCode.BGT2B:
+                case OpCode.BGT2B8:
+                case OpCode.BGT2B16:
+                    branchIf( compareChars() > 0 );
+                    break;
+                case OpCode.BGE2B:
+                case OpCode.BGE2B8:
+                case OpCode.BGE2B16:
+                    branchIf( compareChars() >= 0 );
+                    break;
+                case OpCode.BEQB:
+                case OpCode.BEQB8:
+                case OpCode.BEQB16:
+                    branchIf( compareBytes() == 0 );
+                    break;
+                case OpCode.BNEB:
+                case OpCode.BNEB8:
+                case OpCode.BNEB16:
+                    branchIf( compareBytes() != 0 );
+                    break;
+                case OpCode.BLTB:
+                case OpCode.BLTB8:
+                case OpCode.BLTB16:
+                    branchIf( compareBytes() < 0 );
+                    break;
+                case OpCode.BLEB:
+                case OpCode.BLEB8:
+                case OpCode.BLEB16:
+                    branchIf( compareBytes() <= 0 );
+                    break;
+                case OpCode.BGTB:
+                case OpCode.BGTB8:
+                case OpCode.BGTB16:
+                    branchIf( compareBytes() > 0 );
+                    break;
+                case OpCode.BGEB:
+                case OpCode.BGEB8:
+                case OpCode.BGEB16:
+                    branchIf( compareBytes() >= 0 );
+                    break;
+                case OpCode.CALL:
+                case OpCode.CALL16:
+                    call();
+                    break;
+                case OpCode.CHKIDX:
+                    checkIndex();
+                    break;
+                case OpCode.CMP:
+                    compare();
+                    break;
+                case OpCode.DEC:
+                    decrement();
+                    break;
+                case OpCode.DIV:
+                    divide();
+                    break;
+                case OpCode.GETCH:
+                    if ( !isInputReady() ) {
+                        --pc;
+                        return Status.WAITING_FOR_INPUT;
+                    }
+                    getCh();
+                    break;
+                case OpCode.GETINT:
+                    if ( !isInputReady() ) {
+                        --pc;
+                        return Status.WAITING_FOR_INPUT;
+                    }
+                    getInt();
+                    break;
+                case OpCode.HALT:
+                    halt();
+                    break;
+                case OpCode.INC:
+                    increment();
+                    break;
+                case OpCode.LDCB:
+                    loadConstByte();
+                    break;
+                case OpCode.LDCB0:
+                    loadConstByteZero();
+                    break;
+                case OpCode.LDCB1:
+                    loadConstByteOne();
+                    break;
+                case OpCode.LDCCH:
+                    loadConstCh();
+                    break;
+                case OpCode.LDCINT:
+                    loadConstInt();
+                    break;
+                case OpCode.LDCINT0:
+                    loadConstIntZero();
+                    break;
+                case OpCode.LDCINT1:
+                    loadConstIntOne();
+                    break;
+                case OpCode.LDCSTR:
+                    loadConstStr();
+                    break;
+                case OpCode.LDLADDR:
+                    loadLocalAddress();
+                    break;
+                case OpCode.LDGADDR:
+                    loadGlobalAddress();
+                    break;
+                case OpCode.LDLW:
+                    loadLocalWord();
+                    break;
+                case OpCode.LDGW:
+                    loadGlobalWord();
+                    break;
+                case OpCode.LOAD:
+                    load();
+                    break;
+                case OpCode.LOADB:
+                    loadByte();
+                    break;
+                case OpCode.LOAD2B:
+                    load2Bytes();
+                    break;
+                case OpCode.LOADW:
+                    loadWord();
+                    break;
+                case OpCode.MOD:
+                    modulo();
+                    break;
+                case OpCode.MUL:
+                    multiply();
+                    break;
+                case OpCode.NEG:
+                    negate();
+                    break;
+                case OpCode.NOT:
+                    not();
+                    break;
+                case OpCode.PROC:
+                    procedure();
+                    break;
+                case OpCode.PROGRAM:
+                    program();
+                    break;
+                case OpCode.PUTBYTE:
+                    putByte();
+                    break;
+                case OpCode.PUTCH:
+                    putChar();
+                    break;
+                case OpCode.PUTEOL:
+                    putEOL();
+                    break;
+                case OpCode.PUTINT:
+                    putInt();
+                    break;
+                case OpCode.PUTSTR:
+                    putString();
+                    break;
+                case OpCode.RET:
+                    returnInst();
+                    break;
+                case OpCode.SHL:
+                    shiftLeft();
+                    break;
+                case OpCode.SHLADD:
+                    shiftLeftAdd();
+                    break;
+                case OpCode.SHR:
+                    shiftRight();
+                    break;
+                case OpCode.STORE:
+                    store();
+                    break;
+                case OpCode.COPY:
+                    copy();
+                    break;
+                case OpCode.STOREB:
+                    storeByte();
+                    break;
+                case OpCode.STORE2B:
+                    store2Bytes();
+                    break;
+                case OpCode.STOREW:
+                    storeWord();
+                    break;
+                case OpCode.STLW:
+                    storeLocalWord();
+                    break;
+                case OpCode.STGW:
+                    storeGlobalWord();
+                    break;
+                case OpCode.SUB:
+                    subtract();
+                    break;
+                default:
+                    error( "invalid machine instruction" );
+            }
+        }
+
+        return Status.HALTED;
+    }
+
+    /**
+     * Runs the program currently in memory from the pre-decoded instruction
+     * stream built by loadProgram(). The program counter is kept as an index
+     * into the stream while running and translated back to a code address
+     * when the program stops.
+     */
+    private Status runPredecoded() {
+        int[] code = this.code;
+        int ip;
+
+        running = true;
+        ip = getCodeIndex( pc );
+        while ( running ) {
+            if ( --budget < 0 ) {
+                pc = indexToAddr[ip];
+                return Status.BUDGET_EXHAUSTED;
+            }
+
             if ( DEBUG ) {
+                pc = indexToAddr[ip];
+                output.flush();
                 printRegisters();
                 printMemory();
                 pause();
             }
 
-            opCode = fetchByte();
+            if ( checked ) {
+                checkInstruction( indexToAddr[ip] );
+            }
+
+            if ( tracer != null ) {
+                trace( indexToAddr[ip], code[ip] );
+            }
+
+            if ( profiler != null ) {
+                profiler.count( indexToAddr[ip], code[ip] );
+            }
 
-            switch ( opCode ) {
+            switch ( code[ip] ) {
                 case OpCode.ADD:
                     add();
+                    ip += 1;
+                    break;
+                case OpCode.ADDI:
+                    addImmediate( code[ip + 1] );
+                    ip += 2;
                     break;
                 case OpCode.ALLOC:
-                    allocate();
+                    allocate( code[ip + 1] );
+                    ip += 2;
                     break;
                 case OpCode.BG:
-                    branchGreater();
+                    ip = popByte() > 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
                     break;
                 case OpCode.BGE:
-                    branchGreaterOrEqual();
+                    ip = popByte() >= 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
                     break;
                 case OpCode.BL:
-                    branchLess();
+                    ip = popByte() < 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
                     break;
                 case OpCode.BLE:
-                    branchLessOrEqual();
+                    ip = popByte() <= 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
                     break;
                 case OpCode.BNZ:
-                    branchNonZero();
+                    ip = popByte() != 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
                     break;
                 case OpCode.BR:
-                    branch();
+                    ip = branchTo( ip, code[ip + 1] );
                     break;
                 case OpCode.BZ:
-                    branchZero();
+                    ip = popByte() == 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
+                    break;
+                case OpCode.BEQW:
+                    ip = compareInts() == 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
+                    break;
+                case OpCode.BNEW:
+                    ip = compareInts() != 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
+                    break;
+                case OpCode.BLTW:
+                    ip = compareInts() < 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
+                    break;
+                case OpCode.BLEW:
+                    ip = compareInts() <= 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
+                    break;
+                case OpCode.BGTW:
+                    ip = compareInts() > 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
+                    break;
+                case OpCode.BGEW:
+                    ip = compareInts() >= 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
+                    break;
+                case OpCode.BEQ2B:
+                    ip = compareChars() == 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
+                    break;
+                case OpCode.BNE2B:
+                    ip = compareChars() != 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
+                    break;
+                case OpCode.BLT2B:
+                    ip = compareChars() < 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
+                    break;
+                case OpCode.BLE2B:
+                    ip = compareChars() <= 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
+                    break;
+                case OpCode.BGT2B:
+                    ip = compareChars() > 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
+                    break;
+                case OpCode.BGE2B:
+                    ip = compareChars() >= 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
+                    break;
+                case OpCode.BEQB:
+                    ip = compareBytes() == 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
+                    break;
+                case OpCode.BNEB:
+                    ip = compareBytes() != 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
+                    break;
+                case OpCode.BLTB:
+                    ip = compareBytes() < 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
+                    break;
+                case OpCode.BLEB:
+                    ip = compareBytes() <= 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
+                    break;
+                case OpCode.BGTB:
+                    ip = compareBytes() > 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
+                    break;
+                case OpCode.BGEB:
+                    ip = compareBytes() >= 0 ? branchTo( ip, code[ip + 1] ) : ip + 2;
                     break;
                 case OpCode.CALL:
-                    call();
+                    call( code[ip + 2] );
+                    ip = code[ip + 1];
+                    if ( jit != null ) {
+                        ip = runCompiled( ip, jit.profile( ip ) );
+                    }
+                    break;
+                case OpCode.CHKIDX:
+                    checkIndex( code[ip + 1] );
+                    ip += 2;
                     break;
                 case OpCode.CMP:
                     compare();
+                    ip += 1;
                     break;
                 case OpCode.DEC:
                     decrement();
+                    ip += 1;
                     break;
                 case OpCode.DIV:
                     divide();
+                    ip += 1;
                     break;
                 case OpCode.GETCH:
+                    if ( !isInputReady() ) {
+                        pc = indexToAddr[ip];
+                        return Status.WAITING_FOR_INPUT;
+                    }
                     getCh();
+                    ip += 1;
                     break;
                 case OpCode.GETINT:
+                    if ( !isInputReady() ) {
+                        pc = indexToAddr[ip];
+                        return Status.WAITING_FOR_INPUT;
+                    }
                     getInt();
+                    ip += 1;
                     break;
                 case OpCode.HALT:
                     halt();
+                    ip += 1;
                     break;
                 case OpCode.INC:
                     increment();
+                    ip += 1;
                     break;
                 case OpCode.LDCB:
-                    loadConstByte();
+                    pushByte( (byte) code[ip + 1] );
+                    ip += 2;
                     break;
                 case OpCode.LDCB0:
                     loadConstByteZero();
+                    ip += 1;
                     break;
                 case OpCode.LDCB1:
                     loadConstByteOne();
+                    ip += 1;
                     break;
                 case OpCode.LDCCH:
-                    loadConstCh();
+                    pushChar( (char) code[ip + 1] );
+                    ip += 2;
                     break;
                 case OpCode.LDCINT:
-                    loadConstInt();
+                    pushInt( code[ip + 1] );
+                    ip += 2;
                     break;
                 case OpCode.LDCINT0:
                     loadConstIntZero();
+                    ip += 1;
                     break;
                 case OpCode.LDCINT1:
                     loadConstIntOne();
+                    ip += 1;
                     break;
                 case OpCode.LDCSTR:
-                    loadConstStr();
+                    pushInt( code[ip + 1] );
+                    pushInt( code[ip + 2] );
+                    ip += 3;
                     break;
                 case OpCode.LDLADDR:
-                    loadLocalAddress();
+                    pushInt( bp + code[ip + 1] );
+                    ip += 2;
                     break;
                 case OpCode.LDGADDR:
-                    loadGlobalAddress();
+                    pushInt( sb + code[ip + 1] );
+                    ip += 2;
+                    break;
+                case OpCode.LDLW:
+                    loadLocalWord( code[ip + 1] );
+                    ip += 2;
+                    break;
+                case OpCode.LDGW:
+                    loadGlobalWord( code[ip + 1] );
+                    ip += 2;
                     break;
                 case OpCode.LOAD:
-                    load();
+                    load( code[ip + 1] );
+                    ip += 2;
                     break;
                 case OpCode.LOADB:
                     loadByte();
+                    ip += 1;
                     break;
                 case OpCode.LOAD2B:
                     load2Bytes();
+                    ip += 1;
                     break;
                 case OpCode.LOADW:
                     loadWord();
+                    ip += 1;
                     break;
                 case OpCode.MOD:
                     modulo();
+                    ip += 1;
                     break;
                 case OpCode.MUL:
                     multiply();
+                    ip += 1;
                     break;
                 case OpCode.NEG:
                     negate();
+                    ip += 1;
                     break;
                 case OpCode.NOT:
                     not();
+                    ip += 1;
                     break;
                 case OpCode.PROC:
-                    procedure();
+                    allocate( code[ip + 1] );
+                    ip += 2;
                     break;
                 case OpCode.PROGRAM:
-                    program();
+                    program( code[ip + 1] );
+                    ip += 2;
                     break;
                 case OpCode.PUTBYTE:
                     putByte();
+                    ip += 1;
                     break;
                 case OpCode.PUTCH:
                     putChar();
+                    ip += 1;
                     break;
                 case OpCode.PUTEOL:
                     putEOL();
+                    ip += 1;
                     break;
                 case OpCode.PUTINT:
                     putInt();
+                    ip += 1;
                     break;
                 case OpCode.PUTSTR:
                     putString();
+                    ip += 1;
                     break;
                 case OpCode.RET:
-                    returnInst();
+                    returnInst( code[ip + 1] );
+                    ip = getCodeIndex( pc );
+                    if ( jit != null ) {
+                        ip = runCompiled( ip, jit.lookup( ip ) );
+                    }
                     break;
                 case OpCode.SHL:
-                    shiftLeft();
+                    pushInt( popInt() << code[ip + 1] );
+                    ip += 2;
+                    break;
+                case OpCode.SHLADD:
+                    shiftLeftAdd( code[ip + 1] );
+                    ip += 2;
                     break;
                 case OpCode.SHR:
-                    shiftRight();
+                    pushInt( popInt() >> code[ip + 1] );
+                    ip += 2;
                     break;
                 case OpCode.STORE:
-                    store();
+                    store( code[ip + 1] );
+                    ip += 2;
+                    break;
+                case OpCode.COPY:
+                    copy( code[ip + 1] );
+                    ip += 2;
                     break;
                 case OpCode.STOREB:
                     storeByte();
+                    ip += 1;
                     break;
                 case OpCode.STORE2B:
                     store2Bytes();
+                    ip += 1;
                     break;
                 case OpCode.STOREW:
                     storeWord();
+                    ip += 1;
+                    break;
+                case OpCode.STLW:
+                    storeLocalWord( code[ip + 1] );
+                    ip += 2;
+                    break;
+                case OpCode.STGW:
+                    storeGlobalWord( code[ip + 1] );
+                    ip += 2;
                     break;
                 case OpCode.SUB:
                     subtract();
+                    ip += 1;
+                    break;
+                case INVALID_ADDRESS:
+                    error( "*** FAULT: invalid code address " + indexToAddr[ip] + " ***" );
                     break;
                 default:
                     error( "invalid machine instruction" );
             }
         }
+
+        pc = indexToAddr[ip];
+        return Status.HALTED;
+    }
+
+    /**
+     * Translates the program into its register-based form, once for all the
+     * virtual machines that load it, and allocates the register file.
+     */
+    private void prepareRegisters() {
+        if ( registerCode == null ) {
+            registerCode = program.getRegisterCode();
+            registers = new int[registerCode.getNumRegisters()];
+        }
+    }
+
+    /**
+     * Runs the register-based form of the program. Each block is charged to
+     * the budget by the transfer that enters it, from the header of the
+     * block, and runs without checks up to the transfer that leaves it. A
+     * block that the budget does not cover, the instructions that are not
+     * translated, and execution that resumes within a block are left to the
+     * PREDECODED engine up to the end of the block, so the program stops at
+     * the same instructions as with the other engines.
+     */
+    private Status runRegisters() {
+        int[] rcode = registerCode.getCode();
+        int[] blocks = registerCode.getBlocks();
+        int[] remaining = registerCode.getRemaining();
+        int[] r = registers;
+        byte[] memory = this.memory;
+        int ip = getCodeIndex( pc );
+        int i = blocks[ip];
+
+        running = true;
+        while ( true ) {
+            if ( i < 0 ) {
+                Status result = runPredecoded( ip, remaining[ip] );
+                if ( result != null ) {
+                    return result;
+                }
+
+                ip = getCodeIndex( pc );
+                i = blocks[ip];
+                continue;
+            }
+
+            // enter the block whose header is at i
+            if ( budget < rcode[i] ) {
+                ip = rcode[i + 1];
+                i = -1;
+                continue;
+            }
+
+            budget -= rcode[i];
+            i += 2;
+
+            block:
+            while ( true ) {
+                switch ( rcode[i] ) {
+                    // control transfers
+                    case RegisterCode.EXIT:
+                        ip = rcode[i + 1];
+                        i = -1;
+                        break block;
+                    case RegisterCode.BR:
+                        i = rcode[i + 1];
+                        break block;
+                    case RegisterCode.BEQ:
+                        i = r[rcode[i + 1]] == r[rcode[i + 2]] ? rcode[i + 3] : i + 4;
+                        break block;
+                    case RegisterCode.BNE:
+                        i = r[rcode[i + 1]] != r[rcode[i + 2]] ? rcode[i + 3] : i + 4;
+                        break block;
+                    case RegisterCode.BLT:
+                        i = r[rcode[i + 1]] < r[rcode[i + 2]] ? rcode[i + 3] : i + 4;
+                        break block;
+                    case RegisterCode.BLE:
+                        i = r[rcode[i + 1]] <= r[rcode[i + 2]] ? rcode[i + 3] : i + 4;
+                        break block;
+                    case RegisterCode.BGT:
+                        i = r[rcode[i + 1]] > r[rcode[i + 2]] ? rcode[i + 3] : i + 4;
+                        break block;
+                    case RegisterCode.BGE:
+                        i = r[rcode[i + 1]] >= r[rcode[i + 2]] ? rcode[i + 3] : i + 4;
+                        break block;
+                    case RegisterCode.BEQI:
+                        i = r[rcode[i + 1]] == rcode[i + 2] ? rcode[i + 3] : i + 4;
+                        break block;
+                    case RegisterCode.BNEI:
+                        i = r[rcode[i + 1]] != rcode[i + 2] ? rcode[i + 3] : i + 4;
+                        break block;
+                    case RegisterCode.BLTI:
+                        i = r[rcode[i + 1]] < rcode[i + 2] ? rcode[i + 3] : i + 4;
+                        break block;
+                    case RegisterCode.BLEI:
+                        i = r[rcode[i + 1]] <= rcode[i + 2] ? rcode[i + 3] : i + 4;
+                        break block;
+                    case RegisterCode.BGTI:
+                        i = r[rcode[i + 1]] > rcode[i + 2] ? rcode[i + 3] : i + 4;
+                        break block;
+                    case RegisterCode.BGEI:
+                        i = r[rcode[i + 1]] >= rcode[i + 2] ? rcode[i + 3] : i + 4;
+                        break block;
+                    case RegisterCode.CALL:
+                        call( rcode[i + 1] );
+                        i = rcode[i + 2];
+                        break block;
+                    case RegisterCode.RET:
+                        returnInst( rcode[i + 1] );
+                        ip = getCodeIndex( pc );
+                        i = blocks[ip];
+                        break block;
+                    case RegisterCode.HALT:
+                        halt();
+                        pc = indexToAddr[rcode[i + 1]];
+                        return Status.HALTED;
+
+                    // the stack in memory
+                    case RegisterCode.PUSHW:
+                        pushInt( r[rcode[i + 1]] );
+                        i += 2;
+                        break;
+                    case RegisterCode.PUSH2B:
+                        pushChar( (char) r[rcode[i + 1]] );
+                        i += 2;
+                        break;
+                    case RegisterCode.PUSHB:
+                        pushByte( (byte) r[rcode[i + 1]] );
+                        i += 2;
+                        break;
+                    case RegisterCode.POPW:
+                        r[rcode[i + 1]] = popInt();
+                        i += 2;
+                        break;
+                    case RegisterCode.POP2B:
+                        r[rcode[i + 1]] = popChar();
+                        i += 2;
+                        break;
+                    case RegisterCode.POPB:
+                        r[rcode[i + 1]] = popByte();
+                        i += 2;
+                        break;
+                    case RegisterCode.PROGRAM:
+                        program( rcode[i + 1] );
+                        i += 2;
+                        break;
+                    case RegisterCode.ALLOC:
+                        allocate( rcode[i + 1] );
+                        i += 2;
+                        break;
+                    case RegisterCode.LOAD:
+                        System.arraycopy( memory, r[rcode[i + 1]], memory, sp + 1, rcode[i + 2] );
+                        sp += rcode[i + 2];
+                        i += 3;
+                        break;
+                    case RegisterCode.STORE:
+                        store( rcode[i + 1] );
+                        i += 2;
+                        break;
+                    case RegisterCode.COPY:
+                        System.arraycopy( memory, r[rcode[i + 2]], memory, r[rcode[i + 1]], rcode[i + 3] );
+                        i += 4;
+                        break;
+
+                    // loads and stores
+                    case RegisterCode.LDC:
+                        r[rcode[i + 1]] = rcode[i + 2];
+                        i += 3;
+                        break;
+                    case RegisterCode.LDLADDR:
+                        r[rcode[i + 1]] = bp + rcode[i + 2];
+                        i += 3;
+                        break;
+                    case RegisterCode.LDLW:
+                        r[rcode[i + 1]] = (int) INT_VIEW.get( memory, bp + rcode[i + 2] );
+                        i += 3;
+                        break;
+                    case RegisterCode.LDGW:
+                        r[rcode[i + 1]] = (int) INT_VIEW.get( memory, rcode[i + 2] );
+                        i += 3;
+                        break;
+                    case RegisterCode.LOADW:
+                        r[rcode[i + 1]] = (int) INT_VIEW.get( memory, r[rcode[i + 2]] );
+                        i += 3;
+                        break;
+                    case RegisterCode.LOAD2B:
+                        r[rcode[i + 1]] = (char) CHAR_VIEW.get( memory, r[rcode[i + 2]] );
+                        i += 3;
+                        break;
+                    case RegisterCode.LOADB:
+                        r[rcode[i + 1]] = memory[r[rcode[i + 2]]];
+                        i += 3;
+                        break;
+                    case RegisterCode.STLW:
+                        INT_VIEW.set( memory, bp + rcode[i + 2], r[rcode[i + 1]] );
+                        i += 3;
+                        break;
+                    case RegisterCode.STGW:
+                        INT_VIEW.set( memory, rcode[i + 2], r[rcode[i + 1]] );
+                        i += 3;
+                        break;
+                    case RegisterCode.STLWI:
+                        INT_VIEW.set( memory, bp + rcode[i + 2], rcode[i + 1] );
+                        i += 3;
+                        break;
+                    case RegisterCode.STGWI:
+                        INT_VIEW.set( memory, rcode[i + 2], rcode[i + 1] );
+                        i += 3;
+                        break;
+                    case RegisterCode.STOREW:
+                        INT_VIEW.set( memory, r[rcode[i + 1]], r[rcode[i + 2]] );
+                        i += 3;
+                        break;
+                    case RegisterCode.STORE2B:
+                        CHAR_VIEW.set( memory, r[rcode[i + 1]], (char) r[rcode[i + 2]] );
+                        i += 3;
+                        break;
+                    case RegisterCode.STOREB:
+                        memory[r[rcode[i + 1]]] = (byte) r[rcode[i + 2]];
+                        i += 3;
+                        break;
+
+                    // arithmetic, compare, and logical not
+                    case RegisterCode.ADD:
+                        r[rcode[i + 1]] = r[rcode[i + 2]] + r[rcode[i + 3]];
+                        i += 4;
+                        break;
+                    case RegisterCode.ADDI:
+                        r[rcode[i + 1]] = r[rcode[i + 2]] + rcode[i + 3];
+                        i += 4;
+                        break;
+                    case RegisterCode.SUB:
+                        r[rcode[i + 1]] = r[rcode[i + 2]] - r[rcode[i + 3]];
+                        i += 4;
+                        break;
+                    case RegisterCode.MUL:
+                        r[rcode[i + 1]] = r[rcode[i + 2]] * r[rcode[i + 3]];
+                        i += 4;
+                        break;
+                    case RegisterCode.MULI:
+                        r[rcode[i + 1]] = r[rcode[i + 2]] * rcode[i + 3];
+                        i += 4;
+                        break;
+                    case RegisterCode.DIV:
+                        r[rcode[i + 1]] = divide( r[rcode[i + 2]], r[rcode[i + 3]] );
+                        i += 4;
+                        break;
+                    case RegisterCode.MOD:
+                        r[rcode[i + 1]] = modulo( r[rcode[i + 2]], r[rcode[i + 3]] );
+                        i += 4;
+                        break;
+                    case RegisterCode.NEG:
+                        r[rcode[i + 1]] = -r[rcode[i + 2]];
+                        i += 3;
+                        break;
+                    case RegisterCode.SHL:
+                        r[rcode[i + 1]] = r[rcode[i + 2]] << rcode[i + 3];
+                        i += 4;
+                        break;
+                    case RegisterCode.SHR:
+                        r[rcode[i + 1]] = r[rcode[i + 2]] >> rcode[i + 3];
+                        i += 4;
+                        break;
+                    case RegisterCode.SHLADD:
+                        r[rcode[i + 1]] = r[rcode[i + 2]] + ( r[rcode[i + 3]] << rcode[i + 4] );
+                        i += 5;
+                        break;
+                    case RegisterCode.CMP:
+                        r[rcode[i + 1]] = Integer.compare( r[rcode[i + 2]], r[rcode[i + 3]] );
+                        i += 4;
+                        break;
+                    case RegisterCode.NOT:
+                        r[rcode[i + 1]] = r[rcode[i + 2]] == FALSE ? TRUE : FALSE;
+                        i += 3;
+                        break;
+                    case RegisterCode.ZEXTB:
+                        r[rcode[i + 1]] = r[rcode[i + 2]] & 0xFF;
+                        i += 3;
+                        break;
+                    case RegisterCode.CHKIDX:
+                        checkIndex( r[rcode[i + 1]], rcode[i + 2] );
+                        i += 3;
+                        break;
+                    case RegisterCode.CHKSHLADD:
+                        checkIndex( r[rcode[i + 3]], rcode[i + 5] );
+                        r[rcode[i + 1]] = r[rcode[i + 2]] + ( r[rcode[i + 3]] << rcode[i + 4] );
+                        i += 6;
+                        break;
+
+                    // output
+                    case RegisterCode.PUTINT:
+                        output.putInt( r[rcode[i + 1]] );
+                        i += 2;
+                        break;
+                    case RegisterCode.PUTCH:
+                        output.putChar( (char) r[rcode[i + 1]] );
+                        i += 2;
+                        break;
+                    case RegisterCode.PUTEOL:
+                        putEOL();
+                        i += 1;
+                        break;
+                    case RegisterCode.PUTSTR:
+                        putString( r[rcode[i + 1]], r[rcode[i + 2]] );
+                        i += 3;
+                        break;
+                    case RegisterCode.PUTSTRI:
+                        putString( rcode[i + 1], rcode[i + 2] );
+                        i += 3;
+                        break;
+                    default:
+                        error( "invalid register instruction" );
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs at most count instructions from the stream index ip with the
+     * PREDECODED engine. Returns the status if the program stopped, or null
+     * if the instructions were executed and the budget is not used up.
+     */
+    private Status runPredecoded( int ip, int count ) {
+        long available = budget;
+        long n = Math.min( available, count );
+
+        pc = indexToAddr[ip];
+        budget = n;
+        Status result = runPredecoded();
+
+        if ( result == Status.BUDGET_EXHAUSTED && n < available ) {
+            budget = available - n;
+            return null;
+        }
+
+        return result;
     }
 
     // Start: internal machine instructions that do NOT correspond to OpCodes
     //------------------------------------------------------------------------
     /**
-     * Print an error message and exit with nonzero status code.
+     * Returns the stream index to continue at after a branch from ip to
+     * target. With the TIERED engine, a back-edge is counted and enters the
+     * compiled code of its region if there is one.
+     */
+    private int branchTo( int ip, int target ) {
+        if ( target <= ip && jit != null ) {
+            return runCompiled( target, jit.profile( target ) );
+        }
+
+        return target;
+    }
+
+    /**
+     * Runs compiled code (if not null) entered at the specified stream index
+     * and returns the index at which the interpreter continues.
+     */
+    private int runCompiled( int ip, CompiledCode compiled ) {
+        if ( compiled == null || budget <= 0 ) {
+            return ip;
+        }
+
+        int fuel = (int) Math.min( Math.max( budget, 0 ), Integer.MAX_VALUE );
+
+        jitRegisters[CompiledCode.SP] = sp;
+        jitRegisters[CompiledCode.BP] = bp;
+        jitRegisters[CompiledCode.FUEL] = fuel;
+        ip = compiled.execute( memory, jitRegisters, ip );
+        sp = jitRegisters[CompiledCode.SP];
+        budget = budget - ( fuel - jitRegisters[CompiledCode.FUEL] );
+
+        return ip;
+    }
+
+    /**
+     * Records the instruction at the address with the tracer, along with the
+     * registers and the integer on top of the stack (0 if the stack holds
+     * less than an integer).
+     */
+    private void trace( int address, int opCode ) {
+        int top = sp - 3 >= sb ? getInt( sp - 3 ) : 0;
+        tracer.record( address, opCode, sp, bp, top );
+    }
+
+    /**
+     * Checks the instruction at the specified address before it is executed
+     * by a program that was loaded without verification: the address must be
+     * the start of an instruction, the instruction must not pop more bytes
+     * than there are on the stack, and the bytes that it pushes must fit in
+     * memory.
+     */
+    private void checkInstruction( int addr ) {
+        if ( addr < 0 || addr >= sb || code[addrToIndex[addr]] == INVALID_ADDRESS ) {
+            error( "*** FAULT: invalid code address " + addr + " ***" );
+        }
+
+        OpCodeInfo info = OpCodeInfo.get( memory[addr] );
+        if ( info == null ) {
+            // reported by the engine
+            return;
+        }
+
+        int operand = info.getOperand() == OpCodeInfo.Operand.INT ? getInt( addr + 1 ) : 0;
+
+        if ( sp - info.getPopped( operand ) < sb - 1 ) {
+            error( "*** FAULT: stack underflow ***" );
+        }
+
+        if ( (long) sp + info.getPushed( operand ) >= memory.length ) {
+            error( "*** Out of memory ***" );
+        }
+    }
+
+    /**
+     * Stop the running program with a fault. The message is returned by
+     * getFaultMessage().
      */
-    private static void error( String message ) {
-        System.err.println( message );
-        System.exit( 1 );
+    private void error( String message ) {
+        throw new FaultException( message );
     }
 
     /**
@@ -545,22 +2413,16 @@ public class CVM {
      * Pop the top character off the stack and return its value.
      */
     private char popChar() {
-        byte b1 = popByte();
-        byte b0 = popByte();
-
-        return ByteUtil.bytesToChar( b0, b1 );
+        sp -= Constants.BYTES_PER_CHAR;
+        return (char) CHAR_VIEW.get( memory, sp + 1 );
     }
 
     /**
      * Pop the top integer off the stack and return its value.
      */
     private int popInt() {
-        byte b3 = popByte();
-        byte b2 = popByte();
-        byte b1 = popByte();
-        byte b0 = popByte();
-
-        return ByteUtil.bytesToInt( b0, b1, b2, b3 );
+        sp -= Constants.BYTES_PER_INTEGER;
+        return (int) INT_VIEW.get( memory, sp + 1 );
     }
 
     /**
@@ -574,22 +2436,16 @@ public class CVM {
      * Push a character onto the stack.
      */
     private void pushChar( char c ) {
-        byte[] bytes = ByteUtil.charToBytes( c );
-
-        pushByte( bytes[0] );
-        pushByte( bytes[1] );
+        CHAR_VIEW.set( memory, sp + 1, c );
+        sp += Constants.BYTES_PER_CHAR;
     }
 
     /**
      * Push an integer onto the stack.
      */
     private void pushInt( int n ) {
-        byte[] bytes = ByteUtil.intToBytes( n );
-
-        pushByte( bytes[0] );
-        pushByte( bytes[1] );
-        pushByte( bytes[2] );
-        pushByte( bytes[3] );
+        INT_VIEW.set( memory, sp + 1, n );
+        sp += Constants.BYTES_PER_INTEGER;
     }
 
     /**
@@ -603,22 +2459,18 @@ public class CVM {
      * Fetch the next instruction int operand from memory.
      */
     private int fetchInt() {
-        byte b0 = fetchByte();
-        byte b1 = fetchByte();
-        byte b2 = fetchByte();
-        byte b3 = fetchByte();
-
-        return ByteUtil.bytesToInt( b0, b1, b2, b3 );
+        int value = (int) INT_VIEW.get( memory, pc );
+        pc += Constants.BYTES_PER_INTEGER;
+        return value;
     }
 
     /**
      * Fetch the next instruction char operand from memory.
      */
     private char fetchChar() {
-        byte b0 = fetchByte();
-        byte b1 = fetchByte();
-
-        return ByteUtil.bytesToChar( b0, b1 );
+        char value = (char) CHAR_VIEW.get( memory, pc );
+        pc += Constants.BYTES_PER_CHAR;
+        return value;
     }
 
     /**
@@ -626,12 +2478,15 @@ public class CVM {
      * sp, or bp.
      */
     private int getInt( int address ) {
-        byte b0 = memory[address + 0];
-        byte b1 = memory[address + 1];
-        byte b2 = memory[address + 2];
-        byte b3 = memory[address + 3];
+        return (int) INT_VIEW.get( memory, address );
+    }
 
-        return ByteUtil.bytesToInt( b0, b1, b2, b3 );
+    /**
+     * Returns the character at the specified memory address. Does not alter
+     * pc, sp, or bp.
+     */
+    private char getChar( int address ) {
+        return (char) CHAR_VIEW.get( memory, address );
     }
 
     //----------------------------------------------------------------------
@@ -645,25 +2500,50 @@ public class CVM {
         pushInt( operand1 + operand2 );
     }
 
+    /**
+     * Adds the constant operand of the instruction to the integer on top of
+     * the stack (superinstruction for LDCINT n, ADD).
+     */
+    private void addImmediate() {
+        addImmediate( fetchInt() );
+    }
+
+    private void addImmediate( int value ) {
+        pushInt( popInt() + value );
+    }
+
     private void allocate() {
-        int numBytes = fetchInt();
+        allocate( fetchInt() );
+    }
 
+    private void allocate( int numBytes ) {
+        checkStack( numBytes );
         sp = sp + numBytes;
     }
 
+    /**
+     * Fetches the displacement of the branch or call whose opcode was just
+     * fetched, which has 1, 2, or 4 bytes.
+     */
+    private int fetchDisplacement() {
+        int displacement = OpCodeInfo.getDisplacement( memory, pc - 1 );
+        pc = pc + OpCodeInfo.get( memory[pc - 1] ).getOperand().getSize();
+        return displacement;
+    }
+
     /**
      * Unconditional branch.
      */
     private void branch() {
         int opCodeAddr = pc - 1;
-        int displacement = fetchInt();
+        int displacement = fetchDisplacement();
 
         pc = opCodeAddr + displacement;
     }
 
     private void branchGreater() {
         int opCodeAddr = pc - 1;
-        int displacement = fetchInt();
+        int displacement = fetchDisplacement();
         byte value = popByte();
 
         if ( value > 0 ) {
@@ -673,7 +2553,7 @@ public class CVM {
 
     private void branchGreaterOrEqual() {
         int opCodeAddr = pc - 1;
-        int displacement = fetchInt();
+        int displacement = fetchDisplacement();
         byte value = popByte();
 
         if ( value >= 0 ) {
@@ -683,7 +2563,7 @@ public class CVM {
 
     private void branchLess() {
         int opCodeAddr = pc - 1;
-        int displacement = fetchInt();
+        int displacement = fetchDisplacement();
         byte value = popByte();
 
         if ( value < 0 ) {
@@ -693,7 +2573,7 @@ public class CVM {
 
     private void branchLessOrEqual() {
         int opCodeAddr = pc - 1;
-        int displacement = fetchInt();
+        int displacement = fetchDisplacement();
         byte value = popByte();
 
         if ( value <= 0 ) {
@@ -706,7 +2586,7 @@ public class CVM {
      */
     private void branchNonZero() {
         int opCodeAddr = pc - 1;
-        int displacement = fetchInt();
+        int displacement = fetchDisplacement();
         byte value = popByte();
 
         if ( value != 0 ) {
@@ -719,7 +2599,7 @@ public class CVM {
      */
     private void branchZero() {
         int opCodeAddr = pc - 1;
-        int displacement = fetchInt();
+        int displacement = fetchDisplacement();
         byte value = popByte();
 
         if ( value == 0 ) {
@@ -727,18 +2607,59 @@ public class CVM {
         }
     }
 
+    /**
+     * Branch if the condition is true (used by the compare-and-branch
+     * opcodes, which compute the condition from their operands).
+     */
+    private void branchIf( boolean condition ) {
+        int opCodeAddr = pc - 1;
+        int displacement = fetchDisplacement();
+
+        if ( condition ) {
+            pc = opCodeAddr + displacement;
+        }
+    }
+
     private void call() {
         int opCodeAddr = pc - 1;
-        int displacement = fetchInt();
+        int displacement = fetchDisplacement();
+
+        call( pc );
+
+        // set pc to first statement of called procedure
+        pc = opCodeAddr + displacement;
+    }
+
+    /**
+     * Pushes a new frame holding the dynamic link and the return address.
+     */
+    private void call( int returnAddr ) {
+        checkStack( Constants.BYTES_PER_FRAME );
 
         pushInt( bp );          // dynamic link
-        pushInt( pc );          // return address
+        pushInt( returnAddr );  // return address
 
         // set bp to starting address of new frame
         bp = sp - Constants.BYTES_PER_FRAME + 1;
+    }
 
-        // set pc to first statement of called procedure
-        pc = opCodeAddr + displacement;
+    /**
+     * Checks that the integer on top of the stack, which is left there, is a
+     * valid index for an array with the number of elements specified by the
+     * operand of the instruction.
+     */
+    private void checkIndex() {
+        checkIndex( fetchInt() );
+    }
+
+    private void checkIndex( int numElements ) {
+        checkIndex( getInt( sp - 3 ), numElements );
+    }
+
+    private void checkIndex( int index, int numElements ) {
+        if ( index < 0 || index >= numElements ) {
+            error( "*** FAULT: Array index " + index + " out of bounds ***" );
+        }
     }
 
     private void compare() {
@@ -754,6 +2675,39 @@ public class CVM {
         }
     }
 
+    /**
+     * Pops two integers off the stack and returns a negative number, zero,
+     * or a positive number as the first is less than, equal to, or greater
+     * than the second (which was on top).
+     */
+    private int compareInts() {
+        int operand2 = popInt();
+        int operand1 = popInt();
+
+        return Integer.compare( operand1, operand2 );
+    }
+
+    /**
+     * Like compareInts(), for two characters.
+     */
+    private int compareChars() {
+        char operand2 = popChar();
+        char operand1 = popChar();
+
+        return Character.compare( operand1, operand2 );
+    }
+
+    /**
+     * Like compareInts(), for two bytes compared as unsigned values (as CMP
+     * compares bytes padded with zero bytes).
+     */
+    private int compareBytes() {
+        byte operand2 = popByte();
+        byte operand1 = popByte();
+
+        return Integer.compare( operand1 & 0xFF, operand2 & 0xFF );
+    }
+
     private void decrement() {
         int operand = popInt();
         pushInt( operand - 1 );
@@ -763,25 +2717,34 @@ public class CVM {
         int operand2 = popInt();
         int operand1 = popInt();
 
-        if ( operand2 != 0 ) {
-            pushInt( operand1 / operand2 );
-        } else {
+        pushInt( divide( operand1, operand2 ) );
+    }
+
+    private int divide( int operand1, int operand2 ) {
+        if ( operand2 == 0 ) {
             error( "*** FAULT: Divide by zero ***" );
         }
+
+        return operand1 / operand2;
     }
 
     private void getInt() {
+        // make prompts visible before waiting for input
+        output.flush();
+
         try {
-            int n = scanner.nextInt();
+            int n = input.getInt();
             pushInt( n );
-        } catch ( NumberFormatException e ) {
+        } catch ( NumberFormatException | IOException e ) {
             error( "Invalid input" );
         }
     }
 
     private void getCh() {
+        output.flush();
+
         try {
-            int ch = reader.read();
+            int ch = input.getChar();
 
             if ( ch == EOF ) {
                 error( "Invalid input: EOF" );
@@ -789,13 +2752,13 @@ public class CVM {
 
             pushChar( (char) ch );
         } catch ( IOException ex ) {
-            ex.printStackTrace();
             error( "Invalid input" );
         }
     }
 
     private void halt() {
         running = false;
+        output.flush();
     }
 
     private void increment() {
@@ -809,12 +2772,14 @@ public class CVM {
      * by popping it off the top of the stack.
      */
     private void load() {
-        int length = fetchInt();
+        load( fetchInt() );
+    }
+
+    private void load( int length ) {
         int address = popInt();
 
-        for ( int i = 0; i < length; ++i ) {
-            pushByte( memory[address + i] );
-        }
+        System.arraycopy( memory, address, memory, sp + 1, length );
+        sp += length;
     }
 
     private void loadConstByte() {
@@ -886,11 +2851,7 @@ public class CVM {
     private void load2Bytes() {
         int address = popInt();
 
-        byte b0 = memory[address + 0];
-        byte b1 = memory[address + 1];
-
-        pushByte( b0 );
-        pushByte( b1 );
+        pushChar( getChar( address ) );
     }
 
     /**
@@ -901,21 +2862,46 @@ public class CVM {
     private void loadWord() {
         int address = popInt();
 
-        byte b0 = memory[address + 0];
-        byte b1 = memory[address + 1];
-        byte b2 = memory[address + 2];
-        byte b3 = memory[address + 3];
+        pushInt( getInt( address ) );
+    }
+
+    /**
+     * Loads the local word-size variable at the displacement given by the
+     * instruction (superinstruction for LDLADDR n, LOADW).
+     */
+    private void loadLocalWord() {
+        loadLocalWord( fetchInt() );
+    }
+
+    private void loadLocalWord( int displacement ) {
+        pushInt( getInt( bp + displacement ) );
+    }
 
-        int value = ByteUtil.bytesToInt( b0, b1, b2, b3 );
+    /**
+     * Loads the global word-size variable at the displacement given by the
+     * instruction (superinstruction for LDGADDR n, LOADW).
+     */
+    private void loadGlobalWord() {
+        loadGlobalWord( fetchInt() );
+    }
 
-        pushInt( value );
+    private void loadGlobalWord( int displacement ) {
+        pushInt( getInt( sb + displacement ) );
     }
 
     private void modulo() {
         int operand2 = popInt();
         int operand1 = popInt();
 
-        pushInt( operand1 % operand2 );
+        pushInt( modulo( operand1, operand2 ) );
+    }
+
+    private int modulo( int operand1, int operand2 ) {
+        if ( operand2 == 0 ) {
+            error( "*** FAULT: Divide by zero ***" );
+        }
+
+        return operand1 % operand2;
     }
 
     private void multiply() {
@@ -945,48 +2931,57 @@ public class CVM {
     }
 
     private void program() {
-        int varLength = fetchInt();
+        program( fetchInt() );
+    }
 
+    private void program( int varLength ) {
         bp = sb;
         sp = bp + varLength - 1;
 
-        if ( sp >= memory.length ) {
+        checkStack( 0 );
+    }
+
+    /**
+     * Checks that numBytes can be pushed onto the stack, followed by as many
+     * bytes as the instructions of a frame can push. Checking only when
+     * frames are created makes checks for each push unnecessary.
+     */
+    private void checkStack( int numBytes ) {
+        if ( (long) sp + numBytes + stackBound >= memory.length ) {
             error( "*** Out of memory ***" );
         }
     }
 
     private void putChar() {
-        out.print( popChar() );
+        output.putChar( popChar() );
     }
 
     private void putByte() {
-        out.print( popByte() );
+        output.putInt( popByte() );
     }
 
     private void putInt() {
-        out.print( popInt() );
+        output.putInt( popInt() );
     }
 
     private void putEOL() {
-        out.println();
+        output.putEOL();
     }
 
     private void putString() {
         int strAddr = popInt();
         int strLength = popInt();
 
-        char[] str = new char[strLength];
-        byte[] bytes = new byte[strLength];
-
-        for ( int i = 0; i < strLength; ++i ) {
-            byte b0 = memory[strAddr++];
-            byte b1 = memory[strAddr++];
+        putString( strAddr, strLength );
+    }
 
-            str[i] = ByteUtil.bytesToChar( b0, b1 );
-            bytes[i] = memory[strLength];
+    private void putString( int strAddr, int strLength ) {
+        byte[] encoded = strings.get( strAddr, strLength );
+        if ( encoded != null ) {
+            output.putEncoded( encoded );
+        } else {
+            output.putString( memory, strAddr, strLength );
         }
-
-        out.print( str );
     }
 
     private void shiftLeft() {
@@ -999,6 +2994,24 @@ public class CVM {
         pushInt( operand << shiftAmount );
     }
 
+    /**
+     * Adds the integer on top of the stack, shifted left by the instruction
+     * operand, to the integer below it (superinstruction for SHL n, ADD, as
+     * used for array indexing).
+     */
+    private void shiftLeftAdd() {
+        // zero out left three bits of shiftAmount
+        byte mask = 0x1F;   // = 00011111 in binary
+        shiftLeftAdd( fetchByte() & mask );
+    }
+
+    private void shiftLeftAdd( int shiftAmount ) {
+        int operand2 = popInt();
+        int operand1 = popInt();
+
+        pushInt( operand1 + ( operand2 << shiftAmount ) );
+    }
+
     private void shiftRight() {
         int operand = popInt();
 
@@ -1010,8 +3023,11 @@ public class CVM {
     }
 
     private void returnInst() {
+        returnInst( fetchInt() );
+    }
+
+    private void returnInst( int paramLength ) {
         int bpSave = bp;
-        int paramLength = fetchInt();
 
         sp = bpSave - paramLength - 1;
         bp = getInt( bpSave );
@@ -1019,19 +3035,32 @@ public class CVM {
     }
 
     private void store() {
-        int length = fetchInt();
-        byte[] data = new byte[length];
+        store( fetchInt() );
+    }
 
-        // pop bytes of data, storing in reverse order
-        for ( int i = length - 1; i >= 0; --i ) {
-            data[i] = popByte();
-        }
+    private void store( int length ) {
+        sp -= length;
+        int dataAddr = sp + 1;
+        int destAddr = popInt();
+
+        System.arraycopy( memory, dataAddr, memory, destAddr, length );
+    }
 
+    /**
+     * Copies a block of memory without passing it through the stack. The
+     * number of bytes is an argument of the instruction, and the addresses of
+     * the source and the destination are obtained by popping them off the top
+     * of the stack (source on top).
+     */
+    private void copy() {
+        copy( fetchInt() );
+    }
+
+    private void copy( int length ) {
+        int srcAddr = popInt();
         int destAddr = popInt();
 
-        for ( int i = 0; i < length; ++i ) {
-            memory[destAddr + i] = data[i];
-        }
+        System.arraycopy( memory, srcAddr, memory, destAddr, length );
     }
 
     private void storeByte() {
@@ -1042,24 +3071,43 @@ public class CVM {
     }
 
     private void store2Bytes() {
-        byte byte1 = popByte();
-        byte byte0 = popByte();
+        char value = popChar();
         int destAddr = popInt();
 
-        memory[destAddr + 0] = byte0;
-        memory[destAddr + 1] = byte1;
+        CHAR_VIEW.set( memory, destAddr, value );
     }
 
     private void storeWord() {
         int value = popInt();
         int destAddr = popInt();
 
-        byte[] bytes = ByteUtil.intToBytes( value );
+        INT_VIEW.set( memory, destAddr, value );
+    }
+
+    /**
+     * Pops a word off the stack and stores it in the local variable at the
+     * displacement given by the instruction (superinstruction for LDLADDR n,
+     * ..., STOREW).
+     */
+    private void storeLocalWord() {
+        storeLocalWord( fetchInt() );
+    }
+
+    private void storeLocalWord( int displacement ) {
+        INT_VIEW.set( memory, bp + displacement, popInt() );
+    }
+
+    /**
+     * Pops a word off the stack and stores it in the global variable at the
+     * displacement given by the instruction (superinstruction for LDGADDR n,
+     * ..., STOREW).
+     */
+    private void storeGlobalWord() {
+        storeGlobalWord( fetchInt() );
+    }
 
-        memory[destAddr + 0] = bytes[0];
-        memory[destAddr + 1] = bytes[1];
-        memory[destAddr + 2] = bytes[2];
-        memory[destAddr + 3] = bytes[3];
+    private void storeGlobalWord( int displacement ) {
+        INT_VIEW.set( memory, sb + displacement, popInt() );
     }
 
     private void subtract() {
@@ -0,0 +1,171 @@
+package edu.citadel.cvm;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs many CPRL programs concurrently in the same JVM, each one in its own
+ * virtual machine with its own input and output streams. Programs run on
+ * virtual threads when the JVM supports them, so that a program waiting for
+ * input parks only its thread; otherwise they run on a fixed pool of platform
+ * threads. At most maxConcurrent programs run at the same time.
+ */
+public class CVMPool implements AutoCloseable {
+
+    /**
+     * The result of running a program in the pool.
+     */
+    public static final class Result {
+
+        private final CVM.Status status;
+        private final String faultMessage;
+
+        Result( CVM.Status status, String faultMessage ) {
+            this.status = status;
+            this.faultMessage = faultMessage;
+        }
+
+        /**
+         * Returns HALTED, FAULTED, or BUDGET_EXHAUSTED if the program ran out
+         * of instructions.
+         */
+        public CVM.Status getStatus() {
+            return status;
+        }
+
+        /**
+         * Returns the message of the fault that stopped the program, or null.
+         */
+        public String getFaultMessage() {
+            return faultMessage;
+        }
+
+        @Override
+        public String toString() {
+            return faultMessage == null ? status.toString() : status + ": " + faultMessage;
+        }
+    }
+
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final Semaphore permits;
+    private final int memorySize;
+    private final CVM.Engine engine;
+
+    /**
+     * Construct a pool whose virtual machines have the specified memory size
+     * and engine.
+     *
+     * @param maxConcurrent the maximum number of programs running at the
+     * same time
+     */
+    public CVMPool( int maxConcurrent, int memorySize, CVM.Engine engine ) {
+        if ( maxConcurrent <= 0 ) {
+            throw new IllegalArgumentException( "maxConcurrent must be positive" );
+        }
+
+        ExecutorService virtual = newVirtualThreadExecutor();
+
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : Executors.newFixedThreadPool( maxConcurrent, runnable -> {
+            Thread thread = new Thread( runnable, "cvm-pool" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        this.permits = new Semaphore( maxConcurrent );
+        this.memorySize = memorySize;
+        this.engine = engine;
+    }
+
+    /**
+     * Returns an executor that starts a virtual thread per task, or null if
+     * the JVM does not support virtual threads. The executor is looked up
+     * reflectively so that the pool also runs on JVMs without them.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+            return (ExecutorService) factory.invoke( null );
+        } catch ( ReflectiveOperationException | RuntimeException e ) {
+            // not available, or a preview feature that is not enabled
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if programs run on virtual threads.
+     */
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Runs the program until it halts or faults. Input instructions wait for
+     * input from the stream.
+     *
+     * @param program the program, which can be submitted any number of times
+     * @param in the input of the program
+     * @param out the output of the program; it is flushed but not closed
+     */
+    public Future<Result> submit( LoadedProgram program, InputStream in, OutputStream out ) {
+        return submit( program, in, out, Long.MAX_VALUE );
+    }
+
+    /**
+     * Runs the program until it halts, faults, or executes maxInstructions
+     * instructions. Input instructions wait for input from the stream. A
+     * program that fails verification is reported as FAULTED.
+     *
+     * @throws IllegalArgumentException if the program does not fit in the
+     * memory of the virtual machines
+     */
+    public Future<Result> submit( LoadedProgram program, InputStream in, OutputStream out, long maxInstructions ) {
+        if ( program.getSize() > memorySize ) {
+            throw new IllegalArgumentException( "*** Program too large for memory ***" );
+        }
+
+        return executor.submit( () -> {
+            permits.acquire();
+            try {
+                CVM vm = new CVM( memorySize, in, out );
+                vm.setEngine( engine );
+                vm.setBlockingInput( true );
+
+                try {
+                    vm.loadProgram( program );
+                } catch ( VerificationException e ) {
+                    return new Result( CVM.Status.FAULTED, e.getMessage() );
+                }
+
+                CVM.Status status = vm.run( maxInstructions );
+                out.flush();
+                return new Result( status, vm.getFaultMessage() );
+            } finally {
+                permits.release();
+            }
+        } );
+    }
+
+    /**
+     * Waits for the submitted programs to finish and stops the threads of the
+     * pool. If the calling thread is interrupted, it stops waiting and its
+     * interrupt status is set again.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            while ( !executor.awaitTermination( 1, TimeUnit.MINUTES ) ) {
+                // keep waiting
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
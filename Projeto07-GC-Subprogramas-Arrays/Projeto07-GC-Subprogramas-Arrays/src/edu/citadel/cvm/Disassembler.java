@@ -5,9 +5,11 @@ import edu.citadel.compiler.util.StringUtil;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.util.Map;
 
 /**
- * Translates CVM machine code into CVM assembly language.
+ * Translates CVM machine code into CVM assembly language. Symbols and source
+ * lines in the object file are shown as labels and comments.
  */
 public class Disassembler {
 
@@ -35,126 +37,33 @@ public class Disassembler {
 
         System.out.println( "Disassembling " + fileName + " to " + outputFileName );
 
-        int inByte;
+        ObjectFile objectFile = ObjectFile.read( file.readAllBytes() );
+        file.close();
+
+        byte[] code = objectFile.getCode();
+        Map<Integer, String> symbols = objectFile.getSymbols();
+        Map<Integer, Integer> lines = objectFile.getLines();
+
         int opCodeAddr = 0;
-        int strLength = 0;
-
-        char c;
-
-        while ( ( inByte = file.read() ) != -1 ) {
-            byte opCode = (byte) inByte;
-
-            switch ( opCode ) {
-                // opcodes with zero operands
-                case OpCode.ADD:
-                case OpCode.CMP:
-                case OpCode.DEC:
-                case OpCode.DIV:
-                case OpCode.GETCH:
-                case OpCode.GETINT:
-                case OpCode.HALT:
-                case OpCode.LOADB:
-                case OpCode.LOAD2B:
-                case OpCode.LOADW:
-                case OpCode.LDCB0:
-                case OpCode.LDCB1:
-                case OpCode.LDCINT0:
-                case OpCode.LDCINT1:
-                case OpCode.INC:
-                case OpCode.MOD:
-                case OpCode.MUL:
-                case OpCode.NEG:
-                case OpCode.NOT:
-                case OpCode.PUTBYTE:
-                case OpCode.PUTCH:
-                case OpCode.PUTINT:
-                case OpCode.PUTEOL:
-                case OpCode.PUTSTR:
-                case OpCode.STOREB:
-                case OpCode.STORE2B:
-                case OpCode.STOREW:
-                case OpCode.SUB:
-                    out.println( StringUtil.format( opCodeAddr, FIELD_WIDTH ) + ":  "
-                            + OpCode.toString( opCode ) );
-                    opCodeAddr = opCodeAddr + 1;
-                    break;
-
-                // opcodes with one byte operand
-                case OpCode.SHL:
-                case OpCode.SHR:
-                case OpCode.LDCB:
-                    out.print( StringUtil.format( opCodeAddr, FIELD_WIDTH ) + ":  "
-                            + OpCode.toString( opCode ) );
-                    out.println( " " + readByte( file ) );
-                    opCodeAddr = opCodeAddr + 2;  // one byte for opcode and one byte for shift amount
-                    break;
-
-                // opcodes with one int operand
-                case OpCode.ALLOC:
-                case OpCode.BR:
-                case OpCode.BG:
-                case OpCode.BGE:
-                case OpCode.BL:
-                case OpCode.BLE:
-                case OpCode.BNZ:
-                case OpCode.BZ:
-                case OpCode.CALL:
-                case OpCode.LOAD:
-                case OpCode.LDCINT:
-                case OpCode.LDLADDR:
-                case OpCode.LDGADDR:
-                case OpCode.PROC:
-                case OpCode.PROGRAM:
-                case OpCode.RET:
-                case OpCode.STORE:
-                    out.print( StringUtil.format( opCodeAddr, FIELD_WIDTH ) + ":  "
-                            + OpCode.toString( opCode ) );
-                    out.println( " " + readInt( file ) );
-                    opCodeAddr = opCodeAddr + 1 + Constants.BYTES_PER_INTEGER;
-                    break;
-
-                // special case: LDCCH
-                case OpCode.LDCCH:
-                    out.print( StringUtil.format( opCodeAddr, FIELD_WIDTH ) + ":  "
-                            + OpCode.toString( opCode ) );
-                    out.print( " \'" );
-
-                    c = readChar( file );
-                    if ( c == '\b' || c == '\t' || c == '\n' || c == '\f'
-                            || c == '\r' || c == '\"' || c == '\'' || c == '\\' ) {
-                        out.print( getUnescapedChar( c ) );
-                    } else {
-                        out.print( c );
-                    }
-
-                    out.println( "\'" );
-                    opCodeAddr = opCodeAddr + 1 + Constants.BYTES_PER_CHAR;
-                    break;
-
-                // special case: LDCSTR
-                case OpCode.LDCSTR:
-                    out.print( StringUtil.format( opCodeAddr, FIELD_WIDTH ) + ":  "
-                            + OpCode.toString( opCode ) );
-                    // now print the string
-                    out.print( "  \"" );
-                    strLength = readInt( file );
-                    for ( int i = 0; i < strLength; ++i ) {
-                        c = readChar( file );
-                        if ( c == '\b' || c == '\t' || c == '\n' || c == '\f'
-                                || c == '\r' || c == '\"' || c == '\'' || c == '\\' ) {
-                            out.print( getUnescapedChar( c ) );
-                        } else {
-                            out.print( c );
-                        }
-                    }
-                    out.println( "\"" );
-                    opCodeAddr = opCodeAddr + 1 + Constants.BYTES_PER_INTEGER
-                            + strLength * Constants.BYTES_PER_CHAR;
-                    break;
-
-                default:
-                    System.err.println( "*** Unknown opCode in file " + fileName + " ***" );
-                    break;
+        while ( opCodeAddr < code.length ) {
+            int length = getLength( code, opCodeAddr );
+
+            if ( length == 0 ) {
+                System.err.println( "*** Unknown opCode in file " + fileName + " ***" );
+                ++opCodeAddr;
+            } else {
+                if ( symbols.containsKey( opCodeAddr ) ) {
+                    out.println( symbols.get( opCodeAddr ) + ":" );
+                }
+
+                String instruction = StringUtil.format( opCodeAddr, FIELD_WIDTH ) + ":  "
+                        + disassemble( code, opCodeAddr );
+                if ( lines.containsKey( opCodeAddr ) ) {
+                    instruction += "   ; line " + lines.get( opCodeAddr );
+                }
+
+                out.println( instruction );
+                opCodeAddr = opCodeAddr + length;
             }
         }
 
@@ -162,32 +71,67 @@ public class Disassembler {
     }
 
     /**
-     * Reads an integer argument from the stream.
+     * Returns the number of bytes of the instruction at the specified address
+     * (opcode plus operands), or 0 if the opcode is unknown or the instruction
+     * is truncated.
      */
-    private static int readInt( InputStream in ) throws IOException {
-        byte b0 = (byte) in.read();
-        byte b1 = (byte) in.read();
-        byte b2 = (byte) in.read();
-        byte b3 = (byte) in.read();
-
-        return ByteUtil.bytesToInt( b0, b1, b2, b3 );
+    public static int getLength( byte[] code, int address ) {
+        return OpCodeInfo.getLength( code, address, code.length );
     }
 
     /**
-     * Reads a char argument from the stream.
+     * Returns the assembly language for the instruction at the specified
+     * address, e.g., "LDCINT 5".
      */
-    private static char readChar( InputStream in ) throws IOException {
-        byte b0 = (byte) in.read();
-        byte b1 = (byte) in.read();
+    public static String disassemble( byte[] code, int address ) {
+        byte opCode = code[address];
+        int length = getLength( code, address );
+        StringBuilder instruction = new StringBuilder( OpCode.toString( opCode ) );
+
+        if ( opCode == OpCode.LDCCH ) {
+            instruction.append( " \'" );
+            appendChar( instruction, readChar( code, address + 1 ) );
+            instruction.append( "\'" );
+        } else if ( opCode == OpCode.LDCSTR ) {
+            int strLength = readInt( code, address + 1 );
+            instruction.append( "  \"" );
+            for ( int i = 0; i < strLength; ++i ) {
+                appendChar( instruction, readChar( code, address + 1 + Constants.BYTES_PER_INTEGER
+                        + i * Constants.BYTES_PER_CHAR ) );
+            }
+            instruction.append( "\"" );
+        } else if ( length > 0 && OpCodeInfo.get( opCode ).getOperand().isDisplacement() ) {
+            instruction.append( " " ).append( OpCodeInfo.getDisplacement( code, address ) );
+        } else if ( length == 2 ) {
+            instruction.append( " " ).append( code[address + 1] );
+        } else if ( length == 1 + Constants.BYTES_PER_INTEGER ) {
+            instruction.append( " " ).append( readInt( code, address + 1 ) );
+        }
+
+        return instruction.toString();
+    }
+
+    private static void appendChar( StringBuilder s, char c ) {
+        if ( c == '\b' || c == '\t' || c == '\n' || c == '\f'
+                || c == '\r' || c == '\"' || c == '\'' || c == '\\' ) {
+            s.append( getUnescapedChar( c ) );
+        } else {
+            s.append( c );
+        }
+    }
 
-        return ByteUtil.bytesToChar( b0, b1 );
+    /**
+     * Reads an integer operand at the specified address.
+     */
+    private static int readInt( byte[] code, int address ) {
+        return ByteUtil.bytesToInt( code[address], code[address + 1], code[address + 2], code[address + 3] );
     }
 
     /**
-     * Reads a byte argument from the stream.
+     * Reads a char operand at the specified address.
      */
-    private static byte readByte( InputStream in ) throws IOException {
-        return (byte) in.read();
+    private static char readChar( byte[] code, int address ) {
+        return ByteUtil.bytesToChar( code[address], code[address + 1] );
     }
 
     /**
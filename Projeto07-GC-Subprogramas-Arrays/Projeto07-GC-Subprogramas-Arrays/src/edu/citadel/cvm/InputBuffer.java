@@ -0,0 +1,267 @@
+package edu.citadel.cvm;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Buffered input for the CVM. Integers and characters are read from the same
+ * byte buffer, so reading one never loses input buffered for the other.
+ * Characters are decoded from UTF-8; integers are parsed directly from the
+ * bytes without creating strings.
+ */
+public class InputBuffer {
+
+    private static final int DEFAULT_SIZE = 8 * 1024;
+
+    private static final int EOF = -1;
+
+    private static final char REPLACEMENT_CHARACTER = '\uFFFD';
+
+    private final InputStream stream;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+
+    /**
+     * number of bytes read from the stream before the buffer
+     */
+    private long consumed;
+
+    /**
+     * true once the end of the stream was read
+     */
+    private boolean eof;
+
+    /**
+     * low surrogate of a supplementary character whose high surrogate was
+     * already returned, or 0 if none
+     */
+    private char lowSurrogate;
+
+    /**
+     * Construct an input buffer with the default size for the specified
+     * stream.
+     */
+    public InputBuffer( InputStream stream ) {
+        this( stream, DEFAULT_SIZE );
+    }
+
+    /**
+     * Construct an input buffer of the specified size for the specified
+     * stream.
+     */
+    public InputBuffer( InputStream stream, int size ) {
+        this.stream = stream;
+        this.buffer = new byte[size];
+        this.position = 0;
+        this.limit = 0;
+    }
+
+    /**
+     * Skip whitespace and read a signed decimal integer. The integer must be
+     * followed by whitespace or the end of the input, which is not consumed.
+     *
+     * @throws NumberFormatException if the next token is not an integer in
+     * the range of int.
+     * @throws EOFException if only whitespace is left in the input.
+     */
+    public int getInt() throws IOException {
+        int b = read();
+        while ( isWhitespace( b ) ) {
+            b = read();
+        }
+
+        if ( b == EOF ) {
+            throw new EOFException();
+        }
+
+        boolean negative = false;
+        if ( b == '-' || b == '+' ) {
+            negative = b == '-';
+            b = read();
+        }
+
+        if ( !isDigit( b ) ) {
+            throw new NumberFormatException();
+        }
+
+        // accumulate negatively so that Integer.MIN_VALUE can be read
+        int limitValue = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        int result = 0;
+
+        while ( isDigit( b ) ) {
+            int digit = b - '0';
+            if ( result < ( limitValue + digit ) / 10 ) {
+                throw new NumberFormatException();
+            }
+
+            result = result * 10 - digit;
+            b = peek();
+            if ( isDigit( b ) ) {
+                ++position;
+            }
+        }
+
+        if ( b != EOF && !isWhitespace( b ) ) {
+            throw new NumberFormatException();
+        }
+
+        return negative ? result : -result;
+    }
+
+    /**
+     * Read the next character decoded from UTF-8, or -1 at the end of the
+     * input. Characters outside the Basic Multilingual Plane are returned as
+     * two surrogates; malformed input is returned as U+FFFD.
+     */
+    public int getChar() throws IOException {
+        if ( lowSurrogate != 0 ) {
+            char c = lowSurrogate;
+            lowSurrogate = 0;
+            return c;
+        }
+
+        int b = read();
+        if ( b < 0x80 ) {
+            return b;
+        }
+
+        int numContinuation;
+        int codePoint;
+
+        if ( ( b & 0xE0 ) == 0xC0 ) {
+            numContinuation = 1;
+            codePoint = b & 0x1F;
+        } else if ( ( b & 0xF0 ) == 0xE0 ) {
+            numContinuation = 2;
+            codePoint = b & 0x0F;
+        } else if ( ( b & 0xF8 ) == 0xF0 ) {
+            numContinuation = 3;
+            codePoint = b & 0x07;
+        } else {
+            return REPLACEMENT_CHARACTER;
+        }
+
+        for ( int i = 0; i < numContinuation; ++i ) {
+            int next = peek();
+            if ( next == EOF || ( next & 0xC0 ) != 0x80 ) {
+                return REPLACEMENT_CHARACTER;
+            }
+
+            ++position;
+            codePoint = ( codePoint << 6 ) | ( next & 0x3F );
+        }
+
+        if ( !Character.isValidCodePoint( codePoint ) ) {
+            return REPLACEMENT_CHARACTER;
+        }
+
+        if ( Character.isSupplementaryCodePoint( codePoint ) ) {
+            lowSurrogate = Character.lowSurrogate( codePoint );
+            return Character.highSurrogate( codePoint );
+        }
+
+        return codePoint;
+    }
+
+    /**
+     * Returns true if the next read can start without waiting for the stream:
+     * input is buffered, available from the stream, or the end of the stream
+     * was reached. An integer split across writes to the stream can still
+     * wait for its remaining digits.
+     */
+    public boolean isReady() {
+        if ( position < limit || lowSurrogate != 0 || eof ) {
+            return true;
+        }
+
+        try {
+            return stream.available() > 0;
+        } catch ( IOException e ) {
+            // let the next read report the error
+            return true;
+        }
+    }
+
+    /**
+     * Returns the number of bytes of input read so far.
+     */
+    public long getPosition() {
+        return consumed + position;
+    }
+
+    /**
+     * Returns the low surrogate that the next getChar() returns without
+     * reading input, or 0.
+     */
+    public char getPendingSurrogate() {
+        return lowSurrogate;
+    }
+
+    /**
+     * Continues input saved with getPosition() and getPendingSurrogate()
+     * from the start of the same input: the first position bytes of the
+     * stream are skipped. Nothing may have been read from the buffer yet.
+     */
+    public void restore( long position, char pendingSurrogate ) throws IOException {
+        if ( getPosition() != 0 ) {
+            throw new IllegalStateException( "input was already read" );
+        }
+
+        for ( long i = 0; i < position; ++i ) {
+            if ( read() == EOF ) {
+                throw new EOFException();
+            }
+        }
+
+        lowSurrogate = pendingSurrogate;
+    }
+
+    private static boolean isDigit( int b ) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isWhitespace( int b ) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0x0B;
+    }
+
+    /**
+     * Return the next byte without consuming it, or -1 at the end of the
+     * input.
+     */
+    private int peek() throws IOException {
+        if ( position == limit && !fill() ) {
+            return EOF;
+        }
+
+        return buffer[position] & 0xFF;
+    }
+
+    /**
+     * Consume and return the next byte, or -1 at the end of the input.
+     */
+    private int read() throws IOException {
+        if ( position == limit && !fill() ) {
+            return EOF;
+        }
+
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * Refill the empty buffer, returning false at the end of the input.
+     */
+    private boolean fill() throws IOException {
+        int n = stream.read( buffer, 0, buffer.length );
+        if ( n <= 0 ) {
+            eof = n < 0;
+            return false;
+        }
+
+        consumed += limit;
+        position = 0;
+        limit = n;
+        return true;
+    }
+}
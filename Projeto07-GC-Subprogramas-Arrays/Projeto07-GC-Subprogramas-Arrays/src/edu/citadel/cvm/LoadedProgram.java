@@ -0,0 +1,214 @@
+package edu.citadel.cvm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The object code of a CPRL program, read once from an object file and ready
+ * to be loaded into any number of virtual machines. The pre-decoded form of
+ * the program is computed by the first virtual machine that loads it and
+ * shared with the others, so loading the same program again costs only a
+ * memory copy.
+ */
+public final class LoadedProgram {
+
+    /**
+     * files at least this large are mapped instead of read
+     */
+    private static final long MAP_THRESHOLD = 64 * 1024;
+
+    private final ObjectFile objectFile;
+    private final byte[] objectCode;
+
+    // pre-decoded form, set once by the first virtual machine
+    private volatile boolean decoded;
+    private int[] code;
+    private int[] addrToIndex;
+    private int[] indexToAddr;
+    private StringConstants strings;
+
+    // register-based form, translated by the first virtual machine that
+    // needs it
+    private RegisterCode registerCode;
+
+    // result of verification, set by the first virtual machine that verifies
+    private boolean verified;
+    private int stackBound;
+
+    private LoadedProgram( ObjectFile objectFile ) {
+        this.objectFile = objectFile;
+        this.objectCode = objectFile.getCode();
+    }
+
+    /**
+     * Reads the object file with the specified name. Large files are mapped
+     * into memory and copied in bulk; small files are read with a single
+     * channel read.
+     *
+     * @see ObjectFile#read(ByteBuffer)
+     */
+    public static LoadedProgram load( File file ) throws IOException {
+        try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+            return load( channel );
+        }
+    }
+
+    /**
+     * Reads the object file from the current position of the channel to its
+     * end. The channel is not closed.
+     */
+    public static LoadedProgram load( FileChannel channel ) throws IOException {
+        long position = channel.position();
+        long size = channel.size() - position;
+
+        if ( size > Integer.MAX_VALUE ) {
+            throw new IOException( "Object code too large: " + size + " bytes" );
+        }
+
+        byte[] bytes = new byte[(int) size];
+
+        if ( size >= MAP_THRESHOLD ) {
+            MappedByteBuffer mapped = channel.map( FileChannel.MapMode.READ_ONLY, position, size );
+            mapped.get( bytes );
+        } else {
+            ByteBuffer buffer = ByteBuffer.wrap( bytes );
+            while ( buffer.hasRemaining() ) {
+                if ( channel.read( buffer, position + buffer.position() ) < 0 ) {
+                    throw new IOException( "Unexpected end of object code" );
+                }
+            }
+        }
+
+        channel.position( position + size );
+        return new LoadedProgram( ObjectFile.read( bytes ) );
+    }
+
+    /**
+     * Returns a program with a copy of the specified object file or bare
+     * machine code, e.g., as produced by the assembler.
+     *
+     * @throws IllegalArgumentException if the object file is malformed
+     */
+    public static LoadedProgram of( byte[] objectCode ) {
+        return of( ByteBuffer.wrap( objectCode ) );
+    }
+
+    /**
+     * Returns a program with a copy of the object file or bare machine code
+     * in the remaining bytes of the buffer. The position of the buffer is not
+     * changed.
+     *
+     * @throws IllegalArgumentException if the object file is malformed
+     */
+    public static LoadedProgram of( ByteBuffer objectCode ) {
+        byte[] bytes = new byte[objectCode.remaining()];
+        objectCode.duplicate().get( bytes );
+
+        try {
+            return new LoadedProgram( ObjectFile.read( bytes ) );
+        } catch ( IOException e ) {
+            throw new IllegalArgumentException( e.getMessage(), e );
+        }
+    }
+
+    /**
+     * Returns the object file of the program, with its symbols and source
+     * lines, if any.
+     */
+    public ObjectFile getObjectFile() {
+        return objectFile;
+    }
+
+    /**
+     * Returns the size of the object code in bytes.
+     */
+    public int getSize() {
+        return objectCode.length;
+    }
+
+    /**
+     * Copies the object code to the start of memory.
+     */
+    void copyTo( byte[] memory ) {
+        System.arraycopy( objectCode, 0, memory, 0, objectCode.length );
+    }
+
+    boolean isDecoded() {
+        return decoded;
+    }
+
+    /**
+     * Records the pre-decoded form of the program. Only the first call has an
+     * effect; the arrays must not be modified afterwards.
+     */
+    synchronized void setDecoded( int[] code, int[] addrToIndex, int[] indexToAddr, StringConstants strings ) {
+        if ( !decoded ) {
+            this.code = code;
+            this.addrToIndex = addrToIndex;
+            this.indexToAddr = indexToAddr;
+            this.strings = strings;
+            decoded = true;
+        }
+    }
+
+    int[] getCode() {
+        return code;
+    }
+
+    int[] getAddrToIndex() {
+        return addrToIndex;
+    }
+
+    int[] getIndexToAddr() {
+        return indexToAddr;
+    }
+
+    /**
+     * Returns the register-based form of the pre-decoded program, translating
+     * it the first time it is called.
+     */
+    synchronized RegisterCode getRegisterCode() {
+        if ( registerCode == null ) {
+            registerCode = new RegisterTranslator( code, objectCode.length ).translate();
+        }
+
+        return registerCode;
+    }
+
+    /**
+     * Verifies the program the first time it is called, and returns the bound
+     * on the number of bytes pushed by a frame above its local variables.
+     *
+     * @throws VerificationException if the program fails verification
+     */
+    synchronized int verify() {
+        if ( !verified ) {
+            stackBound = Verifier.verify( objectCode );
+            verified = true;
+        }
+
+        return stackBound;
+    }
+
+    StringConstants getStrings() {
+        return strings;
+    }
+
+    /**
+     * Returns the string pool of the object file, or an empty map if it is
+     * malformed; the pool only saves encoding the literals again.
+     */
+    Map<Integer, byte[]> getStringPool() {
+        try {
+            return objectFile.getStrings();
+        } catch ( IOException e ) {
+            return Collections.emptyMap();
+        }
+    }
+}
@@ -0,0 +1,488 @@
+package edu.citadel.cvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * The contents of an object file written by the assembler. An object file
+ * starts with a header (magic number, version, code size, required stack,
+ * and entry point) followed by tagged sections, each with its length:
+ *
+ * <ul>
+ * <li>CODE: the machine code, loaded at address 0.</li>
+ * <li>STRINGS: the string literals of the code (the operands of its LDCSTR
+ * instructions), encoded as UTF-8 and keyed by the address of their
+ * characters.</li>
+ * <li>SYMBOLS (optional): code labels and subprogram names.</li>
+ * <li>LINES (optional): the CPRL source line of the statements that start at
+ * code addresses.</li>
+ * </ul>
+ *
+ * Readers skip sections that they don't know, and the optional sections are
+ * decoded only when they are first requested. A file that does not start
+ * with the magic number is taken as bare machine code, as written by older
+ * versions of the assembler; no opcode has the value of the first byte of
+ * the magic number.
+ */
+public final class ObjectFile {
+
+    /**
+     * "CVMO"
+     */
+    public static final int MAGIC = 0x43564D4F;
+
+    /**
+     * version 2 added the short branches; version 1 files are still read
+     */
+    public static final int VERSION = 2;
+
+    // six integers, and the tag and length of a section
+    private static final int HEADER_LENGTH = 24;
+    private static final int SECTION_HEADER_LENGTH = 8;
+
+    private static final int CODE_SECTION = 1;
+    private static final int STRING_SECTION = 2;
+    private static final int SYMBOL_SECTION = 3;
+    private static final int LINE_SECTION = 4;
+
+    private static final byte LABEL = 0;
+    private static final byte SUBPROGRAM = 1;
+
+    private final byte[] code;
+    private final int requiredStack;
+    private final int entryPoint;
+
+    // payloads of the sections read from a file, decoded when first requested
+    private ByteBuffer stringSection;
+    private ByteBuffer symbolSection;
+    private ByteBuffer lineSection;
+
+    private NavigableMap<Integer, byte[]> strings;
+    private NavigableMap<Integer, String> labels;
+    private NavigableMap<Integer, String> subprograms;
+    private NavigableMap<Integer, Integer> lines;
+
+    /**
+     * Construct an object file for the specified machine code, e.g., as
+     * emitted by the assembler. The string pool and the required stack are
+     * computed from the code; symbols and lines can be added before the file
+     * is written.
+     */
+    public ObjectFile( byte[] code ) {
+        this.code = code.clone();
+        this.requiredStack = computeRequiredStack( this.code );
+        this.entryPoint = 0;
+        this.strings = collectStrings( this.code );
+        this.labels = new TreeMap<>();
+        this.subprograms = new TreeMap<>();
+        this.lines = new TreeMap<>();
+    }
+
+    private ObjectFile( byte[] code, int requiredStack, int entryPoint ) {
+        this.code = code;
+        this.requiredStack = requiredStack;
+        this.entryPoint = entryPoint;
+    }
+
+    /**
+     * Reads an object file from the remaining bytes of the buffer, or takes
+     * them as bare machine code if they don't start with the magic number.
+     * Only the header and the code are decoded.
+     *
+     * @throws IOException if the object file is malformed or has an
+     * unsupported version
+     */
+    public static ObjectFile read( ByteBuffer buffer ) throws IOException {
+        ByteBuffer in = buffer.slice();
+
+        if ( in.remaining() < 4 || in.getInt( 0 ) != MAGIC ) {
+            byte[] code = new byte[in.remaining()];
+            in.get( code );
+            return new ObjectFile( code, 0, 0 );
+        }
+
+        try {
+            in.getInt();
+            int version = in.getInt();
+            if ( version < 1 || version > VERSION ) {
+                throw new IOException( "Unsupported object file version " + version );
+            }
+
+            int codeSize = in.getInt();
+            int requiredStack = in.getInt();
+            int entryPoint = in.getInt();
+            int numSections = in.getInt();
+
+            // the CVM always starts at address 0
+            if ( entryPoint != 0 ) {
+                throw new IOException( "Unsupported entry point " + entryPoint );
+            }
+
+            ObjectFile objectFile = null;
+            ByteBuffer stringSection = null;
+            ByteBuffer symbolSection = null;
+            ByteBuffer lineSection = null;
+
+            for ( int i = 0; i < numSections; ++i ) {
+                int tag = in.getInt();
+                int length = in.getInt();
+                if ( length < 0 || length > in.remaining() ) {
+                    throw new IOException( "Invalid object file: section " + tag + " extends past the end" );
+                }
+
+                ByteBuffer section = in.slice();
+                section.limit( length );
+                in.position( in.position() + length );
+
+                if ( tag == CODE_SECTION ) {
+                    if ( length != codeSize ) {
+                        throw new IOException( "Invalid object file: code size " + codeSize
+                                + " differs from the code section" );
+                    }
+                    byte[] code = new byte[length];
+                    section.get( code );
+                    objectFile = new ObjectFile( code, requiredStack, entryPoint );
+                } else if ( tag == STRING_SECTION ) {
+                    stringSection = section;
+                } else if ( tag == SYMBOL_SECTION ) {
+                    symbolSection = section;
+                } else if ( tag == LINE_SECTION ) {
+                    lineSection = section;
+                }
+            }
+
+            if ( objectFile == null ) {
+                throw new IOException( "Invalid object file: no code section" );
+            }
+
+            objectFile.stringSection = stringSection;
+            objectFile.symbolSection = symbolSection;
+            objectFile.lineSection = lineSection;
+            return objectFile;
+        } catch ( BufferUnderflowException e ) {
+            throw new IOException( "Invalid object file: unexpected end of file" );
+        }
+    }
+
+    /**
+     * Reads an object file from the specified bytes.
+     *
+     * @see #read(ByteBuffer)
+     */
+    public static ObjectFile read( byte[] bytes ) throws IOException {
+        return read( ByteBuffer.wrap( bytes ) );
+    }
+
+    /**
+     * Writes the object file.
+     *
+     * @see #toByteArray()
+     */
+    public void write( OutputStream out ) throws IOException {
+        out.write( toByteArray() );
+        out.flush();
+    }
+
+    /**
+     * Returns the contents of the object file. The symbol and line sections
+     * are written only if they are not empty.
+     */
+    public byte[] toByteArray() throws IOException {
+        byte[] stringBytes = encodeStrings();
+        byte[] symbolBytes = encodeSymbols();
+        byte[] lineBytes = encodeLines();
+
+        int numSections = 2 + ( symbolBytes != null ? 1 : 0 ) + ( lineBytes != null ? 1 : 0 );
+        int length = HEADER_LENGTH + SECTION_HEADER_LENGTH * numSections + code.length + stringBytes.length
+                + ( symbolBytes != null ? symbolBytes.length : 0 )
+                + ( lineBytes != null ? lineBytes.length : 0 );
+
+        ByteBuffer out = ByteBuffer.allocate( length );
+        out.putInt( MAGIC );
+        out.putInt( VERSION );
+        out.putInt( code.length );
+        out.putInt( requiredStack );
+        out.putInt( entryPoint );
+        out.putInt( numSections );
+
+        putSection( out, CODE_SECTION, code );
+        putSection( out, STRING_SECTION, stringBytes );
+
+        if ( symbolBytes != null ) {
+            putSection( out, SYMBOL_SECTION, symbolBytes );
+        }
+
+        if ( lineBytes != null ) {
+            putSection( out, LINE_SECTION, lineBytes );
+        }
+
+        return out.array();
+    }
+
+    /**
+     * Returns the machine code. The array must not be modified.
+     */
+    public byte[] getCode() {
+        return code;
+    }
+
+    /**
+     * Returns the number of bytes of stack used by the frame of the main
+     * program: its variables plus the most bytes that it pushes above them,
+     * or 0 if it is not known. The frames of the subprograms that it calls
+     * are not included, so a program usually needs more stack than this.
+     */
+    public int getRequiredStack() {
+        return requiredStack;
+    }
+
+    /**
+     * Returns the address of the first instruction executed, which is
+     * always 0 in this version.
+     */
+    public int getEntryPoint() {
+        return entryPoint;
+    }
+
+    /**
+     * Returns the string literals of the code, encoded as UTF-8 and keyed by
+     * the address of their characters. The arrays must not be modified.
+     */
+    public synchronized NavigableMap<Integer, byte[]> getStrings() throws IOException {
+        if ( strings == null ) {
+            strings = new TreeMap<>();
+
+            if ( stringSection != null ) {
+                ByteBuffer in = stringSection.duplicate();
+                try {
+                    for ( int i = in.getInt(); i > 0; --i ) {
+                        int address = in.getInt();
+                        byte[] encoded = new byte[in.getInt()];
+                        in.get( encoded );
+                        strings.put( address, encoded );
+                    }
+                } catch ( BufferUnderflowException | NegativeArraySizeException e ) {
+                    throw new IOException( "Invalid object file: malformed string section" );
+                }
+            }
+        }
+
+        return Collections.unmodifiableNavigableMap( strings );
+    }
+
+    /**
+     * Returns a name for each code address that has a symbol: the name of the
+     * subprogram that starts there or else the first label of the address.
+     */
+    public synchronized NavigableMap<Integer, String> getSymbols() throws IOException {
+        decodeSymbols();
+
+        NavigableMap<Integer, String> symbols = new TreeMap<>( labels );
+        symbols.putAll( subprograms );
+        return symbols;
+    }
+
+    /**
+     * Returns the source line of the statements that start at code
+     * addresses; an instruction belongs to the nearest entry at or before its
+     * address.
+     */
+    public synchronized NavigableMap<Integer, Integer> getLines() throws IOException {
+        if ( lines == null ) {
+            lines = new TreeMap<>();
+
+            if ( lineSection != null ) {
+                ByteBuffer in = lineSection.duplicate();
+                try {
+                    for ( int i = in.getInt(); i > 0; --i ) {
+                        int address = in.getInt();
+                        lines.put( address, in.getInt() );
+                    }
+                } catch ( BufferUnderflowException e ) {
+                    throw new IOException( "Invalid object file: malformed line section" );
+                }
+            }
+        }
+
+        return Collections.unmodifiableNavigableMap( lines );
+    }
+
+    /**
+     * Adds a label for the specified code address. Only the first label of an
+     * address is kept.
+     */
+    public synchronized void addLabel( int address, String label ) throws IOException {
+        decodeSymbols();
+        labels.putIfAbsent( address, label );
+    }
+
+    /**
+     * Adds the name of the subprogram that starts at the specified address.
+     */
+    public synchronized void addSubprogram( int address, String name ) throws IOException {
+        decodeSymbols();
+        subprograms.put( address, name );
+    }
+
+    /**
+     * Adds the source line of the statement that starts at the specified
+     * address.
+     */
+    public synchronized void addLine( int address, int line ) throws IOException {
+        getLines();
+        lines.put( address, line );
+    }
+
+    private void decodeSymbols() throws IOException {
+        if ( labels != null ) {
+            return;
+        }
+
+        labels = new TreeMap<>();
+        subprograms = new TreeMap<>();
+
+        if ( symbolSection != null ) {
+            ByteBuffer in = symbolSection.duplicate();
+            try {
+                for ( int i = in.getInt(); i > 0; --i ) {
+                    int address = in.getInt();
+                    byte kind = in.get();
+                    byte[] name = new byte[in.getInt()];
+                    in.get( name );
+
+                    if ( kind == SUBPROGRAM ) {
+                        subprograms.put( address, new String( name, StandardCharsets.UTF_8 ) );
+                    } else {
+                        labels.putIfAbsent( address, new String( name, StandardCharsets.UTF_8 ) );
+                    }
+                }
+            } catch ( BufferUnderflowException | NegativeArraySizeException e ) {
+                throw new IOException( "Invalid object file: malformed symbol section" );
+            }
+        }
+    }
+
+    private byte[] encodeStrings() throws IOException {
+        NavigableMap<Integer, byte[]> pool = getStrings();
+        int length = 4;
+        for ( byte[] encoded : pool.values() ) {
+            length += 8 + encoded.length;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate( length );
+        out.putInt( pool.size() );
+        for ( Map.Entry<Integer, byte[]> entry : pool.entrySet() ) {
+            out.putInt( entry.getKey() ).putInt( entry.getValue().length ).put( entry.getValue() );
+        }
+
+        return out.array();
+    }
+
+    private byte[] encodeSymbols() throws IOException {
+        decodeSymbols();
+        if ( labels.isEmpty() && subprograms.isEmpty() ) {
+            return null;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        out.writeInt( labels.size() + subprograms.size() );
+        writeSymbols( out, labels, LABEL );
+        writeSymbols( out, subprograms, SUBPROGRAM );
+        return bytes.toByteArray();
+    }
+
+    private static void writeSymbols( DataOutputStream out, Map<Integer, String> symbols, byte kind )
+            throws IOException {
+        for ( Map.Entry<Integer, String> symbol : symbols.entrySet() ) {
+            byte[] name = symbol.getValue().getBytes( StandardCharsets.UTF_8 );
+            out.writeInt( symbol.getKey() );
+            out.writeByte( kind );
+            out.writeInt( name.length );
+            out.write( name );
+        }
+    }
+
+    private byte[] encodeLines() throws IOException {
+        NavigableMap<Integer, Integer> table = getLines();
+        if ( table.isEmpty() ) {
+            return null;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate( 4 + 8 * table.size() );
+        out.putInt( table.size() );
+        for ( Map.Entry<Integer, Integer> line : table.entrySet() ) {
+            out.putInt( line.getKey() ).putInt( line.getValue() );
+        }
+
+        return out.array();
+    }
+
+    private static void putSection( ByteBuffer out, int tag, byte[] payload ) {
+        out.putInt( tag ).putInt( payload.length ).put( payload );
+    }
+
+    /**
+     * Returns the string literals of the LDCSTR instructions of the code,
+     * up to the first invalid instruction.
+     */
+    private static NavigableMap<Integer, byte[]> collectStrings( byte[] code ) {
+        NavigableMap<Integer, byte[]> strings = new TreeMap<>();
+
+        int addr = 0;
+        while ( addr < code.length ) {
+            int length = OpCodeInfo.getLength( code, addr, code.length );
+            if ( length == 0 ) {
+                break;
+            }
+
+            if ( code[addr] == OpCode.LDCSTR ) {
+                int charsAddr = addr + 1 + Constants.BYTES_PER_INTEGER;
+                char[] chars = new char[OpCodeInfo.getIntOperand( code, addr )];
+                for ( int i = 0; i < chars.length; ++i ) {
+                    int charAddr = charsAddr + i * Constants.BYTES_PER_CHAR;
+                    chars[i] = (char) ( ( ( code[charAddr] & 0xFF ) << 8 ) | ( code[charAddr + 1] & 0xFF ) );
+                }
+                strings.put( charsAddr, new String( chars ).getBytes( StandardCharsets.UTF_8 ) );
+            }
+
+            addr += length;
+        }
+
+        return strings;
+    }
+
+    /**
+     * Returns the variables of the main program (the operand of its PROGRAM
+     * instruction) plus the bound computed by the verifier, or 0 if the code
+     * fails verification.
+     */
+    private static int computeRequiredStack( byte[] code ) {
+        int bound;
+        try {
+            bound = Verifier.verify( code );
+        } catch ( VerificationException e ) {
+            return 0;
+        }
+
+        // the main program may be preceded by a branch around the subprograms
+        int addr = 0;
+        while ( code[addr] != OpCode.PROGRAM ) {
+            addr += OpCodeInfo.getLength( code, addr, code.length );
+            if ( addr >= code.length ) {
+                return bound;
+            }
+        }
+
+        return OpCodeInfo.getIntOperand( code, addr ) + bound;
+    }
+}
@@ -32,6 +32,12 @@ public final class OpCode {
     public static final byte STORE2B = 32;
     public static final byte STOREW = 33;
 
+    // block copy opcode (moves data from memory to memory)
+    public static final byte COPY = 34;
+
+    // array bounds check opcode
+    public static final byte CHKIDX = 35;
+
     // compare/branch opcodes
     public static final byte CMP = 40;
     public static final byte BR = 41;
@@ -75,6 +81,93 @@ public final class OpCode {
     public static final byte RET = 93;
     public static final byte ALLOC = 94;
 
+    // superinstructions (fused sequences that are frequent in generated code)
+    public static final byte LDLW = 100;
+    public static final byte LDGW = 101;
+    public static final byte STLW = 102;
+    public static final byte STGW = 103;
+    public static final byte ADDI = 104;
+    public static final byte SHLADD = 105;
+
+    // compare-and-branch opcodes (compare two ints, chars, or bytes and branch;
+    // the suffix gives the type of the operands as for LOADW, LOAD2B, LOADB)
+    public static final byte BEQW = 110;
+    public static final byte BNEW = 111;
+    public static final byte BLTW = 112;
+    public static final byte BLEW = 113;
+    public static final byte BGTW = 114;
+    public static final byte BGEW = 115;
+
+    public static final byte BEQ2B = 116;
+    public static final byte BNE2B = 117;
+    public static final byte BLT2B = 118;
+    public static final byte BLE2B = 119;
+    public static final byte BGT2B = 120;
+    public static final byte BGE2B = 121;
+
+    public static final byte BEQB = 122;
+    public static final byte BNEB = 123;
+    public static final byte BLTB = 124;
+    public static final byte BLEB = 125;
+    public static final byte BGTB = 126;
+    public static final byte BGEB = 127;
+
+    // short branch opcodes: the branches above with a displacement of 1 byte
+    // (suffix 8) or 2 bytes (suffix 16) instead of 4, chosen by the assembler
+    // when the target is in range; there is no CALL8
+    public static final byte BR8 = (byte) 128;
+    public static final byte BNZ8 = (byte) 129;
+    public static final byte BZ8 = (byte) 130;
+    public static final byte BG8 = (byte) 131;
+    public static final byte BGE8 = (byte) 132;
+    public static final byte BL8 = (byte) 133;
+    public static final byte BLE8 = (byte) 134;
+    public static final byte BEQW8 = (byte) 135;
+    public static final byte BNEW8 = (byte) 136;
+    public static final byte BLTW8 = (byte) 137;
+    public static final byte BLEW8 = (byte) 138;
+    public static final byte BGTW8 = (byte) 139;
+    public static final byte BGEW8 = (byte) 140;
+    public static final byte BEQ2B8 = (byte) 141;
+    public static final byte BNE2B8 = (byte) 142;
+    public static final byte BLT2B8 = (byte) 143;
+    public static final byte BLE2B8 = (byte) 144;
+    public static final byte BGT2B8 = (byte) 145;
+    public static final byte BGE2B8 = (byte) 146;
+    public static final byte BEQB8 = (byte) 147;
+    public static final byte BNEB8 = (byte) 148;
+    public static final byte BLTB8 = (byte) 149;
+    public static final byte BLEB8 = (byte) 150;
+    public static final byte BGTB8 = (byte) 151;
+    public static final byte BGEB8 = (byte) 152;
+
+    public static final byte BR16 = (byte) 160;
+    public static final byte BNZ16 = (byte) 161;
+    public static final byte BZ16 = (byte) 162;
+    public static final byte BG16 = (byte) 163;
+    public static final byte BGE16 = (byte) 164;
+    public static final byte BL16 = (byte) 165;
+    public static final byte BLE16 = (byte) 166;
+    public static final byte BEQW16 = (byte) 167;
+    public static final byte BNEW16 = (byte) 168;
+    public static final byte BLTW16 = (byte) 169;
+    public static final byte BLEW16 = (byte) 170;
+    public static final byte BGTW16 = (byte) 171;
+    public static final byte BGEW16 = (byte) 172;
+    public static final byte BEQ2B16 = (byte) 173;
+    public static final byte BNE2B16 = (byte) 174;
+    public static final byte BLT2B16 = (byte) 175;
+    public static final byte BLE2B16 = (byte) 176;
+    public static final byte BGT2B16 = (byte) 177;
+    public static final byte BGE2B16 = (byte) 178;
+    public static final byte BEQB16 = (byte) 179;
+    public static final byte BNEB16 = (byte) 180;
+    public static final byte BLTB16 = (byte) 181;
+    public static final byte BLEB16 = (byte) 182;
+    public static final byte BGTB16 = (byte) 183;
+    public static final byte BGEB16 = (byte) 184;
+    public static final byte CALL16 = (byte) 185;
+
     /**
      * Returns a string representation for an opcode. Returns Byte.toString(n)
      * if the argument does not have a value equal to any of the declared
@@ -120,6 +213,10 @@ public final class OpCode {
                 return "STORE2B";
             case STOREW:
                 return "STOREW";
+            case COPY:
+                return "COPY";
+            case CHKIDX:
+                return "CHKIDX";
             case CMP:
                 return "CMP";
             case BR:
@@ -182,6 +279,156 @@ public final class OpCode {
                 return "RET";
             case ALLOC:
                 return "ALLOC";
+            case LDLW:
+                return "LDLW";
+            case LDGW:
+                return "LDGW";
+            case STLW:
+                return "STLW";
+            case STGW:
+                return "STGW";
+            case ADDI:
+                return "ADDI";
+            case SHLADD:
+                return "SHLADD";
+            case BEQW:
+                return "BEQW";
+            case BNEW:
+                return "BNEW";
+            case BLTW:
+                return "BLTW";
+            case BLEW:
+                return "BLEW";
+            case BGTW:
+                return "BGTW";
+            case BGEW:
+                return "BGEW";
+            case BEQ2B:
+                return "BEQ2B";
+            case BNE2B:
+                return "BNE2B";
+            case BLT2B:
+                return "BLT2B";
+            case BLE2B:
+                return "BLE2B";
+            case BGT2B:
+                return "BGT2B";
+            case BGE2B:
+                return "BGE2B";
+            case BEQB:
+                return "BEQB";
+            case BNEB:
+                return "BNEB";
+            case BLTB:
+                return "BLTB";
+            case BLEB:
+                return "BLEB";
+            case BGTB:
+                return "BGTB";
+            case BGEB:
+                return "BGEB";
+            case BR8:
+                return "BR8";
+            case BNZ8:
+                return "BNZ8";
+            case BZ8:
+                return "BZ8";
+            case BG8:
+                return "BG8";
+            case BGE8:
+                return "BGE8";
+            case BL8:
+                return "BL8";
+            case BLE8:
+                return "BLE8";
+            case BEQW8:
+                return "BEQW8";
+            case BNEW8:
+                return "BNEW8";
+            case BLTW8:
+                return "BLTW8";
+            case BLEW8:
+                return "BLEW8";
+            case BGTW8:
+                return "BGTW8";
+            case BGEW8:
+                return "BGEW8";
+            case BEQ2B8:
+                return "BEQ2B8";
+            case BNE2B8:
+                return "BNE2B8";
+            case BLT2B8:
+                return "BLT2B8";
+            case BLE2B8:
+                return "BLE2B8";
+            case BGT2B8:
+                return "BGT2B8";
+            case BGE2B8:
+                return "BGE2B8";
+            case BEQB8:
+                return "BEQB8";
+            case BNEB8:
+                return "BNEB8";
+            case BLTB8:
+                return "BLTB8";
+            case BLEB8:
+                return "BLEB8";
+            case BGTB8:
+                return "BGTB8";
+            case BGEB8:
+                return "BGEB8";
+            case BR16:
+                return "BR16";
+            case BNZ16:
+                return "BNZ16";
+            case BZ16:
+                return "BZ16";
+            case BG16:
+                return "BG16";
+            case BGE16:
+                return "BGE16";
+            case BL16:
+                return "BL16";
+            case BLE16:
+                return "BLE16";
+            case BEQW16:
+                return "BEQW16";
+            case BNEW16:
+                return "BNEW16";
+            case BLTW16:
+                return "BLTW16";
+            case BLEW16:
+                return "BLEW16";
+            case BGTW16:
+                return "BGTW16";
+            case BGEW16:
+                return "BGEW16";
+            case BEQ2B16:
+                return "BEQ2B16";
+            case BNE2B16:
+                return "BNE2B16";
+            case BLT2B16:
+                return "BLT2B16";
+            case BLE2B16:
+                return "BLE2B16";
+            case BGT2B16:
+                return "BGT2B16";
+            case BGE2B16:
+                return "BGE2B16";
+            case BEQB16:
+                return "BEQB16";
+            case BNEB16:
+                return "BNEB16";
+            case BLTB16:
+                return "BLTB16";
+            case BLEB16:
+                return "BLEB16";
+            case BGTB16:
+                return "BGTB16";
+            case BGEB16:
+                return "BGEB16";
+            case CALL16:
+                return "CALL16";
             default:
                 return Byte.toString( n );
         }
@@ -0,0 +1,391 @@
+package edu.citadel.cvm;
+
+import edu.citadel.compiler.util.ByteUtil;
+
+/**
+ * Metadata for the opcodes of the CVM: the kind of operand of each opcode,
+ * the number of bytes that it pops from and pushes onto the stack, and how it
+ * transfers control. The verifier, the loader, and the disassembler read the
+ * instructions of a program through this table. The short branches (see
+ * OpCode) have the same metadata as their long forms, except for the size of
+ * the displacement.
+ */
+public final class OpCodeInfo {
+
+    /**
+     * the kinds of operands that follow an opcode in the object code
+     */
+    public enum Operand {
+        NONE( 0 ),
+        BYTE( 1 ),
+        CHAR( Constants.BYTES_PER_CHAR ),
+        INT( Constants.BYTES_PER_INTEGER ),
+
+        /**
+         * branch or call displacement relative to the address of the opcode
+         */
+        DISPLACEMENT( Constants.BYTES_PER_INTEGER ),
+
+        /**
+         * displacement of a short branch, as for DISPLACEMENT
+         */
+        DISPLACEMENT8( 1 ),
+        DISPLACEMENT16( 2 ),
+
+        /**
+         * length of a string followed by its characters
+         */
+        STRING( Constants.BYTES_PER_INTEGER );
+
+        private final int size;
+
+        private Operand( int size ) {
+            this.size = size;
+        }
+
+        /**
+         * Returns the size of the operand in bytes (for STRING, the size of
+         * its length only).
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * Returns true if the operand is a branch or call displacement.
+         */
+        public boolean isDisplacement() {
+            return this == DISPLACEMENT || this == DISPLACEMENT8 || this == DISPLACEMENT16;
+        }
+    }
+
+    /**
+     * how an instruction transfers control
+     */
+    public enum Flow {
+        /** continues with the next instruction */
+        NEXT,
+        /** unconditional branch */
+        BRANCH,
+        /** branch or continue with the next instruction */
+        CONDITIONAL_BRANCH,
+        /** call of a subprogram, which returns to the next instruction */
+        CALL,
+        /** return from a subprogram */
+        RETURN,
+        /** stops the program */
+        HALT
+    }
+
+    private static final OpCodeInfo[] TABLE = new OpCodeInfo[256];
+
+    // the short forms of the branch opcodes, indexed by their long forms
+    // (0 if there is none)
+    private static final byte[] FORMS8 = new byte[256];
+    private static final byte[] FORMS16 = new byte[256];
+
+    static {
+        add( OpCode.HALT, Operand.NONE, 0, 0, Flow.HALT );
+
+        // the number of bytes moved by LOAD, STORE, and COPY is their operand
+        add( OpCode.LOAD, Operand.INT, Constants.BYTES_PER_ADDRESS, 0, Flow.NEXT );
+        add( OpCode.LOADB, Operand.NONE, Constants.BYTES_PER_ADDRESS, 1, Flow.NEXT );
+        add( OpCode.LOAD2B, Operand.NONE, Constants.BYTES_PER_ADDRESS, Constants.BYTES_PER_CHAR, Flow.NEXT );
+        add( OpCode.LOADW, Operand.NONE, Constants.BYTES_PER_ADDRESS, Constants.BYTES_PER_INTEGER, Flow.NEXT );
+        add( OpCode.LDCB, Operand.BYTE, 0, 1, Flow.NEXT );
+        add( OpCode.LDCCH, Operand.CHAR, 0, Constants.BYTES_PER_CHAR, Flow.NEXT );
+        add( OpCode.LDCINT, Operand.INT, 0, Constants.BYTES_PER_INTEGER, Flow.NEXT );
+        add( OpCode.LDCSTR, Operand.STRING, 0, 2 * Constants.BYTES_PER_INTEGER, Flow.NEXT );
+        add( OpCode.LDLADDR, Operand.INT, 0, Constants.BYTES_PER_ADDRESS, Flow.NEXT );
+        add( OpCode.LDGADDR, Operand.INT, 0, Constants.BYTES_PER_ADDRESS, Flow.NEXT );
+        add( OpCode.LDCB0, Operand.NONE, 0, 1, Flow.NEXT );
+        add( OpCode.LDCB1, Operand.NONE, 0, 1, Flow.NEXT );
+        add( OpCode.LDCINT0, Operand.NONE, 0, Constants.BYTES_PER_INTEGER, Flow.NEXT );
+        add( OpCode.LDCINT1, Operand.NONE, 0, Constants.BYTES_PER_INTEGER, Flow.NEXT );
+
+        add( OpCode.STORE, Operand.INT, Constants.BYTES_PER_ADDRESS, 0, Flow.NEXT );
+        add( OpCode.STOREB, Operand.NONE, Constants.BYTES_PER_ADDRESS + 1, 0, Flow.NEXT );
+        add( OpCode.STORE2B, Operand.NONE, Constants.BYTES_PER_ADDRESS + Constants.BYTES_PER_CHAR, 0, Flow.NEXT );
+        add( OpCode.STOREW, Operand.NONE, Constants.BYTES_PER_ADDRESS + Constants.BYTES_PER_INTEGER, 0, Flow.NEXT );
+        add( OpCode.COPY, Operand.INT, 2 * Constants.BYTES_PER_ADDRESS, 0, Flow.NEXT );
+
+        // CHKIDX leaves the index that it checks on the stack
+        add( OpCode.CHKIDX, Operand.INT, Constants.BYTES_PER_INTEGER, Constants.BYTES_PER_INTEGER, Flow.NEXT );
+
+        add( OpCode.CMP, Operand.NONE, 2 * Constants.BYTES_PER_INTEGER, 1, Flow.NEXT );
+        add( OpCode.BR, Operand.DISPLACEMENT, 0, 0, Flow.BRANCH );
+        add( OpCode.BNZ, Operand.DISPLACEMENT, 1, 0, Flow.CONDITIONAL_BRANCH );
+        add( OpCode.BZ, Operand.DISPLACEMENT, 1, 0, Flow.CONDITIONAL_BRANCH );
+        add( OpCode.BG, Operand.DISPLACEMENT, 1, 0, Flow.CONDITIONAL_BRANCH );
+        add( OpCode.BGE, Operand.DISPLACEMENT, 1, 0, Flow.CONDITIONAL_BRANCH );
+        add( OpCode.BL, Operand.DISPLACEMENT, 1, 0, Flow.CONDITIONAL_BRANCH );
+        add( OpCode.BLE, Operand.DISPLACEMENT, 1, 0, Flow.CONDITIONAL_BRANCH );
+
+        add( OpCode.BEQW, Operand.DISPLACEMENT, 2 * Constants.BYTES_PER_INTEGER, 0, Flow.CONDITIONAL_BRANCH );
+        add( OpCode.BNEW, Operand.DISPLACEMENT, 2 * Constants.BYTES_PER_INTEGER, 0, Flow.CONDITIONAL_BRANCH );
+        add( OpCode.BLTW, Operand.DISPLACEMENT, 2 * Constants.BYTES_PER_INTEGER, 0, Flow.CONDITIONAL_BRANCH );
+        add( OpCode.BLEW, Operand.DISPLACEMENT, 2 * Constants.BYTES_PER_INTEGER, 0, Flow.CONDITIONAL_BRANCH );
+        add( OpCode.BGTW, Operand.DISPLACEMENT, 2 * Constants.BYTES_PER_INTEGER, 0, Flow.CONDITIONAL_BRANCH );
+        add( OpCode.BGEW, Operand.DISPLACEMENT, 2 * Constants.BYTES_PER_INTEGER, 0, Flow.CONDITIONAL_BRANCH );
+
+        add( OpCode.BEQ2B, Operand.DISPLACEMENT, 2 * Constants.BYTES_PER_CHAR, 0, Flow.CONDITIONAL_BRANCH );
+        add( OpCode.BNE2B, Operand.DISPLACEMENT, 2 * Constants.BYTES_PER_CHAR, 0, Flow.CONDITIONAL_BRANCH );
+        add( OpCode.BLT2B, Operand.DISPLACEMENT, 2 * Constants.BYTES_PER_CHAR, 0, Flow.CONDITIONAL_BRANCH );
+        add( OpCode.BLE2B, Operand.DISPLACEMENT, 2 * Constants.BYTES_PER_CHAR, 0, Flow.CONDITIONAL_BRANCH );
+        add( OpCode.BGT2B, Operand.DISPLACEMENT, 2 * Constants.BYTES_PER_CHAR, 0, Flow.CONDITIONAL_BRANCH );
+        add( OpCode.BGE2B, Operand.DISPLACEMENT, 2 * Constants.BYTES_PER_CHAR, 0, Flow.CONDITIONAL_BRANCH );
+
+        add( OpCode.BEQB, Operand.DISPLACEMENT, 2, 0, Flow.CONDITIONAL_BRANCH );
+        add( OpCode.BNEB, Operand.DISPLACEMENT, 2, 0, Flow.CONDITIONAL_BRANCH );
+        add( OpCode.BLTB, Operand.DISPLACEMENT, 2, 0, Flow.CONDITIONAL_BRANCH );
+        add( OpCode.BLEB, Operand.DISPLACEMENT, 2, 0, Flow.CONDITIONAL_BRANCH );
+        add( OpCode.BGTB, Operand.DISPLACEMENT, 2, 0, Flow.CONDITIONAL_BRANCH );
+        add( OpCode.BGEB, Operand.DISPLACEMENT, 2, 0, Flow.CONDITIONAL_BRANCH );
+
+        add( OpCode.SHL, Operand.BYTE, Constants.BYTES_PER_INTEGER, Constants.BYTES_PER_INTEGER, Flow.NEXT );
+        add( OpCode.SHR, Operand.BYTE, Constants.BYTES_PER_INTEGER, Constants.BYTES_PER_INTEGER, Flow.NEXT );
+        add( OpCode.NOT, Operand.NONE, 1, 1, Flow.NEXT );
+
+        add( OpCode.ADD, Operand.NONE, 2 * Constants.BYTES_PER_INTEGER, Constants.BYTES_PER_INTEGER, Flow.NEXT );
+        add( OpCode.SUB, Operand.NONE, 2 * Constants.BYTES_PER_INTEGER, Constants.BYTES_PER_INTEGER, Flow.NEXT );
+        add( OpCode.MUL, Operand.NONE, 2 * Constants.BYTES_PER_INTEGER, Constants.BYTES_PER_INTEGER, Flow.NEXT );
+        add( OpCode.DIV, Operand.NONE, 2 * Constants.BYTES_PER_INTEGER, Constants.BYTES_PER_INTEGER, Flow.NEXT );
+        add( OpCode.MOD, Operand.NONE, 2 * Constants.BYTES_PER_INTEGER, Constants.BYTES_PER_INTEGER, Flow.NEXT );
+        add( OpCode.NEG, Operand.NONE, Constants.BYTES_PER_INTEGER, Constants.BYTES_PER_INTEGER, Flow.NEXT );
+        add( OpCode.INC, Operand.NONE, Constants.BYTES_PER_INTEGER, Constants.BYTES_PER_INTEGER, Flow.NEXT );
+        add( OpCode.DEC, Operand.NONE, Constants.BYTES_PER_INTEGER, Constants.BYTES_PER_INTEGER, Flow.NEXT );
+
+        add( OpCode.GETCH, Operand.NONE, 0, Constants.BYTES_PER_CHAR, Flow.NEXT );
+        add( OpCode.GETINT, Operand.NONE, 0, Constants.BYTES_PER_INTEGER, Flow.NEXT );
+        add( OpCode.PUTBYTE, Operand.NONE, 1, 0, Flow.NEXT );
+        add( OpCode.PUTCH, Operand.NONE, Constants.BYTES_PER_CHAR, 0, Flow.NEXT );
+        add( OpCode.PUTINT, Operand.NONE, Constants.BYTES_PER_INTEGER, 0, Flow.NEXT );
+        add( OpCode.PUTEOL, Operand.NONE, 0, 0, Flow.NEXT );
+        add( OpCode.PUTSTR, Operand.NONE, 2 * Constants.BYTES_PER_INTEGER, 0, Flow.NEXT );
+
+        // PROGRAM and PROC start a frame; ALLOC pushes its operand
+        add( OpCode.PROGRAM, Operand.INT, 0, 0, Flow.NEXT );
+        add( OpCode.PROC, Operand.INT, 0, 0, Flow.NEXT );
+        add( OpCode.CALL, Operand.DISPLACEMENT, 0, 0, Flow.CALL );
+        add( OpCode.RET, Operand.INT, 0, 0, Flow.RETURN );
+        add( OpCode.ALLOC, Operand.INT, 0, 0, Flow.NEXT );
+
+        add( OpCode.LDLW, Operand.INT, 0, Constants.BYTES_PER_INTEGER, Flow.NEXT );
+        add( OpCode.LDGW, Operand.INT, 0, Constants.BYTES_PER_INTEGER, Flow.NEXT );
+        add( OpCode.STLW, Operand.INT, Constants.BYTES_PER_INTEGER, 0, Flow.NEXT );
+        add( OpCode.STGW, Operand.INT, Constants.BYTES_PER_INTEGER, 0, Flow.NEXT );
+        add( OpCode.ADDI, Operand.INT, Constants.BYTES_PER_INTEGER, Constants.BYTES_PER_INTEGER, Flow.NEXT );
+        add( OpCode.SHLADD, Operand.BYTE, 2 * Constants.BYTES_PER_INTEGER, Constants.BYTES_PER_INTEGER, Flow.NEXT );
+
+        // the short branches behave as their long forms
+        addShortForms( OpCode.BR, OpCode.BR8, OpCode.BR16 );
+        addShortForms( OpCode.BNZ, OpCode.BNZ8, OpCode.BNZ16 );
+        addShortForms( OpCode.BZ, OpCode.BZ8, OpCode.BZ16 );
+        addShortForms( OpCode.BG, OpCode.BG8, OpCode.BG16 );
+        addShortForms( OpCode.BGE, OpCode.BGE8, OpCode.BGE16 );
+        addShortForms( OpCode.BL, OpCode.BL8, OpCode.BL16 );
+        addShortForms( OpCode.BLE, OpCode.BLE8, OpCode.BLE16 );
+        addShortForms( OpCode.BEQW, OpCode.BEQW8, OpCode.BEQW16 );
+        addShortForms( OpCode.BNEW, OpCode.BNEW8, OpCode.BNEW16 );
+        addShortForms( OpCode.BLTW, OpCode.BLTW8, OpCode.BLTW16 );
+        addShortForms( OpCode.BLEW, OpCode.BLEW8, OpCode.BLEW16 );
+        addShortForms( OpCode.BGTW, OpCode.BGTW8, OpCode.BGTW16 );
+        addShortForms( OpCode.BGEW, OpCode.BGEW8, OpCode.BGEW16 );
+        addShortForms( OpCode.BEQ2B, OpCode.BEQ2B8, OpCode.BEQ2B16 );
+        addShortForms( OpCode.BNE2B, OpCode.BNE2B8, OpCode.BNE2B16 );
+        addShortForms( OpCode.BLT2B, OpCode.BLT2B8, OpCode.BLT2B16 );
+        addShortForms( OpCode.BLE2B, OpCode.BLE2B8, OpCode.BLE2B16 );
+        addShortForms( OpCode.BGT2B, OpCode.BGT2B8, OpCode.BGT2B16 );
+        addShortForms( OpCode.BGE2B, OpCode.BGE2B8, OpCode.BGE2B16 );
+        addShortForms( OpCode.BEQB, OpCode.BEQB8, OpCode.BEQB16 );
+        addShortForms( OpCode.BNEB, OpCode.BNEB8, OpCode.BNEB16 );
+        addShortForms( OpCode.BLTB, OpCode.BLTB8, OpCode.BLTB16 );
+        addShortForms( OpCode.BLEB, OpCode.BLEB8, OpCode.BLEB16 );
+        addShortForms( OpCode.BGTB, OpCode.BGTB8, OpCode.BGTB16 );
+        addShortForms( OpCode.BGEB, OpCode.BGEB8, OpCode.BGEB16 );
+        addShortForms( OpCode.CALL, (byte) 0, OpCode.CALL16 );
+    }
+
+    private final byte opCode;
+    private final Operand operand;
+    private final int popped;
+    private final int pushed;
+    private final Flow flow;
+    private final byte longForm;
+
+    private OpCodeInfo( byte opCode, Operand operand, int popped, int pushed, Flow flow, byte longForm ) {
+        this.opCode = opCode;
+        this.operand = operand;
+        this.popped = popped;
+        this.pushed = pushed;
+        this.flow = flow;
+        this.longForm = longForm;
+    }
+
+    private static void add( byte opCode, Operand operand, int popped, int pushed, Flow flow ) {
+        TABLE[opCode & 0xFF] = new OpCodeInfo( opCode, operand, popped, pushed, flow, opCode );
+    }
+
+    private static void addShortForms( byte longForm, byte form8, byte form16 ) {
+        OpCodeInfo info = get( longForm );
+
+        if ( form8 != 0 ) {
+            TABLE[form8 & 0xFF] = new OpCodeInfo( form8, Operand.DISPLACEMENT8, info.popped, info.pushed,
+                    info.flow, longForm );
+            FORMS8[longForm & 0xFF] = form8;
+        }
+
+        TABLE[form16 & 0xFF] = new OpCodeInfo( form16, Operand.DISPLACEMENT16, info.popped, info.pushed,
+                info.flow, longForm );
+        FORMS16[longForm & 0xFF] = form16;
+    }
+
+    /**
+     * Returns the metadata of an opcode, or null if it is not a valid opcode.
+     */
+    public static OpCodeInfo get( byte opCode ) {
+        return TABLE[opCode & 0xFF];
+    }
+
+    /**
+     * Returns the number of bytes of the instruction at the specified address
+     * (opcode plus operands), or 0 if the opcode is not valid or the
+     * instruction does not end before limit.
+     */
+    public static int getLength( byte[] code, int address, int limit ) {
+        OpCodeInfo info = get( code[address] );
+        if ( info == null ) {
+            return 0;
+        }
+
+        long length = 1 + info.operand.getSize();
+        if ( info.operand == Operand.STRING && address + length <= limit ) {
+            int strLength = getIntOperand( code, address );
+            length = strLength < 0 ? Long.MAX_VALUE : length + (long) strLength * Constants.BYTES_PER_CHAR;
+        }
+
+        return address + length <= limit ? (int) length : 0;
+    }
+
+    /**
+     * Returns the int operand of the instruction at the specified address.
+     */
+    public static int getIntOperand( byte[] code, int address ) {
+        return ByteUtil.bytesToInt( code[address + 1], code[address + 2], code[address + 3], code[address + 4] );
+    }
+
+    /**
+     * Returns the displacement of the branch or call at the specified
+     * address, which may be a short branch.
+     */
+    public static int getDisplacement( byte[] code, int address ) {
+        switch ( get( code[address] ).operand ) {
+            case DISPLACEMENT8:
+                return code[address + 1];
+            case DISPLACEMENT16:
+                return (short) ByteUtil.bytesToChar( code[address + 1], code[address + 2] );
+            default:
+                return getIntOperand( code, address );
+        }
+    }
+
+    /**
+     * Returns the long form of the opcode if it is a short branch, or the
+     * opcode itself otherwise (also if it is not valid).
+     */
+    public static byte toLongForm( byte opCode ) {
+        OpCodeInfo info = get( opCode );
+        return info == null ? opCode : info.longForm;
+    }
+
+    /**
+     * Returns the number of bytes (1, 2, or 4) of the shortest displacement
+     * that the branch or call with the specified long form has for the
+     * displacement.
+     */
+    public static int getDisplacementSize( byte longForm, int displacement ) {
+        if ( displacement == (byte) displacement && FORMS8[longForm & 0xFF] != 0 ) {
+            return 1;
+        } else if ( displacement == (short) displacement && FORMS16[longForm & 0xFF] != 0 ) {
+            return 2;
+        } else {
+            return Constants.BYTES_PER_INTEGER;
+        }
+    }
+
+    /**
+     * Returns the opcode of the branch or call with the specified long form
+     * and a displacement of the specified number of bytes.
+     */
+    public static byte getBranchForm( byte longForm, int displacementSize ) {
+        byte form = longForm;
+
+        if ( displacementSize == 1 ) {
+            form = FORMS8[longForm & 0xFF];
+        } else if ( displacementSize == 2 ) {
+            form = FORMS16[longForm & 0xFF];
+        }
+
+        if ( form == 0 || !get( form ).operand.isDisplacement() ) {
+            throw new IllegalArgumentException( OpCode.toString( longForm ) + " has no form with a "
+                    + displacementSize + "-byte displacement" );
+        }
+
+        return form;
+    }
+
+    public byte getOpCode() {
+        return opCode;
+    }
+
+    public Operand getOperand() {
+        return operand;
+    }
+
+    public Flow getFlow() {
+        return flow;
+    }
+
+    /**
+     * Returns the opcode with a 4-byte displacement of a short branch, or
+     * the opcode itself for the other instructions.
+     */
+    public byte getLongForm() {
+        return longForm;
+    }
+
+    /**
+     * Returns the number of bytes popped by the instruction, given its int
+     * operand (ignored unless the operand is a number of bytes).
+     */
+    public int getPopped( int operandValue ) {
+        return opCode == OpCode.STORE ? popped + operandValue : popped;
+    }
+
+    /**
+     * Returns the number of bytes pushed by the instruction, given its int
+     * operand (ignored unless the operand is a number of bytes).
+     */
+    public int getPushed( int operandValue ) {
+        return opCode == OpCode.LOAD || opCode == OpCode.ALLOC ? pushed + operandValue : pushed;
+    }
+
+    /**
+     * Returns true if the int operand of the instruction is a length or a
+     * number of bytes, which can't be negative.
+     */
+    public boolean isSizeOperand() {
+        switch ( opCode ) {
+            case OpCode.LOAD:
+            case OpCode.STORE:
+            case OpCode.COPY:
+            case OpCode.ALLOC:
+            case OpCode.PROGRAM:
+            case OpCode.PROC:
+            case OpCode.RET:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
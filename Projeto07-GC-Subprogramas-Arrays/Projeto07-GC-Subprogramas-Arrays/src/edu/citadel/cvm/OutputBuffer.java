@@ -0,0 +1,249 @@
+package edu.citadel.cvm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered output for the CVM. Integers and characters are formatted directly
+ * into a reusable byte buffer as UTF-8, and the buffer is written to the
+ * underlying stream only when it fills or when flush() is called. Like
+ * PrintStream, write errors on the underlying stream are ignored.
+ */
+public class OutputBuffer {
+
+    private static final int DEFAULT_SIZE = 8 * 1024;
+
+    /**
+     * room for the longest integer ("-2147483648") or encoded character,
+     * preceded by a '?' for an unpaired surrogate
+     */
+    private static final int MAX_ITEM_LENGTH = 12;
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes( StandardCharsets.UTF_8 );
+
+    private static final byte[] MIN_INT = Integer.toString( Integer.MIN_VALUE ).getBytes( StandardCharsets.US_ASCII );
+
+    private final OutputStream stream;
+    private final byte[] buffer;
+    private int count;
+
+    /**
+     * number of bytes of output before the buffer
+     */
+    private long written;
+
+    /**
+     * high surrogate waiting for its low surrogate, or 0 if none
+     */
+    private char highSurrogate;
+
+    /**
+     * Construct an output buffer with the default size for the specified
+     * stream.
+     */
+    public OutputBuffer( OutputStream stream ) {
+        this( stream, DEFAULT_SIZE );
+    }
+
+    /**
+     * Construct an output buffer of the specified size for the specified
+     * stream.
+     */
+    public OutputBuffer( OutputStream stream, int size ) {
+        this.stream = stream;
+        this.buffer = new byte[Math.max( size, MAX_ITEM_LENGTH )];
+        this.count = 0;
+    }
+
+    /**
+     * Write the decimal representation of an integer.
+     */
+    public void putInt( int n ) {
+        ensureRoom( MAX_ITEM_LENGTH );
+        endPendingSurrogate();
+
+        if ( n == Integer.MIN_VALUE ) {
+            System.arraycopy( MIN_INT, 0, buffer, count, MIN_INT.length );
+            count += MIN_INT.length;
+            return;
+        }
+
+        if ( n < 0 ) {
+            buffer[count++] = '-';
+            n = -n;
+        }
+
+        // write the digits backwards after counting them
+        int numDigits = 1;
+        for ( int m = n; m >= 10; m /= 10 ) {
+            ++numDigits;
+        }
+
+        int pos = count + numDigits;
+        count = pos;
+        do {
+            buffer[--pos] = (byte) ( '0' + n % 10 );
+            n /= 10;
+        } while ( n != 0 );
+    }
+
+    /**
+     * Write a character encoded as UTF-8. A surrogate pair written as two
+     * calls is encoded as a single code point; an unpaired surrogate is
+     * written as '?'.
+     */
+    public void putChar( char c ) {
+        ensureRoom( MAX_ITEM_LENGTH );
+
+        if ( highSurrogate != 0 ) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+
+            if ( Character.isLowSurrogate( c ) ) {
+                int codePoint = Character.toCodePoint( high, c );
+                buffer[count++] = (byte) ( 0xF0 | ( codePoint >> 18 ) );
+                buffer[count++] = (byte) ( 0x80 | ( ( codePoint >> 12 ) & 0x3F ) );
+                buffer[count++] = (byte) ( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) );
+                buffer[count++] = (byte) ( 0x80 | ( codePoint & 0x3F ) );
+                return;
+            }
+
+            buffer[count++] = '?';
+        }
+
+        if ( c < 0x80 ) {
+            buffer[count++] = (byte) c;
+        } else if ( c < 0x800 ) {
+            buffer[count++] = (byte) ( 0xC0 | ( c >> 6 ) );
+            buffer[count++] = (byte) ( 0x80 | ( c & 0x3F ) );
+        } else if ( Character.isHighSurrogate( c ) ) {
+            highSurrogate = c;
+        } else if ( Character.isLowSurrogate( c ) ) {
+            buffer[count++] = '?';
+        } else {
+            buffer[count++] = (byte) ( 0xE0 | ( c >> 12 ) );
+            buffer[count++] = (byte) ( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+            buffer[count++] = (byte) ( 0x80 | ( c & 0x3F ) );
+        }
+    }
+
+    /**
+     * Write the characters of a string stored in memory, two bytes per
+     * character (high byte first) starting at the specified address.
+     */
+    public void putString( byte[] memory, int address, int length ) {
+        for ( int i = 0; i < length; ++i ) {
+            char c = (char) ( ( ( memory[address] & 0xFF ) << 8 ) | ( memory[address + 1] & 0xFF ) );
+            putChar( c );
+            address += Constants.BYTES_PER_CHAR;
+        }
+    }
+
+    /**
+     * Write bytes that are already encoded as UTF-8, e.g., a string literal
+     * encoded once when the program was loaded.
+     */
+    public void putEncoded( byte[] bytes ) {
+        ensureRoom( MAX_ITEM_LENGTH );
+        endPendingSurrogate();
+
+        int offset = 0;
+        while ( true ) {
+            int length = Math.min( bytes.length - offset, buffer.length - count );
+            System.arraycopy( bytes, offset, buffer, count, length );
+            count += length;
+            offset += length;
+
+            if ( offset == bytes.length ) {
+                return;
+            }
+
+            ensureRoom( buffer.length );
+        }
+    }
+
+    /**
+     * Write the line separator of the platform.
+     */
+    public void putEOL() {
+        ensureRoom( MAX_ITEM_LENGTH );
+        endPendingSurrogate();
+
+        for ( byte b : LINE_SEPARATOR ) {
+            buffer[count++] = b;
+        }
+    }
+
+    /**
+     * Write the buffered bytes to the underlying stream and flush it.
+     */
+    public void flush() {
+        written += count;
+
+        try {
+            if ( count > 0 ) {
+                stream.write( buffer, 0, count );
+                count = 0;
+            }
+
+            stream.flush();
+        } catch ( IOException e ) {
+            // ignored, as with PrintStream
+            count = 0;
+        }
+    }
+
+    /**
+     * Returns the number of bytes of output written so far, including output
+     * that is still buffered.
+     */
+    public long getPosition() {
+        return written + count;
+    }
+
+    /**
+     * Returns the high surrogate written last if it still waits for its low
+     * surrogate, or 0.
+     */
+    public char getPendingSurrogate() {
+        return highSurrogate;
+    }
+
+    /**
+     * Continues output saved with getPosition() and getPendingSurrogate()
+     * on a stream positioned after it. The buffer must be empty.
+     */
+    public void restore( long position, char pendingSurrogate ) {
+        if ( count != 0 ) {
+            throw new IllegalStateException( "output buffer is not empty" );
+        }
+
+        written = position;
+        highSurrogate = pendingSurrogate;
+    }
+
+    private void endPendingSurrogate() {
+        if ( highSurrogate != 0 ) {
+            highSurrogate = 0;
+            buffer[count++] = '?';
+        }
+    }
+
+    /**
+     * Make sure the buffer has room for the specified number of bytes,
+     * writing its contents to the underlying stream if necessary.
+     */
+    private void ensureRoom( int length ) {
+        if ( count + length > buffer.length ) {
+            try {
+                stream.write( buffer, 0, count );
+            } catch ( IOException e ) {
+                // ignored, as with PrintStream
+            }
+
+            written += count;
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package edu.citadel.cvm;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Collects execution statistics for a program running on the CVM: the number
+ * of times each opcode and each code address was executed, and the number of
+ * calls and instructions executed for each subprogram (each CALL target).
+ * Instructions executed by a subprogram are counted as exclusive to the
+ * subprogram; inclusive counts add the instructions of the subprograms that it
+ * calls.
+ */
+public class Profiler {
+
+    private static final int NUM_HOT_SPOTS = 20;
+
+    private static final String MAIN_NAME = "<main program>";
+
+    /**
+     * indexed by the low 9 bits of the opcode, which separates invalid
+     * opcodes (including INVALID_ADDRESS of the pre-decoded stream) from valid
+     * ones
+     */
+    private final long[] opCodeCounts = new long[512];
+    private final long[] addressCounts;
+    private final int[] addressOpCodes;
+    private long total;
+
+    /**
+     * maps a code address to the id of the subprogram starting there, or 0
+     */
+    private final int[] subprogramIds;
+    private int[] subprogramAddrs = new int[16];
+    private long[] calls = new long[16];
+    private long[] inclusive = new long[16];
+    private long[] exclusive = new long[16];
+    private int[] activeDepths = new int[16];
+    private int numSubprograms;
+
+    // shadow call stack: subprogram ids and instruction counts at entry
+    private int[] callStack = new int[64];
+    private long[] entryCounts = new long[64];
+    private int callDepth;
+
+    private int previousOpCode;
+
+    /**
+     * Construct a profiler for a program with the specified code size.
+     */
+    public Profiler( int codeSize ) {
+        addressCounts = new long[codeSize + 1];
+        addressOpCodes = new int[codeSize + 1];
+        subprogramIds = new int[codeSize + 1];
+
+        // id 0 is the main program, which is never on the call stack
+        subprogramAddrs[0] = 0;
+        numSubprograms = 1;
+        callStack[0] = 0;
+    }
+
+    /**
+     * Records the execution of the instruction at the specified address.
+     * Calls and returns are recognized from the opcode of the previous
+     * instruction.
+     */
+    public void count( int address, int opCode ) {
+        if ( previousOpCode == OpCode.CALL ) {
+            enter( address );
+        } else if ( previousOpCode == OpCode.RET ) {
+            exit();
+        }
+
+        previousOpCode = opCode;
+        ++total;
+        ++opCodeCounts[opCode & 0x1FF];
+        ++exclusive[callStack[callDepth]];
+
+        if ( address >= 0 && address < addressCounts.length ) {
+            if ( addressCounts[address]++ == 0 ) {
+                addressOpCodes[address] = opCode;
+            }
+        }
+    }
+
+    private void enter( int address ) {
+        int id = address < subprogramIds.length ? subprogramIds[address] : 0;
+        if ( id == 0 ) {
+            id = addSubprogram( address );
+        }
+
+        ++calls[id];
+        ++activeDepths[id];
+
+        if ( ++callDepth == callStack.length ) {
+            callStack = Arrays.copyOf( callStack, 2 * callStack.length );
+            entryCounts = Arrays.copyOf( entryCounts, 2 * entryCounts.length );
+        }
+
+        callStack[callDepth] = id;
+        entryCounts[callDepth] = total;
+    }
+
+    private void exit() {
+        if ( callDepth == 0 ) {
+            return;
+        }
+
+        int id = callStack[callDepth];
+
+        // count recursive activations only once
+        if ( --activeDepths[id] == 0 ) {
+            inclusive[id] += total - entryCounts[callDepth];
+        }
+
+        --callDepth;
+    }
+
+    private int addSubprogram( int address ) {
+        if ( numSubprograms == subprogramAddrs.length ) {
+            int length = 2 * numSubprograms;
+            subprogramAddrs = Arrays.copyOf( subprogramAddrs, length );
+            calls = Arrays.copyOf( calls, length );
+            inclusive = Arrays.copyOf( inclusive, length );
+            exclusive = Arrays.copyOf( exclusive, length );
+            activeDepths = Arrays.copyOf( activeDepths, length );
+        }
+
+        int id = numSubprograms++;
+        subprogramAddrs[id] = address;
+
+        if ( address < subprogramIds.length ) {
+            subprogramIds[address] = id;
+        }
+
+        return id;
+    }
+
+    /**
+     * Returns the total number of instructions executed.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the number of times instructions with the specified opcode were
+     * executed.
+     */
+    public long getOpCodeCount( byte opCode ) {
+        return opCodeCounts[opCode & 0xFF];
+    }
+
+    /**
+     * Returns the number of calls to the subprogram at the specified address.
+     */
+    public long getCalls( int address ) {
+        int id = address >= 0 && address < subprogramIds.length ? subprogramIds[address] : 0;
+        return id == 0 ? 0 : calls[id];
+    }
+
+    /**
+     * Prints the report for the execution, naming code addresses after the
+     * labels in symbols (which may be empty).
+     *
+     * @param symbols maps code addresses to labels
+     */
+    public void printReport( PrintStream out, Map<Integer, String> symbols ) {
+        printReport( out, symbols, Collections.emptyMap() );
+    }
+
+    /**
+     * Prints the report for the execution, naming code addresses after the
+     * labels in symbols and attributing counts to the source lines in lines
+     * (either of which may be empty).
+     *
+     * @param symbols maps code addresses to labels
+     * @param lines maps the first code address of each statement to its
+     * source line
+     */
+    public void printReport( PrintStream out, Map<Integer, String> symbols, Map<Integer, Integer> lines ) {
+        NavigableMap<Integer, String> labels = new TreeMap<>( symbols );
+
+        // instructions still running in subprograms that did not return
+        long[] inclusiveCounts = inclusive.clone();
+        boolean[] active = new boolean[numSubprograms];
+        for ( int depth = 1; depth <= callDepth; ++depth ) {
+            int id = callStack[depth];
+            if ( !active[id] ) {
+                active[id] = true;
+                inclusiveCounts[id] += total - entryCounts[depth];
+            }
+        }
+        inclusiveCounts[0] = total;
+
+        out.println();
+        out.println( "*** Profile: " + total + " instructions executed ***" );
+
+        // opcodes, most executed first
+        out.println();
+        out.println( "Opcodes" );
+        out.printf( "%14s %7s  %s%n", "count", "%", "opcode" );
+        for ( int opCode : sortByCount( opCodeCounts, Integer.MAX_VALUE ) ) {
+            out.printf( "%14d %6.2f%%  %s%n", opCodeCounts[opCode], percent( opCodeCounts[opCode] ),
+                    getOpCodeName( opCode ) );
+        }
+
+        // hot spots
+        out.println();
+        out.println( "Hot spots" );
+        out.printf( "%14s %7s  %7s  %-16s %s%n", "count", "%", "address", "location", "opcode" );
+        for ( int address : sortByCount( addressCounts, NUM_HOT_SPOTS ) ) {
+            out.printf( "%14d %6.2f%%  %7d  %-16s %s%n", addressCounts[address], percent( addressCounts[address] ),
+                    address, getLocation( labels, address ), getOpCodeName( addressOpCodes[address] ) );
+        }
+
+        // source lines, most instructions first
+        if ( !lines.isEmpty() ) {
+            NavigableMap<Integer, Integer> statements = new TreeMap<>( lines );
+            long[] lineCounts = new long[Math.max( 0, Collections.max( lines.values() ) ) + 1];
+            for ( int address = 0; address < addressCounts.length; ++address ) {
+                Map.Entry<Integer, Integer> statement = statements.floorEntry( address );
+                if ( statement != null && statement.getValue() > 0 ) {
+                    lineCounts[statement.getValue()] += addressCounts[address];
+                }
+            }
+
+            out.println();
+            out.println( "Source lines" );
+            out.printf( "%14s %7s  %s%n", "count", "%", "line" );
+            for ( int line : sortByCount( lineCounts, NUM_HOT_SPOTS ) ) {
+                out.printf( "%14d %6.2f%%  %d%n", lineCounts[line], percent( lineCounts[line] ), line );
+            }
+        }
+
+        // subprograms, most instructions first
+        long[] exclusiveCounts = Arrays.copyOf( exclusive, numSubprograms );
+        out.println();
+        out.println( "Subprograms" );
+        out.printf( "%10s %14s %7s %14s %7s  %s%n", "calls", "inclusive", "%", "exclusive", "%", "subprogram" );
+        for ( int id : sortByCount( exclusiveCounts, Integer.MAX_VALUE ) ) {
+            String name = id == 0 ? MAIN_NAME : getLocation( labels, subprogramAddrs[id] );
+            out.printf( "%10d %14d %6.2f%% %14d %6.2f%%  %s%n", id == 0 ? 1 : calls[id],
+                    inclusiveCounts[id], percent( inclusiveCounts[id] ),
+                    exclusive[id], percent( exclusive[id] ), name );
+        }
+    }
+
+    /**
+     * Reads a symbol file written by the assembler. Each line holds a code
+     * address and a label separated by whitespace. Returns an empty map if
+     * the file does not exist.
+     */
+    public static Map<Integer, String> readSymbols( File symbolFile ) throws IOException {
+        Map<Integer, String> symbols = new TreeMap<>();
+
+        if ( !symbolFile.isFile() ) {
+            return symbols;
+        }
+
+        try ( BufferedReader reader = Files.newBufferedReader( symbolFile.toPath(), StandardCharsets.UTF_8 ) ) {
+            String line;
+            while ( ( line = reader.readLine() ) != null ) {
+                String[] fields = line.trim().split( "\\s+" );
+                if ( fields.length == 2 ) {
+                    // keep the first label of an address
+                    symbols.putIfAbsent( Integer.valueOf( fields[0] ), fields[1] );
+                }
+            }
+        } catch ( NumberFormatException e ) {
+            throw new IOException( "Invalid symbol file " + symbolFile.getName(), e );
+        }
+
+        return symbols;
+    }
+
+    /**
+     * Returns the nearest label at or before the address, followed by the
+     * offset from it.
+     */
+    private static String getLocation( NavigableMap<Integer, String> labels, int address ) {
+        Map.Entry<Integer, String> label = labels.floorEntry( address );
+
+        if ( label == null ) {
+            return Integer.toString( address );
+        } else if ( label.getKey() == address ) {
+            return label.getValue();
+        } else {
+            return label.getValue() + "+" + ( address - label.getKey() );
+        }
+    }
+
+    private static String getOpCodeName( int opCode ) {
+        return ( opCode & 0x1FF ) > 0xFF ? "<invalid>" : OpCode.toString( (byte) opCode );
+    }
+
+    private double percent( long count ) {
+        return total == 0 ? 0.0 : 100.0 * count / total;
+    }
+
+    /**
+     * Returns the indexes of the nonzero counts, highest count first, limited
+     * to the specified number.
+     */
+    private static List<Integer> sortByCount( long[] counts, int limit ) {
+        List<Integer> indexes = new ArrayList<>();
+        for ( int i = 0; i < counts.length; ++i ) {
+            if ( counts[i] != 0 ) {
+                indexes.add( i );
+            }
+        }
+
+        Collections.sort( indexes, ( a, b ) -> Long.compare( counts[b], counts[a] ) );
+
+        return indexes.size() > limit ? indexes.subList( 0, limit ) : indexes;
+    }
+}
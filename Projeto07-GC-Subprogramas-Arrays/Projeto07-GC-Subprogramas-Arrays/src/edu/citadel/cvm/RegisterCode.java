@@ -0,0 +1,136 @@
+package edu.citadel.cvm;
+
+/**
+ * The register-based form of a pre-decoded program, executed by the REGISTER
+ * engine. Each basic block of the pre-decoded stream is translated into
+ * instructions on a file of virtual registers (see RegisterTranslator): the
+ * values that the stack code pushes and pops within the block are held in
+ * registers, and the stack in memory is only written where the stack code
+ * leaves values on it across a block boundary, a call, or a block transfer.
+ *
+ * Each block starts with a header of two ints: the number of instructions of
+ * the pre-decoded stream that it executes, and the stream index of the
+ * first of them. Each instruction is an opcode followed by a fixed number of
+ * int operands. Operands named d (destination), a, and b are register
+ * numbers; t is the index in this code of the header of a branch target.
+ * Input instructions and invalid code are not translated and are executed
+ * by the PREDECODED engine.
+ */
+final class RegisterCode {
+
+    // control transfers
+    static final int EXIT = 0;       // ip: continues at stream index ip outside this code
+    static final int BR = 1;         // t
+    static final int BEQ = 2;        // a b t (the six branches are in the order of
+    static final int BNE = 3;        // a b t  OpCode.BEQW ... OpCode.BGEW)
+    static final int BLT = 4;        // a b t
+    static final int BLE = 5;        // a b t
+    static final int BGT = 6;        // a b t
+    static final int BGE = 7;        // a b t
+    static final int BEQI = 8;       // a n t (the same, comparing with a constant)
+    static final int BNEI = 9;       // a n t
+    static final int BLTI = 10;      // a n t
+    static final int BLEI = 11;      // a n t
+    static final int BGTI = 12;      // a n t
+    static final int BGEI = 13;      // a n t
+    static final int CALL = 14;      // returnAddr t
+    static final int RET = 15;       // paramLength
+    static final int HALT = 16;      // ip of the next instruction
+
+    // the stack in memory
+    static final int PUSHW = 17;     // a
+    static final int PUSH2B = 18;    // a
+    static final int PUSHB = 19;     // a
+    static final int POPW = 20;      // d
+    static final int POP2B = 21;     // d
+    static final int POPB = 22;      // d
+    static final int PROGRAM = 23;   // varLength
+    static final int ALLOC = 24;     // numBytes
+    static final int LOAD = 25;      // a length: pushes length bytes at address a
+    static final int STORE = 26;     // length (operands on the stack in memory)
+    static final int COPY = 27;      // a b length: copies from address b to address a
+
+    // loads and stores
+    static final int LDC = 28;       // d n
+    static final int LDLADDR = 29;   // d displacement
+    static final int LDLW = 30;      // d displacement
+    static final int LDGW = 31;      // d address
+    static final int LOADW = 32;     // d a
+    static final int LOAD2B = 33;    // d a
+    static final int LOADB = 34;     // d a
+    static final int STLW = 35;      // a displacement
+    static final int STGW = 36;      // a address
+    static final int STLWI = 37;     // n displacement
+    static final int STGWI = 38;     // n address
+    static final int STOREW = 39;    // a b: stores b at address a
+    static final int STORE2B = 40;   // a b
+    static final int STOREB = 41;    // a b
+
+    // arithmetic, compare, and logical not
+    static final int ADD = 42;       // d a b
+    static final int ADDI = 43;      // d a n
+    static final int SUB = 44;       // d a b
+    static final int MUL = 45;       // d a b
+    static final int MULI = 46;      // d a n
+    static final int DIV = 47;       // d a b
+    static final int MOD = 48;       // d a b
+    static final int NEG = 49;       // d a
+    static final int SHL = 50;       // d a n
+    static final int SHR = 51;       // d a n
+    static final int SHLADD = 52;    // d a b n
+    static final int CMP = 53;       // d a b
+    static final int NOT = 54;       // d a
+    static final int ZEXTB = 55;     // d a: the byte in a as an unsigned value
+    static final int CHKIDX = 56;    // a numElements
+    static final int CHKSHLADD = 57; // d a b n numElements: CHKIDX b, then SHLADD
+
+    // output
+    static final int PUTINT = 58;    // a
+    static final int PUTCH = 59;     // a
+    static final int PUTEOL = 60;    //
+    static final int PUTSTR = 61;    // a b: the string at address a with length b
+    static final int PUTSTRI = 62;   // address length
+
+    private final int[] code;
+    private final int[] blocks;
+    private final int[] remaining;
+    private final int numRegisters;
+
+    RegisterCode( int[] code, int[] blocks, int[] remaining, int numRegisters ) {
+        this.code = code;
+        this.blocks = blocks;
+        this.remaining = remaining;
+        this.numRegisters = numRegisters;
+    }
+
+    /**
+     * Returns the register instructions.
+     */
+    int[] getCode() {
+        return code;
+    }
+
+    /**
+     * Returns the index in the register code of the header of the block that
+     * starts at each index of the pre-decoded stream, or -1 where no translated block starts.
+     */
+    int[] getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Returns, for each instruction of the pre-decoded stream, the number of
+     * instructions from it to the end of its block (1 for instructions that
+     * are not translated).
+     */
+    int[] getRemaining() {
+        return remaining;
+    }
+
+    /**
+     * Returns the number of registers used by the largest block.
+     */
+    int getNumRegisters() {
+        return numRegisters;
+    }
+}
@@ -0,0 +1,924 @@
+package edu.citadel.cvm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static edu.citadel.cvm.RegisterCode.*;
+
+/**
+ * Translates the pre-decoded instruction stream of a program into its
+ * register-based form (see RegisterCode), one basic block at a time. Within a
+ * block, the stack is modeled as a list of values: each value pushed by the
+ * stack code is held in a new register, or is not materialized at all while
+ * it is a constant, a local address, or the result of CMP, so that it can
+ * become an operand of the instruction that pops it (e.g., LDLADDR n, LOADW
+ * becomes LDLW; CMP, BZ becomes BEQ; LDCINT n, ADD becomes ADDI). The values
+ * still on the modeled stack are pushed onto the stack in memory at the end
+ * of the block and before calls and block transfers.
+ *
+ * Registers are not shared between blocks, so a block can be entered with
+ * all of its values on the stack in memory, as the pre-decoded engine leaves
+ * them. Within a block, the word last loaded from or stored to a variable
+ * is reused by the loads of the variable that follow, up to a store that
+ * may change it.
+ *
+ * Each block starts with a header of two ints, the number of instructions
+ * of the block and the stream index of its first instruction, which the
+ * engine charges to the budget when it transfers control to the block.
+ */
+final class RegisterTranslator {
+
+    /**
+     * A value on the stack that is not in memory.
+     */
+    private static final class Value {
+
+        static final int REGISTER = 0;
+        static final int CONSTANT = 1;
+        static final int LOCAL_ADDRESS = 2;
+        static final int COMPARE = 3;
+
+        final int kind;
+        final int size;
+
+        // the register, the constant, or the displacement of the address
+        final int n;
+
+        // the operands of CMP
+        final Value operand1;
+        final Value operand2;
+
+        Value( int kind, int size, int n ) {
+            this( kind, size, n, null, null );
+        }
+
+        Value( int kind, int size, int n, Value operand1, Value operand2 ) {
+            this.kind = kind;
+            this.size = size;
+            this.n = n;
+            this.operand1 = operand1;
+            this.operand2 = operand2;
+        }
+
+        boolean isConstant() {
+            return kind == CONSTANT;
+        }
+    }
+
+    // relations of the compare-and-branch instructions, as offsets from BEQ
+    // and BEQI
+    private static final int EQ = 0;
+    private static final int NE = 1;
+    private static final int LT = 2;
+    private static final int LE = 3;
+    private static final int GT = 4;
+    private static final int GE = 5;
+
+    private final int[] code;
+    private final int sb;
+
+    private boolean[] isLeader;
+    private int[] out;
+    private int length;
+
+    /**
+     * index in the register code of the header of the block being translated
+     */
+    private int header;
+
+    /**
+     * values above sp that are not in memory (top last)
+     */
+    private final List<Value> stack = new ArrayList<>();
+    private int nextRegister;
+    private int maxRegisters;
+
+    /**
+     * the words of local variables (by displacement) and of global variables
+     * (by address) known to be in memory
+     */
+    private final Map<Integer, Value> locals = new HashMap<>();
+    private final Map<Integer, Value> globals = new HashMap<>();
+
+    /**
+     * indexes in the register code of operands that hold the stream index of
+     * a branch target, resolved once all blocks are translated
+     */
+    private int[] targets = new int[16];
+    private int numTargets;
+
+    /**
+     * Construct a translator for a pre-decoded instruction stream whose last
+     * slot is the invalid address.
+     *
+     * @param code the pre-decoded instruction stream
+     * @param sb the stack base (the first address after the program)
+     */
+    RegisterTranslator( int[] code, int sb ) {
+        this.code = code;
+        this.sb = sb;
+    }
+
+    /**
+     * Returns the number of stream slots used by the instruction at index i.
+     */
+    private int getSlots( int i ) {
+        OpCodeInfo info = i < code.length - 1 ? OpCodeInfo.get( (byte) code[i] ) : null;
+
+        if ( info == null || info.getOperand() == OpCodeInfo.Operand.NONE ) {
+            return 1;
+        } else if ( info.getOperand() == OpCodeInfo.Operand.STRING || code[i] == OpCode.CALL ) {
+            return 3;
+        } else {
+            return 2;
+        }
+    }
+
+    /**
+     * Returns true if the instruction at index i is translated.
+     */
+    private boolean isTranslated( int i ) {
+        return i < code.length - 1 && OpCodeInfo.get( (byte) code[i] ) != null
+                && code[i] != OpCode.GETINT && code[i] != OpCode.GETCH;
+    }
+
+    /**
+     * Translates the stream into register code.
+     */
+    RegisterCode translate() {
+        isLeader = new boolean[code.length];
+        isLeader[0] = true;
+
+        // find the basic blocks
+        int i = 0;
+        while ( i < code.length ) {
+            int next = i + getSlots( i );
+            OpCodeInfo info = isTranslated( i ) ? OpCodeInfo.get( (byte) code[i] ) : null;
+
+            if ( info == null ) {
+                isLeader[i] = true;
+                if ( next < code.length ) {
+                    isLeader[next] = true;
+                }
+            } else if ( info.getFlow() != OpCodeInfo.Flow.NEXT ) {
+                if ( info.getOperand() == OpCodeInfo.Operand.DISPLACEMENT ) {
+                    isLeader[code[i + 1]] = true;
+                }
+                if ( next < code.length ) {
+                    isLeader[next] = true;
+                }
+            }
+
+            i = next;
+        }
+
+        int[] blocks = new int[code.length];
+        int[] remaining = new int[code.length];
+        Arrays.fill( blocks, -1 );
+        out = new int[4 * code.length + 16];
+        length = 0;
+        maxRegisters = 1;
+
+        // translate each block
+        i = 0;
+        while ( i < code.length ) {
+            if ( !isTranslated( i ) ) {
+                remaining[i] = 1;
+                i = i + getSlots( i );
+                continue;
+            }
+
+            int start = i;
+            int count = 0;
+            do {
+                ++count;
+                i = i + getSlots( i );
+            } while ( i < code.length && !isLeader[i] );
+
+            blocks[start] = length;
+            header = length;
+            emit( count, start );
+            for ( int j = start, k = count; j < i; j = j + getSlots( j ), --k ) {
+                remaining[j] = k;
+            }
+
+            translateBlock( start, i, count );
+        }
+
+        // resolve the branch targets; targets that are not translated exit to
+        // the pre-decoded engine
+        Map<Integer, Integer> exits = new HashMap<>();
+        for ( int t = 0; t < numTargets; ++t ) {
+            int target = out[targets[t]];
+
+            if ( blocks[target] >= 0 ) {
+                out[targets[t]] = blocks[target];
+            } else {
+                Integer exit = exits.get( target );
+                if ( exit == null ) {
+                    exit = length;
+                    exits.put( target, exit );
+                    emit( 0, target, EXIT, target );
+                }
+                out[targets[t]] = exit;
+            }
+        }
+
+        return new RegisterCode( Arrays.copyOf( out, length ), blocks, remaining, maxRegisters );
+    }
+
+    /**
+     * Translates the count instructions with indexes from start to end
+     * (exclusive).
+     */
+    private void translateBlock( int start, int end, int count ) {
+        stack.clear();
+        locals.clear();
+        globals.clear();
+        nextRegister = 0;
+
+        int last = start;
+        for ( int i = start; i < end; ) {
+            last = i;
+            i = translateInstruction( i );
+        }
+
+        OpCodeInfo.Flow flow = OpCodeInfo.get( (byte) code[last] ).getFlow();
+
+        if ( flow == OpCodeInfo.Flow.NEXT ) {
+            // continue with the next block, which is charged when it is
+            // entered
+            jump( end );
+        } else if ( flow == OpCodeInfo.Flow.CONDITIONAL_BRANCH && !isTranslated( end ) ) {
+            // fall through to a header that exits
+            emit( 0, end, EXIT, end );
+        }
+    }
+
+    /**
+     * Translates the instruction at index i and returns the index of the
+     * next instruction to translate.
+     */
+    private int translateInstruction( int i ) {
+        int opCode = code[i];
+        Value value;
+        Value address;
+        Value operand1;
+        Value operand2;
+
+        switch ( opCode ) {
+            // arithmetic
+            case OpCode.ADD:
+                operand2 = pop( 4 );
+                operand1 = pop( 4 );
+                if ( operand1.isConstant() && operand2.isConstant() ) {
+                    pushConstant( 4, operand1.n + operand2.n );
+                } else if ( operand2.isConstant() ) {
+                    addImmediate( operand1, operand2.n );
+                } else if ( operand1.isConstant() ) {
+                    addImmediate( operand2, operand1.n );
+                } else {
+                    binary( ADD, operand1, operand2 );
+                }
+                break;
+            case OpCode.SUB:
+                operand2 = pop( 4 );
+                operand1 = pop( 4 );
+                if ( operand1.isConstant() && operand2.isConstant() ) {
+                    pushConstant( 4, operand1.n - operand2.n );
+                } else if ( operand2.isConstant() ) {
+                    addImmediate( operand1, -operand2.n );
+                } else {
+                    binary( SUB, operand1, operand2 );
+                }
+                break;
+            case OpCode.MUL:
+                operand2 = pop( 4 );
+                operand1 = pop( 4 );
+                if ( operand1.isConstant() && operand2.isConstant() ) {
+                    pushConstant( 4, operand1.n * operand2.n );
+                } else if ( operand2.isConstant() ) {
+                    immediate( MULI, operand1, operand2.n );
+                } else if ( operand1.isConstant() ) {
+                    immediate( MULI, operand2, operand1.n );
+                } else {
+                    binary( MUL, operand1, operand2 );
+                }
+                break;
+            case OpCode.DIV:
+                operand2 = pop( 4 );
+                operand1 = pop( 4 );
+                binary( DIV, operand1, operand2 );
+                break;
+            case OpCode.MOD:
+                operand2 = pop( 4 );
+                operand1 = pop( 4 );
+                binary( MOD, operand1, operand2 );
+                break;
+            case OpCode.NEG:
+                operand1 = pop( 4 );
+                if ( operand1.isConstant() ) {
+                    pushConstant( 4, -operand1.n );
+                } else {
+                    unary( NEG, 4, operand1 );
+                }
+                break;
+            case OpCode.INC:
+                addImmediate( pop( 4 ), 1 );
+                break;
+            case OpCode.DEC:
+                addImmediate( pop( 4 ), -1 );
+                break;
+            case OpCode.ADDI:
+                addImmediate( pop( 4 ), code[i + 1] );
+                break;
+            case OpCode.SHL:
+                operand1 = pop( 4 );
+                if ( operand1.isConstant() ) {
+                    pushConstant( 4, operand1.n << code[i + 1] );
+                } else {
+                    immediate( SHL, operand1, code[i + 1] );
+                }
+                break;
+            case OpCode.SHR:
+                operand1 = pop( 4 );
+                if ( operand1.isConstant() ) {
+                    pushConstant( 4, operand1.n >> code[i + 1] );
+                } else {
+                    immediate( SHR, operand1, code[i + 1] );
+                }
+                break;
+            case OpCode.SHLADD:
+                operand2 = pop( 4 );
+                operand1 = pop( 4 );
+                if ( operand2.isConstant() ) {
+                    addImmediate( operand1, operand2.n << code[i + 1] );
+                } else {
+                    int a = register( operand1 );
+                    int b = register( operand2 );
+                    emit( SHLADD, newRegister(), a, b, code[i + 1] );
+                    pushRegister( 4 );
+                }
+                break;
+            case OpCode.CHKIDX:
+                operand1 = pop( 4 );
+                int next = i + getSlots( i );
+                if ( operand1.isConstant() && operand1.n >= 0 && operand1.n < code[i + 1] ) {
+                    stack.add( operand1 );
+                } else if ( code[next] == OpCode.SHLADD && !isLeader[next] ) {
+                    // the index of an element, checked and added to the
+                    // address of the array
+                    operand2 = pop( 4 );
+                    int a = register( operand2 );
+                    int b = register( operand1 );
+                    emit( CHKSHLADD, newRegister(), a, b, code[next + 1], code[i + 1] );
+                    pushRegister( 4 );
+                    return next + getSlots( next );
+                } else {
+                    int a = register( operand1 );
+                    emit( CHKIDX, a, code[i + 1] );
+                    stack.add( new Value( Value.REGISTER, 4, a ) );
+                }
+                break;
+
+            // constants and addresses
+            case OpCode.LDCB:
+                pushConstant( 1, code[i + 1] );
+                break;
+            case OpCode.LDCB0:
+                pushConstant( 1, 0 );
+                break;
+            case OpCode.LDCB1:
+                pushConstant( 1, 1 );
+                break;
+            case OpCode.LDCCH:
+                pushConstant( 2, code[i + 1] );
+                break;
+            case OpCode.LDCINT:
+                pushConstant( 4, code[i + 1] );
+                break;
+            case OpCode.LDCINT0:
+                pushConstant( 4, 0 );
+                break;
+            case OpCode.LDCINT1:
+                pushConstant( 4, 1 );
+                break;
+            case OpCode.LDCSTR:
+                pushConstant( 4, code[i + 1] );
+                pushConstant( 4, code[i + 2] );
+                break;
+            case OpCode.LDLADDR:
+                stack.add( new Value( Value.LOCAL_ADDRESS, 4, code[i + 1] ) );
+                break;
+            case OpCode.LDGADDR:
+                pushConstant( 4, sb + code[i + 1] );
+                break;
+
+            // loads
+            case OpCode.LDLW:
+                loadWord( locals, LDLW, code[i + 1] );
+                break;
+            case OpCode.LDGW:
+                loadWord( globals, LDGW, sb + code[i + 1] );
+                break;
+            case OpCode.LOADW:
+                address = pop( 4 );
+                if ( address.kind == Value.LOCAL_ADDRESS ) {
+                    loadWord( locals, LDLW, address.n );
+                } else if ( address.isConstant() ) {
+                    loadWord( globals, LDGW, address.n );
+                } else {
+                    int a = register( address );
+                    emit( LOADW, newRegister(), a );
+                    pushRegister( 4 );
+                }
+                break;
+            case OpCode.LOAD2B:
+                unary( LOAD2B, 2, pop( 4 ) );
+                break;
+            case OpCode.LOADB:
+                unary( LOADB, 1, pop( 4 ) );
+                break;
+            case OpCode.LOAD:
+                address = pop( 4 );
+                int from = register( address );
+                flush();
+                emit( LOAD, from, code[i + 1] );
+                forgetWords();
+                break;
+
+            // stores
+            case OpCode.STLW:
+                storeWord( new Value( Value.LOCAL_ADDRESS, 4, code[i + 1] ), pop( 4 ) );
+                break;
+            case OpCode.STGW:
+                storeWord( new Value( Value.CONSTANT, 4, sb + code[i + 1] ), pop( 4 ) );
+                break;
+            case OpCode.STOREW:
+                value = pop( 4 );
+                storeWord( pop( 4 ), value );
+                break;
+            case OpCode.STORE2B:
+                value = pop( 2 );
+                address = pop( 4 );
+                store( STORE2B, address, value );
+                break;
+            case OpCode.STOREB:
+                value = pop( 1 );
+                address = pop( 4 );
+                store( STOREB, address, value );
+                break;
+            case OpCode.STORE:
+                flush();
+                emit( STORE, code[i + 1] );
+                forgetWords();
+                break;
+            case OpCode.COPY:
+                operand2 = pop( 4 );
+                operand1 = pop( 4 );
+                int to = register( operand1 );
+                emit( COPY, to, register( operand2 ), code[i + 1] );
+                forgetWords();
+                break;
+
+            // compare, logical not, and branches
+            case OpCode.CMP:
+                operand2 = pop( 4 );
+                operand1 = pop( 4 );
+                stack.add( new Value( Value.COMPARE, 1, 0, operand1, operand2 ) );
+                break;
+            case OpCode.NOT:
+                operand1 = pop( 1 );
+                if ( operand1.isConstant() ) {
+                    pushConstant( 1, operand1.n == 0 ? 1 : 0 );
+                } else {
+                    unary( NOT, 1, operand1 );
+                }
+                break;
+            case OpCode.BR:
+                jump( code[i + 1] );
+                break;
+            case OpCode.BZ:
+                branchOnByte( EQ, i );
+                break;
+            case OpCode.BNZ:
+                branchOnByte( NE, i );
+                break;
+            case OpCode.BL:
+                branchOnByte( LT, i );
+                break;
+            case OpCode.BLE:
+                branchOnByte( LE, i );
+                break;
+            case OpCode.BG:
+                branchOnByte( GT, i );
+                break;
+            case OpCode.BGE:
+                branchOnByte( GE, i );
+                break;
+            case OpCode.BEQW:
+            case OpCode.BNEW:
+            case OpCode.BLTW:
+            case OpCode.BLEW:
+            case OpCode.BGTW:
+            case OpCode.BGEW:
+                compareBranch( opCode - OpCode.BEQW, 4, i );
+                break;
+            case OpCode.BEQ2B:
+            case OpCode.BNE2B:
+            case OpCode.BLT2B:
+            case OpCode.BLE2B:
+            case OpCode.BGT2B:
+            case OpCode.BGE2B:
+                compareBranch( opCode - OpCode.BEQ2B, 2, i );
+                break;
+            case OpCode.BEQB:
+            case OpCode.BNEB:
+            case OpCode.BLTB:
+            case OpCode.BLEB:
+            case OpCode.BGTB:
+            case OpCode.BGEB:
+                compareBranch( opCode - OpCode.BEQB, 1, i );
+                break;
+
+            // frames
+            case OpCode.PROGRAM:
+                flush();
+                emit( PROGRAM, code[i + 1] );
+                forgetWords();
+                break;
+            case OpCode.PROC:
+            case OpCode.ALLOC:
+                flush();
+                emit( ALLOC, code[i + 1] );
+                break;
+            case OpCode.CALL:
+                flush();
+                emit( CALL, code[i + 2] );
+                emitBranch( -1, i );
+                break;
+            case OpCode.RET:
+                flush();
+                emit( RET, code[i + 1] );
+                break;
+            case OpCode.HALT:
+                flush();
+                emit( HALT, i + 1 );
+                break;
+
+            // output
+            case OpCode.PUTINT:
+                emit( PUTINT, register( pop( 4 ) ) );
+                break;
+            case OpCode.PUTBYTE:
+                emit( PUTINT, register( pop( 1 ) ) );
+                break;
+            case OpCode.PUTCH:
+                emit( PUTCH, register( pop( 2 ) ) );
+                break;
+            case OpCode.PUTEOL:
+                emit( PUTEOL );
+                break;
+            case OpCode.PUTSTR:
+                address = pop( 4 );
+                value = pop( 4 );
+                if ( address.isConstant() && value.isConstant() ) {
+                    emit( PUTSTRI, address.n, value.n );
+                } else {
+                    int a = register( address );
+                    emit( PUTSTR, a, register( value ) );
+                }
+                break;
+
+            default:
+                throw new IllegalStateException( "Unexpected opcode " + opCode );
+        }
+
+        return i + getSlots( i );
+    }
+
+    /**
+     * Ends the block with a jump to the block at target. A block that only
+     * branches on a byte that is known here, as the blocks that join the
+     * values of a boolean expression do, is skipped: the jump goes to the
+     * destination of its branch, and the branch is charged with this block.
+     */
+    private void jump( int target ) {
+        Value top = stack.isEmpty() ? null : stack.get( stack.size() - 1 );
+
+        if ( top != null && top.isConstant() && top.size == 1 && isTranslated( target )
+                && ( code[target] == OpCode.BZ || code[target] == OpCode.BNZ ) ) {
+            stack.remove( stack.size() - 1 );
+            flush();
+            ++out[header];
+
+            if ( ( (byte) top.n == 0 ) == ( code[target] == OpCode.BZ ) ) {
+                emitBranch( BR, target );
+                return;
+            }
+
+            target = target + getSlots( target );
+        } else {
+            flush();
+        }
+
+        if ( isTranslated( target ) ) {
+            emit( BR, target );
+            addTarget( length - 1 );
+        } else {
+            emit( EXIT, target );
+        }
+    }
+
+    /**
+     * Translates a branch on the byte on top of the stack, compared with zero,
+     * or fuses it with the CMP that computed the byte.
+     */
+    private void branchOnByte( int relation, int index ) {
+        Value value = pop( 1 );
+        flush();
+
+        if ( value.kind == Value.COMPARE ) {
+            branch( relation, value.operand1, value.operand2, index );
+        } else {
+            emit( BEQI + relation, register( value ), 0 );
+            emitBranch( -1, index );
+        }
+    }
+
+    /**
+     * Translates a compare-and-branch instruction whose operands have the
+     * specified size.
+     */
+    private void compareBranch( int relation, int size, int index ) {
+        Value operand2 = pop( size );
+        Value operand1 = pop( size );
+        flush();
+
+        if ( size == 1 && relation != EQ && relation != NE ) {
+            // bytes are compared as unsigned values
+            operand1 = zeroExtend( operand1 );
+            operand2 = zeroExtend( operand2 );
+        }
+
+        branch( relation, operand1, operand2, index );
+    }
+
+    /**
+     * Emits the branch of the instruction at index if the relation holds
+     * between the two integer values.
+     */
+    private void branch( int relation, Value operand1, Value operand2, int index ) {
+        if ( operand2.isConstant() ) {
+            emit( BEQI + relation, register( operand1 ), operand2.n );
+        } else if ( operand1.isConstant() ) {
+            emit( BEQI + swap( relation ), register( operand2 ), operand1.n );
+        } else {
+            int a = register( operand1 );
+            emit( BEQ + relation, a, register( operand2 ) );
+        }
+
+        emitBranch( -1, index );
+    }
+
+    /**
+     * Returns the relation that holds between b and a when the specified one
+     * holds between a and b.
+     */
+    private static int swap( int relation ) {
+        switch ( relation ) {
+            case LT:
+                return GT;
+            case LE:
+                return GE;
+            case GT:
+                return LT;
+            case GE:
+                return LE;
+            default:
+                return relation;
+        }
+    }
+
+    /**
+     * Returns the byte value as an unsigned value.
+     */
+    private Value zeroExtend( Value value ) {
+        if ( value.isConstant() ) {
+            return new Value( Value.CONSTANT, 4, value.n & 0xFF );
+        }
+
+        int a = register( value );
+        emit( ZEXTB, newRegister(), a );
+        return new Value( Value.REGISTER, 4, nextRegister - 1 );
+    }
+
+    private void storeWord( Value address, Value value ) {
+        if ( address.kind == Value.LOCAL_ADDRESS ) {
+            if ( value.isConstant() ) {
+                emit( STLWI, value.n, address.n );
+            } else {
+                value = new Value( Value.REGISTER, 4, register( value ) );
+                emit( STLW, value.n, address.n );
+            }
+            forgetWords( address, 4 );
+            locals.put( address.n, value );
+        } else if ( address.isConstant() ) {
+            if ( value.isConstant() ) {
+                emit( STGWI, value.n, address.n );
+            } else {
+                value = new Value( Value.REGISTER, 4, register( value ) );
+                emit( STGW, value.n, address.n );
+            }
+            forgetWords( address, 4 );
+            globals.put( address.n, value );
+        } else {
+            store( STOREW, address, value );
+        }
+    }
+
+    private void store( int opCode, Value address, Value value ) {
+        int a = register( address );
+        emit( opCode, a, register( value ) );
+        forgetWords( address, opCode == STOREW ? 4 : opCode == STORE2B ? 2 : 1 );
+    }
+
+    /**
+     * Pushes the word of a variable, loaded with the specified instruction
+     * unless it is known.
+     */
+    private void loadWord( Map<Integer, Value> words, int opCode, int key ) {
+        Value value = words.get( key );
+        if ( value == null ) {
+            emit( opCode, newRegister(), key );
+            value = new Value( Value.REGISTER, 4, nextRegister - 1 );
+            words.put( key, value );
+        }
+
+        stack.add( value );
+    }
+
+    /**
+     * Forgets the known words that a store of size bytes at the address may
+     * change. The frame of the main program starts at the stack base, so its
+     * locals are also globals.
+     */
+    private void forgetWords( Value address, int size ) {
+        if ( address.kind == Value.LOCAL_ADDRESS ) {
+            forgetWords( locals, address.n, size );
+            globals.clear();
+        } else if ( address.isConstant() ) {
+            forgetWords( globals, address.n, size );
+            locals.clear();
+        } else {
+            forgetWords();
+        }
+    }
+
+    private static void forgetWords( Map<Integer, Value> words, int key, int size ) {
+        words.keySet().removeIf( k -> k < key + size && key < k + 4 );
+    }
+
+    private void forgetWords() {
+        locals.clear();
+        globals.clear();
+    }
+
+    private void addImmediate( Value operand, int n ) {
+        if ( operand.isConstant() ) {
+            pushConstant( 4, operand.n + n );
+        } else {
+            immediate( ADDI, operand, n );
+        }
+    }
+
+    private void immediate( int opCode, Value operand, int n ) {
+        int a = register( operand );
+        emit( opCode, newRegister(), a, n );
+        pushRegister( 4 );
+    }
+
+    private void unary( int opCode, int size, Value operand ) {
+        int a = register( operand );
+        emit( opCode, newRegister(), a );
+        pushRegister( size );
+    }
+
+    private void binary( int opCode, Value operand1, Value operand2 ) {
+        int a = register( operand1 );
+        int b = register( operand2 );
+        emit( opCode, newRegister(), a, b );
+        pushRegister( 4 );
+    }
+
+    private void pushConstant( int size, int n ) {
+        stack.add( new Value( Value.CONSTANT, size, n ) );
+    }
+
+    /**
+     * Pushes the register allocated last.
+     */
+    private void pushRegister( int size ) {
+        stack.add( new Value( Value.REGISTER, size, nextRegister - 1 ) );
+    }
+
+    private int newRegister() {
+        maxRegisters = Math.max( maxRegisters, nextRegister + 1 );
+        return nextRegister++;
+    }
+
+    /**
+     * Pops a value with the specified size off the modeled stack. Values that
+     * are in memory (or that were pushed with a different size) are popped
+     * into a register.
+     */
+    private Value pop( int size ) {
+        if ( !stack.isEmpty() ) {
+            Value top = stack.get( stack.size() - 1 );
+            if ( top.size == size ) {
+                stack.remove( stack.size() - 1 );
+                return top;
+            }
+
+            flush();
+        }
+
+        emit( size == 4 ? POPW : size == 2 ? POP2B : POPB, newRegister() );
+        return new Value( Value.REGISTER, size, nextRegister - 1 );
+    }
+
+    /**
+     * Returns the register that holds the value, emitting the instructions
+     * that compute it if it is not in a register yet.
+     */
+    private int register( Value value ) {
+        switch ( value.kind ) {
+            case Value.CONSTANT:
+                emit( LDC, newRegister(), value.n );
+                return nextRegister - 1;
+            case Value.LOCAL_ADDRESS:
+                emit( LDLADDR, newRegister(), value.n );
+                return nextRegister - 1;
+            case Value.COMPARE:
+                int a = register( value.operand1 );
+                int b = register( value.operand2 );
+                emit( CMP, newRegister(), a, b );
+                return nextRegister - 1;
+            default:
+                return value.n;
+        }
+    }
+
+    /**
+     * Pushes the values of the modeled stack onto the stack in memory.
+     */
+    private void flush() {
+        for ( Value value : stack ) {
+            int a = register( value );
+            emit( value.size == 4 ? PUSHW : value.size == 2 ? PUSH2B : PUSHB, a );
+        }
+
+        if ( !stack.isEmpty() ) {
+            // the stack in memory can grow over words that are known
+            forgetWords();
+            stack.clear();
+        }
+    }
+
+    /**
+     * Appends the target of the branch or call at index, or emits opCode
+     * followed by the target if opCode is not -1.
+     */
+    private void emitBranch( int opCode, int index ) {
+        if ( opCode != -1 ) {
+            emit( opCode );
+        }
+
+        emit( code[index + 1] );
+        addTarget( length - 1 );
+    }
+
+    /**
+     * Records that the operand at index holds the stream index of a branch
+     * target.
+     */
+    private void addTarget( int index ) {
+        if ( numTargets == targets.length ) {
+            targets = Arrays.copyOf( targets, 2 * numTargets );
+        }
+
+        targets[numTargets++] = index;
+    }
+
+    private void emit( int... values ) {
+        if ( length + values.length > out.length ) {
+            out = Arrays.copyOf( out, 2 * out.length + values.length );
+        }
+
+        System.arraycopy( values, 0, out, length, values.length );
+        length = length + values.length;
+    }
+}
@@ -0,0 +1,116 @@
+package edu.citadel.cvm;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The string literals of a program (the operands of its LDCSTR instructions),
+ * encoded as UTF-8 once when the program is decoded. PUTSTR looks up the
+ * address of the characters that it writes, and for a literal it copies the
+ * encoded bytes instead of decoding and encoding every character again.
+ *
+ * Literals with surrogates are not cached, since a surrogate pair may be
+ * split across two PUTSTR instructions.
+ */
+final class StringConstants {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // the literals sorted by the address of their characters
+    private int[] addresses = new int[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private byte[][] encoded = new byte[INITIAL_CAPACITY][];
+    private int size;
+
+    /**
+     * Adds the literal of the specified length whose characters are stored
+     * in memory, two bytes per character, at the specified address. Literals
+     * must be added in order of increasing address.
+     */
+    void add( byte[] memory, int address, int length ) {
+        char[] chars = new char[length];
+
+        for ( int i = 0; i < length; ++i ) {
+            int addr = address + i * Constants.BYTES_PER_CHAR;
+            chars[i] = (char) ( ( ( memory[addr] & 0xFF ) << 8 ) | ( memory[addr + 1] & 0xFF ) );
+
+            if ( Character.isSurrogate( chars[i] ) ) {
+                return;
+            }
+        }
+
+        append( address, length, new String( chars ).getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    /**
+     * Adds a literal as in add( memory, address, length ), using its UTF-8
+     * encoding from the string pool of the object file if the encoding
+     * matches the characters in memory.
+     */
+    void add( byte[] memory, int address, int length, byte[] pooled ) {
+        if ( pooled == null || !matches( memory, address, length, pooled ) ) {
+            add( memory, address, length );
+        } else {
+            append( address, length, pooled );
+        }
+    }
+
+    private void append( int address, int length, byte[] bytes ) {
+        if ( size == addresses.length ) {
+            addresses = Arrays.copyOf( addresses, 2 * size );
+            lengths = Arrays.copyOf( lengths, 2 * size );
+            encoded = Arrays.copyOf( encoded, 2 * size );
+        }
+
+        addresses[size] = address;
+        lengths[size] = length;
+        encoded[size] = bytes;
+        ++size;
+    }
+
+    /**
+     * Returns true if the bytes are the UTF-8 encoding of the characters in
+     * memory, which must not be surrogates.
+     */
+    private static boolean matches( byte[] memory, int address, int length, byte[] bytes ) {
+        int j = 0;
+
+        for ( int i = 0; i < length; ++i ) {
+            int addr = address + i * Constants.BYTES_PER_CHAR;
+            char c = (char) ( ( ( memory[addr] & 0xFF ) << 8 ) | ( memory[addr + 1] & 0xFF ) );
+
+            if ( Character.isSurrogate( c ) ) {
+                return false;
+            } else if ( c < 0x80 ) {
+                if ( j + 1 > bytes.length || bytes[j] != (byte) c ) {
+                    return false;
+                }
+                j += 1;
+            } else if ( c < 0x800 ) {
+                if ( j + 2 > bytes.length || bytes[j] != (byte) ( 0xC0 | c >> 6 )
+                        || bytes[j + 1] != (byte) ( 0x80 | c & 0x3F ) ) {
+                    return false;
+                }
+                j += 2;
+            } else {
+                if ( j + 3 > bytes.length || bytes[j] != (byte) ( 0xE0 | c >> 12 )
+                        || bytes[j + 1] != (byte) ( 0x80 | c >> 6 & 0x3F )
+                        || bytes[j + 2] != (byte) ( 0x80 | c & 0x3F ) ) {
+                    return false;
+                }
+                j += 3;
+            }
+        }
+
+        return j == bytes.length;
+    }
+
+    /**
+     * Returns the UTF-8 encoding of the literal with the specified address
+     * and length, or null if there is no such literal.
+     */
+    byte[] get( int address, int length ) {
+        int i = Arrays.binarySearch( addresses, 0, size, address );
+        return i >= 0 && lengths[i] == length ? encoded[i] : null;
+    }
+}
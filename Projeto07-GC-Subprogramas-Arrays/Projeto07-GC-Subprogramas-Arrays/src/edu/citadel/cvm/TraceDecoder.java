@@ -0,0 +1,96 @@
+package edu.citadel.cvm;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+/**
+ * Renders a trace file written by Tracer as text, one instruction per line.
+ * If the object code of the traced program is given, the instructions are
+ * shown with their operands as in the Disassembler; otherwise only the
+ * opcodes are shown.
+ */
+public class TraceDecoder {
+
+    private static final int FIELD_WIDTH = 10;
+
+    private final byte[] code;
+
+    /**
+     * Construct a decoder for traces of the specified object code, which may
+     * be null.
+     */
+    public TraceDecoder( byte[] code ) {
+        this.code = code;
+    }
+
+    public static void main( String[] args ) throws IOException {
+        if ( args.length < 1 || args.length > 2 ) {
+            System.err.println( "Usage: java edu.citadel.cvm.TraceDecoder tracefile [objfile]" );
+            System.exit( 0 );
+        }
+
+        byte[] code = args.length == 2
+                ? ObjectFile.read( Files.readAllBytes( new File( args[1] ).toPath() ) ).getCode() : null;
+        new TraceDecoder( code ).decode( new File( args[0] ), System.out );
+    }
+
+    /**
+     * Prints the records of the trace file.
+     *
+     * @throws IOException if the file is not a trace file
+     */
+    public void decode( File traceFile, PrintStream out ) throws IOException {
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( traceFile ) ) ) ) {
+            if ( in.readInt() != Tracer.MAGIC || in.readInt() != Tracer.VERSION ) {
+                throw new IOException( "Invalid trace file " + traceFile.getName() );
+            }
+
+            int sampleInterval = in.readInt();
+            if ( in.readInt() != Tracer.RECORD_LENGTH ) {
+                throw new IOException( "Invalid trace file " + traceFile.getName() );
+            }
+
+            out.println( "*** Trace of " + traceFile.getName() + ", one record every " + sampleInterval
+                    + " instructions ***" );
+            out.printf( "%" + FIELD_WIDTH + "s %7s  %-24s %7s %7s %12s%n", "seq", "pc", "instruction", "sp", "bp",
+                    "top" );
+
+            while ( true ) {
+                long seqOp;
+                try {
+                    seqOp = in.readLong();
+                } catch ( EOFException e ) {
+                    break;
+                }
+
+                long pcSp = in.readLong();
+                long bpTop = in.readLong();
+                int pc = (int) ( pcSp >>> 32 );
+
+                out.printf( "%" + FIELD_WIDTH + "d %7d  %-24s %7d %7d %12d%n", seqOp >>> 8, pc,
+                        getInstruction( pc, (byte) seqOp ), (int) pcSp, (int) ( bpTop >>> 32 ), (int) bpTop );
+            }
+        }
+    }
+
+    /**
+     * Returns the instruction at the address, or the name of the opcode if
+     * there is no object code for it. Short branches are traced as their
+     * long forms.
+     */
+    private String getInstruction( int address, byte opCode ) {
+        if ( code != null && address >= 0 && address < code.length
+                && OpCodeInfo.toLongForm( code[address] ) == opCode
+                && address + Disassembler.getLength( code, address ) <= code.length ) {
+            return Disassembler.disassemble( code, address );
+        }
+
+        return OpCode.toString( opCode );
+    }
+}
@@ -0,0 +1,239 @@
+package edu.citadel.cvm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records a binary trace of the instructions executed by the CVM. Each record
+ * holds the sequence number of the instruction, its address and opcode, and
+ * sp, bp, and the integer on top of the stack before it is executed.
+ *
+ * Records are written by the virtual machine into a ring buffer without
+ * locks. In spill mode, a background thread writes the records to the trace
+ * file while the program runs, and the virtual machine waits only when the
+ * ring is full. In keep-last mode, new records overwrite the oldest ones and
+ * only the last records are written to the file when the tracer is closed,
+ * e.g., to see what led to a fault. With a sample interval of n, only every
+ * nth instruction is recorded.
+ *
+ * The trace file starts with a header (magic, version, sample interval,
+ * record length) followed by the records, oldest first. TraceDecoder renders
+ * a trace file as text.
+ */
+public class Tracer implements AutoCloseable {
+
+    static final int MAGIC = 0x43564D54;   // "CVMT"
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 4 * 4;
+
+    /**
+     * length of a record in the trace file
+     */
+    public static final int RECORD_LENGTH = 3 * 8;
+
+    private static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private static final long SPILL_WAIT_NANOS = 200_000;
+
+    private static final int RECORDS_PER_WRITE = 4 * 1024;
+
+    // a record is packed in three longs: sequence number and opcode, pc and
+    // sp, bp and top of stack
+    private final long[] ring;
+    private final int capacity;
+    private final boolean keepLast;
+    private final int sampleInterval;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final Thread spiller;
+    private volatile boolean closed;
+    private IOException spillError;
+
+    /**
+     * number of records written to the ring, published to the spill thread
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * number of records written to the file by the spill thread
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    private long sequence;
+    private int countdown;
+
+    private Tracer( File file, int capacity, int sampleInterval, boolean keepLast ) throws IOException {
+        if ( capacity <= 0 || sampleInterval <= 0 ) {
+            throw new IllegalArgumentException( "capacity and sample interval must be positive" );
+        }
+
+        this.ring = new long[3 * capacity];
+        this.capacity = capacity;
+        this.keepLast = keepLast;
+        this.sampleInterval = sampleInterval;
+        this.countdown = sampleInterval;
+
+        channel = FileChannel.open( file.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING );
+
+        buffer = ByteBuffer.allocate( Math.min( capacity, RECORDS_PER_WRITE ) * RECORD_LENGTH );
+
+        ByteBuffer header = ByteBuffer.allocate( HEADER_LENGTH );
+        header.putInt( MAGIC ).putInt( VERSION ).putInt( sampleInterval ).putInt( RECORD_LENGTH );
+        header.flip();
+        write( header );
+
+        if ( keepLast ) {
+            spiller = null;
+        } else {
+            spiller = new Thread( this::spill, "cvm-trace" );
+            spiller.setDaemon( true );
+            spiller.start();
+        }
+    }
+
+    /**
+     * Returns a tracer that writes every sampled record to the file while the
+     * program runs.
+     */
+    public static Tracer toFile( File file, int sampleInterval ) throws IOException {
+        return new Tracer( file, DEFAULT_CAPACITY, sampleInterval, false );
+    }
+
+    /**
+     * Returns a tracer that keeps only the last sampled records in memory and
+     * writes them to the file when it is closed.
+     *
+     * @param numRecords the number of records kept
+     */
+    public static Tracer lastRecords( File file, int numRecords, int sampleInterval ) throws IOException {
+        return new Tracer( file, numRecords, sampleInterval, true );
+    }
+
+    /**
+     * Records the instruction about to be executed at the specified address.
+     */
+    public void record( int address, int opCode, int sp, int bp, int top ) {
+        ++sequence;
+        if ( --countdown > 0 ) {
+            return;
+        }
+        countdown = sampleInterval;
+
+        long n = head.get();
+        if ( !keepLast ) {
+            // wait for the spill thread to make room
+            while ( n - tail.get() >= capacity ) {
+                LockSupport.unpark( spiller );
+                Thread.onSpinWait();
+            }
+        }
+
+        int slot = 3 * (int) ( n % capacity );
+        ring[slot] = ( sequence << 8 ) | ( opCode & 0xFF );
+        ring[slot + 1] = ( (long) address << 32 ) | ( sp & 0xFFFFFFFFL );
+        ring[slot + 2] = ( (long) bp << 32 ) | ( top & 0xFFFFFFFFL );
+
+        // publish the record to the spill thread
+        head.lazySet( n + 1 );
+    }
+
+    /**
+     * Returns the number of instructions seen by the tracer, including the
+     * ones that were not sampled.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Writes the remaining records and closes the trace file.
+     */
+    @Override
+    public void close() throws IOException {
+        if ( closed ) {
+            return;
+        }
+        closed = true;
+
+        try {
+            if ( keepLast ) {
+                long n = head.get();
+                writeRecords( Math.max( 0, n - capacity ), n );
+            } else {
+                LockSupport.unpark( spiller );
+                spiller.join();
+                if ( spillError != null ) {
+                    throw spillError;
+                }
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while writing the trace", e );
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Body of the spill thread: writes the published records until the
+     * tracer is closed and the ring is empty.
+     */
+    private void spill() {
+        try {
+            while ( true ) {
+                boolean done = closed;
+                long n = head.get();
+                long t = tail.get();
+
+                if ( n > t ) {
+                    // at most up to the end of the ring at a time
+                    long end = Math.min( n, t + capacity - t % capacity );
+                    writeRecords( t, end );
+                    tail.lazySet( end );
+                } else if ( done ) {
+                    return;
+                } else {
+                    LockSupport.parkNanos( SPILL_WAIT_NANOS );
+                }
+            }
+        } catch ( IOException e ) {
+            spillError = e;
+            // stop waiting for room in the ring
+            tail.set( Long.MAX_VALUE / 2 );
+        }
+    }
+
+    /**
+     * Writes the records with numbers first (inclusive) to last (exclusive).
+     */
+    private void writeRecords( long first, long last ) throws IOException {
+        buffer.clear();
+
+        for ( long n = first; n < last; ++n ) {
+            int slot = 3 * (int) ( n % capacity );
+            buffer.putLong( ring[slot] ).putLong( ring[slot + 1] ).putLong( ring[slot + 2] );
+
+            if ( !buffer.hasRemaining() ) {
+                buffer.flip();
+                write( buffer );
+                buffer.clear();
+            }
+        }
+
+        buffer.flip();
+        write( buffer );
+    }
+
+    private void write( ByteBuffer buffer ) throws IOException {
+        while ( buffer.hasRemaining() ) {
+            channel.write( buffer );
+        }
+    }
+}
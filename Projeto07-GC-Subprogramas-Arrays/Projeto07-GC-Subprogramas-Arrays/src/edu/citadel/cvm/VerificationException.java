@@ -0,0 +1,28 @@
+package edu.citadel.cvm;
+
+/**
+ * Thrown when object code fails verification before it is loaded. The
+ * message names the address of the offending instruction.
+ */
+public class VerificationException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 4817290315468206133L;
+
+    private final int address;
+
+    /**
+     * Construct a VerificationException for the instruction at the specified
+     * address with the specified error message.
+     */
+    public VerificationException( int address, String message ) {
+        super( "*** Verification error at address " + address + ": " + message + " ***" );
+        this.address = address;
+    }
+
+    /**
+     * Returns the address of the instruction that failed verification.
+     */
+    public int getAddress() {
+        return address;
+    }
+}
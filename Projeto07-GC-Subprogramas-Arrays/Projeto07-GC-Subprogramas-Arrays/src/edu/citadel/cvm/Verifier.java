@@ -0,0 +1,276 @@
+package edu.citadel.cvm;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Verifies object code before it is loaded, using the metadata in
+ * OpCodeInfo. The code must consist of valid instructions with valid
+ * operands; branches must target the start of an instruction and calls the
+ * start of a PROC; execution must not fall off the end of the code; and the
+ * stack must have a consistent depth where control flow merges and never
+ * lose more bytes than the current frame has pushed.
+ *
+ * Verification also computes a bound on the number of bytes that the
+ * instructions of a frame push onto the stack above its local variables.
+ * With this bound, the CVM checks for stack overflow once when a frame is
+ * created instead of on every push. Depths are followed through the main
+ * program and through every called subprogram; the net effect of a CALL is
+ * the removal of the parameters, whose length is the operand of the RET of
+ * the called subprogram.
+ */
+final class Verifier {
+
+    /**
+     * marks an instruction that was not reached yet
+     */
+    private static final int UNVISITED = Integer.MIN_VALUE;
+
+    /**
+     * parameter length of a subprogram that never returns
+     */
+    private static final int NO_RETURN = -1;
+
+    private final byte[] code;
+    private final OpCodeInfo[] infos;
+    private final int[] depths;
+    private final Map<Integer, Integer> paramLengths = new HashMap<>();
+
+    private Verifier( byte[] code ) {
+        this.code = code;
+        this.infos = new OpCodeInfo[code.length];
+        this.depths = new int[code.length];
+    }
+
+    /**
+     * Verifies the object code and returns the maximum number of bytes pushed
+     * by a frame above its local variables.
+     *
+     * @throws VerificationException if the code fails verification
+     */
+    static int verify( byte[] code ) {
+        Verifier verifier = new Verifier( code );
+        verifier.decode();
+        verifier.checkTargets();
+        return verifier.computeBound();
+    }
+
+    /**
+     * Decodes the instructions one after the other from address 0 and checks
+     * their opcodes and operands.
+     */
+    private void decode() {
+        if ( code.length == 0 ) {
+            throw new VerificationException( 0, "the program has no instructions" );
+        }
+
+        int addr = 0;
+        while ( addr < code.length ) {
+            OpCodeInfo info = OpCodeInfo.get( code[addr] );
+            if ( info == null ) {
+                throw new VerificationException( addr, "invalid opcode " + code[addr] );
+            }
+
+            int length = OpCodeInfo.getLength( code, addr, code.length );
+            if ( length == 0 ) {
+                boolean hasOperand = addr + 1 + info.getOperand().getSize() <= code.length;
+                if ( info.getOperand() == OpCodeInfo.Operand.STRING && hasOperand
+                        && OpCodeInfo.getIntOperand( code, addr ) < 0 ) {
+                    throw error( addr, "negative string length" );
+                }
+                throw error( addr, "the instruction extends past the end of the code" );
+            }
+
+            if ( info.getOperand() == OpCodeInfo.Operand.BYTE && info.getOpCode() != OpCode.LDCB
+                    && ( code[addr + 1] < 0 || code[addr + 1] > 31 ) ) {
+                throw error( addr, "shift amount " + code[addr + 1] + " is out of range" );
+            }
+
+            if ( info.isSizeOperand() && OpCodeInfo.getIntOperand( code, addr ) < 0 ) {
+                throw error( addr, "negative length " + OpCodeInfo.getIntOperand( code, addr ) );
+            }
+
+            infos[addr] = info;
+            addr += length;
+        }
+    }
+
+    /**
+     * Checks that branches target the start of an instruction and calls the
+     * start of a subprogram.
+     */
+    private void checkTargets() {
+        for ( int addr = 0; addr < code.length; ++addr ) {
+            if ( infos[addr] == null || !infos[addr].getOperand().isDisplacement() ) {
+                continue;
+            }
+
+            long target = (long) addr + OpCodeInfo.getDisplacement( code, addr );
+            if ( target < 0 || target >= code.length ) {
+                throw error( addr, "target address " + target + " is outside the code" );
+            }
+
+            if ( infos[(int) target] == null ) {
+                throw error( addr, "target address " + target + " is not the start of an instruction" );
+            }
+
+            if ( infos[addr].getFlow() == OpCodeInfo.Flow.CALL && code[(int) target] != OpCode.PROC ) {
+                throw error( addr, "target address " + target + " is not a PROC instruction" );
+            }
+        }
+    }
+
+    /**
+     * Follows the stack depth through the control flow of the main program
+     * and of every called subprogram, and returns the largest depth.
+     */
+    private int computeBound() {
+        Arrays.fill( depths, UNVISITED );
+
+        Deque<Integer> frames = new ArrayDeque<>();
+        frames.push( 0 );
+        int bound = 0;
+
+        while ( !frames.isEmpty() ) {
+            int start = frames.pop();
+            if ( depths[start] != UNVISITED ) {
+                continue;
+            }
+
+            Deque<Integer> worklist = new ArrayDeque<>();
+            setDepth( start, start, 0, worklist );
+
+            while ( !worklist.isEmpty() ) {
+                int addr = worklist.pop();
+                OpCodeInfo info = infos[addr];
+                OpCodeInfo.Flow flow = info.getFlow();
+                int depth = depths[addr];
+                int newDepth;
+
+                if ( flow == OpCodeInfo.Flow.HALT || flow == OpCodeInfo.Flow.RETURN ) {
+                    continue;
+                } else if ( flow == OpCodeInfo.Flow.BRANCH ) {
+                    setDepth( addr, getTarget( addr ), depth, worklist );
+                    continue;
+                } else if ( flow == OpCodeInfo.Flow.CALL ) {
+                    int target = getTarget( addr );
+                    frames.push( target );
+
+                    int paramLength = getParamLength( target );
+                    if ( paramLength == NO_RETURN ) {
+                        continue;
+                    }
+
+                    checkPopped( addr, paramLength, depth );
+                    bound = Math.max( bound, depth + Constants.BYTES_PER_FRAME );
+                    newDepth = depth - paramLength;
+                } else if ( info.getOpCode() == OpCode.PROGRAM || info.getOpCode() == OpCode.PROC ) {
+                    // the locals are checked when the frame is created
+                    newDepth = 0;
+                } else {
+                    int operand = info.getOperand() == OpCodeInfo.Operand.INT
+                            ? OpCodeInfo.getIntOperand( code, addr ) : 0;
+                    int popped = info.getPopped( operand );
+                    checkPopped( addr, popped, depth );
+                    newDepth = depth - popped + info.getPushed( operand );
+                }
+
+                if ( flow == OpCodeInfo.Flow.CONDITIONAL_BRANCH ) {
+                    setDepth( addr, getTarget( addr ), newDepth, worklist );
+                }
+
+                bound = Math.max( bound, newDepth );
+
+                int next = addr + OpCodeInfo.getLength( code, addr, code.length );
+                if ( next >= code.length ) {
+                    throw error( addr, "execution can continue past the end of the code" );
+                }
+                setDepth( addr, next, newDepth, worklist );
+            }
+        }
+
+        return bound;
+    }
+
+    /**
+     * Records the depth of the instruction at the target address, reached
+     * from the instruction at the specified address, and adds it to the
+     * worklist the first time it is reached.
+     */
+    private void setDepth( int from, int target, int depth, Deque<Integer> worklist ) {
+        if ( depths[target] == UNVISITED ) {
+            depths[target] = depth;
+            worklist.push( target );
+        } else if ( depths[target] != depth ) {
+            throw error( from, "inconsistent stack depth at address " + target + ": " + depths[target]
+                    + " bytes on one path and " + depth + " bytes on another" );
+        }
+    }
+
+    private void checkPopped( int addr, int popped, int depth ) {
+        if ( popped > depth ) {
+            throw error( addr, "pops " + popped + " bytes, but the frame has pushed only " + depth );
+        }
+    }
+
+    /**
+     * Returns the operand of the RET instructions reachable from the start of
+     * a subprogram without following calls, or NO_RETURN if there are none.
+     */
+    private int getParamLength( int start ) {
+        Integer cached = paramLengths.get( start );
+        if ( cached != null ) {
+            return cached;
+        }
+
+        boolean[] visited = new boolean[code.length];
+        Deque<Integer> worklist = new ArrayDeque<>();
+        worklist.push( start );
+        int paramLength = NO_RETURN;
+        int retAddr = start;
+
+        while ( !worklist.isEmpty() ) {
+            int addr = worklist.pop();
+            if ( visited[addr] ) {
+                continue;
+            }
+            visited[addr] = true;
+
+            OpCodeInfo.Flow flow = infos[addr].getFlow();
+            if ( flow == OpCodeInfo.Flow.RETURN ) {
+                int operand = OpCodeInfo.getIntOperand( code, addr );
+                if ( paramLength != NO_RETURN && paramLength != operand ) {
+                    throw error( addr, "RET " + operand + " differs from RET " + paramLength + " at address "
+                            + retAddr + " in the same subprogram" );
+                }
+                paramLength = operand;
+                retAddr = addr;
+            } else if ( flow == OpCodeInfo.Flow.BRANCH ) {
+                worklist.push( getTarget( addr ) );
+            } else if ( flow != OpCodeInfo.Flow.HALT ) {
+                if ( flow == OpCodeInfo.Flow.CONDITIONAL_BRANCH ) {
+                    worklist.push( getTarget( addr ) );
+                }
+
+                int next = addr + OpCodeInfo.getLength( code, addr, code.length );
+                if ( next < code.length ) {
+                    worklist.push( next );
+                }
+            }
+        }
+
+        paramLengths.put( start, paramLength );
+        return paramLength;
+    }
+
+    private int getTarget( int addr ) {
+        return addr + OpCodeInfo.getDisplacement( code, addr );
+    }
+
+    private VerificationException error( int addr, String message ) {
+        return new VerificationException( addr, OpCode.toString( code[addr] ) + ": " + message );
+    }
+}
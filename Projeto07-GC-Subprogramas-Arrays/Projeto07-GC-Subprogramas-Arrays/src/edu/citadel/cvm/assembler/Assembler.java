@@ -2,13 +2,18 @@ package edu.citadel.cvm.assembler;
 
 import edu.citadel.compiler.ErrorHandler;
 import edu.citadel.compiler.Source;
-import edu.citadel.cvm.assembler.ast.AST;
+import edu.citadel.cvm.ObjectFile;
 import edu.citadel.cvm.assembler.ast.Instruction;
 import edu.citadel.cvm.assembler.ast.Program;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Assembler for the CPRL Virtual Machine.
@@ -79,12 +84,28 @@ public class Assembler {
     /**
      * Assembles the source file. If there are no errors in the source file, the
      * object code is placed in a file with the same base file name as the
-     * source file but with a ".obj" suffix.
+     * source file but with a ".obj" suffix. The object file also holds the
+     * labels and the debugging information of the program (see ObjectFile).
      *
      * @throws IOException if there are problems reading the source file or
      * writing to the target file.
      */
     public void assemble() throws IOException {
+        byte[] objectFile = assembleToBytes();
+
+        if ( objectFile != null ) {
+            writeObjectFile( getTargetFile( sourceFile ), objectFile );
+        }
+    }
+
+    /**
+     * Assembles the source file and returns the contents of its object file,
+     * or null if there are errors in the source file.
+     *
+     * @throws IOException if there are problems reading the source file.
+     */
+    public byte[] assembleToBytes() throws IOException {
+        byte[] objectFile = null;
         FileReader reader = new FileReader( sourceFile, StandardCharsets.UTF_8 );
         Source source = new Source( reader );
         Scanner scanner = new Scanner( source );
@@ -133,10 +154,14 @@ public class Assembler {
         // generate code
         if ( !errorHandler.errorsExist() ) {
             printProgressMessage( "Generating code..." );
-            AST.setOutputStream( getTargetOutputStream( sourceFile ) );
+            CodeBuffer code = new CodeBuffer( prog.getCodeSize() );
+            prog.getContext().setCodeBuffer( code );
 
             // no error recovery from errors detected during code generation
             prog.emit();
+            prog.getContext().setCodeBuffer( null );
+
+            objectFile = makeObjectFile( prog, code.toByteArray() ).toByteArray();
         }
 
         if ( errorHandler.errorsExist() ) {
@@ -145,6 +170,8 @@ public class Assembler {
         } else {
             printProgressMessage( "Assembly complete." );
         }
+
+        return objectFile;
     }
 
     /**
@@ -177,27 +204,59 @@ public class Assembler {
         System.exit( 0 );
     }
 
-    private OutputStream getTargetOutputStream( File sourceFile ) {
-        // get source file name minus the suffix
+    /**
+     * Returns the object file for the code, with the labels of the program
+     * and the subprogram names and source lines given by its directives.
+     */
+    private static ObjectFile makeObjectFile( Program prog, byte[] code ) throws IOException {
+        ObjectFile objectFile = new ObjectFile( code );
+
+        // in order of name, so that the label kept for an address does not vary
+        for ( Map.Entry<String, Integer> label : new TreeMap<>( prog.getContext().getLabelAddresses() ).entrySet() ) {
+            objectFile.addLabel( label.getValue(), label.getKey() );
+        }
+
+        for ( Instruction inst : prog.getInstructions() ) {
+            if ( inst.getSubprogramName() != null ) {
+                objectFile.addSubprogram( inst.getAddress(), inst.getSubprogramName() );
+            }
+
+            if ( inst.getSourceLine() != 0 ) {
+                objectFile.addLine( inst.getAddress(), inst.getSourceLine() );
+            }
+        }
+
+        return objectFile;
+    }
+
+    /**
+     * Returns the source file name minus the suffix.
+     */
+    private static String getBaseName( File sourceFile ) {
         String baseName = sourceFile.getName();
         int suffixIndex = baseName.lastIndexOf( SUFFIX );
         if ( suffixIndex > 0 ) {
             baseName = sourceFile.getName().substring( 0, suffixIndex );
         }
 
-        String targetFileName = baseName + ".obj";
+        return baseName;
+    }
 
-        File targetFile = null;
-        OutputStream targetStream = null;
+    private static File getTargetFile( File sourceFile ) {
+        return new File( sourceFile.getParent(), getBaseName( sourceFile ) + ".obj" );
+    }
 
-        try {
-            targetFile = new File( sourceFile.getParent(), targetFileName );
-            targetStream = new FileOutputStream( targetFile );
-        } catch ( IOException e ) {
-            e.printStackTrace();
-            System.exit( FAILURE );
+    /**
+     * Writes the object file with a single write to its channel (in the
+     * absence of partial writes).
+     */
+    private static void writeObjectFile( File targetFile, byte[] objectFile ) throws IOException {
+        try ( FileChannel channel = FileChannel.open( targetFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) ) {
+            ByteBuffer buffer = ByteBuffer.wrap( objectFile );
+            while ( buffer.hasRemaining() ) {
+                channel.write( buffer );
+            }
         }
-
-        return targetStream;
     }
 }
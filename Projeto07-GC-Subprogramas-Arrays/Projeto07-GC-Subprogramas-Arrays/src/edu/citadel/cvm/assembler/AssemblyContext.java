@@ -0,0 +1,133 @@
+package edu.citadel.cvm.assembler;
+
+import edu.citadel.cvm.Constants;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The state of one assembly: its labels, the identifiers defined by DEFINT,
+ * and the buffer that its machine code is emitted into. Each program has its
+ * own context, so that programs can be assembled at the same time in
+ * different threads.
+ *
+ * Labels are interned to dense ids the first time their names are seen, and
+ * their addresses are kept in an array indexed by id. Label names do not
+ * include the colon.
+ */
+public class AssemblyContext {
+
+    /**
+     * The address of a label that has not been defined.
+     */
+    public static final int UNDEFINED = -1;
+
+    private final Map<String, Integer> labelIds = new HashMap<>();
+    private String[] labelNames = new String[64];
+    private int[] labelAddresses = new int[64];
+    private int numLabels;
+
+    // identifiers mapped to stack addresses
+    private final Map<String, Integer> idAddresses = new HashMap<>();
+    private int idAddress = Constants.BYTES_PER_FRAME;
+
+    private CodeBuffer code;
+
+    /**
+     * Returns the id of the label with the specified name, which is assigned
+     * the first time the name is seen.
+     */
+    public int getLabelId( String name ) {
+        Integer id = labelIds.get( name );
+
+        if ( id == null ) {
+            if ( numLabels == labelAddresses.length ) {
+                labelNames = Arrays.copyOf( labelNames, 2 * numLabels );
+                labelAddresses = Arrays.copyOf( labelAddresses, 2 * numLabels );
+            }
+
+            id = numLabels++;
+            labelNames[id] = name;
+            labelAddresses[id] = UNDEFINED;
+            labelIds.put( name, id );
+        }
+
+        return id;
+    }
+
+    /**
+     * Returns true if the label with the specified id has an address.
+     */
+    public boolean isDefined( int labelId ) {
+        return labelAddresses[labelId] != UNDEFINED;
+    }
+
+    /**
+     * Returns true if the label with the specified name has an address.
+     */
+    public boolean isDefined( String name ) {
+        Integer id = labelIds.get( name );
+        return id != null && isDefined( id );
+    }
+
+    /**
+     * Returns the address of the label with the specified id, or UNDEFINED.
+     */
+    public int getLabelAddress( int labelId ) {
+        return labelAddresses[labelId];
+    }
+
+    public void setLabelAddress( int labelId, int address ) {
+        labelAddresses[labelId] = address;
+    }
+
+    /**
+     * Returns the defined labels mapped to their addresses.
+     */
+    public Map<String, Integer> getLabelAddresses() {
+        Map<String, Integer> addresses = new HashMap<>();
+
+        for ( int id = 0; id < numLabels; ++id ) {
+            if ( isDefined( id ) ) {
+                addresses.put( labelNames[id], labelAddresses[id] );
+            }
+        }
+
+        return addresses;
+    }
+
+    /**
+     * Maps the identifier to the next stack address, and reserves the
+     * specified number of bytes for it. Returns false if the identifier was
+     * already defined.
+     */
+    public boolean defineIdAddress( String identifier, int size ) {
+        if ( idAddresses.containsKey( identifier ) ) {
+            return false;
+        }
+
+        idAddresses.put( identifier, idAddress );
+        idAddress = idAddress + size;
+        return true;
+    }
+
+    /**
+     * Returns the stack address of the identifier, or null if it has not
+     * been defined.
+     */
+    public Integer getIdAddress( String identifier ) {
+        return idAddresses.get( identifier );
+    }
+
+    public CodeBuffer getCodeBuffer() {
+        return code;
+    }
+
+    /**
+     * Sets the buffer that the instructions emit their machine code into.
+     */
+    public void setCodeBuffer( CodeBuffer code ) {
+        this.code = code;
+    }
+}
@@ -0,0 +1,62 @@
+package edu.citadel.cvm.assembler;
+
+import java.util.Arrays;
+
+/**
+ * The buffer that the instructions emit their machine code into. The buffer
+ * is normally created with the size of the code, which is known once the
+ * addresses of the instructions are set, but it grows if more is emitted.
+ * Integers and characters are emitted with the high order byte first.
+ */
+public class CodeBuffer {
+
+    private byte[] bytes;
+    private int size;
+
+    /**
+     * Construct an empty buffer with the specified capacity in bytes.
+     */
+    public CodeBuffer( int capacity ) {
+        bytes = new byte[Math.max( 16, capacity )];
+    }
+
+    public void put( byte b ) {
+        ensureCapacity( 1 );
+        bytes[size++] = b;
+    }
+
+    public void putChar( char c ) {
+        ensureCapacity( 2 );
+        bytes[size++] = (byte) ( c >>> 8 );
+        bytes[size++] = (byte) c;
+    }
+
+    public void putInt( int n ) {
+        ensureCapacity( 4 );
+        bytes[size++] = (byte) ( n >>> 24 );
+        bytes[size++] = (byte) ( n >>> 16 );
+        bytes[size++] = (byte) ( n >>> 8 );
+        bytes[size++] = (byte) n;
+    }
+
+    /**
+     * Returns the number of bytes emitted.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the bytes emitted. If the buffer is full, its array is returned
+     * without a copy, so nothing should be emitted afterwards.
+     */
+    public byte[] toByteArray() {
+        return size == bytes.length ? bytes : Arrays.copyOf( bytes, size );
+    }
+
+    private void ensureCapacity( int n ) {
+        if ( size + n > bytes.length ) {
+            bytes = Arrays.copyOf( bytes, Math.max( 2 * bytes.length, size + n ) );
+        }
+    }
+}
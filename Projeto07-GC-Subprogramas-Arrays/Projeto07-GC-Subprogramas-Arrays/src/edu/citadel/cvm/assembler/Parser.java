@@ -21,6 +21,10 @@ public class Parser {
 
     private Scanner scanner;
 
+    // debugging information for the next instruction
+    private int pendingLine;
+    private String pendingName;
+
     /**
      * Construct a parser with the specified scanner.
      */
@@ -28,7 +32,7 @@ public class Parser {
         this.scanner = scanner;
     }
 
-    // program = ( instruction )* .
+    // program = ( instruction | directive )* .
     public Program parseProgram() throws IOException {
         Program prog = new Program();
 
@@ -40,8 +44,13 @@ public class Parser {
             while ( symbol.isOpCode()
                     || symbol == Symbol.labelId
                     || symbol == Symbol.identifier ) {
-                Instruction inst = parseInstruction();
-                prog.addInstruction( inst );
+                if ( symbol == Symbol.LINE || symbol == Symbol.NAME ) {
+                    parseDirective();
+                } else {
+                    Instruction inst = parseInstruction();
+                    prog.addInstruction( inst );
+                }
+
                 symbol = scanner.getSymbol();
             }
 
@@ -56,17 +65,21 @@ public class Parser {
         return prog;
     }
 
-    // instruction = ( labelId )* opCodeMnemonic (arg)? .
+    // instruction = ( labelId | directive )* opCodeMnemonic (arg)? .
     public Instruction parseInstruction() throws IOException {
         Instruction inst = null;
 
         try {
             List<Token> labels = new LinkedList<>();
 
-            if ( scanner.getSymbol() == Symbol.labelId ) {
-                while ( scanner.getSymbol() == Symbol.labelId ) {
+            // directives may appear among the labels
+            while ( scanner.getSymbol() == Symbol.labelId || scanner.getSymbol() == Symbol.LINE
+                    || scanner.getSymbol() == Symbol.NAME ) {
+                if ( scanner.getSymbol() == Symbol.labelId ) {
                     labels.add( scanner.getToken() );
                     match( Symbol.labelId );
+                } else {
+                    parseDirective();
                 }
             }
 
@@ -82,6 +95,10 @@ public class Parser {
             }
 
             inst = makeInstruction( labels, opCode, arg );
+            inst.setSourceLine( pendingLine );
+            inst.setSubprogramName( pendingName );
+            pendingLine = 0;
+            pendingName = null;
         } catch ( ParserException e ) {
             ErrorHandler.getInstance().reportError( e );
             scanner.advanceTo( instructionFollowers );
@@ -90,117 +107,35 @@ public class Parser {
         return inst;
     }
 
+    // directive = "LINE" intLiteral | "NAME" stringLiteral .
+    public void parseDirective() throws IOException {
+        try {
+            Token directive = scanner.getToken();
+            matchCurrentSymbol();
+            Token arg = scanner.getToken();
+
+            if ( directive.getSymbol() == Symbol.LINE ) {
+                match( Symbol.intLiteral );
+                try {
+                    pendingLine = Integer.parseInt( arg.getText() );
+                } catch ( NumberFormatException e ) {
+                    throw error( arg.getPosition(), "Invalid line number." );
+                }
+            } else {
+                match( Symbol.stringLiteral );
+                // omit opening and closing quotes
+                pendingName = arg.getText().substring( 1, arg.getText().length() - 1 );
+            }
+        } catch ( ParserException e ) {
+            ErrorHandler.getInstance().reportError( e );
+            scanner.advanceTo( instructionFollowers );
+        }
+    }
+
     private Instruction makeInstruction( List<Token> labels, Token opCode, Token arg )
             throws ParserException {
         checkArgs( opCode, arg );
-
-        switch ( opCode.getSymbol() ) {
-            case HALT:
-                return new InstructionHALT( labels, opCode );
-            case LOAD:
-                return new InstructionLOAD( labels, opCode, arg );
-            case LOADB:
-                return new InstructionLOADB( labels, opCode );
-            case LOAD2B:
-                return new InstructionLOAD2B( labels, opCode );
-            case LOADW:
-                return new InstructionLOADW( labels, opCode );
-            case LDCB:
-                return new InstructionLDCB( labels, opCode, arg );
-            case LDCB0:
-                return new InstructionLDCB0( labels, opCode );
-            case LDCB1:
-                return new InstructionLDCB1( labels, opCode );
-            case LDCCH:
-                return new InstructionLDCCH( labels, opCode, arg );
-            case LDCINT:
-                return new InstructionLDCINT( labels, opCode, arg );
-            case LDCINT0:
-                return new InstructionLDCINT0( labels, opCode );
-            case LDCINT1:
-                return new InstructionLDCINT1( labels, opCode );
-            case LDCSTR:
-                return new InstructionLDCSTR( labels, opCode, arg );
-            case LDLADDR:
-                return new InstructionLDLADDR( labels, opCode, arg );
-            case LDGADDR:
-                return new InstructionLDGADDR( labels, opCode, arg );
-            case STORE:
-                return new InstructionSTORE( labels, opCode, arg );
-            case STOREB:
-                return new InstructionSTOREB( labels, opCode );
-            case STORE2B:
-                return new InstructionSTORE2B( labels, opCode );
-            case STOREW:
-                return new InstructionSTOREW( labels, opCode );
-            case CMP:
-                return new InstructionCMP( labels, opCode );
-            case BR:
-                return new InstructionBR( labels, opCode, arg );
-            case BNZ:
-                return new InstructionBNZ( labels, opCode, arg );
-            case BZ:
-                return new InstructionBZ( labels, opCode, arg );
-            case BG:
-                return new InstructionBG( labels, opCode, arg );
-            case BGE:
-                return new InstructionBGE( labels, opCode, arg );
-            case BL:
-                return new InstructionBL( labels, opCode, arg );
-            case BLE:
-                return new InstructionBLE( labels, opCode, arg );
-            case SHL:
-                return new InstructionSHL( labels, opCode, arg );
-            case SHR:
-                return new InstructionSHR( labels, opCode, arg );
-            case NOT:
-                return new InstructionNOT( labels, opCode );
-            case ADD:
-                return new InstructionADD( labels, opCode );
-            case SUB:
-                return new InstructionSUB( labels, opCode );
-            case MUL:
-                return new InstructionMUL( labels, opCode );
-            case DIV:
-                return new InstructionDIV( labels, opCode );
-            case MOD:
-                return new InstructionMOD( labels, opCode );
-            case NEG:
-                return new InstructionNEG( labels, opCode );
-            case INC:
-                return new InstructionINC( labels, opCode );
-            case DEC:
-                return new InstructionDEC( labels, opCode );
-            case GETCH:
-                return new InstructionGETCH( labels, opCode );
-            case GETINT:
-                return new InstructionGETINT( labels, opCode );
-            case PUTBYTE:
-                return new InstructionPUTBYTE( labels, opCode );
-            case PUTCH:
-                return new InstructionPUTCH( labels, opCode );
-            case PUTINT:
-                return new InstructionPUTINT( labels, opCode );
-            case PUTEOL:
-                return new InstructionPUTEOL( labels, opCode );
-            case PUTSTR:
-                return new InstructionPUTSTR( labels, opCode );
-            case PROGRAM:
-                return new InstructionPROGRAM( labels, opCode, arg );
-            case PROC:
-                return new InstructionPROC( labels, opCode, arg );
-            case CALL:
-                return new InstructionCALL( labels, opCode, arg );
-            case RET:
-                return new InstructionRET( labels, opCode, arg );
-            case ALLOC:
-                return new InstructionALLOC( labels, opCode, arg );
-            case DEFINT:
-                return new InstructionDEFINT( labels, opCode, arg );
-            default:
-                // force an exception
-                throw new IllegalArgumentException( "Parser.makeInstruction(): opcode not handled at position " + opCode.getPosition() );
-        }
+        return Instruction.create( labels, opCode, arg );
     }
 
     // utility parsing methods
@@ -28,6 +28,10 @@ public enum Symbol {
     STOREB( "STOREB", 0 ),
     STORE2B( "STORE2B", 0 ),
     STOREW( "STOREW", 0 ),
+    COPY( "COPY", 1 ),
+
+    // array bounds check opcode
+    CHKIDX( "CHKIDX", 1 ),
     
     // compare/branch opcodes
     CMP( "CMP", 0 ),
@@ -38,6 +42,26 @@ public enum Symbol {
     BGE( "BGE", 1 ),
     BL( "BL", 1 ),
     BLE( "BLE", 1 ),
+
+    // compare-and-branch opcodes
+    BEQW( "BEQW", 1 ),
+    BNEW( "BNEW", 1 ),
+    BLTW( "BLTW", 1 ),
+    BLEW( "BLEW", 1 ),
+    BGTW( "BGTW", 1 ),
+    BGEW( "BGEW", 1 ),
+    BEQ2B( "BEQ2B", 1 ),
+    BNE2B( "BNE2B", 1 ),
+    BLT2B( "BLT2B", 1 ),
+    BLE2B( "BLE2B", 1 ),
+    BGT2B( "BGT2B", 1 ),
+    BGE2B( "BGE2B", 1 ),
+    BEQB( "BEQB", 1 ),
+    BNEB( "BNEB", 1 ),
+    BLTB( "BLTB", 1 ),
+    BLEB( "BLEB", 1 ),
+    BGTB( "BGTB", 1 ),
+    BGEB( "BGEB", 1 ),
     
     // shift opcodes
     SHL( "SHL", 1 ),
@@ -72,6 +96,19 @@ public enum Symbol {
     RET( "RET", 1 ),
     ALLOC( "ALLOC", 1 ),
     
+    // superinstructions
+    LDLW( "LDLW", 1 ),
+    LDGW( "LDGW", 1 ),
+    STLW( "STLW", 1 ),
+    STGW( "STGW", 1 ),
+    ADDI( "ADDI", 1 ),
+    SHLADD( "SHLADD", 1 ),
+    
+    // debugging directives: the source line of the statement and the name of
+    // the subprogram that start with the next instruction
+    LINE( "LINE", 1 ),
+    NAME( "NAME", 1 ),
+
     // pseudo opcodes
     DEFINT( "DEFINT", 1 ),
     //    DEFCHAR("DEFCHAR", 1),
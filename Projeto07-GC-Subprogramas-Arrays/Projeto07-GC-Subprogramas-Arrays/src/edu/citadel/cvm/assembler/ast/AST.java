@@ -1,7 +1,6 @@
 package edu.citadel.cvm.assembler.ast;
 
 import java.io.IOException;
-import java.io.OutputStream;
 
 import edu.citadel.compiler.ConstraintException;
 import edu.citadel.compiler.Position;
@@ -11,8 +10,6 @@ import edu.citadel.compiler.Position;
  */
 public abstract class AST {
 
-    private static OutputStream out = null;
-
     /**
      * Default constructor.
      */
@@ -20,20 +17,6 @@ public abstract class AST {
         super();
     }
 
-    /**
-     * Set the OutputStream to be used for code generation.
-     */
-    public static void setOutputStream( OutputStream out ) {
-        AST.out = out;
-    }
-
-    /**
-     * Returns the OutputStream to be used for code generation
-     */
-    public OutputStream getOutputStream() {
-        return out;
-    }
-
     /**
      * Creates/returns a new constraint exception with the specified position
      * and message.
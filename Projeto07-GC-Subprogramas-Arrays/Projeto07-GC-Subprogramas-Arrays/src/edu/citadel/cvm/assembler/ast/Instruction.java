@@ -1,8 +1,9 @@
 package edu.citadel.cvm.assembler.ast;
 
 import edu.citadel.compiler.ConstraintException;
-import edu.citadel.compiler.util.ByteUtil;
 import edu.citadel.cvm.Constants;
+import edu.citadel.cvm.assembler.AssemblyContext;
+import edu.citadel.cvm.assembler.CodeBuffer;
 import edu.citadel.cvm.assembler.Symbol;
 import edu.citadel.cvm.assembler.Token;
 
@@ -11,24 +12,24 @@ import java.io.*;
 
 /**
  * This abstract class implements common methods for the abstract syntax tree of
- * a single assembly language instruction.
+ * a single assembly language instruction. Labels and identifiers are resolved
+ * in the context of the program, which the instruction gets when its address
+ * is set.
  */
 public abstract class Instruction extends AST {
 
-    // Maps label text (type String) to an address (type Integer).
-    // Note that the label text always includes the colon (:) at the end.
-    protected static Map<String, Integer> labelMap = new HashMap<>();
-
-    // Maps identifier text (type String) to a stack address (type Integer).
-    protected static Map<String, Integer> idMap = new HashMap<>();
-
-    // Initialize address for identifiers (e.g., used in DEFINT).
-    private static int idAddress = Constants.BYTES_PER_FRAME;
-
     private List<Token> labels;
     private Token opCode;
 
     private int address;
+    private AssemblyContext context;
+
+    // the ids of the labels in the context
+    private int[] labelIds;
+
+    // debugging information from the LINE and NAME directives
+    private int sourceLine;
+    private String subprogramName;
 
     /**
      * Construct an instruction with a list of labels and an opcode.
@@ -38,6 +39,172 @@ public abstract class Instruction extends AST {
         this.opCode = opCode;
     }
 
+    /**
+     * Returns a new instruction for the opcode, with the specified labels and
+     * argument (null for opcodes without arguments).
+     */
+    public static Instruction create( List<Token> labels, Token opCode, Token arg ) {
+        switch ( opCode.getSymbol() ) {
+            case HALT:
+                return new InstructionHALT( labels, opCode );
+            case LOAD:
+                return new InstructionLOAD( labels, opCode, arg );
+            case LOADB:
+                return new InstructionLOADB( labels, opCode );
+            case LOAD2B:
+                return new InstructionLOAD2B( labels, opCode );
+            case LOADW:
+                return new InstructionLOADW( labels, opCode );
+            case LDCB:
+                return new InstructionLDCB( labels, opCode, arg );
+            case LDCB0:
+                return new InstructionLDCB0( labels, opCode );
+            case LDCB1:
+                return new InstructionLDCB1( labels, opCode );
+            case LDCCH:
+                return new InstructionLDCCH( labels, opCode, arg );
+            case LDCINT:
+                return new InstructionLDCINT( labels, opCode, arg );
+            case LDCINT0:
+                return new InstructionLDCINT0( labels, opCode );
+            case LDCINT1:
+                return new InstructionLDCINT1( labels, opCode );
+            case LDCSTR:
+                return new InstructionLDCSTR( labels, opCode, arg );
+            case LDLADDR:
+                return new InstructionLDLADDR( labels, opCode, arg );
+            case LDGADDR:
+                return new InstructionLDGADDR( labels, opCode, arg );
+            case STORE:
+                return new InstructionSTORE( labels, opCode, arg );
+            case STOREB:
+                return new InstructionSTOREB( labels, opCode );
+            case STORE2B:
+                return new InstructionSTORE2B( labels, opCode );
+            case STOREW:
+                return new InstructionSTOREW( labels, opCode );
+            case COPY:
+                return new InstructionCOPY( labels, opCode, arg );
+            case CHKIDX:
+                return new InstructionCHKIDX( labels, opCode, arg );
+            case CMP:
+                return new InstructionCMP( labels, opCode );
+            case BR:
+                return new InstructionBR( labels, opCode, arg );
+            case BNZ:
+                return new InstructionBNZ( labels, opCode, arg );
+            case BZ:
+                return new InstructionBZ( labels, opCode, arg );
+            case BG:
+                return new InstructionBG( labels, opCode, arg );
+            case BGE:
+                return new InstructionBGE( labels, opCode, arg );
+            case BL:
+                return new InstructionBL( labels, opCode, arg );
+            case BLE:
+                return new InstructionBLE( labels, opCode, arg );
+            case BEQW:
+                return new InstructionBEQW( labels, opCode, arg );
+            case BNEW:
+                return new InstructionBNEW( labels, opCode, arg );
+            case BLTW:
+                return new InstructionBLTW( labels, opCode, arg );
+            case BLEW:
+                return new InstructionBLEW( labels, opCode, arg );
+            case BGTW:
+                return new InstructionBGTW( labels, opCode, arg );
+            case BGEW:
+                return new InstructionBGEW( labels, opCode, arg );
+            case BEQ2B:
+                return new InstructionBEQ2B( labels, opCode, arg );
+            case BNE2B:
+                return new InstructionBNE2B( labels, opCode, arg );
+            case BLT2B:
+                return new InstructionBLT2B( labels, opCode, arg );
+            case BLE2B:
+                return new InstructionBLE2B( labels, opCode, arg );
+            case BGT2B:
+                return new InstructionBGT2B( labels, opCode, arg );
+            case BGE2B:
+                return new InstructionBGE2B( labels, opCode, arg );
+            case BEQB:
+                return new InstructionBEQB( labels, opCode, arg );
+            case BNEB:
+                return new InstructionBNEB( labels, opCode, arg );
+            case BLTB:
+                return new InstructionBLTB( labels, opCode, arg );
+            case BLEB:
+                return new InstructionBLEB( labels, opCode, arg );
+            case BGTB:
+                return new InstructionBGTB( labels, opCode, arg );
+            case BGEB:
+                return new InstructionBGEB( labels, opCode, arg );
+            case SHL:
+                return new InstructionSHL( labels, opCode, arg );
+            case SHR:
+                return new InstructionSHR( labels, opCode, arg );
+            case NOT:
+                return new InstructionNOT( labels, opCode );
+            case ADD:
+                return new InstructionADD( labels, opCode );
+            case SUB:
+                return new InstructionSUB( labels, opCode );
+            case MUL:
+                return new InstructionMUL( labels, opCode );
+            case DIV:
+                return new InstructionDIV( labels, opCode );
+            case MOD:
+                return new InstructionMOD( labels, opCode );
+            case NEG:
+                return new InstructionNEG( labels, opCode );
+            case INC:
+                return new InstructionINC( labels, opCode );
+            case DEC:
+                return new InstructionDEC( labels, opCode );
+            case GETCH:
+                return new InstructionGETCH( labels, opCode );
+            case GETINT:
+                return new InstructionGETINT( labels, opCode );
+            case PUTBYTE:
+                return new InstructionPUTBYTE( labels, opCode );
+            case PUTCH:
+                return new InstructionPUTCH( labels, opCode );
+            case PUTINT:
+                return new InstructionPUTINT( labels, opCode );
+            case PUTEOL:
+                return new InstructionPUTEOL( labels, opCode );
+            case PUTSTR:
+                return new InstructionPUTSTR( labels, opCode );
+            case PROGRAM:
+                return new InstructionPROGRAM( labels, opCode, arg );
+            case PROC:
+                return new InstructionPROC( labels, opCode, arg );
+            case CALL:
+                return new InstructionCALL( labels, opCode, arg );
+            case RET:
+                return new InstructionRET( labels, opCode, arg );
+            case ALLOC:
+                return new InstructionALLOC( labels, opCode, arg );
+            case LDLW:
+                return new InstructionLDLW( labels, opCode, arg );
+            case LDGW:
+                return new InstructionLDGW( labels, opCode, arg );
+            case STLW:
+                return new InstructionSTLW( labels, opCode, arg );
+            case STGW:
+                return new InstructionSTGW( labels, opCode, arg );
+            case ADDI:
+                return new InstructionADDI( labels, opCode, arg );
+            case SHLADD:
+                return new InstructionSHLADD( labels, opCode, arg );
+            case DEFINT:
+                return new InstructionDEFINT( labels, opCode, arg );
+            default:
+                // force an exception
+                throw new IllegalArgumentException( "Instruction.create(): opcode not handled at position " + opCode.getPosition() );
+        }
+    }
+
     public List<Token> getLabels() {
         return labels;
     }
@@ -47,22 +214,78 @@ public abstract class Instruction extends AST {
     }
 
     /**
-     * Sets the memory address and defines label values for an instruction.
+     * Sets the memory address and defines label values for an instruction in
+     * the context of its program.
      */
-    public void setAddress( int address ) throws ConstraintException {
+    public void setAddress( int address, AssemblyContext context ) throws ConstraintException {
         this.address = address;
+        this.context = context;
+
+        // the label text includes the colon
+        labelIds = new int[labels.size()];
+        int i = 0;
+        for ( Token label : labels ) {
+            String text = label.getText();
+            labelIds[i++] = context.getLabelId( text.substring( 0, text.length() - 1 ) );
+        }
 
         // define addresses for labels
+        i = 0;
         for ( Token label : labels ) {
-            if ( labelMap.containsKey( label.getText() ) ) {
+            int labelId = labelIds[i++];
+
+            if ( context.isDefined( labelId ) ) {
                 String errorMsg = "This label has already been defined.";
                 throw error( label.getPosition(), errorMsg );
             } else {
-                labelMap.put( label.getText(), Integer.valueOf( address ) );
+                context.setLabelAddress( labelId, address );
             }
         }
     }
 
+    /**
+     * Moves the instruction and its labels to another address, once
+     * setAddress() has defined the labels.
+     */
+    void moveTo( int address ) {
+        this.address = address;
+
+        for ( int labelId : labelIds ) {
+            context.setLabelAddress( labelId, address );
+        }
+    }
+
+    /**
+     * Returns the context of the program, as given to setAddress().
+     */
+    protected AssemblyContext getContext() {
+        return context;
+    }
+
+    /**
+     * Returns the source line of the statement that starts with this
+     * instruction, or 0 if none.
+     */
+    public int getSourceLine() {
+        return sourceLine;
+    }
+
+    public void setSourceLine( int sourceLine ) {
+        this.sourceLine = sourceLine;
+    }
+
+    /**
+     * Returns the name of the subprogram that starts with this instruction,
+     * or null if none.
+     */
+    public String getSubprogramName() {
+        return subprogramName;
+    }
+
+    public void setSubprogramName( String subprogramName ) {
+        this.subprogramName = subprogramName;
+    }
+
     /**
      * Returns the address of this instruction.
      */
@@ -78,12 +301,9 @@ public abstract class Instruction extends AST {
         assert identifier.getSymbol() == Symbol.identifier :
                 "Expecting an identifier but found " + identifier.getSymbol() + ".";
 
-        if ( idMap.containsKey( identifier.getText() ) ) {
+        if ( !context.defineIdAddress( identifier.getText(), size ) ) {
             String errorMsg = "This identifier has already been defined.";
             throw error( identifier.getPosition(), errorMsg );
-        } else {
-            idMap.put( identifier.getText(), Integer.valueOf( idAddress ) );
-            idAddress = idAddress + size;
         }
     }
 
@@ -94,10 +314,10 @@ public abstract class Instruction extends AST {
         assert identifier != null : "Identifier can't be null.";
         assert identifier.getSymbol() == Symbol.identifier :
                 "Expecting an identifier but found " + identifier.getSymbol() + ".";
-        assert idMap.containsKey( identifier.getText() ) :
-                "Identifier " + identifier.getText() + " not found.";
 
-        Integer idAddress = (Integer) idMap.get( identifier.getText() );
+        Integer idAddress = context.getIdAddress( identifier.getText() );
+
+        assert idAddress != null : "Identifier " + identifier.getText() + " not found.";
 
         return idAddress.intValue();
     }
@@ -116,15 +336,16 @@ public abstract class Instruction extends AST {
     }
 
     /**
-     * Checks that each label has a value defined in the label map. This method
+     * Checks that each label has a value defined in the context. This method
      * should not be called for an instruction before method setAddress().
      *
      * @throws ConstraintException if the instruction has a label that is not
-     * defined in the label map.
+     * defined in the context.
      */
     protected void checkLabels() throws ConstraintException {
+        int i = 0;
         for ( Token label : labels ) {
-            if ( !labelMap.containsKey( label.getText() ) ) {
+            if ( !context.isDefined( labelIds[i++] ) ) {
                 String errorMsg = "label \"" + label.getText() + "\" has not been defined.";
                 throw error( label.getPosition(), errorMsg );
             }
@@ -136,15 +357,10 @@ public abstract class Instruction extends AST {
      * (computed as label's address - instruction's address). This method is
      * used by branching and call instructions.
      */
-    protected int getDisplacement( Token labelArg ) {
-        String labelId = labelArg.getText() + ":";
-
-        assert labelMap.containsKey( labelId ) :
-                "Label " + labelArg.getText() + " not found.";
+    protected int getDisplacement( int labelId ) {
+        assert context.isDefined( labelId ) : "Label " + labelId + " not found.";
 
-        Integer labelAddress = (Integer) labelMap.get( labelId );
-
-        return ( labelAddress.intValue() - address );
+        return context.getLabelAddress( labelId ) - address;
     }
 
     /**
@@ -175,35 +391,31 @@ public abstract class Instruction extends AST {
         return buffer.toString();
     }
 
+    /**
+     * Returns the buffer to be used for code generation
+     */
+    public CodeBuffer getCodeBuffer() {
+        return context.getCodeBuffer();
+    }
+
     /**
      * emit the opCode for the instruction
      */
     protected void emit( byte opCode ) throws IOException {
-        getOutputStream().write( opCode );
+        getCodeBuffer().put( opCode );
     }
 
     /**
      * emit an integer argument for the instruction
      */
     protected void emit( int arg ) throws IOException {
-        getOutputStream().write( ByteUtil.intToBytes( arg ) );
+        getCodeBuffer().putInt( arg );
     }
 
     /**
      * emit a character argument for the instruction
      */
     protected void emit( char arg ) throws IOException {
-        getOutputStream().write( ByteUtil.charToBytes( arg ) );
-    }
-    
-    /**
-     * Reinicia os mapas para uma próxima execução.
-     * 
-     * @author Prof. Dr. David Buzatto
-     */
-    public static void resetMaps() {
-        labelMap.clear();
-        idMap.clear();
+        getCodeBuffer().putChar( arg );
     }
-    
 }
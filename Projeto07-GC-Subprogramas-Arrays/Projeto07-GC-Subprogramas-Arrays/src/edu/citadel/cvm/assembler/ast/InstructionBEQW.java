@@ -0,0 +1,27 @@
+package edu.citadel.cvm.assembler.ast;
+
+import edu.citadel.cvm.OpCode;
+import edu.citadel.cvm.assembler.Symbol;
+import edu.citadel.cvm.assembler.Token;
+
+import java.util.List;
+
+/**
+ * This class implements the abstract syntax tree for the assembly language
+ * instruction BEQW.
+ */
+public class InstructionBEQW extends InstructionBranch {
+
+    public InstructionBEQW( List<Token> labels, Token opCode, Token arg ) {
+        super( labels, opCode, arg );
+    }
+
+    public void assertOpCode() {
+        assertOpCode( Symbol.BEQW );
+    }
+
+    @Override
+    protected byte getBranchOpCode() {
+        return OpCode.BEQW;
+    }
+}
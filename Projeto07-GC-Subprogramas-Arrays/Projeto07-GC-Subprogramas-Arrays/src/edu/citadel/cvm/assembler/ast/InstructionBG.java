@@ -1,19 +1,16 @@
 package edu.citadel.cvm.assembler.ast;
 
-import edu.citadel.compiler.ConstraintException;
-import edu.citadel.cvm.Constants;
 import edu.citadel.cvm.OpCode;
 import edu.citadel.cvm.assembler.Symbol;
 import edu.citadel.cvm.assembler.Token;
 
 import java.util.List;
-import java.io.IOException;
 
 /**
  * This class implements the abstract syntax tree for the assembly language
  * instruction BG.
  */
-public class InstructionBG extends InstructionOneArg {
+public class InstructionBG extends InstructionBranch {
 
     public InstructionBG( List<Token> labels, Token opCode, Token arg ) {
         super( labels, opCode, arg );
@@ -23,18 +20,8 @@ public class InstructionBG extends InstructionOneArg {
         assertOpCode( Symbol.BG );
     }
 
-    public void checkArgType() throws ConstraintException {
-        checkArgType( Symbol.identifier );
-        checkLabelArgDefined();
-    }
-
-    public int getArgSize() {
-        return Constants.BYTES_PER_INTEGER;
-    }
-
     @Override
-    public void emit() throws IOException {
-        emit( OpCode.BG );
-        emit( getDisplacement( getArg() ) );
+    protected byte getBranchOpCode() {
+        return OpCode.BG;
     }
 }
@@ -0,0 +1,27 @@
+package edu.citadel.cvm.assembler.ast;
+
+import edu.citadel.cvm.OpCode;
+import edu.citadel.cvm.assembler.Symbol;
+import edu.citadel.cvm.assembler.Token;
+
+import java.util.List;
+
+/**
+ * This class implements the abstract syntax tree for the assembly language
+ * instruction BLT2B.
+ */
+public class InstructionBLT2B extends InstructionBranch {
+
+    public InstructionBLT2B( List<Token> labels, Token opCode, Token arg ) {
+        super( labels, opCode, arg );
+    }
+
+    public void assertOpCode() {
+        assertOpCode( Symbol.BLT2B );
+    }
+
+    @Override
+    protected byte getBranchOpCode() {
+        return OpCode.BLT2B;
+    }
+}
@@ -0,0 +1,85 @@
+package edu.citadel.cvm.assembler.ast;
+
+import edu.citadel.compiler.ConstraintException;
+import edu.citadel.cvm.OpCodeInfo;
+import edu.citadel.cvm.assembler.Symbol;
+import edu.citadel.cvm.assembler.Token;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * This class serves as a base class for the abstract syntax tree for the
+ * branch and call instructions, whose argument is a label. The displacement
+ * to the label is emitted in 1, 2, or 4 bytes with the corresponding short
+ * or long opcode. It starts with the shortest size and is only grown, by
+ * relax(), until it fits the displacement.
+ */
+public abstract class InstructionBranch extends InstructionOneArg {
+
+    private int displacementSize;
+
+    // the id of the label argument, assigned when first needed
+    private int targetId = -1;
+
+    public InstructionBranch( List<Token> labels, Token opCode, Token arg ) {
+        super( labels, opCode, arg );
+        displacementSize = OpCodeInfo.getDisplacementSize( getBranchOpCode(), 0 );
+    }
+
+    /**
+     * Returns the opcode of the instruction with a 4-byte displacement.
+     */
+    protected abstract byte getBranchOpCode();
+
+    public void checkArgType() throws ConstraintException {
+        checkArgType( Symbol.identifier );
+        checkLabelArgDefined();
+    }
+
+    public int getArgSize() {
+        return displacementSize;
+    }
+
+    /**
+     * Grows the size of the displacement if the displacement to the label,
+     * at the current addresses, does not fit. Returns true if the size
+     * changed. Undefined labels are left to checkConstraints().
+     */
+    boolean relax() {
+        if ( arg.getSymbol() != Symbol.identifier || !getContext().isDefined( getTargetId() ) ) {
+            return false;
+        }
+
+        int size = OpCodeInfo.getDisplacementSize( getBranchOpCode(), getDisplacement( getTargetId() ) );
+        if ( size > displacementSize ) {
+            displacementSize = size;
+            return true;
+        }
+
+        return false;
+    }
+
+    private int getTargetId() {
+        if ( targetId < 0 ) {
+            targetId = getContext().getLabelId( arg.getText() );
+        }
+
+        return targetId;
+    }
+
+    @Override
+    public void emit() throws IOException {
+        int displacement = getDisplacement( getTargetId() );
+
+        emit( OpCodeInfo.getBranchForm( getBranchOpCode(), displacementSize ) );
+
+        if ( displacementSize == 1 ) {
+            emit( (byte) displacement );
+        } else if ( displacementSize == 2 ) {
+            emit( (char) displacement );
+        } else {
+            emit( displacement );
+        }
+    }
+}
@@ -52,8 +52,7 @@ public abstract class InstructionOneArg extends Instruction {
             throw error( arg.getPosition(), errorMsg );
         }
 
-        String label = arg.getText() + ":";
-        if ( !labelMap.containsKey( label ) ) {
+        if ( !getContext().isDefined( arg.getText() ) ) {
             String errorMsg = "label \"" + arg.getText() + "\" has not been defined.";
             throw error( arg.getPosition(), errorMsg );
         }
@@ -2,6 +2,8 @@ package edu.citadel.cvm.assembler.ast;
 
 import edu.citadel.compiler.ConstraintException;
 import edu.citadel.compiler.ErrorHandler;
+import edu.citadel.cvm.assembler.AssemblyContext;
+import edu.citadel.cvm.assembler.optimize.InstructionBuffer;
 import edu.citadel.cvm.assembler.optimize.Optimization;
 import edu.citadel.cvm.assembler.optimize.Optimizations;
 
@@ -15,6 +17,10 @@ import java.util.*;
 public class Program extends AST {
 
     private ArrayList<Instruction> instructions;
+    private int codeSize;
+
+    // the labels, identifiers, and code buffer of this program
+    private final AssemblyContext context = new AssemblyContext();
 
     public Program() {
         super();
@@ -29,6 +35,10 @@ public class Program extends AST {
         return instructions;
     }
 
+    public AssemblyContext getContext() {
+        return context;
+    }
+
     @Override
     public void checkConstraints() {
         for ( Instruction inst : instructions ) {
@@ -38,14 +48,49 @@ public class Program extends AST {
 
     /**
      * Perform code transformations that improve performance. This method is
-     * normally called after checkConstraints() and before emit();
+     * normally called after checkConstraints() and before emit(). When an
+     * optimization replaces the instruction that starts a statement, its
+     * replacement inherits the source line.
+     *
+     * The optimizations, and then the superinstructions, are applied until
+     * none of them changes the instructions. After a change, only the
+     * positions whose windows include it are visited again, so a rewrite
+     * that enables another one (e.g., LDCINT x, NEG folded into the constant
+     * of an ADD) is not missed, and the time is linear in the number of
+     * instructions.
      */
     public void optimize() {
-        List<Optimization> optimizations = Optimizations.getOptimizations();
+        InstructionBuffer buffer = new InstructionBuffer( instructions );
+
+        optimize( buffer, Optimizations.getOptimizations() );
+        optimize( buffer, Optimizations.getSuperinstructions() );
+
+        instructions.clear();
+        instructions.addAll( buffer );
+    }
+
+    private static void optimize( InstructionBuffer buffer, List<Optimization> optimizations ) {
+        int n = 0;
+        while ( n < buffer.size() ) {
+            int edits = buffer.getEdits();
 
-        for ( int n = 0; n < instructions.size(); ++n ) {
             for ( Optimization optimization : optimizations ) {
-                optimization.optimize( instructions, n );
+                int sourceLine = buffer.get( n ).getSourceLine();
+                optimization.optimize( buffer, n );
+
+                if ( n >= buffer.size() ) {
+                    break;
+                }
+
+                if ( sourceLine != 0 && buffer.get( n ).getSourceLine() == 0 ) {
+                    buffer.get( n ).setSourceLine( sourceLine );
+                }
+            }
+
+            if ( buffer.getEdits() == edits ) {
+                ++n;
+            } else {
+                n = Math.max( 0, n - ( Optimizations.MAX_WINDOW - 1 ) );
             }
         }
     }
@@ -54,19 +99,63 @@ public class Program extends AST {
      * Sets the starting memory address for each instruction and defines label
      * addresses. Note: This method should be called after optimizations have
      * been performed and immediately before code generation.
+     *
+     * The branches start with the shortest displacement. While some of them
+     * do not fit their displacements, those are made longer and the addresses
+     * are set again. Displacements only grow, so this ends after a few
+     * passes.
      */
     public void setAddresses() {
         // the starting address for the first instruction
         int address = 0;
+        boolean labelsDefined = true;
 
         for ( Instruction inst : instructions ) {
             try {
-                inst.setAddress( address );
+                inst.setAddress( address, context );
                 address += inst.getSize();
             } catch ( ConstraintException e ) {
                 ErrorHandler.getInstance().reportError( e );
+                labelsDefined = false;
+            }
+        }
+
+        // duplicate labels would be redefined by moveTo()
+        if ( labelsDefined ) {
+            while ( relaxBranches() ) {
+                address = 0;
+                for ( Instruction inst : instructions ) {
+                    inst.moveTo( address );
+                    address += inst.getSize();
+                }
             }
         }
+
+        codeSize = address;
+    }
+
+    /**
+     * Grows the branches that do not fit their displacements, and returns
+     * true if there were any.
+     */
+    private boolean relaxBranches() {
+        boolean changed = false;
+
+        for ( Instruction inst : instructions ) {
+            if ( inst instanceof InstructionBranch && ( (InstructionBranch) inst ).relax() ) {
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Returns the number of bytes of machine code of the program, as set by
+     * setAddresses().
+     */
+    public int getCodeSize() {
+        return codeSize;
     }
 
     @Override
@@ -0,0 +1,133 @@
+package edu.citadel.cvm.assembler.optimize;
+
+import edu.citadel.cvm.assembler.ast.Instruction;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * The list of instructions that the optimizations edit. The instructions
+ * are kept in an array with a gap at the position of the last insertion or
+ * removal, so that instructions are removed and inserted near the position
+ * being optimized in constant time (plus the distance that the gap moves
+ * from the previous edit), while get() and set() take constant time at any
+ * index. The buffer also counts its edits, so that the optimizer can tell
+ * whether an optimization changed the instructions.
+ */
+public class InstructionBuffer extends AbstractList<Instruction> implements RandomAccess {
+
+    private Instruction[] elements;
+
+    // elements[gapStart] up to elements[gapEnd - 1] are not in the list
+    private int gapStart;
+    private int gapEnd;
+
+    private int edits;
+
+    /**
+     * Construct a buffer with the specified instructions.
+     */
+    public InstructionBuffer( Collection<Instruction> instructions ) {
+        elements = instructions.toArray( new Instruction[instructions.size() + 16] );
+        gapStart = instructions.size();
+        gapEnd = elements.length;
+    }
+
+    /**
+     * Returns the number of times that instructions were set, inserted, or
+     * removed.
+     */
+    public int getEdits() {
+        return edits;
+    }
+
+    @Override
+    public int size() {
+        return elements.length - ( gapEnd - gapStart );
+    }
+
+    @Override
+    public Instruction get( int index ) {
+        return elements[toArrayIndex( index )];
+    }
+
+    @Override
+    public Instruction set( int index, Instruction instruction ) {
+        int i = toArrayIndex( index );
+        Instruction previous = elements[i];
+        elements[i] = instruction;
+        ++edits;
+        return previous;
+    }
+
+    @Override
+    public void add( int index, Instruction instruction ) {
+        if ( index < 0 || index > size() ) {
+            throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size() );
+        }
+
+        if ( gapStart == gapEnd ) {
+            grow();
+        }
+
+        moveGap( index );
+        elements[gapStart++] = instruction;
+        ++edits;
+        ++modCount;
+    }
+
+    @Override
+    public Instruction remove( int index ) {
+        int i = toArrayIndex( index );
+        Instruction removed = elements[i];
+
+        moveGap( index );
+        elements[gapEnd++] = null;
+        ++edits;
+        ++modCount;
+        return removed;
+    }
+
+    /**
+     * Returns the index in the array of the instruction at the index in the
+     * list.
+     */
+    private int toArrayIndex( int index ) {
+        if ( index < 0 || index >= size() ) {
+            throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size() );
+        }
+
+        return index < gapStart ? index : index + ( gapEnd - gapStart );
+    }
+
+    /**
+     * Moves the gap so that it starts at the specified index in the list.
+     */
+    private void moveGap( int index ) {
+        if ( index < gapStart ) {
+            int count = gapStart - index;
+            System.arraycopy( elements, index, elements, gapEnd - count, count );
+            Arrays.fill( elements, index, Math.min( gapStart, gapEnd - count ), null );
+            gapStart = index;
+            gapEnd = gapEnd - count;
+        } else if ( index > gapStart ) {
+            int count = index - gapStart;
+            System.arraycopy( elements, gapEnd, elements, gapStart, count );
+            Arrays.fill( elements, Math.max( gapEnd, gapStart + count ), gapEnd + count, null );
+            gapStart = index;
+            gapEnd = gapEnd + count;
+        }
+    }
+
+    private void grow() {
+        int tail = elements.length - gapEnd;
+        Instruction[] newElements = new Instruction[2 * elements.length + 16];
+
+        System.arraycopy( elements, 0, newElements, 0, gapStart );
+        System.arraycopy( elements, gapEnd, newElements, newElements.length - tail, tail );
+        gapEnd = newElements.length - tail;
+        elements = newElements;
+    }
+}
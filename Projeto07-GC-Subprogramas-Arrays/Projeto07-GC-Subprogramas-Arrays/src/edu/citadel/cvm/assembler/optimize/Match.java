@@ -0,0 +1,93 @@
+package edu.citadel.cvm.assembler.optimize;
+
+import edu.citadel.cvm.assembler.Symbol;
+import edu.citadel.cvm.assembler.Token;
+import edu.citadel.cvm.assembler.ast.Instruction;
+import edu.citadel.cvm.assembler.ast.InstructionOneArg;
+
+import java.util.List;
+
+/**
+ * The instructions matched by the pattern of a rule, as seen by its guard
+ * and its replacement. Instructions are numbered from 0, the first
+ * instruction of the pattern.
+ */
+public final class Match {
+
+    private final List<Instruction> instructions;
+    private final int start;
+    private final int length;
+
+    Match( List<Instruction> instructions, int start, int length ) {
+        this.instructions = instructions;
+        this.start = start;
+        this.length = length;
+    }
+
+    /**
+     * Returns the i-th matched instruction.
+     */
+    public Instruction get( int i ) {
+        return instructions.get( start + i );
+    }
+
+    public Symbol getSymbol( int i ) {
+        return get( i ).getOpCode().getSymbol();
+    }
+
+    /**
+     * Returns the argument of the i-th matched instruction, which must have
+     * one.
+     */
+    public Token getArg( int i ) {
+        return ( (InstructionOneArg) get( i ) ).getArg();
+    }
+
+    /**
+     * Returns true if the argument of the i-th matched instruction is an
+     * integer literal.
+     */
+    public boolean isInt( int i ) {
+        return getArg( i ).getSymbol() == Symbol.intLiteral;
+    }
+
+    /**
+     * Returns the value of the integer literal argument of the i-th matched
+     * instruction.
+     */
+    public int getInt( int i ) {
+        return ( (InstructionOneArg) get( i ) ).argToInt();
+    }
+
+    /**
+     * Returns the instruction that follows the matched ones, or null if they
+     * end the program.
+     */
+    public Instruction getNext() {
+        return start + length < instructions.size() ? instructions.get( start + length ) : null;
+    }
+
+    /**
+     * Returns true if the instruction is the target of the label argument of
+     * the i-th matched instruction.
+     */
+    public boolean isTarget( Instruction instruction, int i ) {
+        if ( instruction != null ) {
+            String label = getArg( i ).getText() + ":";
+            for ( Token l : instruction.getLabels() ) {
+                if ( l.getText().equals( label ) ) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns an integer literal argument with the specified value.
+     */
+    public static Token intArg( int value ) {
+        return new Token( Symbol.intLiteral, Integer.toString( value ) );
+    }
+}
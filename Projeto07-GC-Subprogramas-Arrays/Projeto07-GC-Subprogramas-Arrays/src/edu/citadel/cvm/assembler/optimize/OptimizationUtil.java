@@ -1,10 +1,156 @@
 package edu.citadel.cvm.assembler.optimize;
 
+import edu.citadel.cvm.Constants;
+import edu.citadel.cvm.assembler.ast.*;
+
 /**
- * Utility class for shift-related optimizations.
+ * Utility class for shift-related optimizations and for optimizations that
+ * need to know the effect of an instruction on the stack.
  */
 public class OptimizationUtil {
 
+    /**
+     * Returns the number of bytes popped off the stack by the instruction, or
+     * -1 if the instruction transfers control or otherwise cannot be part of a
+     * straight-line expression.
+     */
+    public static int getBytesPopped( Instruction instruction ) {
+        switch ( instruction.getOpCode().getSymbol() ) {
+            case LDCB:
+            case LDCB0:
+            case LDCB1:
+            case LDCCH:
+            case LDCINT:
+            case LDCINT0:
+            case LDCINT1:
+            case LDCSTR:
+            case LDLADDR:
+            case LDGADDR:
+            case LDLW:
+            case LDGW:
+            case GETCH:
+            case GETINT:
+            case PUTEOL:
+                return 0;
+            case PUTBYTE:
+            case NOT:
+                return 1;
+            case PUTCH:
+                return Constants.BYTES_PER_CHAR;
+            case LOAD:
+            case LOADB:
+            case LOAD2B:
+            case LOADW:
+            case SHL:
+            case SHR:
+            case NEG:
+            case INC:
+            case DEC:
+            case ADDI:
+            case CHKIDX:
+            case PUTINT:
+            case STLW:
+            case STGW:
+                return Constants.BYTES_PER_INTEGER;
+            case STOREB:
+                return Constants.BYTES_PER_ADDRESS + 1;
+            case STORE2B:
+                return Constants.BYTES_PER_ADDRESS + 2;
+            case CMP:
+            case ADD:
+            case SUB:
+            case MUL:
+            case DIV:
+            case MOD:
+            case SHLADD:
+            case PUTSTR:
+            case STOREW:
+                return 2 * Constants.BYTES_PER_INTEGER;
+            case COPY:
+                return 2 * Constants.BYTES_PER_ADDRESS;
+            case STORE:
+                int length = getIntArg( instruction );
+                return length < 0 ? -1 : Constants.BYTES_PER_ADDRESS + length;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Returns the number of bytes pushed onto the stack by the instruction, or
+     * -1 if the instruction transfers control or otherwise cannot be part of a
+     * straight-line expression.
+     */
+    public static int getBytesPushed( Instruction instruction ) {
+        switch ( instruction.getOpCode().getSymbol() ) {
+            case STORE:
+            case STOREB:
+            case STORE2B:
+            case STOREW:
+            case COPY:
+            case STLW:
+            case STGW:
+            case PUTBYTE:
+            case PUTCH:
+            case PUTINT:
+            case PUTEOL:
+            case PUTSTR:
+                return 0;
+            case LDCB:
+            case LDCB0:
+            case LDCB1:
+            case LOADB:
+            case NOT:
+            case CMP:
+                return 1;
+            case LDCCH:
+            case LOAD2B:
+            case GETCH:
+                return Constants.BYTES_PER_CHAR;
+            case LDCINT:
+            case LDCINT0:
+            case LDCINT1:
+            case LDLADDR:
+            case LDGADDR:
+            case LDLW:
+            case LDGW:
+            case LOADW:
+            case SHL:
+            case SHR:
+            case NEG:
+            case INC:
+            case DEC:
+            case ADDI:
+            case CHKIDX:
+            case ADD:
+            case SUB:
+            case MUL:
+            case DIV:
+            case MOD:
+            case SHLADD:
+            case GETINT:
+                return Constants.BYTES_PER_INTEGER;
+            case LDCSTR:
+                return Constants.BYTES_PER_INTEGER + Constants.BYTES_PER_ADDRESS;
+            case LOAD:
+                return getIntArg( instruction );
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Returns the integer argument of the instruction, or -1 if the argument
+     * is not a nonnegative integer literal.
+     */
+    private static int getIntArg( Instruction instruction ) {
+        try {
+            return Math.max( -1, Integer.parseInt( ( (InstructionOneArg) instruction ).getArg().getText() ) );
+        } catch ( NumberFormatException e ) {
+            return -1;
+        }
+    }
+
     /**
      * If n is a power of 2, returns log2(n) (i.e., returns the exponent);
      * otherwise returns 0.
@@ -4,25 +4,45 @@ import java.util.List;
 import java.util.LinkedList;
 
 /**
- * This class is used to retrieve the list of all optimizations.
+ * This class is used to retrieve the lists of optimizations: the
+ * optimizations that rewrite instruction sequences, and the
+ * superinstructions, which are applied once no rewrite applies. Except for
+ * StoreWord, which scans ahead for a store, the optimizations are the
+ * declarative rules in PeepholeRules.
  */
 public class Optimizations {
 
+    /**
+     * The largest number of consecutive instructions that an optimization
+     * examines, starting at its position. Optimizations change instructions
+     * at or after their position, so a change can only enable optimizations
+     * at the MAX_WINDOW - 1 positions before it, or after it. (StoreWord
+     * also looks ahead for the store of the address at its position, but
+     * only at the stack effect of the instructions in between, which the
+     * optimizations preserve.)
+     */
+    public static final int MAX_WINDOW = 4;
+
     private static final List<Optimization> optimizations;
+    private static final List<Optimization> superinstructions;
 
     public static List<Optimization> getOptimizations() {
         return optimizations;
     }
 
+    public static List<Optimization> getSuperinstructions() {
+        return superinstructions;
+    }
+
     static {
         optimizations = new LinkedList<>();
-        optimizations.add( new ConstFolding() );
-        optimizations.add( new IncDec() );
-        optimizations.add( new IncDec2() );
-        optimizations.add( new ShiftLeftRight() );
-        optimizations.add( new ShiftLeft() );
-        optimizations.add( new BranchingReduction() );
-        optimizations.add( new ConstNeg() );
-        optimizations.add( new LoadSpecialConstants() );
+        superinstructions = new LinkedList<>();
+
+        // StoreWord removes the instruction at the current position, so it
+        // comes first to let the rules see its replacement
+        optimizations.add( new StoreWord() );
+        optimizations.add( new RuleMatcher( PeepholeRules.getRewrites() ) );
+
+        superinstructions.add( new RuleMatcher( PeepholeRules.getSuperinstructions() ) );
     }
 }
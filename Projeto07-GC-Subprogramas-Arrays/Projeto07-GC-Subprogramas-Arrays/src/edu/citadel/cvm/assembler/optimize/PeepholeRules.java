@@ -0,0 +1,181 @@
+package edu.citadel.cvm.assembler.optimize;
+
+import edu.citadel.cvm.assembler.Symbol;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntBinaryOperator;
+
+import static edu.citadel.cvm.assembler.Symbol.*;
+import static edu.citadel.cvm.assembler.optimize.Match.intArg;
+import static edu.citadel.cvm.assembler.optimize.Rule.keep;
+import static edu.citadel.cvm.assembler.optimize.Rule.op;
+
+/**
+ * The peephole rules of the assembler. The rewrites simplify instruction
+ * sequences, and the superinstructions (chosen from opcode pair frequencies
+ * measured on the example programs) fuse the sequences left by the
+ * rewrites, so they are applied once no rewrite applies. Within each list,
+ * the first rule that matches at a position is applied.
+ */
+public class PeepholeRules {
+
+    private static final List<Rule> rewrites;
+    private static final List<Rule> superinstructions;
+
+    public static List<Rule> getRewrites() {
+        return rewrites;
+    }
+
+    public static List<Rule> getSuperinstructions() {
+        return superinstructions;
+    }
+
+    static {
+        List<Rule> r = new ArrayList<>();
+
+        // replace arithmetic on constants with its result, e.g.,
+        // LDCINT 5, LDCINT 7, ADD with LDCINT 12
+        fold( r, ADD, ( a, b ) -> a + b );
+        fold( r, SUB, ( a, b ) -> a - b );
+        fold( r, MUL, ( a, b ) -> a * b );
+        fold( r, DIV, ( a, b ) -> a / b );
+        fold( r, MOD, ( a, b ) -> a % b );
+
+        // LDCINT 1, ADD with INC, and similarly for SUB
+        r.add( new Rule( "Inc" ).match( LDCINT, ADD )
+                .when( m -> m.isInt( 0 ) && m.getInt( 0 ) == 1 )
+                .replace( op( INC ) ) );
+        r.add( new Rule( "Dec" ).match( LDCINT, SUB )
+                .when( m -> m.isInt( 0 ) && m.getInt( 0 ) == 1 )
+                .replace( op( DEC ) ) );
+
+        // LDCINT 1, LDLADDR x, LOADW, ADD with LDLADDR x, LOADW, INC; there
+        // is no such rule for SUB, which computes 1 - x
+        r.add( new Rule( "IncVar" ).match( LDCINT, LDLADDR, LOADW, ADD )
+                .when( m -> m.isInt( 0 ) && m.getInt( 0 ) == 1 )
+                .replace( keep( 1 ), keep( 2 ), op( INC ) ) );
+
+        // multiplication by a power of 2 with shifts; division is not
+        // replaced, since DIV truncates toward zero but SHR rounds negative
+        // values toward minus infinity
+        r.add( new Rule( "ShiftLeft" ).match( LDCINT, MUL )
+                .when( PeepholeRules::isPowerOf2 )
+                .replace( op( SHL, m -> intArg( OptimizationUtil.getShiftAmount( m.getInt( 0 ) ) ) ) ) );
+        r.add( new Rule( "ShiftLeftVar" ).match( LDCINT, LDLADDR, LOADW, MUL )
+                .when( PeepholeRules::isPowerOf2 )
+                .replace( keep( 1 ), keep( 2 ), op( SHL, m -> intArg( OptimizationUtil.getShiftAmount( m.getInt( 0 ) ) ) ) ) );
+
+        // CMP followed by a branch on its result with a compare-and-branch;
+        // these come before the branch reductions, which then see the fused
+        // branch
+        compareBranch( r, BZ, BEQW );
+        compareBranch( r, BNZ, BNEW );
+        compareBranch( r, BL, BLTW );
+        compareBranch( r, BLE, BLEW );
+        compareBranch( r, BG, BGTW );
+        compareBranch( r, BGE, BGEW );
+
+        // a conditional branch over an unconditional one with the opposite
+        // branch, e.g., BZ L1, BR L0, L1: with BNZ L0, L1:
+        for ( Map.Entry<Symbol, Symbol> entry : getDualBranches().entrySet() ) {
+            Symbol dual = entry.getValue();
+            r.add( new Rule( "BranchingReduction " + entry.getKey() ).match( entry.getKey(), BR )
+                    .allowLabels()
+                    .when( m -> m.isTarget( m.getNext(), 0 ) )
+                    .replace( op( dual, m -> m.getArg( 1 ) ) ) );
+        }
+
+        r.add( new Rule( "ConstNeg" ).match( LDCINT, NEG )
+                .when( m -> m.isInt( 0 ) )
+                .replace( op( LDCINT, m -> intArg( -m.getInt( 0 ) ) ) ) );
+
+        // an index check of a constant index that is known to be in bounds
+        r.add( new Rule( "ConstIndexCheck" ).match( LDCINT, CHKIDX )
+                .when( m -> m.isInt( 0 ) && m.getInt( 0 ) >= 0 && m.getInt( 0 ) < m.getInt( 1 ) )
+                .replace( keep( 0 ) ) );
+
+        rewrites = Collections.unmodifiableList( r );
+
+        List<Rule> s = new ArrayList<>();
+
+        s.add( new Rule( "LoadLocalWord" ).match( LDLADDR, LOADW )
+                .replace( op( LDLW, m -> m.getArg( 0 ) ) ) );
+        s.add( new Rule( "LoadGlobalWord" ).match( LDGADDR, LOADW )
+                .replace( op( LDGW, m -> m.getArg( 0 ) ) ) );
+
+        s.add( new Rule( "AddImmediate" ).match( LDCINT, ADD )
+                .when( m -> m.isInt( 0 ) )
+                .replace( op( ADDI, m -> m.getArg( 0 ) ) ) );
+        // -Integer.MIN_VALUE overflows
+        s.add( new Rule( "SubImmediate" ).match( LDCINT, SUB )
+                .when( m -> m.isInt( 0 ) && m.getInt( 0 ) != Integer.MIN_VALUE )
+                .replace( op( ADDI, m -> intArg( -m.getInt( 0 ) ) ) ) );
+
+        s.add( new Rule( "ShiftLeftAdd" ).match( SHL, ADD )
+                .replace( op( SHLADD, m -> m.getArg( 0 ) ) ) );
+
+        specialConstant( s, LDCINT, "0", LDCINT0 );
+        specialConstant( s, LDCINT, "1", LDCINT1 );
+        specialConstant( s, LDCB, "0", LDCB0 );
+        specialConstant( s, LDCB, "1", LDCB1 );
+
+        s.add( new Rule( "BlockCopy" ).match( LOAD, STORE )
+                .when( m -> m.getArg( 0 ).getText().equals( m.getArg( 1 ).getText() ) )
+                .replace( op( COPY, m -> m.getArg( 0 ) ) ) );
+
+        superinstructions = Collections.unmodifiableList( s );
+    }
+
+    private static void fold( List<Rule> rules, Symbol operator, IntBinaryOperator f ) {
+        Rule rule = new Rule( "ConstFolding " + operator ).match( LDCINT, LDCINT, operator )
+                .when( m -> m.isInt( 0 ) && m.isInt( 1 ) )
+                .replace( op( LDCINT, m -> intArg( f.applyAsInt( m.getInt( 0 ), m.getInt( 1 ) ) ) ) );
+
+        // leave a division by zero to fail at run time
+        if ( operator == DIV || operator == MOD ) {
+            rule.when( m -> m.getInt( 1 ) != 0 );
+        }
+
+        rules.add( rule );
+    }
+
+    private static void compareBranch( List<Rule> rules, Symbol branch, Symbol fused ) {
+        rules.add( new Rule( "CompareBranch " + branch ).match( CMP, branch )
+                .replace( op( fused, m -> m.getArg( 1 ) ) ) );
+    }
+
+    private static void specialConstant( List<Rule> rules, Symbol load, String value, Symbol special ) {
+        rules.add( new Rule( "LoadSpecialConstant " + special ).match( load )
+                .when( m -> m.getArg( 0 ).getText().equals( value ) )
+                .replace( op( special ) ) );
+    }
+
+    private static boolean isPowerOf2( Match m ) {
+        return m.isInt( 0 ) && OptimizationUtil.getShiftAmount( m.getInt( 0 ) ) > 0;
+    }
+
+    /**
+     * Returns the map from each conditional branch to the conditional branch
+     * that branches exactly when it does not (for example, from BG to BLE).
+     */
+    private static Map<Symbol, Symbol> getDualBranches() {
+        Map<Symbol, Symbol> duals = new EnumMap<>( Symbol.class );
+        Symbol[][] pairs = {
+            { BNZ, BZ }, { BG, BLE }, { BGE, BL },
+            { BEQW, BNEW }, { BLTW, BGEW }, { BLEW, BGTW },
+            { BEQ2B, BNE2B }, { BLT2B, BGE2B }, { BLE2B, BGT2B },
+            { BEQB, BNEB }, { BLTB, BGEB }, { BLEB, BGTB }
+        };
+
+        for ( Symbol[] pair : pairs ) {
+            duals.put( pair[0], pair[1] );
+            duals.put( pair[1], pair[0] );
+        }
+
+        return duals;
+    }
+}
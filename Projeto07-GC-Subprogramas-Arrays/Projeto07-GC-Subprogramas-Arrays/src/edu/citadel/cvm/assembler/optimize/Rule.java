@@ -0,0 +1,215 @@
+package edu.citadel.cvm.assembler.optimize;
+
+import edu.citadel.cvm.assembler.Symbol;
+import edu.citadel.cvm.assembler.Token;
+import edu.citadel.cvm.assembler.ast.Instruction;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A peephole rule: a pattern of opcodes, a guard on the matched instructions,
+ * and the instructions that replace them. For example,
+ * <code>
+ * new Rule( "ConstNeg" ).match( LDCINT, NEG )
+ *         .when( m -&gt; m.isInt( 0 ) )
+ *         .replace( op( LDCINT, m -&gt; Match.intArg( -m.getInt( 0 ) ) ) )
+ * </code>
+ * replaces LDCINT x, NEG with LDCINT -x. Unless the rule allows labels, the
+ * matched instructions after the first must not have labels; the labels of
+ * the matched instructions are given to the first instruction of the
+ * replacement. Rules are compiled into a RuleMatcher.
+ */
+public final class Rule {
+
+    /**
+     * Makes an instruction of the replacement of a match.
+     */
+    public interface Template {
+
+        /**
+         * Returns the instruction for the match, with the specified labels.
+         */
+        Instruction make( Match m, List<Token> labels );
+
+        /**
+         * Returns the index of the matched instruction that is kept, or -1
+         * if the instruction is new.
+         */
+        default int getKept() {
+            return -1;
+        }
+    }
+
+    private final String name;
+    private Symbol[] pattern = new Symbol[0];
+    private Predicate<Match> guard = m -> true;
+    private boolean allowsLabels;
+    private Template[] replacement = new Template[0];
+
+    /**
+     * Construct a rule with the name used to describe it.
+     */
+    public Rule( String name ) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Sets the opcodes of the consecutive instructions that the rule matches.
+     */
+    public Rule match( Symbol... pattern ) {
+        this.pattern = pattern.clone();
+        return this;
+    }
+
+    /**
+     * Adds a condition that the matched instructions must satisfy.
+     */
+    public Rule when( Predicate<Match> condition ) {
+        guard = guard.and( condition );
+        return this;
+    }
+
+    /**
+     * Allows labels on the matched instructions after the first.
+     */
+    public Rule allowLabels() {
+        allowsLabels = true;
+        return this;
+    }
+
+    /**
+     * Sets the instructions that replace the matched ones.
+     */
+    public Rule replace( Template... replacement ) {
+        if ( replacement.length == 0 ) {
+            throw new IllegalArgumentException( "Rule " + name + " has no replacement" );
+        }
+
+        this.replacement = replacement.clone();
+        return this;
+    }
+
+    /**
+     * Returns a template for a new instruction without argument.
+     */
+    public static Template op( Symbol opCode ) {
+        return ( m, labels ) -> Instruction.create( labels, new Token( opCode ), null );
+    }
+
+    /**
+     * Returns a template for a new instruction with the argument computed
+     * from the match.
+     */
+    public static Template op( Symbol opCode, Function<Match, Token> arg ) {
+        return ( m, labels ) -> Instruction.create( labels, new Token( opCode ), arg.apply( m ) );
+    }
+
+    /**
+     * Returns a template for a new instruction with the opcode and the
+     * argument computed from the match.
+     */
+    public static Template op( Function<Match, Symbol> opCode, Function<Match, Token> arg ) {
+        return ( m, labels ) -> Instruction.create( labels, new Token( opCode.apply( m ) ), arg.apply( m ) );
+    }
+
+    /**
+     * Returns a template that keeps the i-th matched instruction.
+     */
+    public static Template keep( int i ) {
+        return new Template() {
+            @Override
+            public Instruction make( Match m, List<Token> labels ) {
+                Instruction instruction = m.get( i );
+                if ( labels != instruction.getLabels() ) {
+                    instruction.getLabels().addAll( labels );
+                }
+                return instruction;
+            }
+
+            @Override
+            public int getKept() {
+                return i;
+            }
+        };
+    }
+
+    Symbol[] getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Applies the rule to the instructions starting at the specified index,
+     * if they match. Returns true if the instructions were replaced.
+     */
+    boolean apply( List<Instruction> instructions, int start ) {
+        if ( start + pattern.length > instructions.size() ) {
+            return false;
+        }
+
+        for ( int i = 0; i < pattern.length; ++i ) {
+            Instruction instruction = instructions.get( start + i );
+            if ( instruction.getOpCode().getSymbol() != pattern[i]
+                    || i > 0 && !allowsLabels && !instruction.getLabels().isEmpty() ) {
+                return false;
+            }
+        }
+
+        Match m = new Match( instructions, start, pattern.length );
+        if ( !guard.test( m ) ) {
+            return false;
+        }
+
+        // the labels of the matched instructions, except those of an
+        // instruction that is kept to receive them
+        Instruction first = instructions.get( start );
+        int kept = replacement[0].getKept();
+        List<Token> labels = kept >= 0 ? new LinkedList<>() : new LinkedList<>( first.getLabels() );
+
+        for ( int i = 1; i < pattern.length; ++i ) {
+            if ( i != kept ) {
+                labels.addAll( m.get( i ).getLabels() );
+            }
+        }
+        if ( kept > 0 ) {
+            labels.addAll( 0, first.getLabels() );
+        }
+
+        List<Instruction> result = new ArrayList<>( replacement.length );
+        for ( int i = 0; i < replacement.length; ++i ) {
+            result.add( replacement[i].make( m, i == 0 ? labels : new LinkedList<>() ) );
+        }
+
+        // the optimizer takes care of the source line
+        if ( result.get( 0 ).getSubprogramName() == null ) {
+            result.get( 0 ).setSubprogramName( first.getSubprogramName() );
+        }
+
+        // replace the matched instructions in place, adding or removing the
+        // difference at the end
+        int common = Math.min( pattern.length, result.size() );
+        for ( int i = 0; i < common; ++i ) {
+            instructions.set( start + i, result.get( i ) );
+        }
+        for ( int i = common; i < pattern.length; ++i ) {
+            instructions.remove( start + common );
+        }
+        for ( int i = common; i < result.size(); ++i ) {
+            instructions.add( start + i, result.get( i ) );
+        }
+
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,57 @@
+package edu.citadel.cvm.assembler.optimize;
+
+import edu.citadel.cvm.assembler.Symbol;
+import edu.citadel.cvm.assembler.ast.Instruction;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies a list of rules as a single optimization. The rules are indexed by
+ * the first opcode of their patterns, so that at each position only the
+ * rules that start with the opcode of the instruction there are tried. The
+ * first of them (in the order of the list) that matches is applied.
+ */
+public class RuleMatcher implements Optimization {
+
+    private static final Rule[] NO_RULES = new Rule[0];
+
+    private final Map<Symbol, Rule[]> rules = new EnumMap<>( Symbol.class );
+
+    /**
+     * Construct a matcher for the rules, which are tried in the order of the
+     * list.
+     */
+    public RuleMatcher( List<Rule> rules ) {
+        Map<Symbol, List<Rule>> index = new EnumMap<>( Symbol.class );
+
+        for ( Rule rule : rules ) {
+            Symbol[] pattern = rule.getPattern();
+            if ( pattern.length == 0 || pattern.length > Optimizations.MAX_WINDOW ) {
+                throw new IllegalArgumentException( "Rule " + rule + " must match between 1 and "
+                        + Optimizations.MAX_WINDOW + " instructions" );
+            }
+
+            index.computeIfAbsent( pattern[0], s -> new ArrayList<>() ).add( rule );
+        }
+
+        for ( Map.Entry<Symbol, List<Rule>> entry : index.entrySet() ) {
+            this.rules.put( entry.getKey(), entry.getValue().toArray( NO_RULES ) );
+        }
+    }
+
+    @Override
+    public void optimize( List<Instruction> instructions, int instNum ) {
+        Rule[] candidates = rules.get( instructions.get( instNum ).getOpCode().getSymbol() );
+
+        if ( candidates != null ) {
+            for ( Rule rule : candidates ) {
+                if ( rule.apply( instructions, instNum ) ) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package edu.citadel.cvm.assembler.optimize;
+
+import edu.citadel.cvm.Constants;
+import edu.citadel.cvm.assembler.Symbol;
+import edu.citadel.cvm.assembler.Token;
+import edu.citadel.cvm.assembler.ast.*;
+
+import java.util.List;
+
+/**
+ * Replaces an assignment to a word-size variable with a single store
+ * superinstruction. Basically, this class looks for patterns of the form
+ * "LDLADDR n, &lt;expr&gt;, STOREW" and replaces it with "&lt;expr&gt;, STLW n", and
+ * similarly for LDGADDR and STGW. The expression must be straight-line code
+ * (no labels, branches, or calls) that leaves exactly one word on the stack
+ * without touching the address below it.
+ */
+public class StoreWord implements Optimization {
+
+    @Override
+    public void optimize( List<Instruction> instructions, int instNum ) {
+        Instruction instruction0 = instructions.get( instNum );
+        Symbol symbol0 = instruction0.getOpCode().getSymbol();
+
+        // quick check that we have LDLADDR/LDGADDR
+        if ( symbol0 != Symbol.LDLADDR && symbol0 != Symbol.LDGADDR ) {
+            return;
+        }
+
+        // number of bytes pushed above the address by the expression
+        int depth = 0;
+
+        for ( int n = instNum + 1; n < instructions.size(); ++n ) {
+            Instruction instruction = instructions.get( n );
+
+            if ( !instruction.getLabels().isEmpty() ) {
+                return;
+            }
+
+            if ( instruction.getOpCode().getSymbol() == Symbol.STOREW
+                    && depth == Constants.BYTES_PER_INTEGER ) {
+                if ( n == instNum + 1 ) {
+                    return;
+                }
+
+                replace( instructions, instNum, n );
+                return;
+            }
+
+            int popped = OptimizationUtil.getBytesPopped( instruction );
+            int pushed = OptimizationUtil.getBytesPushed( instruction );
+
+            if ( popped < 0 || pushed < 0 || popped > depth ) {
+                return;
+            }
+
+            depth = depth - popped + pushed;
+        }
+    }
+
+    private void replace( List<Instruction> instructions, int addrNum, int storeNum ) {
+        InstructionOneArg addrInst = (InstructionOneArg) instructions.get( addrNum );
+        Instruction storeInst;
+
+        if ( addrInst.getOpCode().getSymbol() == Symbol.LDLADDR ) {
+            storeInst = new InstructionSTLW( instructions.get( storeNum ).getLabels(),
+                    new Token( Symbol.STLW ), addrInst.getArg() );
+        } else {
+            storeInst = new InstructionSTGW( instructions.get( storeNum ).getLabels(),
+                    new Token( Symbol.STGW ), addrInst.getArg() );
+        }
+
+        // replace STOREW, then remove the address load after moving its
+        // labels to the first instruction of the expression
+        instructions.set( storeNum, storeInst );
+        instructions.get( addrNum + 1 ).getLabels().addAll( addrInst.getLabels() );
+        instructions.remove( addrNum );
+    }
+}
@@ -0,0 +1,199 @@
+package edu.citadel.cvm.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Minimal writer for a class file with a constant pool, a no-argument
+ * constructor and methods built with CodeBuffer. The class file version is
+ * 49 so that no stack map frames are required.
+ */
+final class ClassFile {
+
+    private static final int VERSION = 49;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream( poolBytes );
+    private final Map<String, Integer> poolIndexes = new HashMap<>();
+    private int poolCount = 1;
+
+    private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+    private final DataOutputStream methods = new DataOutputStream( methodBytes );
+    private int methodCount = 0;
+
+    private final int thisClass;
+    private final int superClass;
+    private final int interfaceClass;
+    private final int codeName;
+
+    /**
+     * Construct a class file for a public final class with the specified
+     * internal name implementing one interface.
+     */
+    ClassFile( String className, String interfaceName ) {
+        thisClass = classRef( className );
+        superClass = classRef( "java/lang/Object" );
+        interfaceClass = classRef( interfaceName );
+        codeName = utf8( "Code" );
+
+        CodeBuffer init = new CodeBuffer( this );
+        init.aload( 0 );
+        init.invokespecial( "java/lang/Object", "<init>", "()V" );
+        init.op( CodeBuffer.RETURN );
+        addMethod( "<init>", "()V", init, 1, 1 );
+    }
+
+    int utf8( String value ) {
+        Integer index = poolIndexes.get( "U" + value );
+        if ( index == null ) {
+            index = newEntry( "U" + value );
+            write( CONSTANT_UTF8 );
+            try {
+                pool.writeUTF( value );
+            } catch ( IOException e ) {
+                throw new IllegalStateException( e );
+            }
+        }
+        return index;
+    }
+
+    int integer( int value ) {
+        Integer index = poolIndexes.get( "I" + value );
+        if ( index == null ) {
+            index = newEntry( "I" + value );
+            write( CONSTANT_INTEGER );
+            writeInt( value );
+        }
+        return index;
+    }
+
+    int classRef( String name ) {
+        Integer index = poolIndexes.get( "C" + name );
+        if ( index == null ) {
+            int nameIndex = utf8( name );
+            index = newEntry( "C" + name );
+            write( CONSTANT_CLASS );
+            writeShort( nameIndex );
+        }
+        return index;
+    }
+
+    int methodRef( String owner, String name, String descriptor ) {
+        String key = "M" + owner + "." + name + descriptor;
+        Integer index = poolIndexes.get( key );
+        if ( index == null ) {
+            int classIndex = classRef( owner );
+            int nameIndex = utf8( name );
+            int descriptorIndex = utf8( descriptor );
+            int nameAndTypeIndex = newEntry( "N" + name + descriptor );
+            write( CONSTANT_NAME_AND_TYPE );
+            writeShort( nameIndex );
+            writeShort( descriptorIndex );
+            index = newEntry( key );
+            write( CONSTANT_METHODREF );
+            writeShort( classIndex );
+            writeShort( nameAndTypeIndex );
+        }
+        return index;
+    }
+
+    /**
+     * Adds a public method with the specified code.
+     */
+    void addMethod( String name, String descriptor, CodeBuffer code, int maxStack, int maxLocals ) {
+        byte[] bytes = code.toByteArray();
+        int nameIndex = utf8( name );
+        int descriptorIndex = utf8( descriptor );
+
+        try {
+            methods.writeShort( ACC_PUBLIC );
+            methods.writeShort( nameIndex );
+            methods.writeShort( descriptorIndex );
+            methods.writeShort( 1 );                  // attributes_count
+            methods.writeShort( codeName );
+            methods.writeInt( 12 + bytes.length );    // attribute_length
+            methods.writeShort( maxStack );
+            methods.writeShort( maxLocals );
+            methods.writeInt( bytes.length );
+            methods.write( bytes );
+            methods.writeShort( 0 );                  // exception_table_length
+            methods.writeShort( 0 );                  // attributes_count
+        } catch ( IOException e ) {
+            throw new IllegalStateException( e );
+        }
+
+        ++methodCount;
+    }
+
+    /**
+     * Returns the bytes of the class file.
+     */
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+
+        try {
+            out.writeInt( 0xCAFEBABE );
+            out.writeShort( 0 );
+            out.writeShort( VERSION );
+            out.writeShort( poolCount );
+            poolBytes.writeTo( out );
+            out.writeShort( ACC_PUBLIC | ACC_FINAL | ACC_SUPER );
+            out.writeShort( thisClass );
+            out.writeShort( superClass );
+            out.writeShort( 1 );
+            out.writeShort( interfaceClass );
+            out.writeShort( 0 );                      // fields_count
+            out.writeShort( methodCount );
+            methodBytes.writeTo( out );
+            out.writeShort( 0 );                      // attributes_count
+        } catch ( IOException e ) {
+            throw new IllegalStateException( e );
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private int newEntry( String key ) {
+        int index = poolCount++;
+        poolIndexes.put( key, index );
+        return index;
+    }
+
+    private void write( int b ) {
+        try {
+            pool.writeByte( b );
+        } catch ( IOException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private void writeShort( int s ) {
+        try {
+            pool.writeShort( s );
+        } catch ( IOException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private void writeInt( int n ) {
+        try {
+            pool.writeInt( n );
+        } catch ( IOException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package edu.citadel.cvm.jit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Buffer for the bytecode of a method. Branches refer to labels that are
+ * resolved when the bytes are retrieved.
+ */
+final class CodeBuffer {
+
+    // JVM opcodes used by the compiler
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int ILOAD = 0x15;
+    static final int ALOAD = 0x19;
+    static final int IALOAD = 0x2E;
+    static final int BALOAD = 0x33;
+    static final int ISTORE = 0x36;
+    static final int IASTORE = 0x4F;
+    static final int BASTORE = 0x54;
+    static final int IADD = 0x60;
+    static final int ISUB = 0x64;
+    static final int IMUL = 0x68;
+    static final int IDIV = 0x6C;
+    static final int IREM = 0x70;
+    static final int INEG = 0x74;
+    static final int ISHL = 0x78;
+    static final int ISHR = 0x7A;
+    static final int IAND = 0x7E;
+    static final int IINC = 0x84;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9A;
+    static final int IFLT = 0x9B;
+    static final int IFGE = 0x9C;
+    static final int IFGT = 0x9D;
+    static final int IFLE = 0x9E;
+    static final int IF_ICMPEQ = 0x9F;
+    static final int IF_ICMPNE = 0xA0;
+    static final int IF_ICMPLT = 0xA1;
+    static final int IF_ICMPGE = 0xA2;
+    static final int IF_ICMPGT = 0xA3;
+    static final int IF_ICMPLE = 0xA4;
+    static final int GOTO = 0xA7;
+    static final int LOOKUPSWITCH = 0xAB;
+    static final int IRETURN = 0xAC;
+    static final int RETURN = 0xB1;
+    static final int INVOKESPECIAL = 0xB7;
+    static final int INVOKESTATIC = 0xB8;
+    static final int ARRAYLENGTH = 0xBE;
+    static final int WIDE = 0xC4;
+
+    /**
+     * A position in the code that can be the target of branches.
+     */
+    static final class Label {
+        private int position = -1;
+    }
+
+    /**
+     * A reference to a label: the offset is relative to the opcode of the
+     * referencing instruction.
+     */
+    private static final class Fixup {
+        final int opcodePosition;
+        final int offsetPosition;
+        final boolean wide;
+        final Label label;
+
+        Fixup( int opcodePosition, int offsetPosition, boolean wide, Label label ) {
+            this.opcodePosition = opcodePosition;
+            this.offsetPosition = offsetPosition;
+            this.wide = wide;
+            this.label = label;
+        }
+    }
+
+    private final ClassFile classFile;
+    private final List<Fixup> fixups = new ArrayList<>();
+    private byte[] bytes = new byte[256];
+    private int length = 0;
+
+    CodeBuffer( ClassFile classFile ) {
+        this.classFile = classFile;
+    }
+
+    /**
+     * Returns the number of bytes of code emitted so far.
+     */
+    int length() {
+        return length;
+    }
+
+    void op( int opcode ) {
+        u1( opcode );
+    }
+
+    void iconst( int value ) {
+        if ( value >= -1 && value <= 5 ) {
+            u1( ICONST_0 + value );
+        } else if ( value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE ) {
+            u1( BIPUSH );
+            u1( value );
+        } else if ( value >= Short.MIN_VALUE && value <= Short.MAX_VALUE ) {
+            u1( SIPUSH );
+            u2( value );
+        } else {
+            u1( LDC_W );
+            u2( classFile.integer( value ) );
+        }
+    }
+
+    void iload( int local ) {
+        localOp( ILOAD, local );
+    }
+
+    void istore( int local ) {
+        localOp( ISTORE, local );
+    }
+
+    void aload( int local ) {
+        localOp( ALOAD, local );
+    }
+
+    /**
+     * Adds a constant to an int local variable.
+     */
+    void iinc( int local, int delta ) {
+        if ( delta == 0 ) {
+            return;
+        } else if ( local <= 0xFF && delta >= Byte.MIN_VALUE && delta <= Byte.MAX_VALUE ) {
+            u1( IINC );
+            u1( local );
+            u1( delta );
+        } else if ( delta >= Short.MIN_VALUE && delta <= Short.MAX_VALUE ) {
+            u1( WIDE );
+            u1( IINC );
+            u2( local );
+            u2( delta );
+        } else {
+            iload( local );
+            iconst( delta );
+            u1( IADD );
+            istore( local );
+        }
+    }
+
+    void invokestatic( String owner, String name, String descriptor ) {
+        u1( INVOKESTATIC );
+        u2( classFile.methodRef( owner, name, descriptor ) );
+    }
+
+    void invokespecial( String owner, String name, String descriptor ) {
+        u1( INVOKESPECIAL );
+        u2( classFile.methodRef( owner, name, descriptor ) );
+    }
+
+    /**
+     * Emits a branch instruction (goto or if&lt;cond&gt;) to the label.
+     */
+    void branch( int opcode, Label label ) {
+        int opcodePosition = length;
+        u1( opcode );
+        fixups.add( new Fixup( opcodePosition, length, false, label ) );
+        u2( 0 );
+    }
+
+    void lookupswitch( Label defaultLabel, int[] keys, Label[] labels ) {
+        int opcodePosition = length;
+        u1( LOOKUPSWITCH );
+
+        while ( length % 4 != 0 ) {
+            u1( 0 );
+        }
+
+        fixups.add( new Fixup( opcodePosition, length, true, defaultLabel ) );
+        u4( 0 );
+        u4( keys.length );
+
+        for ( int i = 0; i < keys.length; ++i ) {
+            u4( keys[i] );
+            fixups.add( new Fixup( opcodePosition, length, true, labels[i] ) );
+            u4( 0 );
+        }
+    }
+
+    /**
+     * Sets the position of the label to the current end of the code.
+     */
+    void mark( Label label ) {
+        label.position = length;
+    }
+
+    /**
+     * Returns the code with all branch offsets resolved.
+     */
+    byte[] toByteArray() {
+        byte[] result = Arrays.copyOf( bytes, length );
+
+        for ( Fixup fixup : fixups ) {
+            assert fixup.label.position >= 0 : "Label not marked.";
+            int offset = fixup.label.position - fixup.opcodePosition;
+            int pos = fixup.offsetPosition;
+
+            if ( fixup.wide ) {
+                result[pos++] = (byte) ( offset >>> 24 );
+                result[pos++] = (byte) ( offset >>> 16 );
+            } else if ( offset < Short.MIN_VALUE || offset > Short.MAX_VALUE ) {
+                throw new IllegalStateException( "Branch offset out of range" );
+            }
+
+            result[pos++] = (byte) ( offset >>> 8 );
+            result[pos] = (byte) offset;
+        }
+
+        return result;
+    }
+
+    /**
+     * Emits a load or store of a local variable, using the wide form if the
+     * index does not fit in a byte.
+     */
+    private void localOp( int opcode, int local ) {
+        if ( local > 0xFF ) {
+            u1( WIDE );
+            u1( opcode );
+            u2( local );
+        } else {
+            u1( opcode );
+            u1( local );
+        }
+    }
+
+    private void u1( int b ) {
+        if ( length == bytes.length ) {
+            bytes = Arrays.copyOf( bytes, 2 * bytes.length );
+        }
+
+        bytes[length++] = (byte) b;
+    }
+
+    private void u2( int s ) {
+        u1( s >>> 8 );
+        u1( s );
+    }
+
+    private void u4( int n ) {
+        u2( n >>> 16 );
+        u2( n );
+    }
+}
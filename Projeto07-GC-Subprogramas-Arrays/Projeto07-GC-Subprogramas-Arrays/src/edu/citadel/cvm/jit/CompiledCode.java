@@ -0,0 +1,39 @@
+package edu.citadel.cvm.jit;
+
+/**
+ * A region of CVM code (a subprogram or the main program body) translated to
+ * JVM bytecode by the tiered compiler.
+ */
+public interface CompiledCode {
+
+    /**
+     * Index of the stack pointer in the register array.
+     */
+    int SP = 0;
+
+    /**
+     * Index of the base pointer in the register array.
+     */
+    int BP = 1;
+
+    /**
+     * Index of the instruction budget in the register array.
+     */
+    int FUEL = 2;
+
+    /**
+     * Executes the compiled code starting at the instruction with the
+     * specified index in the pre-decoded instruction stream. Execution
+     * continues until control reaches an instruction that is not compiled
+     * (I/O, calls, returns, HALT), leaves the region, or takes a loop
+     * back-edge after the instruction budget is used up.
+     *
+     * @param memory the memory of the virtual machine
+     * @param registers the values of sp, bp, and the instruction budget; sp
+     * and the budget are updated on return
+     * @param entry the index of the first instruction to execute
+     * @return the index of the next instruction to be executed by the
+     * interpreter
+     */
+    int execute( byte[] memory, int[] registers, int entry );
+}
@@ -0,0 +1,58 @@
+package edu.citadel.cvm.jit;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Static helper methods called from compiled code. They are small enough to
+ * be inlined by the JVM.
+ */
+public final class JitRuntime {
+
+    private static final VarHandle INT_VIEW
+            = MethodHandles.byteArrayViewVarHandle( int[].class, ByteOrder.BIG_ENDIAN );
+
+    private static final VarHandle CHAR_VIEW
+            = MethodHandles.byteArrayViewVarHandle( char[].class, ByteOrder.BIG_ENDIAN );
+
+    private JitRuntime() {
+    }
+
+    public static int getInt( byte[] memory, int address ) {
+        return (int) INT_VIEW.get( memory, address );
+    }
+
+    public static void putInt( byte[] memory, int address, int value ) {
+        INT_VIEW.set( memory, address, value );
+    }
+
+    public static int getChar( byte[] memory, int address ) {
+        return (char) CHAR_VIEW.get( memory, address );
+    }
+
+    public static void putChar( byte[] memory, int address, int value ) {
+        CHAR_VIEW.set( memory, address, (char) value );
+    }
+
+    /**
+     * Returns 0, 1 or -1 as the CMP instruction does.
+     */
+    public static int compare( int operand1, int operand2 ) {
+        if ( operand1 == operand2 ) {
+            return 0;
+        } else if ( operand1 > operand2 ) {
+            return 1;
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the logical negation of a boolean byte as the NOT instruction
+     * does.
+     */
+    public static int not( int value ) {
+        return value == 0 ? 1 : 0;
+    }
+}
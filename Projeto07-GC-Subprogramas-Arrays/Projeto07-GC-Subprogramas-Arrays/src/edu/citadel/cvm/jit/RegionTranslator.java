@@ -0,0 +1,955 @@
+package edu.citadel.cvm.jit;
+
+import edu.citadel.cvm.OpCode;
+import edu.citadel.cvm.jit.CodeBuffer.Label;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static edu.citadel.cvm.jit.CodeBuffer.*;
+
+/**
+ * Translates a region of the pre-decoded instruction stream of the CVM into
+ * the class file of a CompiledCode implementation. Within a basic block, the
+ * values pushed onto the CVM stack are kept in local variables of the
+ * generated method and are written to memory only at the end of the block,
+ * before a branch, or when leaving the compiled code; sp and bp are kept in
+ * local variables as well. Instructions that are not translated (I/O, CALL,
+ * RET, HALT, and anything unknown) end the compiled code and return their
+ * index so that the interpreter executes them.
+ *
+ * The instructions executed are charged to the instruction budget (fuel) at
+ * the end of each basic block; loop back-edges return to the interpreter
+ * once the budget is used up.
+ */
+final class RegionTranslator {
+
+    private static final String RUNTIME = "edu/citadel/cvm/jit/JitRuntime";
+
+    private static final String EXECUTE_DESCRIPTOR = "([B[II)I";
+
+    /**
+     * limit for the size of generated code, so that 16-bit branch offsets
+     * always suffice
+     */
+    private static final int MAX_CODE_LENGTH = Short.MAX_VALUE;
+
+    // local variables of the generated execute() method
+    private static final int MEMORY = 1;
+    private static final int REGISTERS = 2;
+    private static final int ENTRY = 3;
+    private static final int SP = 4;
+    private static final int BP = 5;
+    private static final int FUEL = 6;
+    private static final int FIRST_TEMP = 7;
+
+    private static final int MAX_STACK = 8;
+
+    /**
+     * A value on the CVM stack that is held in a local variable of the
+     * generated method instead of memory.
+     */
+    private static final class StackValue {
+        final int size;
+        final int local;
+
+        StackValue( int size, int local ) {
+            this.size = size;
+            this.local = local;
+        }
+    }
+
+    private final int[] code;
+    private final int start;
+    private final int end;
+    private final int sb;
+    private final int stackBound;
+
+    private ClassFile classFile;
+    private CodeBuffer c;
+    private Label[] labels;
+    private Map<Integer, Label> exitLabels;
+
+    /**
+     * values above sp that have not been written to memory yet (top last)
+     */
+    private final List<StackValue> stack = new ArrayList<>();
+    private int nextLocal;
+    private int maxLocals;
+
+    /**
+     * number of instructions translated since fuel was last charged
+     */
+    private int pending;
+
+    /**
+     * Construct a translator for the instructions of the stream with indexes
+     * in the range start (inclusive) to end (exclusive).
+     */
+    RegionTranslator( int[] code, int start, int end, int sb, int stackBound ) {
+        this.code = code;
+        this.start = start;
+        this.end = end;
+        this.sb = sb;
+        this.stackBound = stackBound;
+    }
+
+    /**
+     * Returns the number of stream slots (opcode plus operands) used by the
+     * instruction with the specified opcode.
+     */
+    static int getSlots( int opCode ) {
+        switch ( opCode ) {
+            case OpCode.CALL:
+            case OpCode.LDCSTR:
+                return 3;
+
+            case OpCode.SHL:
+            case OpCode.SHR:
+            case OpCode.SHLADD:
+            case OpCode.LDCB:
+            case OpCode.LDCCH:
+            case OpCode.ALLOC:
+            case OpCode.BR:
+            case OpCode.BG:
+            case OpCode.BGE:
+            case OpCode.BL:
+            case OpCode.BLE:
+            case OpCode.BNZ:
+            case OpCode.BZ:
+            case OpCode.BEQW:
+            case OpCode.BNEW:
+            case OpCode.BLTW:
+            case OpCode.BLEW:
+            case OpCode.BGTW:
+            case OpCode.BGEW:
+            case OpCode.BEQ2B:
+            case OpCode.BNE2B:
+            case OpCode.BLT2B:
+            case OpCode.BLE2B:
+            case OpCode.BGT2B:
+            case OpCode.BGE2B:
+            case OpCode.BEQB:
+            case OpCode.BNEB:
+            case OpCode.BLTB:
+            case OpCode.BLEB:
+            case OpCode.BGTB:
+            case OpCode.BGEB:
+            case OpCode.LOAD:
+            case OpCode.LDCINT:
+            case OpCode.LDLADDR:
+            case OpCode.LDGADDR:
+            case OpCode.LDLW:
+            case OpCode.LDGW:
+            case OpCode.STLW:
+            case OpCode.STGW:
+            case OpCode.ADDI:
+            case OpCode.PROC:
+            case OpCode.PROGRAM:
+            case OpCode.RET:
+            case OpCode.STORE:
+            case OpCode.COPY:
+            case OpCode.CHKIDX:
+                return 2;
+
+            default:
+                return 1;
+        }
+    }
+
+    /**
+     * Returns true if the opcode is a branch whose first operand is the
+     * stream index of its target.
+     */
+    static boolean isBranch( int opCode ) {
+        switch ( opCode ) {
+            case OpCode.BR:
+            case OpCode.BG:
+            case OpCode.BGE:
+            case OpCode.BL:
+            case OpCode.BLE:
+            case OpCode.BNZ:
+            case OpCode.BZ:
+            case OpCode.BEQW:
+            case OpCode.BNEW:
+            case OpCode.BLTW:
+            case OpCode.BLEW:
+            case OpCode.BGTW:
+            case OpCode.BGEW:
+            case OpCode.BEQ2B:
+            case OpCode.BNE2B:
+            case OpCode.BLT2B:
+            case OpCode.BLE2B:
+            case OpCode.BGT2B:
+            case OpCode.BGE2B:
+            case OpCode.BEQB:
+            case OpCode.BNEB:
+            case OpCode.BLTB:
+            case OpCode.BLEB:
+            case OpCode.BGTB:
+            case OpCode.BGEB:
+            case OpCode.CALL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Generates a class with the specified internal name whose execute()
+     * method can be entered at the instructions marked in entries. Every
+     * branch target must be marked as an entry. Returns null if the region is
+     * too large to be compiled.
+     */
+    byte[] translate( String className, boolean[] entries ) {
+        classFile = new ClassFile( className, "edu/citadel/cvm/jit/CompiledCode" );
+        c = new CodeBuffer( classFile );
+        labels = new Label[end - start];
+        exitLabels = new TreeMap<>();
+        stack.clear();
+        nextLocal = FIRST_TEMP;
+        maxLocals = FIRST_TEMP;
+        pending = 0;
+
+        for ( int i = 0; i < labels.length; ++i ) {
+            labels[i] = new Label();
+        }
+
+        // load registers
+        c.aload( REGISTERS );
+        c.iconst( CompiledCode.SP );
+        c.op( IALOAD );
+        c.istore( SP );
+        c.aload( REGISTERS );
+        c.iconst( CompiledCode.BP );
+        c.op( IALOAD );
+        c.istore( BP );
+        c.aload( REGISTERS );
+        c.iconst( CompiledCode.FUEL );
+        c.op( IALOAD );
+        c.istore( FUEL );
+
+        // dispatch on the entry index
+        int numEntries = 0;
+        for ( int i = start; i < end; ++i ) {
+            if ( entries[i] ) {
+                ++numEntries;
+            }
+        }
+
+        int[] keys = new int[numEntries];
+        Label[] entryLabels = new Label[numEntries];
+        int n = 0;
+        for ( int i = start; i < end; ++i ) {
+            if ( entries[i] ) {
+                keys[n] = i;
+                entryLabels[n] = labels[i - start];
+                ++n;
+            }
+        }
+
+        Label noEntry = new Label();
+        c.iload( ENTRY );
+        c.lookupswitch( noEntry, keys, entryLabels );
+        c.mark( noEntry );
+        c.iload( ENTRY );
+        c.op( IRETURN );
+
+        // translate the instructions
+        int i = start;
+        while ( i < end ) {
+            if ( entries[i] ) {
+                // start of a basic block
+                flush();
+                charge();
+                nextLocal = FIRST_TEMP;
+                c.mark( labels[i - start] );
+            }
+
+            translateInstruction( i );
+            i += getSlots( code[i] );
+
+            if ( c.length() > MAX_CODE_LENGTH ) {
+                return null;
+            }
+        }
+
+        // fall through past the end of the region
+        exit( end );
+        stack.clear();
+        pending = 0;
+
+        for ( Map.Entry<Integer, Label> exitLabel : exitLabels.entrySet() ) {
+            c.mark( exitLabel.getValue() );
+            exit( exitLabel.getKey() );
+        }
+
+        if ( c.length() > MAX_CODE_LENGTH ) {
+            return null;
+        }
+
+        classFile.addMethod( "execute", EXECUTE_DESCRIPTOR, c, MAX_STACK, maxLocals );
+        return classFile.toByteArray();
+    }
+
+    private void translateInstruction( int i ) {
+        int opCode = code[i];
+        int value;
+        int address;
+        int operand1;
+        int operand2;
+
+        // charged at the end of the block unless left to the interpreter
+        ++pending;
+
+        switch ( opCode ) {
+            // arithmetic
+            case OpCode.ADD:
+                binary( IADD );
+                break;
+            case OpCode.SUB:
+                binary( ISUB );
+                break;
+            case OpCode.MUL:
+                binary( IMUL );
+                break;
+            case OpCode.DIV:
+            case OpCode.MOD:
+                operand2 = pop( 4 );
+                operand1 = pop( 4 );
+
+                // leave division by zero to the interpreter
+                Label nonZero = new Label();
+                c.iload( operand2 );
+                c.branch( IFNE, nonZero );
+                stack.add( new StackValue( 4, operand1 ) );
+                stack.add( new StackValue( 4, operand2 ) );
+                exit( i, pending - 1 );
+                stack.remove( stack.size() - 1 );
+                stack.remove( stack.size() - 1 );
+                c.mark( nonZero );
+
+                c.iload( operand1 );
+                c.iload( operand2 );
+                c.op( opCode == OpCode.DIV ? IDIV : IREM );
+                push( 4 );
+                break;
+            case OpCode.CHKIDX:
+                operand1 = pop( 4 );
+
+                // leave an index out of bounds to the interpreter
+                Label inBounds = new Label();
+                Label outOfBounds = new Label();
+                c.iload( operand1 );
+                c.branch( IFLT, outOfBounds );
+                c.iload( operand1 );
+                c.iconst( code[i + 1] );
+                c.branch( IF_ICMPLT, inBounds );
+                c.mark( outOfBounds );
+                stack.add( new StackValue( 4, operand1 ) );
+                exit( i, pending - 1 );
+                c.mark( inBounds );
+                break;
+            case OpCode.NEG:
+                c.iload( pop( 4 ) );
+                c.op( INEG );
+                push( 4 );
+                break;
+            case OpCode.INC:
+                c.iload( pop( 4 ) );
+                c.iconst( 1 );
+                c.op( IADD );
+                push( 4 );
+                break;
+            case OpCode.DEC:
+                c.iload( pop( 4 ) );
+                c.iconst( 1 );
+                c.op( ISUB );
+                push( 4 );
+                break;
+            case OpCode.ADDI:
+                c.iload( pop( 4 ) );
+                c.iconst( code[i + 1] );
+                c.op( IADD );
+                push( 4 );
+                break;
+            case OpCode.SHL:
+                c.iload( pop( 4 ) );
+                c.iconst( code[i + 1] );
+                c.op( ISHL );
+                push( 4 );
+                break;
+            case OpCode.SHR:
+                c.iload( pop( 4 ) );
+                c.iconst( code[i + 1] );
+                c.op( ISHR );
+                push( 4 );
+                break;
+            case OpCode.SHLADD:
+                operand2 = pop( 4 );
+                operand1 = pop( 4 );
+                c.iload( operand1 );
+                c.iload( operand2 );
+                c.iconst( code[i + 1] );
+                c.op( ISHL );
+                c.op( IADD );
+                push( 4 );
+                break;
+
+            // constants and addresses
+            case OpCode.LDCB:
+                c.iconst( code[i + 1] );
+                push( 1 );
+                break;
+            case OpCode.LDCB0:
+                c.iconst( 0 );
+                push( 1 );
+                break;
+            case OpCode.LDCB1:
+                c.iconst( 1 );
+                push( 1 );
+                break;
+            case OpCode.LDCCH:
+                c.iconst( code[i + 1] );
+                push( 2 );
+                break;
+            case OpCode.LDCINT:
+                c.iconst( code[i + 1] );
+                push( 4 );
+                break;
+            case OpCode.LDCINT0:
+                c.iconst( 0 );
+                push( 4 );
+                break;
+            case OpCode.LDCINT1:
+                c.iconst( 1 );
+                push( 4 );
+                break;
+            case OpCode.LDCSTR:
+                c.iconst( code[i + 1] );
+                push( 4 );
+                c.iconst( code[i + 2] );
+                push( 4 );
+                break;
+            case OpCode.LDLADDR:
+                localAddress( code[i + 1] );
+                push( 4 );
+                break;
+            case OpCode.LDGADDR:
+                c.iconst( sb + code[i + 1] );
+                push( 4 );
+                break;
+
+            // loads
+            case OpCode.LDLW:
+                c.aload( MEMORY );
+                localAddress( code[i + 1] );
+                getInt();
+                push( 4 );
+                break;
+            case OpCode.LDGW:
+                c.aload( MEMORY );
+                c.iconst( sb + code[i + 1] );
+                getInt();
+                push( 4 );
+                break;
+            case OpCode.LOADW:
+                address = pop( 4 );
+                c.aload( MEMORY );
+                c.iload( address );
+                getInt();
+                push( 4 );
+                break;
+            case OpCode.LOAD2B:
+                address = pop( 4 );
+                c.aload( MEMORY );
+                c.iload( address );
+                getChar();
+                push( 2 );
+                break;
+            case OpCode.LOADB:
+                address = pop( 4 );
+                c.aload( MEMORY );
+                c.iload( address );
+                c.op( BALOAD );
+                push( 1 );
+                break;
+            case OpCode.LOAD:
+                // copy directly from the variable to the stack in memory
+                address = pop( 4 );
+                flush();
+                c.aload( MEMORY );
+                c.iload( address );
+                c.aload( MEMORY );
+                stackOffset( 1 );
+                c.iconst( code[i + 1] );
+                arraycopy();
+                c.iinc( SP, code[i + 1] );
+                break;
+
+            // stores
+            case OpCode.STLW:
+                value = pop( 4 );
+                c.aload( MEMORY );
+                localAddress( code[i + 1] );
+                c.iload( value );
+                putInt();
+                break;
+            case OpCode.STGW:
+                value = pop( 4 );
+                c.aload( MEMORY );
+                c.iconst( sb + code[i + 1] );
+                c.iload( value );
+                putInt();
+                break;
+            case OpCode.STOREW:
+                value = pop( 4 );
+                address = pop( 4 );
+                c.aload( MEMORY );
+                c.iload( address );
+                c.iload( value );
+                putInt();
+                break;
+            case OpCode.STORE2B:
+                value = pop( 2 );
+                address = pop( 4 );
+                c.aload( MEMORY );
+                c.iload( address );
+                c.iload( value );
+                putChar();
+                break;
+            case OpCode.STOREB:
+                value = pop( 1 );
+                address = pop( 4 );
+                c.aload( MEMORY );
+                c.iload( address );
+                c.iload( value );
+                c.op( BASTORE );
+                break;
+            case OpCode.STORE:
+                // copy directly from the stack in memory to the variable
+                flush();
+                c.aload( MEMORY );
+                stackOffset( 1 - code[i + 1] );
+                c.aload( MEMORY );
+                c.aload( MEMORY );
+                stackOffset( -code[i + 1] - 3 );
+                getInt();
+                c.iconst( code[i + 1] );
+                arraycopy();
+                c.iinc( SP, -( code[i + 1] + 4 ) );
+                break;
+            case OpCode.COPY:
+                operand2 = pop( 4 );
+                operand1 = pop( 4 );
+                c.aload( MEMORY );
+                c.iload( operand2 );
+                c.aload( MEMORY );
+                c.iload( operand1 );
+                c.iconst( code[i + 1] );
+                arraycopy();
+                break;
+
+            // compare, logical not, and branches
+            case OpCode.CMP:
+                operand2 = pop( 4 );
+                operand1 = pop( 4 );
+                c.iload( operand1 );
+                c.iload( operand2 );
+                c.invokestatic( RUNTIME, "compare", "(II)I" );
+                push( 1 );
+                break;
+            case OpCode.NOT:
+                c.iload( pop( 1 ) );
+                c.invokestatic( RUNTIME, "not", "(I)I" );
+                push( 1 );
+                break;
+            case OpCode.BR:
+                flush();
+                charge();
+                if ( isBackEdge( i, code[i + 1] ) ) {
+                    checkFuel( code[i + 1] );
+                }
+                c.branch( GOTO, target( code[i + 1] ) );
+                break;
+            case OpCode.BG:
+                conditionalBranch( IFGT, i );
+                break;
+            case OpCode.BGE:
+                conditionalBranch( IFGE, i );
+                break;
+            case OpCode.BL:
+                conditionalBranch( IFLT, i );
+                break;
+            case OpCode.BLE:
+                conditionalBranch( IFLE, i );
+                break;
+            case OpCode.BNZ:
+                conditionalBranch( IFNE, i );
+                break;
+            case OpCode.BZ:
+                conditionalBranch( IFEQ, i );
+                break;
+            case OpCode.BEQW:
+                compareBranch( IF_ICMPEQ, 4, i );
+                break;
+            case OpCode.BNEW:
+                compareBranch( IF_ICMPNE, 4, i );
+                break;
+            case OpCode.BLTW:
+                compareBranch( IF_ICMPLT, 4, i );
+                break;
+            case OpCode.BLEW:
+                compareBranch( IF_ICMPLE, 4, i );
+                break;
+            case OpCode.BGTW:
+                compareBranch( IF_ICMPGT, 4, i );
+                break;
+            case OpCode.BGEW:
+                compareBranch( IF_ICMPGE, 4, i );
+                break;
+            case OpCode.BEQ2B:
+                compareBranch( IF_ICMPEQ, 2, i );
+                break;
+            case OpCode.BNE2B:
+                compareBranch( IF_ICMPNE, 2, i );
+                break;
+            case OpCode.BLT2B:
+                compareBranch( IF_ICMPLT, 2, i );
+                break;
+            case OpCode.BLE2B:
+                compareBranch( IF_ICMPLE, 2, i );
+                break;
+            case OpCode.BGT2B:
+                compareBranch( IF_ICMPGT, 2, i );
+                break;
+            case OpCode.BGE2B:
+                compareBranch( IF_ICMPGE, 2, i );
+                break;
+            case OpCode.BEQB:
+                compareBranch( IF_ICMPEQ, 1, i );
+                break;
+            case OpCode.BNEB:
+                compareBranch( IF_ICMPNE, 1, i );
+                break;
+            case OpCode.BLTB:
+                compareBranch( IF_ICMPLT, 1, i );
+                break;
+            case OpCode.BLEB:
+                compareBranch( IF_ICMPLE, 1, i );
+                break;
+            case OpCode.BGTB:
+                compareBranch( IF_ICMPGT, 1, i );
+                break;
+            case OpCode.BGEB:
+                compareBranch( IF_ICMPGE, 1, i );
+                break;
+
+            // frames
+            case OpCode.PROC:
+            case OpCode.ALLOC:
+                // leave stack overflow to the interpreter
+                flush();
+                Label noOverflow = new Label();
+                stackOffset( code[i + 1] + stackBound );
+                c.aload( MEMORY );
+                c.op( ARRAYLENGTH );
+                c.branch( IF_ICMPLT, noOverflow );
+                exit( i, pending - 1 );
+                c.mark( noOverflow );
+                c.iinc( SP, code[i + 1] );
+                break;
+
+            // everything else is left to the interpreter
+            default:
+                exit( i, pending - 1 );
+                stack.clear();
+                pending = 0;
+                break;
+        }
+    }
+
+    /**
+     * Returns the label for a branch target, which is an exit if the target
+     * is outside the region.
+     */
+    private Label target( int index ) {
+        if ( index >= start && index < end ) {
+            return labels[index - start];
+        }
+
+        return exitLabel( index );
+    }
+
+    /**
+     * Returns the label of the code that exits to the interpreter at the
+     * specified index.
+     */
+    private Label exitLabel( int index ) {
+        Label label = exitLabels.get( index );
+        if ( label == null ) {
+            label = new Label();
+            exitLabels.put( index, label );
+        }
+        return label;
+    }
+
+    /**
+     * Pops a byte and branches on it to the target of the branch at index.
+     */
+    private void conditionalBranch( int opcode, int index ) {
+        int value = pop( 1 );
+        flush();
+        charge();
+        c.iload( value );
+        branch( opcode, index );
+    }
+
+    /**
+     * Translates a compare-and-branch instruction whose operands have the
+     * specified size; opcode is the IF_ICMPxx instruction that branches.
+     */
+    private void compareBranch( int opcode, int size, int index ) {
+        int operand2 = pop( size );
+        int operand1 = pop( size );
+        flush();
+        charge();
+        loadOperand( operand1, size );
+        loadOperand( operand2, size );
+        branch( opcode, index );
+    }
+
+    /**
+     * Loads a compare-and-branch operand; bytes are compared as unsigned
+     * values.
+     */
+    private void loadOperand( int local, int size ) {
+        c.iload( local );
+        if ( size == 1 ) {
+            c.iconst( 0xFF );
+            c.op( IAND );
+        }
+    }
+
+    /**
+     * Emits the branch of the instruction at index with the IFxx or IF_ICMPxx
+     * opcode, whose operands are on the JVM stack.
+     */
+    private void branch( int opcode, int index ) {
+        int targetIndex = code[index + 1];
+
+        if ( isBackEdge( index, targetIndex ) ) {
+            // branch around the fuel check when the branch is not taken
+            Label notTaken = new Label();
+            c.branch( negate( opcode ), notTaken );
+            checkFuel( targetIndex );
+            c.branch( GOTO, target( targetIndex ) );
+            c.mark( notTaken );
+        } else {
+            c.branch( opcode, target( targetIndex ) );
+        }
+    }
+
+    /**
+     * Returns true if a branch at index to the target is a loop back-edge
+     * within the region.
+     */
+    private boolean isBackEdge( int index, int targetIndex ) {
+        return targetIndex <= index && targetIndex >= start;
+    }
+
+    /**
+     * Returns the opposite of an IFxx or IF_ICMPxx condition.
+     */
+    private static int negate( int opcode ) {
+        return ( ( opcode - IFEQ ) ^ 1 ) + IFEQ;
+    }
+
+    /**
+     * Emits code that exits to the interpreter at the target if the fuel is
+     * used up.
+     */
+    private void checkFuel( int targetIndex ) {
+        c.iload( FUEL );
+        c.branch( IFLE, exitLabel( targetIndex ) );
+    }
+
+    /**
+     * Subtracts the instructions translated since the last charge from the
+     * fuel.
+     */
+    private void charge() {
+        if ( pending > 0 ) {
+            c.iinc( FUEL, -pending );
+            pending = 0;
+        }
+    }
+
+    /**
+     * Stores the value on top of the JVM stack in a new local variable that
+     * represents the top of the CVM stack.
+     */
+    private void push( int size ) {
+        int local = nextLocal++;
+        maxLocals = Math.max( maxLocals, nextLocal );
+        c.istore( local );
+        stack.add( new StackValue( size, local ) );
+    }
+
+    /**
+     * Pops a value with the specified size off the CVM stack and returns the
+     * local variable that holds it. Values that are not held in local
+     * variables (or that were pushed with a different size) are read from
+     * memory.
+     */
+    private int pop( int size ) {
+        if ( !stack.isEmpty() ) {
+            StackValue top = stack.get( stack.size() - 1 );
+            if ( top.size == size ) {
+                stack.remove( stack.size() - 1 );
+                return top.local;
+            }
+
+            flush();
+        }
+
+        c.aload( MEMORY );
+        if ( size == 4 ) {
+            stackOffset( -3 );
+            getInt();
+        } else if ( size == 2 ) {
+            stackOffset( -1 );
+            getChar();
+        } else {
+            stackOffset( 0 );
+            c.op( BALOAD );
+        }
+
+        int local = nextLocal++;
+        maxLocals = Math.max( maxLocals, nextLocal );
+        c.istore( local );
+        c.iinc( SP, -size );
+
+        return local;
+    }
+
+    /**
+     * Writes the values held in local variables to the CVM stack in memory.
+     */
+    private void flush() {
+        spill();
+        stack.clear();
+    }
+
+    /**
+     * Emits code that writes the values held in local variables to the CVM
+     * stack in memory, without removing them from the stack model.
+     */
+    private void spill() {
+        int offset = 0;
+
+        for ( StackValue value : stack ) {
+            offset = offset + value.size;
+            c.aload( MEMORY );
+            stackOffset( offset - value.size + 1 );
+            c.iload( value.local );
+
+            if ( value.size == 4 ) {
+                putInt();
+            } else if ( value.size == 2 ) {
+                putChar();
+            } else {
+                c.op( BASTORE );
+            }
+        }
+
+        c.iinc( SP, offset );
+    }
+
+    /**
+     * Writes the stack, sp, and the fuel and returns the index of the next
+     * instruction for the interpreter.
+     */
+    private void exit( int index ) {
+        exit( index, pending );
+    }
+
+    /**
+     * Like exit( index ), charging the specified number of instructions that
+     * were not charged yet.
+     */
+    private void exit( int index, int uncharged ) {
+        spill();
+        c.aload( REGISTERS );
+        c.iconst( CompiledCode.SP );
+        c.iload( SP );
+        c.op( IASTORE );
+        c.aload( REGISTERS );
+        c.iconst( CompiledCode.FUEL );
+        c.iload( FUEL );
+        if ( uncharged != 0 ) {
+            c.iconst( uncharged );
+            c.op( ISUB );
+        }
+        c.op( IASTORE );
+        c.iconst( index );
+        c.op( IRETURN );
+    }
+
+    /**
+     * Pushes sp + offset.
+     */
+    private void stackOffset( int offset ) {
+        c.iload( SP );
+        if ( offset != 0 ) {
+            c.iconst( offset );
+            c.op( IADD );
+        }
+    }
+
+    /**
+     * Pushes bp + displacement.
+     */
+    private void localAddress( int displacement ) {
+        c.iload( BP );
+        if ( displacement != 0 ) {
+            c.iconst( displacement );
+            c.op( IADD );
+        }
+    }
+
+    /**
+     * Replaces the two integers on top of the CVM stack with the result of the
+     * JVM operation.
+     */
+    private void binary( int opcode ) {
+        int operand2 = pop( 4 );
+        int operand1 = pop( 4 );
+        c.iload( operand1 );
+        c.iload( operand2 );
+        c.op( opcode );
+        push( 4 );
+    }
+
+    private void getInt() {
+        c.invokestatic( RUNTIME, "getInt", "([BI)I" );
+    }
+
+    private void putInt() {
+        c.invokestatic( RUNTIME, "putInt", "([BII)V" );
+    }
+
+    private void getChar() {
+        c.invokestatic( RUNTIME, "getChar", "([BI)I" );
+    }
+
+    private void putChar() {
+        c.invokestatic( RUNTIME, "putChar", "([BII)V" );
+    }
+
+    private void arraycopy() {
+        c.invokestatic( "java/lang/System", "arraycopy", "(Ljava/lang/Object;ILjava/lang/Object;II)V" );
+    }
+}
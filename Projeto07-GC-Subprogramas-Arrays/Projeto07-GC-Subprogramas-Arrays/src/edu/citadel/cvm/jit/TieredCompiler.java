@@ -0,0 +1,176 @@
+package edu.citadel.cvm.jit;
+
+import edu.citadel.cvm.OpCode;
+
+import java.lang.invoke.MethodHandles;
+
+/**
+ * Profiles the execution of a pre-decoded CVM program and compiles its hot
+ * regions into JVM hidden classes. A region is the code of a subprogram (from
+ * its PROC instruction to the next one) or the main program body. The
+ * interpreter reports entries to subprograms and targets of loop back-edges;
+ * once a region has been reported more times than the threshold, it is
+ * compiled, and later entries at its branch targets, subprogram start, or
+ * call return points run the compiled code.
+ */
+public class TieredCompiler {
+
+    /**
+     * default number of subprogram entries and back-edges before a region is
+     * compiled
+     */
+    public static final int DEFAULT_THRESHOLD = 1000;
+
+    private static final String CLASS_NAME = "edu/citadel/cvm/jit/CompiledRegion";
+
+    private final int[] code;
+    private final int sb;
+    private final int stackBound;
+    private final int threshold;
+
+    /**
+     * start index of each region plus the end of the stream
+     */
+    private final int[] regionStarts;
+
+    /**
+     * region of each stream index
+     */
+    private final int[] regionOf;
+
+    /**
+     * indexes where compiled code can be entered
+     */
+    private final boolean[] entries;
+
+    private final int[] counters;
+    private final CompiledCode[] compiled;
+    private final boolean[] failed;
+
+    /**
+     * Construct a tiered compiler for a pre-decoded instruction stream. The
+     * stream holds each opcode followed by its operands, with branch and
+     * call targets resolved to stream indexes.
+     *
+     * @param code the pre-decoded instruction stream
+     * @param sb the stack base (the first address after the program)
+     * @param stackBound the number of bytes a frame can push above its locals
+     * @param threshold the number of entries before a region is compiled
+     */
+    public TieredCompiler( int[] code, int sb, int stackBound, int threshold ) {
+        this.code = code;
+        this.sb = sb;
+        this.stackBound = stackBound;
+        this.threshold = threshold;
+
+        boolean[] isStart = new boolean[code.length + 1];
+        entries = new boolean[code.length];
+        isStart[0] = true;
+
+        int i = 0;
+        while ( i < code.length ) {
+            int opCode = code[i];
+            int next = i + RegionTranslator.getSlots( opCode );
+
+            if ( opCode == OpCode.PROC ) {
+                isStart[i] = true;
+                entries[i] = true;
+            } else if ( opCode == OpCode.BR && code[0] == OpCode.PROGRAM
+                    && i == RegionTranslator.getSlots( OpCode.PROGRAM ) ) {
+                // the branch over the subprograms to the main program body
+                isStart[code[i + 1]] = true;
+            }
+
+            if ( RegionTranslator.isBranch( opCode ) && code[i + 1] < code.length ) {
+                entries[code[i + 1]] = true;
+            }
+
+            if ( opCode == OpCode.CALL && next < code.length ) {
+                // return point
+                entries[next] = true;
+            }
+
+            i = next;
+        }
+
+        int numRegions = 0;
+        for ( boolean start : isStart ) {
+            if ( start ) {
+                ++numRegions;
+            }
+        }
+
+        regionStarts = new int[numRegions + 1];
+        regionOf = new int[code.length];
+        int region = -1;
+
+        for ( i = 0; i < code.length; ++i ) {
+            if ( isStart[i] ) {
+                regionStarts[++region] = i;
+                entries[i] = true;
+            }
+            regionOf[i] = region;
+        }
+        regionStarts[numRegions] = code.length;
+
+        counters = new int[numRegions];
+        compiled = new CompiledCode[numRegions];
+        failed = new boolean[numRegions];
+    }
+
+    /**
+     * Counts an entry to a subprogram or a back-edge to the instruction with
+     * the specified index, compiling its region if it has become hot. Returns
+     * the compiled code that can be entered at the index, or null.
+     */
+    public CompiledCode profile( int index ) {
+        int region = regionOf[index];
+
+        if ( compiled[region] == null && !failed[region] && ++counters[region] >= threshold ) {
+            compile( region );
+        }
+
+        return entries[index] ? compiled[region] : null;
+    }
+
+    /**
+     * Returns the compiled code that can be entered at the instruction with
+     * the specified index, or null. Does not count the entry.
+     */
+    public CompiledCode lookup( int index ) {
+        return entries[index] ? compiled[regionOf[index]] : null;
+    }
+
+    /**
+     * Returns the number of regions that have been compiled.
+     */
+    public int getNumCompiled() {
+        int n = 0;
+        for ( CompiledCode c : compiled ) {
+            if ( c != null ) {
+                ++n;
+            }
+        }
+        return n;
+    }
+
+    private void compile( int region ) {
+        RegionTranslator translator
+                = new RegionTranslator( code, regionStarts[region], regionStarts[region + 1], sb, stackBound );
+
+        try {
+            byte[] classBytes = translator.translate( CLASS_NAME, entries );
+
+            if ( classBytes == null ) {
+                failed[region] = true;
+                return;
+            }
+
+            Class<?> c = MethodHandles.lookup().defineHiddenClass( classBytes, true ).lookupClass();
+            compiled[region] = (CompiledCode) c.getDeclaredConstructor().newInstance();
+        } catch ( ReflectiveOperationException | LinkageError | IllegalStateException e ) {
+            // keep interpreting the region
+            failed[region] = true;
+        }
+    }
+}
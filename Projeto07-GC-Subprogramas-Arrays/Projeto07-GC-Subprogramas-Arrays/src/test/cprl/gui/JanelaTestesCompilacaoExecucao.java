@@ -9,7 +9,6 @@ import com.formdev.flatlaf.FlatDarkLaf;
 import edu.citadel.compiler.Compiler;
 import edu.citadel.cvm.CVM;
 import edu.citadel.cvm.assembler.Assembler;
-import edu.citadel.cvm.assembler.ast.Instruction;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -266,12 +265,18 @@ public class JanelaTestesCompilacaoExecucao extends javax.swing.JFrame {
 
             FileInputStream o = new FileInputStream( new File( caminho + ".obj" ) );
 
-            Instruction.resetMaps();
-            CVM vm = new CVM( 8192 ); // 8KB de memória
+            CVM vm = new CVM( CVM.DEFAULT_MEMORY_SIZE );
             vm.loadProgram( o );
-            vm.run();
 
-        } catch ( IOException exc ) {
+            if ( vm.run() == CVM.Status.FAULTED ) {
+                JOptionPane.showMessageDialog( 
+                        null, 
+                        vm.getFaultMessage(), 
+                        "ERRO", 
+                        JOptionPane.ERROR_MESSAGE );
+            }
+
+        } catch ( IOException | IllegalArgumentException exc ) {
             JOptionPane.showMessageDialog( 
                     null, 
                     exc.getMessage(), 
@@ -0,0 +1,79 @@
+package test.cvm;
+
+import edu.citadel.cvm.CVM;
+import edu.citadel.cvm.LoadedProgram;
+
+import java.io.*;
+import java.nio.file.Files;
+
+/**
+ * Compares the execution engines of the CVM on an object code file. The file
+ * is read once; each run loads the program into a new virtual machine and
+ * executes it with the program output discarded. The time reported for a run
+ * includes copying the program into memory.
+ */
+public class CVMBenchmark {
+
+    private static final int MEMORY_SIZE = 8 * 1024;
+
+    private static final int DEFAULT_RUNS = 10;
+
+    public static void main( String[] args ) throws IOException {
+        if ( args.length == 0 || args.length > 3 ) {
+            System.err.println( "Usage: java test.cvm.CVMBenchmark objFile [runs] [inputFile]" );
+            System.exit( 0 );
+        }
+
+        File objFile = new File( args[0] );
+        LoadedProgram program = LoadedProgram.load( objFile );
+        int runs = args.length > 1 ? Integer.parseInt( args[1] ) : DEFAULT_RUNS;
+        byte[] input = args.length > 2 ? Files.readAllBytes( new File( args[2] ).toPath() ) : new byte[0];
+
+        System.out.println( "Benchmarking " + objFile.getName() + " (" + runs + " runs per engine)" );
+
+        for ( CVM.Engine engine : CVM.Engine.values() ) {
+            // warm up the JVM before measuring
+            for ( int i = 0; i < runs; ++i ) {
+                runOnce( program, engine, input );
+            }
+
+            long best = Long.MAX_VALUE;
+            long total = 0;
+
+            for ( int i = 0; i < runs; ++i ) {
+                long time = runOnce( program, engine, input );
+                best = Math.min( best, time );
+                total += time;
+            }
+
+            System.out.printf( "%-12s  best %9.3f ms   mean %9.3f ms%n",
+                    engine, best / 1e6, total / 1e6 / runs );
+        }
+    }
+
+    /**
+     * Loads and runs the program once, returning the elapsed time in
+     * nanoseconds.
+     */
+    private static long runOnce( LoadedProgram program, CVM.Engine engine, byte[] input ) {
+        PrintStream stdout = System.out;
+        InputStream stdin = System.in;
+
+        try {
+            System.setOut( new PrintStream( OutputStream.nullOutputStream() ) );
+            System.setIn( new ByteArrayInputStream( input ) );
+
+            long start = System.nanoTime();
+
+            CVM vm = new CVM( MEMORY_SIZE );
+            vm.setEngine( engine );
+            vm.loadProgram( program );
+            vm.run();
+
+            return System.nanoTime() - start;
+        } finally {
+            System.setOut( stdout );
+            System.setIn( stdin );
+        }
+    }
+}
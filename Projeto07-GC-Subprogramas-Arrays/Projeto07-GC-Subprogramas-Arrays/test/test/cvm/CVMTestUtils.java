@@ -0,0 +1,192 @@
+package test.cvm;
+
+import edu.citadel.compiler.ErrorHandler;
+import edu.citadel.compiler.Source;
+import edu.citadel.cprl.Parser;
+import edu.citadel.cprl.ast.AST;
+import edu.citadel.cprl.ast.Program;
+import edu.citadel.cvm.CVM;
+import edu.citadel.cvm.LoadedProgram;
+import edu.citadel.cvm.assembler.Assembler;
+import edu.citadel.cvm.jit.TieredCompiler;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Métodos utilitários para os testes da CVM.
+ */
+public class CVMTestUtils {
+
+    public static final String DIRETORIO_EXEMPLOS = "../examples/Correct";
+
+    private static final int TAMANHO_MEMORIA = 8 * 1024;
+
+    /*
+     * Retorna os arquivos de código fonte dos exemplos corretos que possuem
+     * um arquivo com a saída esperada (.out.txt).
+     */
+    public static List<File> arquivosFonte() {
+
+        List<File> arquivos = new ArrayList<>();
+        File[] diretorios = new File( DIRETORIO_EXEMPLOS ).listFiles( File::isDirectory );
+        Arrays.sort( diretorios );
+
+        for ( File diretorio : diretorios ) {
+            File[] fontes = diretorio.listFiles( ( d, nome ) -> nome.endsWith( ".cprl" ) );
+            Arrays.sort( fontes );
+            for ( File fonte : fontes ) {
+                if ( arquivoIrmao( fonte, ".out.txt" ).isFile() ) {
+                    arquivos.add( fonte );
+                }
+            }
+        }
+
+        return arquivos;
+
+    }
+
+    /*
+     * Compila e monta todos os exemplos corretos, executa cada um com a engine
+     * especificada e compara a saída com a saída esperada.
+     */
+    public static void testarExemplos( CVM.Engine engine ) throws IOException {
+        testarExemplos( engine, TieredCompiler.DEFAULT_THRESHOLD );
+    }
+
+    /*
+     * Como testarExemplos( engine ), usando o limite especificado para a
+     * compilação das regiões pela engine TIERED.
+     */
+    public static void testarExemplos( CVM.Engine engine, int limiteJit ) throws IOException {
+
+        TemporaryFolder pastaTemp = new TemporaryFolder();
+        pastaTemp.create();
+
+        try {
+            for ( File fonte : arquivosFonte() ) {
+                File obj = compilar( fonte, pastaTemp.getRoot() );
+                String esperado = new String( Files.readAllBytes( arquivoIrmao( fonte, ".out.txt" ).toPath() ),
+                        StandardCharsets.UTF_8 );
+                String resultado = executar( obj, arquivoIrmao( fonte, ".in.txt" ), engine, limiteJit );
+
+                assertEquals( fonte.getName(), normalizar( esperado ), normalizar( resultado ) );
+            }
+        } finally {
+            pastaTemp.delete();
+        }
+
+    }
+
+    /*
+     * Compila um arquivo de código fonte CPRL e monta o código gerado no
+     * diretório especificado, retornando o arquivo de código objeto.
+     */
+    public static File compilar( File fonte, File diretorio ) throws IOException {
+
+        String nomeBase = fonte.getName().substring( 0, fonte.getName().lastIndexOf( ".cprl" ) );
+        File asm = new File( diretorio, nomeBase + ".asm" );
+        PrintStream saidaAnterior = System.out;
+
+        try ( FileReader reader = new FileReader( fonte, StandardCharsets.UTF_8 );
+                PrintWriter asmWriter = new PrintWriter( new FileWriter( asm, StandardCharsets.UTF_8 ), true ) ) {
+
+            System.setOut( new PrintStream( OutputStream.nullOutputStream() ) );
+
+            ErrorHandler errorHandler = ErrorHandler.getInstance();
+            Program program = new Parser( new edu.citadel.cprl.Scanner( new Source( reader ) ) ).parseProgram();
+
+            if ( !errorHandler.errorsExist() ) {
+                program.checkConstraints();
+            }
+
+            if ( !errorHandler.errorsExist() ) {
+                AST.setPrintWriter( asmWriter );
+                program.emit();
+            }
+
+            assertFalse( fonte.getName(), errorHandler.errorsExist() );
+
+            new Assembler( asm ).assemble();
+            assertFalse( asm.getName(), errorHandler.errorsExist() );
+
+        } catch ( edu.citadel.compiler.CodeGenException e ) {
+            throw new IOException( e );
+        } finally {
+            System.setOut( saidaAnterior );
+            ErrorHandler.getInstance().resetErrorCount();
+            AST.resetCurrentLabelNum();
+        }
+
+        return new File( diretorio, nomeBase + ".obj" );
+
+    }
+
+    /*
+     * Executa um arquivo de código objeto na CVM, usando como entrada o
+     * arquivo especificado (se existir), e retorna a saída gerada.
+     */
+    public static String executar( File obj, File arquivoEntrada, CVM.Engine engine, int limiteJit )
+            throws IOException {
+        return executar( LoadedProgram.load( obj ), arquivoEntrada, engine, limiteJit );
+    }
+
+    /*
+     * Executa um programa já carregado em uma nova CVM, usando como entrada o
+     * arquivo especificado (se existir), e retorna a saída gerada.
+     */
+    public static String executar( LoadedProgram programa, File arquivoEntrada, CVM.Engine engine, int limiteJit )
+            throws IOException {
+
+        byte[] entrada = arquivoEntrada.isFile() ? Files.readAllBytes( arquivoEntrada.toPath() ) : new byte[0];
+
+        PrintStream saidaAnterior = System.out;
+        InputStream entradaAnterior = System.in;
+
+        try ( ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                PrintStream ps = new PrintStream( baos, true, StandardCharsets.UTF_8 ) ) {
+
+            System.setOut( ps );
+            System.setIn( new ByteArrayInputStream( entrada ) );
+
+            CVM vm = new CVM( TAMANHO_MEMORIA );
+            vm.setEngine( engine );
+            vm.setJitThreshold( limiteJit );
+            vm.loadProgram( programa );
+            vm.run();
+
+            System.out.flush();
+            return baos.toString( StandardCharsets.UTF_8 );
+
+        } finally {
+            System.setOut( saidaAnterior );
+            System.setIn( entradaAnterior );
+        }
+
+    }
+
+    static File arquivoIrmao( File fonte, String sufixo ) {
+        String nome = fonte.getName();
+        return new File( fonte.getParentFile(), nome.substring( 0, nome.lastIndexOf( '.' ) ) + sufixo );
+    }
+
+    static String normalizar( String s ) {
+        return s.replace( "\r", "" ).trim();
+    }
+
+}
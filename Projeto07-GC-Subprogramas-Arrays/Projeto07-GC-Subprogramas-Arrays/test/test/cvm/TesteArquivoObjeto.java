@@ -0,0 +1,259 @@
+package test.cvm;
+
+import edu.citadel.cprl.ast.AST;
+import edu.citadel.cvm.CVM;
+import edu.citadel.cvm.LoadedProgram;
+import edu.citadel.cvm.ObjectFile;
+import edu.citadel.cvm.assembler.Assembler;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static test.cvm.CVMTestUtils.compilar;
+
+/**
+ * Testa o formato do arquivo objeto: cabeçalho, seção de código, tabela de
+ * strings e as seções opcionais de símbolos e de linhas do código fonte.
+ */
+public class TesteArquivoObjeto {
+
+    private static final File FONTE = new File( CVMTestUtils.DIRETORIO_EXEMPLOS, "Subprograms/Composition.cprl" );
+
+    @Rule
+    public TemporaryFolder pastaTemp = new TemporaryFolder();
+
+    @Test
+    public void testeCabecalho() throws IOException {
+
+        byte[] bytes = Files.readAllBytes( compilar( FONTE, pastaTemp.getRoot() ).toPath() );
+        ByteBuffer cabecalho = ByteBuffer.wrap( bytes );
+        ObjectFile arquivo = ObjectFile.read( bytes );
+
+        assertEquals( ObjectFile.MAGIC, cabecalho.getInt() );
+        assertEquals( ObjectFile.VERSION, cabecalho.getInt() );
+        assertEquals( arquivo.getCode().length, cabecalho.getInt() );
+        assertEquals( arquivo.getRequiredStack(), cabecalho.getInt() );
+        assertEquals( 0, arquivo.getEntryPoint() );
+        assertTrue( arquivo.getRequiredStack() > 0 );
+
+        // sem -g, apenas as labels
+        assertTrue( arquivo.getSymbols().containsValue( "L0" ) );
+        assertTrue( arquivo.getLines().isEmpty() );
+
+        assertEquals( "20\n12", executar( LoadedProgram.of( bytes ) ) );
+
+    }
+
+    @Test
+    public void testeInformacoesDepuracao() throws IOException {
+
+        byte[] semDepuracao = ObjectFile.read( Files.readAllBytes( compilar( FONTE, pastaTemp.getRoot() ).toPath() ) )
+                .getCode();
+        ObjectFile arquivo;
+
+        try {
+            AST.setDebugInfo( true );
+            arquivo = ObjectFile.read( Files.readAllBytes( compilar( FONTE, pastaTemp.getRoot() ).toPath() ) );
+        } finally {
+            AST.setDebugInfo( false );
+        }
+
+        // as diretivas não alteram o código
+        assertArrayEquals( semDepuracao, arquivo.getCode() );
+
+        Map<Integer, String> simbolos = arquivo.getSymbols();
+        assertTrue( simbolos.toString(), simbolos.containsValue( "f" ) );
+        assertTrue( simbolos.toString(), simbolos.containsValue( "g" ) );
+
+        // as instruções return de f e g e as duas instruções writeln
+        assertEquals( Arrays.asList( 5, 10, 14, 15 ), Arrays.asList( arquivo.getLines().values().toArray() ) );
+
+    }
+
+    @Test
+    public void testeTabelaDeStrings() throws IOException {
+
+        File fonte = new File( pastaTemp.getRoot(), "Strings.cprl" );
+        Files.write( fonte.toPath(), "begin\n   writeln \"Olá, mundo\";\nend.\n".getBytes( StandardCharsets.UTF_8 ) );
+
+        byte[] bytes = Files.readAllBytes( compilar( fonte, pastaTemp.getRoot() ).toPath() );
+        ObjectFile arquivo = ObjectFile.read( bytes );
+
+        assertEquals( 1, arquivo.getStrings().size() );
+        assertArrayEquals( "Olá, mundo".getBytes( StandardCharsets.UTF_8 ),
+                arquivo.getStrings().firstEntry().getValue() );
+        assertEquals( "Olá, mundo", executar( LoadedProgram.of( bytes ) ) );
+
+        // uma entrada que não corresponde ao código é ignorada
+        ObjectFile alterado = new ObjectFile( arquivo.getCode() );
+        ByteArrayOutputStream saida = new ByteArrayOutputStream();
+        alterado.write( saida );
+        byte[] bytesAlterados = saida.toByteArray();
+        int indice = indexOf( bytesAlterados, "Olá".getBytes( StandardCharsets.UTF_8 ), arquivo.getCode().length );
+        bytesAlterados[indice] = 'X';
+
+        assertEquals( "Olá, mundo", executar( LoadedProgram.of( bytesAlterados ) ) );
+
+    }
+
+    @Test
+    public void testeEscritaELeitura() throws IOException {
+
+        byte[] codigo = ObjectFile.read( Files.readAllBytes( compilar( FONTE, pastaTemp.getRoot() ).toPath() ) )
+                .getCode();
+        ObjectFile arquivo = new ObjectFile( codigo );
+        arquivo.addLabel( 5, "L0" );
+        arquivo.addLabel( 5, "L9" );
+        arquivo.addSubprogram( 10, "f" );
+        arquivo.addLabel( 10, "L1" );
+        arquivo.addLine( 15, 5 );
+
+        ByteArrayOutputStream saida = new ByteArrayOutputStream();
+        arquivo.write( saida );
+        ObjectFile lido = ObjectFile.read( saida.toByteArray() );
+
+        assertArrayEquals( codigo, lido.getCode() );
+        assertEquals( arquivo.getRequiredStack(), lido.getRequiredStack() );
+        assertEquals( "{5=L0, 10=f}", lido.getSymbols().toString() );
+        assertEquals( "{15=5}", lido.getLines().toString() );
+
+    }
+
+    @Test
+    public void testeCodigoSemCabecalho() throws IOException {
+
+        byte[] codigo = ObjectFile.read( Files.readAllBytes( compilar( FONTE, pastaTemp.getRoot() ).toPath() ) )
+                .getCode();
+        ObjectFile arquivo = ObjectFile.read( codigo );
+
+        assertArrayEquals( codigo, arquivo.getCode() );
+        assertEquals( 0, arquivo.getRequiredStack() );
+        assertTrue( arquivo.getSymbols().isEmpty() );
+        assertEquals( "20\n12", executar( LoadedProgram.of( codigo ) ) );
+
+    }
+
+    @Test
+    public void testeArquivosInvalidos() throws IOException {
+
+        byte[] bytes = Files.readAllBytes( compilar( FONTE, pastaTemp.getRoot() ).toPath() );
+
+        byte[] versao = bytes.clone();
+        ByteBuffer.wrap( versao ).putInt( 4, ObjectFile.VERSION + 1 );
+        rejeitar( versao, "Unsupported object file version" );
+
+        rejeitar( Arrays.copyOf( bytes, bytes.length - 1 ), "extends past the end" );
+        rejeitar( Arrays.copyOf( bytes, 10 ), "unexpected end" );
+
+    }
+
+    @Test
+    public void testeSecaoDesconhecida() throws IOException {
+
+        byte[] bytes = Files.readAllBytes( compilar( FONTE, pastaTemp.getRoot() ).toPath() );
+
+        // acrescenta uma seção com uma tag desconhecida
+        ByteBuffer buffer = ByteBuffer.allocate( bytes.length + 12 );
+        buffer.put( bytes ).putInt( 99 ).putInt( 4 ).putInt( 0 );
+        buffer.putInt( 20, buffer.getInt( 20 ) + 1 );
+
+        assertEquals( "20\n12", executar( LoadedProgram.of( buffer.array() ) ) );
+
+    }
+
+    @Test
+    public void testeMontagemEmMemoria() throws IOException {
+
+        File objeto = compilar( FONTE, pastaTemp.getRoot() );
+        File asm = new File( pastaTemp.getRoot(), "Composition.asm" );
+        byte[] bytes;
+        PrintStream saidaAnterior = System.out;
+
+        try {
+            System.setOut( new PrintStream( OutputStream.nullOutputStream() ) );
+            bytes = new Assembler( asm ).assembleToBytes();
+        } finally {
+            System.setOut( saidaAnterior );
+        }
+
+        // o mesmo conteúdo do arquivo objeto escrito pelo montador
+        assertArrayEquals( Files.readAllBytes( objeto.toPath() ), bytes );
+        assertEquals( "20\n12", executar( LoadedProgram.of( bytes ) ) );
+
+    }
+
+    @Test
+    public void testeMontagensConcorrentes() throws Exception {
+
+        File objeto = compilar( FONTE, pastaTemp.getRoot() );
+        File asm = new File( pastaTemp.getRoot(), "Composition.asm" );
+        byte[] esperado = Files.readAllBytes( objeto.toPath() );
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        PrintStream saidaAnterior = System.out;
+
+        try {
+            System.setOut( new PrintStream( OutputStream.nullOutputStream() ) );
+
+            List<Future<byte[]>> montagens = new ArrayList<>();
+            for ( int i = 0; i < 16; ++i ) {
+                montagens.add( executor.submit( () -> new Assembler( asm ).assembleToBytes() ) );
+            }
+
+            // cada montagem tem os seus próprios rótulos, então nenhuma vê
+            // os rótulos das outras como já definidos
+            for ( Future<byte[]> montagem : montagens ) {
+                assertArrayEquals( esperado, montagem.get() );
+            }
+        } finally {
+            System.setOut( saidaAnterior );
+            executor.shutdown();
+        }
+
+    }
+
+    private static void rejeitar( byte[] bytes, String mensagem ) {
+        try {
+            LoadedProgram.of( bytes );
+            fail( mensagem );
+        } catch ( IllegalArgumentException e ) {
+            assertTrue( e.getMessage(), e.getMessage().contains( mensagem ) );
+        }
+    }
+
+    private static String executar( LoadedProgram programa ) {
+        ByteArrayOutputStream saida = new ByteArrayOutputStream();
+        CVM vm = new CVM( CVM.DEFAULT_MEMORY_SIZE, new ByteArrayInputStream( new byte[0] ), saida );
+        vm.loadProgram( programa );
+        assertEquals( CVM.Status.HALTED, vm.run( Long.MAX_VALUE ) );
+        return CVMTestUtils.normalizar( saida.toString( StandardCharsets.UTF_8 ) );
+    }
+
+    private static int indexOf( byte[] bytes, byte[] padrao, int inicio ) {
+        for ( int i = inicio; i <= bytes.length - padrao.length; ++i ) {
+            if ( Arrays.equals( Arrays.copyOfRange( bytes, i, i + padrao.length ), padrao ) ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,87 @@
+package test.cvm;
+
+import edu.citadel.cvm.CVM;
+import edu.citadel.cvm.CVMPool;
+import edu.citadel.cvm.LoadedProgram;
+import edu.citadel.cvm.OpCode;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static test.cvm.CVMTestUtils.arquivoIrmao;
+import static test.cvm.CVMTestUtils.arquivosFonte;
+import static test.cvm.CVMTestUtils.compilar;
+import static test.cvm.CVMTestUtils.normalizar;
+
+/**
+ * Testa a execução concorrente dos exemplos em várias CVMs de um mesmo pool,
+ * cada uma com sua própria entrada e saída.
+ */
+public class TesteCVMPool {
+
+    private static final int REPETICOES = 4;
+
+    @Rule
+    public TemporaryFolder pastaTemp = new TemporaryFolder();
+
+    @Test
+    public void testeExecucaoConcorrente() throws Exception {
+
+        try ( CVMPool pool = new CVMPool( 4, CVM.DEFAULT_MEMORY_SIZE, CVM.Engine.PREDECODED ) ) {
+            List<File> fontes = new ArrayList<>();
+            List<ByteArrayOutputStream> saidas = new ArrayList<>();
+            List<Future<CVMPool.Result>> resultados = new ArrayList<>();
+
+            for ( File fonte : arquivosFonte() ) {
+                LoadedProgram programa = LoadedProgram.load( compilar( fonte, pastaTemp.getRoot() ) );
+                File arquivoEntrada = arquivoIrmao( fonte, ".in.txt" );
+                byte[] entrada = arquivoEntrada.isFile() ? Files.readAllBytes( arquivoEntrada.toPath() ) : new byte[0];
+
+                // o mesmo programa é executado várias vezes ao mesmo tempo
+                for ( int i = 0; i < REPETICOES; ++i ) {
+                    ByteArrayOutputStream saida = new ByteArrayOutputStream();
+                    fontes.add( fonte );
+                    saidas.add( saida );
+                    resultados.add( pool.submit( programa, new ByteArrayInputStream( entrada ), saida ) );
+                }
+            }
+
+            for ( int i = 0; i < fontes.size(); ++i ) {
+                File fonte = fontes.get( i );
+                String esperado = new String( Files.readAllBytes( arquivoIrmao( fonte, ".out.txt" ).toPath() ),
+                        StandardCharsets.UTF_8 );
+
+                assertEquals( fonte.getName(), CVM.Status.HALTED, resultados.get( i ).get().getStatus() );
+                assertEquals( fonte.getName(), normalizar( esperado ),
+                        normalizar( saidas.get( i ).toString( StandardCharsets.UTF_8 ) ) );
+            }
+        }
+
+    }
+
+    @Test
+    public void testeProgramaInvalido() throws Exception {
+
+        // a falha na verificação é um resultado, e não uma exceção do Future
+        LoadedProgram programa = LoadedProgram.of( new byte[] { OpCode.PROGRAM, 0, 0, 0, 0, (byte) 99 } );
+
+        try ( CVMPool pool = new CVMPool( 1, CVM.DEFAULT_MEMORY_SIZE, CVM.Engine.PREDECODED ) ) {
+            CVMPool.Result resultado = pool.submit( programa, new ByteArrayInputStream( new byte[0] ),
+                    new ByteArrayOutputStream() ).get();
+
+            assertEquals( CVM.Status.FAULTED, resultado.getStatus() );
+            assertTrue( resultado.getFaultMessage(), resultado.getFaultMessage().contains( "invalid opcode" ) );
+        }
+
+    }
+
+}
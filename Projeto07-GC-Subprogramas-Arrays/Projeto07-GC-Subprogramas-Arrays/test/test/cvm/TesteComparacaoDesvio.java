@@ -0,0 +1,123 @@
+package test.cvm;
+
+import edu.citadel.cprl.ast.AST;
+import edu.citadel.cvm.CVM;
+import edu.citadel.cvm.LoadedProgram;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static test.cvm.CVMTestUtils.compilar;
+
+/**
+ * Testa as instruções que comparam dois operandos e desviam (BEQW, BLT2B,
+ * BGEB etc.), emitidas pelo compilador nas expressões relacionais.
+ */
+public class TesteComparacaoDesvio {
+
+    private static final String FONTE = "var i, j : Integer;\n"
+            + "var c, d : Char;\n"
+            + "var b, e : Boolean;\n"
+            + "procedure mostrar( v : Boolean ) is\n"
+            + "begin\n"
+            + "   if v then write 'V'; else write 'F'; end if;\n"
+            + "end mostrar;\n"
+            + "procedure relacoes( x : Integer, y : Integer ) is\n"
+            + "begin\n"
+            + "   mostrar( x = y ); mostrar( x != y ); mostrar( x < y );\n"
+            + "   mostrar( x <= y ); mostrar( x > y ); mostrar( x >= y );\n"
+            + "   writeln;\n"
+            + "end relacoes;\n"
+            + "begin\n"
+            + "   i := -3;\n"
+            + "   j := 2;\n"
+            + "   relacoes( i, j );\n"
+            + "   relacoes( j, i );\n"
+            + "   relacoes( j, j );\n"
+            + "   c := 'a';\n"
+            + "   d := 'z';\n"
+            + "   mostrar( c = d ); mostrar( c < d ); mostrar( c >= d ); mostrar( d > c );\n"
+            + "   writeln;\n"
+            + "   b := true;\n"
+            + "   e := false;\n"
+            + "   mostrar( b = e ); mostrar( b != e ); mostrar( b > e ); mostrar( e <= b );\n"
+            + "   writeln;\n"
+            + "   i := 0;\n"
+            + "   while i < 5 loop\n"
+            + "      if i >= 2 and not ( i = 3 ) then\n"
+            + "         write i;\n"
+            + "      end if;\n"
+            + "      i := i + 1;\n"
+            + "   end loop;\n"
+            + "   writeln;\n"
+            + "end.\n";
+
+    @Rule
+    public TemporaryFolder pastaTemp = new TemporaryFolder();
+
+    @Test
+    public void testeMesmaSaidaQueCMP() throws IOException {
+
+        LoadedProgram comCMP = LoadedProgram.load( compilar( escrever( "ComCMP" ), pastaTemp.getRoot() ) );
+        String asmComCMP = lerAsm( "ComCMP" );
+        assertTrue( asmComCMP, asmComCMP.contains( "CMP" ) );
+
+        LoadedProgram fundido;
+
+        try {
+            AST.setCompareBranches( true );
+            fundido = LoadedProgram.load( compilar( escrever( "Fundido" ), pastaTemp.getRoot() ) );
+        } finally {
+            AST.setCompareBranches( false );
+        }
+
+        String asmFundido = lerAsm( "Fundido" );
+        assertFalse( asmFundido, asmFundido.contains( "CMP" ) );
+        assertTrue( asmFundido, asmFundido.contains( "BGEW" ) );
+        assertTrue( asmFundido, asmFundido.contains( "2B" ) );
+        assertTrue( asmFundido, asmFundido.contains( "BNEB" ) );
+
+        String esperada = executar( comCMP, CVM.Engine.INTERPRETER );
+        assertEquals( "FVVVFF\n"
+                + "FVFFVV\n"
+                + "VFFVFV\n"
+                + "FVFV\n"
+                + "FVVV\n"
+                + "24\n", esperada );
+
+        for ( CVM.Engine engine : CVM.Engine.values() ) {
+            assertEquals( engine.toString(), esperada, executar( fundido, engine ) );
+            assertEquals( engine.toString(), esperada, executar( comCMP, engine ) );
+        }
+
+    }
+
+    private File escrever( String nome ) throws IOException {
+        File arquivo = new File( pastaTemp.getRoot(), nome + ".cprl" );
+        Files.write( arquivo.toPath(), FONTE.getBytes( StandardCharsets.UTF_8 ) );
+        return arquivo;
+    }
+
+    private String lerAsm( String nome ) throws IOException {
+        return new String( Files.readAllBytes( new File( pastaTemp.getRoot(), nome + ".asm" ).toPath() ),
+                StandardCharsets.UTF_8 );
+    }
+
+    private static String executar( LoadedProgram programa, CVM.Engine engine ) {
+        ByteArrayOutputStream saida = new ByteArrayOutputStream();
+        CVM vm = new CVM( CVM.DEFAULT_MEMORY_SIZE, new ByteArrayInputStream( new byte[0] ), saida );
+        vm.setEngine( engine );
+        vm.loadProgram( programa );
+        assertEquals( CVM.Status.HALTED, vm.run( Long.MAX_VALUE ) );
+        return CVMTestUtils.normalizar( saida.toString( StandardCharsets.UTF_8 ) ) + "\n";
+    }
+
+}
@@ -0,0 +1,34 @@
+package test.cvm;
+
+import edu.citadel.cvm.CVM;
+import java.io.IOException;
+import org.junit.Test;
+import static test.cvm.CVMTestUtils.testarExemplos;
+
+/**
+ * Executa os exemplos corretos em cada engine da CVM.
+ */
+public class TesteEngines {
+
+    @Test
+    public void testeInterpreter() throws IOException {
+        testarExemplos( CVM.Engine.INTERPRETER );
+    }
+
+    @Test
+    public void testePredecoded() throws IOException {
+        testarExemplos( CVM.Engine.PREDECODED );
+    }
+
+    @Test
+    public void testeRegister() throws IOException {
+        testarExemplos( CVM.Engine.REGISTER );
+    }
+
+    @Test
+    public void testeTiered() throws IOException {
+        // compila cada região já na primeira entrada
+        testarExemplos( CVM.Engine.TIERED, 1 );
+    }
+
+}
@@ -0,0 +1,186 @@
+package test.cvm;
+
+import edu.citadel.cvm.CVM;
+import edu.citadel.cvm.LoadedProgram;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static test.cvm.CVMTestUtils.compilar;
+import static test.cvm.CVMTestUtils.executar;
+
+/**
+ * Testa a execução da CVM com limite de instruções: a retomada do programa,
+ * a espera por entrada e as falhas retornadas como resultado.
+ */
+public class TesteExecucaoLimitada {
+
+    private static final String[] FONTES = { "ArraysAndProcedures/QuickSort.cprl", "Subprograms/GCD.cprl" };
+
+    private static final int LIMITE_JIT = 1;
+
+    @Rule
+    public TemporaryFolder pastaTemp = new TemporaryFolder();
+
+    private ByteArrayOutputStream saida;
+    private PrintStream saidaAnterior;
+    private InputStream entradaAnterior;
+
+    @Before
+    public void preparar() {
+        saidaAnterior = System.out;
+        entradaAnterior = System.in;
+    }
+
+    @After
+    public void restaurar() {
+        System.setOut( saidaAnterior );
+        System.setIn( entradaAnterior );
+    }
+
+    @Test
+    public void testeExecucaoEmFatias() throws IOException {
+
+        for ( String nome : FONTES ) {
+            File fonte = new File( CVMTestUtils.DIRETORIO_EXEMPLOS, nome );
+            File arquivoEntrada = new File( fonte.getPath().replace( ".cprl", ".in.txt" ) );
+            LoadedProgram programa = LoadedProgram.load( compilar( fonte, pastaTemp.getRoot() ) );
+            String esperado = executar( programa, arquivoEntrada, CVM.Engine.INTERPRETER, LIMITE_JIT );
+
+            for ( CVM.Engine engine : CVM.Engine.values() ) {
+                byte[] entrada = arquivoEntrada.isFile() ? Files.readAllBytes( arquivoEntrada.toPath() ) : new byte[0];
+                CVM vm = criar( programa, engine, new ByteArrayInputStream( entrada ) );
+
+                int fatias = 0;
+                CVM.Status status;
+                while ( ( status = vm.run( 7 ) ) == CVM.Status.BUDGET_EXHAUSTED ) {
+                    ++fatias;
+                }
+
+                assertEquals( nome + " " + engine, CVM.Status.HALTED, status );
+                assertTrue( fatias > 1 );
+                assertEquals( nome + " " + engine, esperado, lerSaida() );
+            }
+        }
+
+    }
+
+    @Test
+    public void testeLacoInfinito() throws IOException {
+
+        LoadedProgram programa = compilarTexto( "Laco",
+                "var x : Integer;\nbegin\n   loop\n      x := x + 1;\n   end loop;\nend.\n" );
+
+        for ( CVM.Engine engine : CVM.Engine.values() ) {
+            CVM vm = criar( programa, engine, new ByteArrayInputStream( new byte[0] ) );
+
+            assertEquals( engine.toString(), CVM.Status.BUDGET_EXHAUSTED, vm.run( 100000 ) );
+            assertEquals( engine.toString(), CVM.Status.BUDGET_EXHAUSTED, vm.run( 100000 ) );
+        }
+
+    }
+
+    @Test
+    public void testeFalha() throws IOException {
+        verificarDivisaoPorZero( "Falha", "5 / x" );
+    }
+
+    @Test
+    public void testeFalhaResto() throws IOException {
+        verificarDivisaoPorZero( "FalhaResto", "5 mod x" );
+    }
+
+    @Test
+    public void testeFalhaRestoConstante() throws IOException {
+        // o montador não dobra LDCINT 0, MOD
+        verificarDivisaoPorZero( "FalhaRestoConstante", "5 mod 0" );
+    }
+
+    /*
+     * Executa em todas as engines um programa que escreve a expressão, que
+     * divide por x = 0, e verifica que a falha é retornada como resultado.
+     */
+    private void verificarDivisaoPorZero( String nome, String expressao ) throws IOException {
+
+        LoadedProgram programa = compilarTexto( nome,
+                "var x : Integer;\nbegin\n   writeln \"antes\";\n   x := 0;\n   writeln " + expressao + ";\nend.\n" );
+
+        for ( CVM.Engine engine : CVM.Engine.values() ) {
+            CVM vm = criar( programa, engine, new ByteArrayInputStream( new byte[0] ) );
+
+            assertEquals( engine.toString(), CVM.Status.FAULTED, vm.run( Long.MAX_VALUE ) );
+            assertTrue( vm.getFaultMessage(), vm.getFaultMessage().contains( "Divide by zero" ) );
+            assertEquals( "antes\n", lerSaida().replace( "\r", "" ) );
+
+            // o programa não é retomado após uma falha
+            assertEquals( CVM.Status.FAULTED, vm.run( Long.MAX_VALUE ) );
+        }
+
+    }
+
+    @Test
+    public void testeEsperaPorEntrada() throws IOException {
+
+        File fonte = new File( CVMTestUtils.DIRETORIO_EXEMPLOS, "Subprograms/GCD.cprl" );
+        LoadedProgram programa = LoadedProgram.load( compilar( fonte, pastaTemp.getRoot() ) );
+
+        for ( CVM.Engine engine : CVM.Engine.values() ) {
+            PipedOutputStream teclado = new PipedOutputStream();
+            CVM vm = criar( programa, engine, new PipedInputStream( teclado ) );
+
+            assertEquals( CVM.Status.WAITING_FOR_INPUT, vm.run( Long.MAX_VALUE ) );
+            assertEquals( CVM.Status.WAITING_FOR_INPUT, vm.run( Long.MAX_VALUE ) );
+            assertEquals( "Enter value for a (0 to exit):  ", lerSaida() );
+
+            teclado.write( "0\n".getBytes( StandardCharsets.UTF_8 ) );
+            assertEquals( CVM.Status.HALTED, vm.run( Long.MAX_VALUE ) );
+            assertTrue( lerSaida().contains( "Done." ) );
+        }
+
+    }
+
+    private LoadedProgram compilarTexto( String nome, String texto ) throws IOException {
+        File fonte = new File( pastaTemp.getRoot(), nome + ".cprl" );
+        Files.write( fonte.toPath(), texto.getBytes( StandardCharsets.UTF_8 ) );
+        return LoadedProgram.load( compilar( fonte, pastaTemp.getRoot() ) );
+    }
+
+    /*
+     * Cria uma CVM com a entrada especificada e a saída redirecionada para um
+     * buffer, e carrega o programa.
+     */
+    private CVM criar( LoadedProgram programa, CVM.Engine engine, InputStream entrada ) {
+        saida = new ByteArrayOutputStream();
+        System.setOut( new PrintStream( saida, true, StandardCharsets.UTF_8 ) );
+        System.setIn( entrada );
+
+        CVM vm = new CVM( CVM.DEFAULT_MEMORY_SIZE );
+        vm.setEngine( engine );
+        vm.setJitThreshold( LIMITE_JIT );
+        vm.loadProgram( programa );
+        return vm;
+    }
+
+    /*
+     * Retorna a saída gerada desde a última leitura.
+     */
+    private String lerSaida() {
+        String texto = saida.toString( StandardCharsets.UTF_8 );
+        saida.reset();
+        return texto;
+    }
+
+}
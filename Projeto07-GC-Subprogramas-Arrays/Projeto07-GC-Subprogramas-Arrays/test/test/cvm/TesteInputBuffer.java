@@ -0,0 +1,66 @@
+package test.cvm;
+
+import edu.citadel.cvm.InputBuffer;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Testa a leitura de inteiros e caracteres do buffer de entrada da CVM.
+ */
+public class TesteInputBuffer {
+
+    @Test
+    public void testeInteirosECaracteres() throws IOException {
+
+        // buffer pequeno para forçar várias leituras do fluxo
+        InputBuffer entrada = criar( "  42\n-7 +3 x\t2147483647 -2147483648 é😀", 4 );
+
+        assertEquals( 42, entrada.getInt() );
+        assertEquals( '\n', entrada.getChar() );
+        assertEquals( -7, entrada.getInt() );
+        assertEquals( 3, entrada.getInt() );
+        assertEquals( ' ', entrada.getChar() );
+        assertEquals( 'x', entrada.getChar() );
+        assertEquals( Integer.MAX_VALUE, entrada.getInt() );
+        assertEquals( Integer.MIN_VALUE, entrada.getInt() );
+        assertEquals( ' ', entrada.getChar() );
+        assertEquals( 'é', entrada.getChar() );
+        assertEquals( "😀".charAt( 0 ), entrada.getChar() );
+        assertEquals( "😀".charAt( 1 ), entrada.getChar() );
+        assertEquals( -1, entrada.getChar() );
+
+    }
+
+    @Test
+    public void testeEntradasInvalidas() throws IOException {
+
+        String[] invalidas = { "abc", "12a", "2147483648", "-2147483649", "-" };
+
+        for ( String invalida : invalidas ) {
+            try {
+                criar( invalida, 16 ).getInt();
+                fail( invalida );
+            } catch ( NumberFormatException e ) {
+                // esperado
+            }
+        }
+
+        try {
+            criar( " \n ", 16 ).getInt();
+            fail( "EOF" );
+        } catch ( EOFException e ) {
+            // esperado
+        }
+
+    }
+
+    private static InputBuffer criar( String texto, int tamanho ) {
+        return new InputBuffer( new ByteArrayInputStream( texto.getBytes( StandardCharsets.UTF_8 ) ), tamanho );
+    }
+
+}
@@ -0,0 +1,57 @@
+package test.cvm;
+
+import edu.citadel.cvm.CVM;
+import edu.citadel.cvm.LoadedProgram;
+import edu.citadel.cvm.ObjectFile;
+import edu.citadel.cvm.jit.TieredCompiler;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static test.cvm.CVMTestUtils.compilar;
+import static test.cvm.CVMTestUtils.executar;
+
+/**
+ * Testa o carregamento de programas a partir de arquivos, arrays e buffers,
+ * e a execução do mesmo programa carregado em várias CVMs.
+ */
+public class TesteLoadedProgram {
+
+    private static final File FONTE = new File( CVMTestUtils.DIRETORIO_EXEMPLOS, "CPRL0/Correct_101.cprl" );
+
+    @Rule
+    public TemporaryFolder pastaTemp = new TemporaryFolder();
+
+    @Test
+    public void testeFontesDeCodigoObjeto() throws IOException {
+
+        File obj = compilar( FONTE, pastaTemp.getRoot() );
+        File semEntrada = new File( pastaTemp.getRoot(), "inexistente.in.txt" );
+        byte[] bytes = Files.readAllBytes( obj.toPath() );
+
+        LoadedProgram doArquivo = LoadedProgram.load( obj );
+        LoadedProgram doArray = LoadedProgram.of( bytes );
+        LoadedProgram doBuffer = LoadedProgram.of( ByteBuffer.wrap( bytes ) );
+
+        int tamanhoCodigo = ObjectFile.read( bytes ).getCode().length;
+        assertEquals( tamanhoCodigo, doArquivo.getSize() );
+        assertEquals( tamanhoCodigo, doArray.getSize() );
+        assertEquals( tamanhoCodigo, doBuffer.getSize() );
+
+        String esperado = executar( obj, semEntrada, CVM.Engine.INTERPRETER, TieredCompiler.DEFAULT_THRESHOLD );
+
+        // o mesmo programa carregado é executado por várias CVMs
+        for ( CVM.Engine engine : CVM.Engine.values() ) {
+            for ( LoadedProgram programa : new LoadedProgram[] { doArquivo, doArray, doBuffer } ) {
+                assertEquals( engine.toString(), esperado,
+                        executar( programa, semEntrada, engine, TieredCompiler.DEFAULT_THRESHOLD ) );
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,230 @@
+package test.cvm;
+
+import edu.citadel.compiler.ErrorHandler;
+import edu.citadel.cvm.Disassembler;
+import edu.citadel.cvm.ObjectFile;
+import edu.citadel.cvm.assembler.Assembler;
+import edu.citadel.cvm.assembler.Symbol;
+import edu.citadel.cvm.assembler.Token;
+import edu.citadel.cvm.assembler.ast.Instruction;
+import edu.citadel.cvm.assembler.ast.InstructionOneArg;
+import edu.citadel.cvm.assembler.optimize.Match;
+import edu.citadel.cvm.assembler.optimize.Rule;
+import edu.citadel.cvm.assembler.optimize.RuleMatcher;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Testa o otimizador peephole do montador, que aplica as otimizações até
+ * que nenhuma delas altere o código.
+ */
+public class TesteOtimizadorPeephole {
+
+    @org.junit.Rule
+    public TemporaryFolder pastaTemp = new TemporaryFolder();
+
+    @Test
+    public void testeOtimizacaoHabilitaOutra() throws IOException {
+
+        // LDCINT 5, NEG só é dobrado depois de LDCINT 2, LDCINT 3, MUL, e
+        // então a soma das duas constantes também é dobrada
+        List<String> codigo = montar( "Encadeada",
+                "   PROGRAM 4\n"
+                + "   LDGADDR 0\n"
+                + "   LDCINT 5\n"
+                + "   NEG\n"
+                + "   LDCINT 2\n"
+                + "   LDCINT 3\n"
+                + "   MUL\n"
+                + "   ADD\n"
+                + "   STOREW\n"
+                + "   HALT\n" );
+
+        assertEquals( Arrays.asList( "PROGRAM 4", "LDCINT1", "STGW 0", "HALT" ), codigo );
+
+    }
+
+    @Test
+    public void testeProgramaGrande() throws IOException {
+
+        int repeticoes = 20000;
+        StringBuilder fonte = new StringBuilder( "   PROGRAM 8\n" );
+
+        for ( int i = 0; i < repeticoes; ++i ) {
+            fonte.append( "   LDGADDR 0\n" )
+                    .append( "   LDCINT " ).append( i % 7 ).append( "\n" )
+                    .append( "   NEG\n" )
+                    .append( "   LDCINT 2\n" )
+                    .append( "   LDCINT 3\n" )
+                    .append( "   MUL\n" )
+                    .append( "   ADD\n" )
+                    .append( "   LDGADDR 4\n" )
+                    .append( "   LOADW\n" )
+                    .append( "   SUB\n" )
+                    .append( "   STOREW\n" )
+                    .append( "L" ).append( i ).append( ":\n" );
+        }
+        fonte.append( "   HALT\n" );
+
+        List<String> codigo = montar( "Grande", fonte.toString() );
+
+        assertEquals( 2 + 4 * repeticoes, codigo.size() );
+        assertEquals( Arrays.asList( "LDCINT 6", "LDGW 4", "SUB", "STGW 0" ), codigo.subList( 1, 5 ) );
+        assertEquals( Arrays.asList( "LDCINT1", "LDGW 4", "SUB", "STGW 0" ), codigo.subList( 21, 25 ) );
+
+    }
+
+    @Test
+    public void testeDivisaoPorZeroNaoEDobrada() throws IOException {
+
+        // a divisão por zero deve falhar em tempo de execução, e não na
+        // montagem
+        List<String> codigo = montar( "DivisaoPorZero",
+                "   PROGRAM 4\n"
+                + "   LDGADDR 0\n"
+                + "   LDCINT 1\n"
+                + "   LDCINT 0\n"
+                + "   DIV\n"
+                + "   STOREW\n"
+                + "   HALT\n" );
+
+        assertEquals( Arrays.asList( "PROGRAM 4", "LDCINT1", "LDCINT0", "DIV", "STGW 0", "HALT" ), codigo );
+
+    }
+
+    @Test
+    public void testeSubtracaoDeVariavelNaoEDecremento() throws IOException {
+
+        // 1 - x não é x - 1
+        List<String> codigo = montar( "UmMenosX",
+                "   PROGRAM 8\n"
+                + "   LDGADDR 4\n"
+                + "   LDCINT 1\n"
+                + "   LDLADDR 8\n"
+                + "   LOADW\n"
+                + "   SUB\n"
+                + "   STOREW\n"
+                + "   HALT\n" );
+
+        assertEquals( Arrays.asList( "PROGRAM 8", "LDCINT1", "LDLW 8", "SUB", "STGW 4", "HALT" ), codigo );
+
+    }
+
+    @Test
+    public void testeDivisaoPorPotenciaDe2NaoEDeslocamento() throws IOException {
+
+        // -7 / 2 é -3, mas -7 >> 1 é -4
+        List<String> codigo = montar( "DivisaoPor2",
+                "   PROGRAM 8\n"
+                + "   LDGADDR 4\n"
+                + "   LDGADDR 0\n"
+                + "   LOADW\n"
+                + "   LDCINT 2\n"
+                + "   DIV\n"
+                + "   STOREW\n"
+                + "   HALT\n" );
+
+        assertEquals( Arrays.asList( "PROGRAM 8", "LDGW 0", "LDCINT 2", "DIV", "STGW 4", "HALT" ), codigo );
+
+    }
+
+    @Test
+    public void testeDesviosCurtos() throws IOException {
+
+        // o primeiro desvio cabe em 1 byte; os outros dois só depois que o
+        // deslocamento de 2 bytes de cada um é considerado no do outro
+        StringBuilder fonte = new StringBuilder( "   PROGRAM 0\n" )
+                .append( "   BR L0\n" )
+                .append( "L0:\n" )
+                .append( "   BR L2\n" )
+                .append( "L1:\n" );
+        for ( int i = 0; i < 130; ++i ) {
+            fonte.append( "   PUTEOL\n" );
+        }
+        fonte.append( "   BR L1\n" )
+                .append( "L2:\n" )
+                .append( "   HALT\n" );
+
+        List<String> codigo = montar( "DesviosCurtos", fonte.toString() );
+
+        assertEquals( 135, codigo.size() );
+        assertEquals( Arrays.asList( "PROGRAM 0", "BR8 2", "BR16 136", "PUTEOL" ), codigo.subList( 0, 4 ) );
+        assertEquals( Arrays.asList( "PUTEOL", "BR16 -130", "HALT" ), codigo.subList( 132, 135 ) );
+
+    }
+
+    @Test
+    public void testeRegraDeclarativa() {
+
+        // uma regra definida fora do montador, que só casa a partir do
+        // primeiro NOT
+        Rule regra = new Rule( "NotNot" ).match( Symbol.NOT, Symbol.NOT, Symbol.LDCINT )
+                .when( m -> m.isInt( 2 ) )
+                .replace( Rule.op( Symbol.LDCINT, m -> Match.intArg( m.getInt( 2 ) * 2 ) ) );
+        RuleMatcher otimizador = new RuleMatcher( Collections.singletonList( regra ) );
+
+        List<Instruction> instrucoes = new ArrayList<>();
+        instrucoes.add( criar( Symbol.NOT, null ) );
+        instrucoes.add( criar( Symbol.NOT, null ) );
+        instrucoes.add( criar( Symbol.LDCINT, "21" ) );
+        instrucoes.add( criar( Symbol.HALT, null ) );
+
+        otimizador.optimize( instrucoes, 1 );
+        assertEquals( 4, instrucoes.size() );
+
+        otimizador.optimize( instrucoes, 0 );
+        assertEquals( 2, instrucoes.size() );
+        assertEquals( Symbol.LDCINT, instrucoes.get( 0 ).getOpCode().getSymbol() );
+        assertEquals( "42", ( (InstructionOneArg) instrucoes.get( 0 ) ).getArg().getText() );
+        assertEquals( Symbol.HALT, instrucoes.get( 1 ).getOpCode().getSymbol() );
+
+    }
+
+    private static Instruction criar( Symbol simbolo, String argumento ) {
+        Token arg = argumento == null ? null : new Token( Symbol.intLiteral, argumento );
+        return Instruction.create( new LinkedList<>(), new Token( simbolo ), arg );
+    }
+
+    /**
+     * Monta o código e retorna as instruções do código objeto.
+     */
+    private List<String> montar( String nome, String fonte ) throws IOException {
+
+        File asm = new File( pastaTemp.getRoot(), nome + ".asm" );
+        Files.write( asm.toPath(), fonte.getBytes( StandardCharsets.UTF_8 ) );
+        PrintStream saidaAnterior = System.out;
+
+        try {
+            System.setOut( new PrintStream( OutputStream.nullOutputStream() ) );
+            new Assembler( asm ).assemble();
+            assertFalse( ErrorHandler.getInstance().errorsExist() );
+        } finally {
+            System.setOut( saidaAnterior );
+            ErrorHandler.getInstance().resetErrorCount();
+        }
+
+        File obj = new File( pastaTemp.getRoot(), nome + ".obj" );
+        byte[] codigo = ObjectFile.read( Files.readAllBytes( obj.toPath() ) ).getCode();
+        List<String> instrucoes = new ArrayList<>();
+
+        for ( int endereco = 0; endereco < codigo.length; endereco += Disassembler.getLength( codigo, endereco ) ) {
+            instrucoes.add( Disassembler.disassemble( codigo, endereco ) );
+        }
+
+        return instrucoes;
+    }
+
+}
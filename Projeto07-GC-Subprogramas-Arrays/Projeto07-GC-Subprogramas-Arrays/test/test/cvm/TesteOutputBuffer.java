@@ -0,0 +1,93 @@
+package test.cvm;
+
+import edu.citadel.cvm.OutputBuffer;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Testa a formatação e a descarga do buffer de saída da CVM.
+ */
+public class TesteOutputBuffer {
+
+    @Test
+    public void testeInteiros() {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        OutputBuffer saida = new OutputBuffer( baos );
+
+        int[] valores = { 0, 7, -1, 42, 1000, Integer.MAX_VALUE, Integer.MIN_VALUE };
+        StringBuilder esperado = new StringBuilder();
+
+        for ( int valor : valores ) {
+            saida.putInt( valor );
+            saida.putChar( ' ' );
+            esperado.append( valor ).append( ' ' );
+        }
+
+        saida.flush();
+        assertEquals( esperado.toString(), baos.toString( StandardCharsets.UTF_8 ) );
+
+    }
+
+    @Test
+    public void testeCaracteres() {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        OutputBuffer saida = new OutputBuffer( baos );
+        String texto = "aé€😀";
+
+        for ( char c : texto.toCharArray() ) {
+            saida.putChar( c );
+        }
+        saida.putEOL();
+
+        saida.flush();
+        assertEquals( texto + System.lineSeparator(), baos.toString( StandardCharsets.UTF_8 ) );
+
+    }
+
+    @Test
+    public void testeDescargaQuandoCheio() {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        OutputBuffer saida = new OutputBuffer( baos, 16 );
+        StringBuilder esperado = new StringBuilder();
+
+        for ( int i = 0; i < 100; ++i ) {
+            saida.putInt( i );
+            esperado.append( i );
+        }
+
+        // parte da saída já foi escrita antes da descarga explícita
+        assertEquals( true, baos.size() > 0 );
+
+        saida.flush();
+        assertEquals( esperado.toString(), baos.toString( StandardCharsets.UTF_8 ) );
+
+    }
+
+    @Test
+    public void testeBytesCodificados() {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        OutputBuffer saida = new OutputBuffer( baos, 16 );
+        String texto = "Relatório de vendas: ";
+
+        saida.putInt( 1 );
+        for ( int i = 0; i < 5; ++i ) {
+            // maior que o buffer, escrito em partes
+            saida.putEncoded( texto.getBytes( StandardCharsets.UTF_8 ) );
+        }
+
+        // um surrogate sem par antes dos bytes é escrito como '?'
+        saida.putChar( '\uD83D' );
+        saida.putEncoded( "fim".getBytes( StandardCharsets.UTF_8 ) );
+
+        saida.flush();
+        assertEquals( "1" + texto.repeat( 5 ) + "?fim", baos.toString( StandardCharsets.UTF_8 ) );
+
+    }
+
+}
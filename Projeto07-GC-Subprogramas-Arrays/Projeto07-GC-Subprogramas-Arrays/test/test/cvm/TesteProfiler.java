@@ -0,0 +1,85 @@
+package test.cvm;
+
+import edu.citadel.cvm.CVM;
+import edu.citadel.cvm.LoadedProgram;
+import edu.citadel.cvm.OpCode;
+import edu.citadel.cvm.Profiler;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static test.cvm.CVMTestUtils.compilar;
+
+/**
+ * Testa as contagens do profiler da CVM e o relatório com os nomes das labels
+ * registrados no arquivo objeto.
+ */
+public class TesteProfiler {
+
+    private static final File FONTE = new File( CVMTestUtils.DIRETORIO_EXEMPLOS, "Subprograms/Composition.cprl" );
+
+    @Rule
+    public TemporaryFolder pastaTemp = new TemporaryFolder();
+
+    @Test
+    public void testeContagens() throws IOException {
+
+        File obj = compilar( FONTE, pastaTemp.getRoot() );
+        LoadedProgram programa = LoadedProgram.load( obj );
+        Map<Integer, String> simbolos = programa.getObjectFile().getSymbols();
+
+        Profiler interpretador = executar( programa, CVM.Engine.INTERPRETER );
+        Profiler predecodificado = executar( programa, CVM.Engine.PREDECODED );
+
+        assertEquals( interpretador.getTotal(), predecodificado.getTotal() );
+        assertEquals( 4, interpretador.getOpCodeCount( OpCode.CALL ) );
+        assertEquals( 4, predecodificado.getOpCodeCount( OpCode.RET ) );
+
+        // f e g são chamadas duas vezes cada
+        int subprogramas = 0;
+        for ( int endereco : simbolos.keySet() ) {
+            if ( interpretador.getCalls( endereco ) > 0 ) {
+                assertEquals( 2, interpretador.getCalls( endereco ) );
+                ++subprogramas;
+            }
+        }
+        assertEquals( 2, subprogramas );
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        interpretador.printReport( new PrintStream( baos, true, StandardCharsets.UTF_8 ), simbolos );
+        String relatorio = baos.toString( StandardCharsets.UTF_8 );
+
+        assertTrue( relatorio, relatorio.contains( interpretador.getTotal() + " instructions executed" ) );
+        assertTrue( relatorio, relatorio.contains( "<main program>" ) );
+
+    }
+
+    private static Profiler executar( LoadedProgram programa, CVM.Engine engine ) {
+
+        PrintStream saidaAnterior = System.out;
+
+        try {
+            System.setOut( new PrintStream( OutputStream.nullOutputStream() ) );
+
+            CVM vm = new CVM( CVM.DEFAULT_MEMORY_SIZE );
+            vm.setEngine( engine );
+            vm.loadProgram( programa );
+            vm.setProfiler( new Profiler( programa.getSize() ) );
+            vm.run();
+
+            return vm.getProfiler();
+        } finally {
+            System.setOut( saidaAnterior );
+        }
+
+    }
+
+}
@@ -0,0 +1,84 @@
+package test.cvm;
+
+import edu.citadel.cvm.CVM;
+import edu.citadel.cvm.LoadedProgram;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static test.cvm.CVMTestUtils.arquivoIrmao;
+import static test.cvm.CVMTestUtils.compilar;
+
+/**
+ * Testa a gravação do estado de um programa pausado e a sua restauração em
+ * outra CVM, que continua a execução.
+ */
+public class TesteSnapshot {
+
+    private static final String[] FONTES = { "ArraysAndProcedures/QuickSort.cprl", "Subprograms/GCD.cprl" };
+
+    @Rule
+    public TemporaryFolder pastaTemp = new TemporaryFolder();
+
+    @Test
+    public void testeRetomadaAposRestauracao() throws IOException {
+
+        File snapshot = new File( pastaTemp.getRoot(), "programa.snap" );
+
+        for ( String nome : FONTES ) {
+            File fonte = new File( CVMTestUtils.DIRETORIO_EXEMPLOS, nome );
+            LoadedProgram programa = LoadedProgram.load( compilar( fonte, pastaTemp.getRoot() ) );
+            File arquivoEntrada = arquivoIrmao( fonte, ".in.txt" );
+            byte[] entrada = arquivoEntrada.isFile() ? Files.readAllBytes( arquivoEntrada.toPath() ) : new byte[0];
+
+            for ( CVM.Engine engine : CVM.Engine.values() ) {
+                ByteArrayOutputStream esperado = new ByteArrayOutputStream();
+                CVM completa = criar( engine, entrada, esperado );
+                completa.loadProgram( programa );
+
+                // conta as instruções executadas, uma por vez
+                int total = 0;
+                while ( completa.run( 1 ) == CVM.Status.BUDGET_EXHAUSTED ) {
+                    ++total;
+                }
+                assertEquals( CVM.Status.HALTED, completa.getStatus() );
+
+                for ( int pausa : new int[] { 1, total / 2, total - 1 } ) {
+                    ByteArrayOutputStream antes = new ByteArrayOutputStream();
+                    CVM original = criar( engine, entrada, antes );
+                    original.loadProgram( programa );
+                    assertEquals( CVM.Status.BUDGET_EXHAUSTED, original.run( pausa ) );
+                    original.saveSnapshot( snapshot );
+
+                    ByteArrayOutputStream depois = new ByteArrayOutputStream();
+                    CVM restaurada = criar( engine, entrada, depois );
+                    restaurada.restoreSnapshot( snapshot );
+
+                    assertEquals( original.getInputPosition(), restaurada.getInputPosition() );
+                    assertEquals( antes.size(), restaurada.getOutputPosition() );
+                    assertEquals( CVM.Status.HALTED, restaurada.run( Long.MAX_VALUE ) );
+
+                    String mensagem = nome + " " + engine + " " + pausa;
+                    assertEquals( mensagem, esperado.toString( StandardCharsets.UTF_8 ),
+                            antes.toString( StandardCharsets.UTF_8 ) + depois.toString( StandardCharsets.UTF_8 ) );
+                }
+            }
+        }
+
+    }
+
+    private static CVM criar( CVM.Engine engine, byte[] entrada, ByteArrayOutputStream saida ) {
+        CVM vm = new CVM( CVM.DEFAULT_MEMORY_SIZE, new ByteArrayInputStream( entrada ), saida );
+        vm.setEngine( engine );
+        vm.setJitThreshold( 1 );
+        vm.setBlockingInput( true );
+        return vm;
+    }
+
+}
@@ -0,0 +1,125 @@
+package test.cvm;
+
+import edu.citadel.cvm.CVM;
+import edu.citadel.cvm.LoadedProgram;
+import edu.citadel.cvm.Profiler;
+import edu.citadel.cvm.TraceDecoder;
+import edu.citadel.cvm.Tracer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static test.cvm.CVMTestUtils.compilar;
+
+/**
+ * Testa o registro do trace binário da execução, com e sem amostragem, e a
+ * sua decodificação.
+ */
+public class TesteTracer {
+
+    private static final File FONTE = new File( CVMTestUtils.DIRETORIO_EXEMPLOS, "Subprograms/Composition.cprl" );
+
+    private static final int CABECALHO = 16;
+
+    @Rule
+    public TemporaryFolder pastaTemp = new TemporaryFolder();
+
+    @Test
+    public void testeTraceCompleto() throws IOException {
+
+        File obj = compilar( FONTE, pastaTemp.getRoot() );
+        LoadedProgram programa = LoadedProgram.load( obj );
+        File trace = new File( pastaTemp.getRoot(), "Composition.trace" );
+
+        for ( CVM.Engine engine : CVM.Engine.values() ) {
+            CVM vm = criar( programa, engine );
+            vm.setProfiler( new Profiler( programa.getSize() ) );
+
+            try ( Tracer tracer = Tracer.toFile( trace, 1 ) ) {
+                vm.setTracer( tracer );
+                assertEquals( CVM.Status.HALTED, vm.run( Long.MAX_VALUE ) );
+            }
+
+            long total = vm.getProfiler().getTotal();
+            assertEquals( engine.toString(), CABECALHO + total * Tracer.RECORD_LENGTH, trace.length() );
+
+            String texto = decodificar( trace, programa.getObjectFile().getCode() );
+            String[] linhas = texto.split( "\n" );
+            assertEquals( total + 2, linhas.length );
+            assertTrue( linhas[2], linhas[2].trim().startsWith( "1 " ) );
+            assertTrue( linhas[linhas.length - 1], linhas[linhas.length - 1].contains( "HALT" ) );
+            assertTrue( texto.contains( "CALL" ) );
+        }
+
+    }
+
+    @Test
+    public void testeAmostragem() throws IOException {
+
+        LoadedProgram programa = LoadedProgram.load( compilar( FONTE, pastaTemp.getRoot() ) );
+        File trace = new File( pastaTemp.getRoot(), "Composition.trace" );
+
+        CVM vm = criar( programa, CVM.Engine.PREDECODED );
+        long total;
+
+        try ( Tracer tracer = Tracer.toFile( trace, 3 ) ) {
+            vm.setTracer( tracer );
+            assertEquals( CVM.Status.HALTED, vm.run( Long.MAX_VALUE ) );
+            total = tracer.getSequence();
+        }
+
+        assertEquals( CABECALHO + total / 3 * Tracer.RECORD_LENGTH, trace.length() );
+
+    }
+
+    @Test
+    public void testeUltimosRegistrosAntesDaFalha() throws IOException {
+
+        File fonte = new File( pastaTemp.getRoot(), "Falha.cprl" );
+        Files.write( fonte.toPath(), ( "var x : Integer;\nbegin\n   x := 0;\n   loop\n      exit when x = 100;\n"
+                + "      x := x + 1;\n   end loop;\n   writeln 5 / ( x - 100 );\nend.\n" )
+                .getBytes( StandardCharsets.UTF_8 ) );
+        LoadedProgram programa = LoadedProgram.load( compilar( fonte, pastaTemp.getRoot() ) );
+        File trace = new File( pastaTemp.getRoot(), "Falha.trace" );
+
+        CVM vm = criar( programa, CVM.Engine.INTERPRETER );
+
+        try ( Tracer tracer = Tracer.lastRecords( trace, 10, 1 ) ) {
+            vm.setTracer( tracer );
+            assertEquals( CVM.Status.FAULTED, vm.run( Long.MAX_VALUE ) );
+        }
+
+        assertEquals( CABECALHO + 10 * Tracer.RECORD_LENGTH, trace.length() );
+
+        String[] linhas = decodificar( trace, null ).split( "\n" );
+        assertEquals( 12, linhas.length );
+        assertTrue( linhas[11], linhas[11].contains( "DIV" ) );
+        // o divisor no topo da pilha
+        assertTrue( linhas[11], linhas[11].trim().endsWith( " 0" ) );
+
+    }
+
+    private static CVM criar( LoadedProgram programa, CVM.Engine engine ) {
+        CVM vm = new CVM( CVM.DEFAULT_MEMORY_SIZE, new ByteArrayInputStream( new byte[0] ),
+                OutputStream.nullOutputStream() );
+        vm.setEngine( engine );
+        vm.loadProgram( programa );
+        return vm;
+    }
+
+    private static String decodificar( File trace, byte[] codigo ) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new TraceDecoder( codigo ).decode( trace, new PrintStream( baos, true, StandardCharsets.UTF_8 ) );
+        return baos.toString( StandardCharsets.UTF_8 ).replace( "\r", "" );
+    }
+
+}
@@ -0,0 +1,201 @@
+package test.cvm;
+
+import edu.citadel.cprl.ast.AST;
+import edu.citadel.cvm.CVM;
+import edu.citadel.cvm.LoadedProgram;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static test.cvm.CVMTestUtils.compilar;
+
+/**
+ * Testa a verificação dos índices de arrays (instrução CHKIDX) e a
+ * eliminação das verificações redundantes pelo compilador.
+ */
+public class TesteVerificacaoLimites {
+
+    @Rule
+    public TemporaryFolder pastaTemp = new TemporaryFolder();
+
+    @Test
+    public void testeIndiceForaDosLimites() throws IOException {
+
+        LoadedProgram acima = compilarComVerificacao( "Acima",
+                "type A = array[5] of Integer;\n"
+                + "var a : A;\n"
+                + "var i : Integer;\n"
+                + "begin\n"
+                + "   i := 5;\n"
+                + "   a[i] := 1;\n"
+                + "end.\n" );
+        LoadedProgram abaixo = compilarComVerificacao( "Abaixo",
+                "type A = array[5] of Integer;\n"
+                + "var a : A;\n"
+                + "var i : Integer;\n"
+                + "begin\n"
+                + "   i := 0;\n"
+                + "   while i < 3 loop\n"
+                + "      writeln a[i - 1];\n"
+                + "      i := i + 1;\n"
+                + "   end loop;\n"
+                + "end.\n" );
+
+        for ( CVM.Engine engine : CVM.Engine.values() ) {
+            CVM vm = criar( engine, new ByteArrayOutputStream() );
+            vm.loadProgram( acima );
+            assertEquals( CVM.Status.FAULTED, vm.run( Long.MAX_VALUE ) );
+            assertTrue( vm.getFaultMessage(), vm.getFaultMessage().contains( "Array index 5 out of bounds" ) );
+
+            vm = criar( engine, new ByteArrayOutputStream() );
+            vm.loadProgram( abaixo );
+            assertEquals( CVM.Status.FAULTED, vm.run( Long.MAX_VALUE ) );
+            assertTrue( vm.getFaultMessage(), vm.getFaultMessage().contains( "Array index -1 out of bounds" ) );
+        }
+
+    }
+
+    @Test
+    public void testeEliminacaoDeVerificacoes() throws IOException {
+
+        String fonte = "type A = array[10] of Integer;\n"
+                + "var a : A;\n"
+                + "var i, k : Integer;\n"
+                + "begin\n"
+                + "   a[3] := 1;\n"                    // índice constante
+                + "   k := 2;\n"
+                + "   a[k] := a[k] + 1;\n"             // uma verificação
+                + "   i := 0;\n"
+                + "   while i < 10 loop\n"             // laço contado
+                + "      a[i] := a[i] + i;\n"
+                + "      i := i + 1;\n"
+                + "   end loop;\n"
+                + "   i := 1;\n"
+                + "   while i <= 10 loop\n"            // limite maior que o array
+                + "      a[i - 1] := a[i - 1] * 2;\n"  // uma verificação
+                + "      i := i + 1;\n"
+                + "   end loop;\n"
+                + "   writeln a[3], \" \", a[k], \" \", a[9];\n"
+                + "end.\n";
+
+        LoadedProgram programa = compilarComVerificacao( "Eliminacao", fonte );
+        assertEquals( 3, contarVerificacoes( "Eliminacao" ) );
+
+        for ( CVM.Engine engine : CVM.Engine.values() ) {
+            ByteArrayOutputStream saida = new ByteArrayOutputStream();
+            CVM vm = criar( engine, saida );
+            vm.loadProgram( programa );
+            assertEquals( CVM.Status.HALTED, vm.run( Long.MAX_VALUE ) );
+            assertEquals( "8 6 18", CVMTestUtils.normalizar( saida.toString( StandardCharsets.UTF_8 ) ) );
+        }
+
+    }
+
+    @Test
+    public void testeLacoQueModificaOContador() throws IOException {
+
+        // o contador é modificado por outra instrução do corpo e, sendo
+        // global, pode ser modificado pelo procedimento chamado
+        compilarComVerificacao( "Modificado",
+                "type A = array[10] of Integer;\n"
+                + "var a : A;\n"
+                + "var i : Integer;\n"
+                + "procedure p is\n"
+                + "begin\n"
+                + "   i := i + 1;\n"
+                + "end p;\n"
+                + "begin\n"
+                + "   i := 0;\n"
+                + "   while i < 10 loop\n"
+                + "      if i = 5 then i := 12; end if;\n"
+                + "      a[i] := 1;\n"
+                + "      i := i + 1;\n"
+                + "   end loop;\n"
+                + "   i := 0;\n"
+                + "   while i < 10 loop\n"
+                + "      p;\n"
+                + "      a[i] := 1;\n"
+                + "      i := i + 1;\n"
+                + "   end loop;\n"
+                + "end.\n" );
+        assertEquals( 2, contarVerificacoes( "Modificado" ) );
+
+        // o contador global é modificado no laço por meio do parâmetro var
+        LoadedProgram parametro = compilarComVerificacao( "ParametroVar",
+                "type A = array[5] of Integer;\n"
+                + "var a, b : A;\n"
+                + "var i : Integer;\n"
+                + "procedure p( var x : Integer ) is\n"
+                + "begin\n"
+                + "   i := 0;\n"
+                + "   while i < 5 loop\n"
+                + "      x := 5;\n"
+                + "      a[i] := 99;\n"
+                + "      i := i + 1;\n"
+                + "   end loop;\n"
+                + "end p;\n"
+                + "begin\n"
+                + "   b[0] := 7;\n"
+                + "   p( i );\n"
+                + "end.\n" );
+        assertEquals( 1, contarVerificacoes( "ParametroVar" ) );
+
+        for ( CVM.Engine engine : CVM.Engine.values() ) {
+            CVM vm = criar( engine, new ByteArrayOutputStream() );
+            vm.loadProgram( parametro );
+            assertEquals( CVM.Status.FAULTED, vm.run( Long.MAX_VALUE ) );
+            assertTrue( vm.getFaultMessage(), vm.getFaultMessage().contains( "Array index 5 out of bounds" ) );
+        }
+
+    }
+
+    @Test
+    public void testeSemVerificacao() throws IOException {
+
+        compilar( escrever( "SemVerificacao", "type A = array[5] of Integer;\n"
+                + "var a : A;\n"
+                + "var i : Integer;\n"
+                + "begin\n"
+                + "   i := 2;\n"
+                + "   a[i] := 1;\n"
+                + "end.\n" ), pastaTemp.getRoot() );
+        assertEquals( 0, contarVerificacoes( "SemVerificacao" ) );
+
+    }
+
+    private LoadedProgram compilarComVerificacao( String nome, String fonte ) throws IOException {
+        try {
+            AST.setBoundsChecks( true );
+            return LoadedProgram.load( compilar( escrever( nome, fonte ), pastaTemp.getRoot() ) );
+        } finally {
+            AST.setBoundsChecks( false );
+        }
+    }
+
+    private File escrever( String nome, String fonte ) throws IOException {
+        File arquivo = new File( pastaTemp.getRoot(), nome + ".cprl" );
+        Files.write( arquivo.toPath(), fonte.getBytes( StandardCharsets.UTF_8 ) );
+        return arquivo;
+    }
+
+    private int contarVerificacoes( String nome ) throws IOException {
+        List<String> linhas = Files.readAllLines( new File( pastaTemp.getRoot(), nome + ".asm" ).toPath(),
+                StandardCharsets.UTF_8 );
+        return (int) linhas.stream().filter( linha -> linha.trim().startsWith( "CHKIDX" ) ).count();
+    }
+
+    private static CVM criar( CVM.Engine engine, ByteArrayOutputStream saida ) {
+        CVM vm = new CVM( CVM.DEFAULT_MEMORY_SIZE, new ByteArrayInputStream( new byte[0] ), saida );
+        vm.setEngine( engine );
+        return vm;
+    }
+
+}
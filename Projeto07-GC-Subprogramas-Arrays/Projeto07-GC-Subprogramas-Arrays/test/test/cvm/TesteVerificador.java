@@ -0,0 +1,176 @@
+package test.cvm;
+
+import edu.citadel.cvm.CVM;
+import edu.citadel.cvm.LoadedProgram;
+import edu.citadel.cvm.OpCode;
+import edu.citadel.cvm.VerificationException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static test.cvm.CVMTestUtils.arquivosFonte;
+import static test.cvm.CVMTestUtils.compilar;
+
+/**
+ * Testa a verificação do código objeto na carga e a execução verificada a
+ * cada instrução de programas carregados sem verificação.
+ */
+public class TesteVerificador {
+
+    @Rule
+    public TemporaryFolder pastaTemp = new TemporaryFolder();
+
+    @Test
+    public void testeExemplosSaoVerificados() throws IOException {
+
+        for ( File fonte : arquivosFonte() ) {
+            criar( true ).loadProgram( LoadedProgram.load( compilar( fonte, pastaTemp.getRoot() ) ) );
+        }
+
+    }
+
+    @Test
+    public void testeProgramaValido() {
+
+        ByteArrayOutputStream saida = new ByteArrayOutputStream();
+        CVM vm = new CVM( CVM.DEFAULT_MEMORY_SIZE, new ByteArrayInputStream( new byte[0] ), saida );
+        vm.loadProgram( programa( programa0(), ldcint( 5 ), op( OpCode.PUTINT ), op( OpCode.HALT ) ) );
+
+        assertEquals( CVM.Status.HALTED, vm.run( Long.MAX_VALUE ) );
+        assertEquals( "5", saida.toString( StandardCharsets.UTF_8 ) );
+
+    }
+
+    @Test
+    public void testeOpcodeInvalido() {
+
+        rejeitar( programa( programa0(), ldcint( 5 ), op( (byte) 99 ), op( OpCode.HALT ) ), 10, "invalid opcode" );
+
+    }
+
+    @Test
+    public void testeInstrucaoTruncada() {
+
+        byte[] ldcint = ldcint( 5 );
+        rejeitar( programa( programa0(), Arrays.copyOf( ldcint, 3 ) ), 5, "past the end of the code" );
+
+    }
+
+    @Test
+    public void testeDesvioParaMeioDeInstrucao() {
+
+        // BR para o segundo byte do próprio BR
+        rejeitar( programa( desvio( OpCode.BR, 1 ), op( OpCode.HALT ) ), 0, "not the start of an instruction" );
+        rejeitar( programa( desvio( OpCode.BR, 100 ), op( OpCode.HALT ) ), 0, "outside the code" );
+
+    }
+
+    @Test
+    public void testeChamadaSemProc() {
+
+        rejeitar( programa( programa0(), desvio( OpCode.CALL, 5 ), op( OpCode.HALT ) ), 5, "not a PROC" );
+
+    }
+
+    @Test
+    public void testeProfundidadeInconsistente() {
+
+        //  0: PROGRAM 0
+        //  5: LDCB1
+        //  6: BNZ 12      (a pilha fica vazia no desvio)
+        // 11: LDCB0       (e com um byte sem desviar)
+        // 12: HALT
+        LoadedProgram programa = programa( programa0(), op( OpCode.LDCB1 ), desvio( OpCode.BNZ, 6 ),
+                op( OpCode.LDCB0 ), op( OpCode.HALT ) );
+        rejeitar( programa, 11, "inconsistent stack depth at address 12" );
+
+    }
+
+    @Test
+    public void testeRetiradaAlemDaPilha() {
+
+        rejeitar( programa( programa0(), op( OpCode.PUTINT ), op( OpCode.HALT ) ), 5, "pops 4 bytes" );
+
+    }
+
+    @Test
+    public void testeExecucaoAlemDoCodigo() {
+
+        rejeitar( programa( programa0(), ldcint( 5 ) ), 5, "past the end of the code" );
+
+    }
+
+    @Test
+    public void testeExecucaoVerificadaSemVerificacao() {
+
+        LoadedProgram retirada = programa( programa0(), op( OpCode.PUTINT ), op( OpCode.HALT ) );
+        LoadedProgram desvio = programa( programa0(), desvio( OpCode.BR, 1 ), op( OpCode.HALT ) );
+
+        for ( CVM.Engine engine : CVM.Engine.values() ) {
+            CVM vm = criar( false );
+            vm.setEngine( engine );
+            vm.loadProgram( retirada );
+            assertEquals( CVM.Status.FAULTED, vm.run( Long.MAX_VALUE ) );
+            assertTrue( vm.getFaultMessage(), vm.getFaultMessage().contains( "stack underflow" ) );
+
+            vm = criar( false );
+            vm.setEngine( engine );
+            vm.loadProgram( desvio );
+            assertEquals( CVM.Status.FAULTED, vm.run( Long.MAX_VALUE ) );
+            assertTrue( vm.getFaultMessage(), vm.getFaultMessage().contains( "invalid code address" ) );
+        }
+
+    }
+
+    private static void rejeitar( LoadedProgram programa, int endereco, String mensagem ) {
+        try {
+            criar( true ).loadProgram( programa );
+            fail( mensagem );
+        } catch ( VerificationException e ) {
+            assertEquals( e.getMessage(), endereco, e.getAddress() );
+            assertTrue( e.getMessage(), e.getMessage().contains( mensagem ) );
+        }
+    }
+
+    private static CVM criar( boolean verificar ) {
+        CVM vm = new CVM( CVM.DEFAULT_MEMORY_SIZE, new ByteArrayInputStream( new byte[0] ),
+                new ByteArrayOutputStream() );
+        vm.setVerification( verificar );
+        return vm;
+    }
+
+    private static LoadedProgram programa( byte[]... instrucoes ) {
+        ByteBuffer buffer = ByteBuffer.allocate( 1024 );
+        for ( byte[] instrucao : instrucoes ) {
+            buffer.put( instrucao );
+        }
+        buffer.flip();
+        return LoadedProgram.of( buffer );
+    }
+
+    private static byte[] op( byte opCode ) {
+        return new byte[] { opCode };
+    }
+
+    private static byte[] programa0() {
+        return ByteBuffer.allocate( 5 ).put( OpCode.PROGRAM ).putInt( 0 ).array();
+    }
+
+    private static byte[] ldcint( int valor ) {
+        return ByteBuffer.allocate( 5 ).put( OpCode.LDCINT ).putInt( valor ).array();
+    }
+
+    private static byte[] desvio( byte opCode, int deslocamento ) {
+        return ByteBuffer.allocate( 5 ).put( opCode ).putInt( deslocamento ).array();
+    }
+
+}